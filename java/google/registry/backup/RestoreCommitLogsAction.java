@@ -16,23 +16,30 @@ package google.registry.backup;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.common.collect.Iterators.peekingIterator;
+import static com.google.common.util.concurrent.Futures.getUnchecked;
 import static google.registry.backup.BackupUtils.createDeserializingIterator;
 import static google.registry.model.ofy.ObjectifyService.ofy;
-import static java.util.Arrays.asList;
 
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityTranslator;
 import com.google.appengine.tools.cloudstorage.GcsFileMetadata;
+import com.google.appengine.tools.cloudstorage.GcsFilename;
 import com.google.appengine.tools.cloudstorage.GcsService;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.PeekingIterator;
 import com.google.common.collect.Streams;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.Result;
 import com.googlecode.objectify.util.ResultNow;
+import google.registry.backup.BackupModule.Backups;
 import google.registry.config.RegistryEnvironment;
 import google.registry.model.ImmutableObject;
 import google.registry.model.ofy.CommitLogBucket;
@@ -43,17 +50,25 @@ import google.registry.model.ofy.CommitLogMutation;
 import google.registry.request.Action;
 import google.registry.request.Parameter;
 import google.registry.request.auth.Auth;
+import google.registry.util.Clock;
 import google.registry.util.Retrier;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.channels.Channels;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Stream;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 
 /** Restore Registry 2 commit logs from GCS to Datastore. */
 @Action(
@@ -68,6 +83,12 @@ public class RestoreCommitLogsAction implements Runnable {
 
   static final int BLOCK_SIZE = 1024 * 1024;  // Buffer 1mb at a time, for no particular reason.
 
+  /** How many diff files past the one being restored are read and decoded ahead of time. */
+  static final int PREFETCH_FILES = 4;
+
+  /** The maximum number of keys written by one batch, which is Datastore's limit per call. */
+  static final int MAX_BATCH_SIZE = 500;
+
   public static final String PATH = "/_dr/task/restoreCommitLogs";
   static final String DRY_RUN_PARAM = "dryRun";
   static final String FROM_TIME_PARAM = "fromTime";
@@ -80,6 +101,8 @@ public class RestoreCommitLogsAction implements Runnable {
   @Inject DatastoreService datastoreService;
   @Inject GcsDiffFileLister diffLister;
   @Inject Retrier retrier;
+  @Inject Clock clock;
+  @Inject @Backups ListeningExecutorService executor;
   @Inject RestoreCommitLogsAction() {}
 
   @Override
@@ -99,22 +122,43 @@ public class RestoreCommitLogsAction implements Runnable {
     }
     Map<Integer, DateTime> bucketTimestamps = new HashMap<>();
     CommitLogCheckpoint lastCheckpoint = null;
+    RestoreBatch batch = new RestoreBatch();
+    DateTime startTime = clock.nowUtc();
+    int filesRestored = 0;
+    int transactionsRestored = 0;
+    // Reading and decoding the next few diff files happens in the background, while the
+    // transactions of the current one are written.
+    Iterator<GcsFileMetadata> filesToPrefetch = diffFiles.iterator();
+    Deque<ListenableFuture<ImmutableList<ImmutableObject>>> prefetchedFiles = new ArrayDeque<>();
     for (GcsFileMetadata metadata : diffFiles) {
+      while (prefetchedFiles.size() <= PREFETCH_FILES && filesToPrefetch.hasNext()) {
+        GcsFilename filename = filesToPrefetch.next().getFilename();
+        prefetchedFiles.add(executor.submit(() -> readDiffFile(filename)));
+      }
       logger.atInfo().log("Restoring: %s", metadata.getFilename().getObjectName());
-      try (InputStream input = Channels.newInputStream(
-          gcsService.openPrefetchingReadChannel(metadata.getFilename(), 0, BLOCK_SIZE))) {
-        PeekingIterator<ImmutableObject> commitLogs =
-            peekingIterator(createDeserializingIterator(input));
-        lastCheckpoint = (CommitLogCheckpoint) commitLogs.next();
-        saveOfy(asList(lastCheckpoint));  // Save the checkpoint itself.
-        while (commitLogs.hasNext()) {
-          CommitLogManifest manifest = restoreOneTransaction(commitLogs);
-          bucketTimestamps.put(manifest.getBucketId(), manifest.getCommitTime());
-        }
-      } catch (IOException e) {
-        throw new RuntimeException(e);
+      PeekingIterator<ImmutableObject> commitLogs =
+          peekingIterator(getUnchecked(prefetchedFiles.remove()).iterator());
+      lastCheckpoint = (CommitLogCheckpoint) commitLogs.next();
+      // Save the checkpoint itself.
+      batch.add(ImmutableList.of(ofy().save().toEntity(lastCheckpoint)), ImmutableSet.of());
+      while (commitLogs.hasNext()) {
+        CommitLogManifest manifest = restoreOneTransaction(commitLogs, batch);
+        bucketTimestamps.put(manifest.getBucketId(), manifest.getCommitTime());
+        transactionsRestored++;
       }
+      filesRestored++;
+      DateTime now = clock.nowUtc();
+      logger.atInfo().log(
+          "Restored %d/%d files, %d transactions, %d entities written (%.1f entities/s); "
+              + "restored data lags by %s",
+          filesRestored,
+          diffFiles.size(),
+          transactionsRestored,
+          batch.entitiesWritten,
+          batch.entitiesWritten * 1000.0 / Math.max(new Duration(startTime, now).getMillis(), 1),
+          new Duration(lastCheckpoint.getCheckpointTime(), now));
     }
+    batch.flush();
     // Restore the CommitLogCheckpointRoot and CommitLogBuckets.
     saveOfy(
         Streams.concat(
@@ -132,6 +176,14 @@ public class RestoreCommitLogsAction implements Runnable {
     logger.atInfo().log("Restore complete");
   }
 
+  /** Reads and decodes all the commit log objects of one diff file. */
+  private ImmutableList<ImmutableObject> readDiffFile(GcsFilename filename) throws IOException {
+    try (InputStream input =
+        Channels.newInputStream(gcsService.openPrefetchingReadChannel(filename, 0, BLOCK_SIZE))) {
+      return ImmutableList.copyOf(createDeserializingIterator(input));
+    }
+  }
+
   /**
    * Restore the contents of one transaction to Datastore.
    *
@@ -141,27 +193,78 @@ public class RestoreCommitLogsAction implements Runnable {
    * the commit logs themselves back to Datastore, so that the commit log system itself is
    * transparently restored alongside the data.
    *
+   * <p>The writes are added to {@code batch}, which flushes them together with those of the
+   * neighboring transactions.
+   *
    * @return the manifest, for use in restoring the {@link CommitLogBucket}.
    */
-  private CommitLogManifest restoreOneTransaction(PeekingIterator<ImmutableObject> commitLogs) {
+  private CommitLogManifest restoreOneTransaction(
+      PeekingIterator<ImmutableObject> commitLogs, RestoreBatch batch) {
     final CommitLogManifest manifest = (CommitLogManifest) commitLogs.next();
-    Result<?> deleteResult = deleteAsync(manifest.getDeletions());
     List<Entity> entitiesToSave = Lists.newArrayList(ofy().save().toEntity(manifest));
     while (commitLogs.hasNext() && commitLogs.peek() instanceof CommitLogMutation) {
       CommitLogMutation mutation = (CommitLogMutation) commitLogs.next();
       entitiesToSave.add(ofy().save().toEntity(mutation));
       entitiesToSave.add(EntityTranslator.createFromPbBytes(mutation.getEntityProtoBytes()));
     }
-    saveRaw(entitiesToSave);
-    try {
-      deleteResult.now();
-    } catch (Exception e) {
-      retrier.callWithRetry(
-          () -> deleteAsync(manifest.getDeletions()).now(), RuntimeException.class);
-    }
+    batch.add(entitiesToSave, manifest.getDeletions());
     return manifest;
   }
 
+  /**
+   * The pending writes of consecutive transactions, which are restored together.
+   *
+   * <p>A transaction is only merged into the batch if it doesn't save or delete any key that the
+   * batch already saves or deletes. The puts and deletes of a batch are thus all of distinct keys,
+   * and can be written at once and in any order with the same result as restoring each of its
+   * transactions in turn.
+   */
+  private class RestoreBatch {
+
+    private final List<Entity> entitiesToSave = new ArrayList<>();
+    private final Set<Key<?>> keysToDelete = new HashSet<>();
+    private final Set<Key<?>> touchedKeys = new HashSet<>();
+
+    /** The number of entities saved or deleted by the batches flushed so far. */
+    int entitiesWritten;
+
+    void add(List<Entity> entities, Set<Key<?>> deletions) {
+      ImmutableSet<Key<?>> keys =
+          Streams.concat(
+                  entities.stream().map(entity -> Key.create(entity.getKey())),
+                  deletions.stream())
+              .collect(toImmutableSet());
+      if (!Collections.disjoint(touchedKeys, keys)
+          || touchedKeys.size() + keys.size() > MAX_BATCH_SIZE) {
+        flush();
+      }
+      entitiesToSave.addAll(entities);
+      keysToDelete.addAll(deletions);
+      touchedKeys.addAll(keys);
+    }
+
+    /** Writes all pending puts and deletes. */
+    void flush() {
+      if (touchedKeys.isEmpty()) {
+        return;
+      }
+      ImmutableSet<Key<?>> deletions = ImmutableSet.copyOf(keysToDelete);
+      Result<?> deleteResult = deleteAsync(deletions);
+      if (!entitiesToSave.isEmpty()) {
+        saveRaw(ImmutableList.copyOf(entitiesToSave));
+      }
+      try {
+        deleteResult.now();
+      } catch (Exception e) {
+        retrier.callWithRetry(() -> deleteAsync(deletions).now(), RuntimeException.class);
+      }
+      entitiesWritten += touchedKeys.size();
+      entitiesToSave.clear();
+      keysToDelete.clear();
+      touchedKeys.clear();
+    }
+  }
+
   private void saveRaw(List<Entity> entitiesToSave) {
     if (dryRun) {
       logger.atInfo().log("Would have saved entities: %s", entitiesToSave);
@@ -14,6 +14,7 @@
 
 package google.registry.batch;
 
+import static google.registry.flows.async.AsyncFlowEnqueuer.PARAM_CLIENT_ID;
 import static google.registry.flows.async.AsyncFlowEnqueuer.PARAM_REQUESTED_TIME;
 import static google.registry.flows.async.AsyncFlowEnqueuer.PARAM_RESAVE_TIMES;
 import static google.registry.flows.async.AsyncFlowEnqueuer.PARAM_RESOURCE_KEY;
@@ -87,4 +88,10 @@ public class BatchModule {
   static ImmutableSet<DateTime> provideResaveTimes(HttpServletRequest req) {
     return extractSetOfDatetimeParameters(req, PARAM_RESAVE_TIMES);
   }
+
+  @Provides
+  @Parameter(PARAM_CLIENT_ID)
+  static String provideClientId(HttpServletRequest req) {
+    return extractRequiredParameter(req, PARAM_CLIENT_ID);
+  }
 }
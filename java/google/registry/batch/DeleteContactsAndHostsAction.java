@@ -31,6 +31,7 @@ import static google.registry.flows.async.AsyncFlowEnqueuer.PARAM_REQUESTING_CLI
 import static google.registry.flows.async.AsyncFlowEnqueuer.PARAM_RESOURCE_KEY;
 import static google.registry.flows.async.AsyncFlowEnqueuer.PARAM_SERVER_TRANSACTION_ID;
 import static google.registry.flows.async.AsyncFlowEnqueuer.QUEUE_ASYNC_DELETE;
+import static google.registry.model.EppResourceUtils.getLinkedDomainKeys;
 import static google.registry.model.EppResourceUtils.isActive;
 import static google.registry.model.EppResourceUtils.isDeleted;
 import static google.registry.model.eppcommon.StatusValue.PENDING_DELETE;
@@ -63,6 +64,7 @@ import com.google.common.collect.Multiset;
 import com.google.common.flogger.FluentLogger;
 import com.googlecode.objectify.Key;
 import google.registry.batch.DeleteContactsAndHostsAction.DeletionResult.Type;
+import google.registry.config.RegistryConfig.Config;
 import google.registry.dns.DnsQueue;
 import google.registry.flows.async.AsyncFlowMetrics;
 import google.registry.flows.async.AsyncFlowMetrics.OperationResult;
@@ -80,6 +82,7 @@ import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.eppcommon.Trid;
 import google.registry.model.eppoutput.EppResponse.ResponseData;
 import google.registry.model.host.HostResource;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.poll.PendingActionNotificationResponse.ContactPendingActionNotificationResponse;
 import google.registry.model.poll.PendingActionNotificationResponse.HostPendingActionNotificationResponse;
 import google.registry.model.poll.PollMessage;
@@ -109,6 +112,9 @@ import org.joda.time.Duration;
  * A mapreduce that processes batch asynchronous deletions of contact and host resources by mapping
  * over all domains and domain applications and checking for any references to the contacts/hosts in
  * pending deletion.
+ *
+ * <p>When the {@link DomainReferenceIndex} is enabled, the references to each contact/host are
+ * instead looked up in the index, and no mapreduce is run.
  */
 @Action(
   path = "/_dr/task/deleteContactsAndHosts",
@@ -126,6 +132,7 @@ public class DeleteContactsAndHostsAction implements Runnable {
 
   @Inject AsyncFlowMetrics asyncFlowMetrics;
   @Inject Clock clock;
+  @Inject @Config("useDomainReferenceIndex") boolean useDomainReferenceIndex;
   @Inject MapreduceRunner mrRunner;
   @Inject @Named(QUEUE_ASYNC_DELETE) Queue queue;
   @Inject RequestStatusChecker requestStatusChecker;
@@ -193,7 +200,11 @@ public class DeleteContactsAndHostsAction implements Runnable {
       logger.atInfo().log(
           "Processing asynchronous deletion of %d contacts and %d hosts: %s",
           kindCounts.count(KIND_CONTACT), kindCounts.count(KIND_HOST), resourceKeys.build());
-      runMapreduce(deletionRequests, lock);
+      if (useDomainReferenceIndex) {
+        processDeletionsUsingIndex(deletionRequests, lock);
+      } else {
+        runMapreduce(deletionRequests, lock);
+      }
     }
   }
 
@@ -239,6 +250,37 @@ public class DeleteContactsAndHostsAction implements Runnable {
     }
   }
 
+  /**
+   * Processes the deletion requests one by one, checking for references to each contact or host
+   * through the {@link DomainReferenceIndex} rather than by mapping over all domains.
+   *
+   * <p>As with the mapreduce, the check isn't part of the transaction that deletes the resource;
+   * the {@link StatusValue#PENDING_DELETE} status of the resource is what keeps domains from
+   * gaining new references to it in the meantime.
+   */
+  private void processDeletionsUsingIndex(
+      ImmutableList<DeletionRequest> deletionRequests, Optional<Lock> lock) {
+    DeleteEppResourceReducer reducer = new DeleteEppResourceReducer();
+    Multiset<Type> resultCounts = HashMultiset.create();
+    try {
+      for (DeletionRequest deletionRequest : deletionRequests) {
+        boolean hasNoActiveReferences =
+            getLinkedDomainKeys(deletionRequest.key(), deletionRequest.lastUpdateTime(), 1)
+                .isEmpty();
+        resultCounts.add(reducer.processDeletion(deletionRequest, hasNoActiveReferences).type());
+      }
+      logRespondAndUnlock(
+          INFO,
+          String.format(
+              "Processed %d async deletions using the domain reference index: %s",
+              deletionRequests.size(), resultCounts),
+          lock);
+    } catch (Throwable t) {
+      logger.atSevere().withCause(t).log("Error processing async deletions");
+      logRespondAndUnlock(SEVERE, "Error processing async deletions of contacts/hosts.", lock);
+    }
+  }
+
   private void logRespondAndUnlock(Level level, String message, Optional<Lock> lock) {
     logger.at(level).log(message);
     response.setPayload(message);
@@ -311,6 +353,17 @@ public class DeleteContactsAndHostsAction implements Runnable {
     @Override
     public void reduce(final DeletionRequest deletionRequest, ReducerInput<Boolean> values) {
       final boolean hasNoActiveReferences = !Iterators.contains(values, true);
+      DeletionResult result = processDeletion(deletionRequest, hasNoActiveReferences);
+      String resourceNamePlural = deletionRequest.key().getKind() + "s";
+      getContext().incrementCounter(result.type().renderCounterText(resourceNamePlural));
+    }
+
+    /**
+     * Deletes the resource of a deletion request if it has no active references, or unmarks it
+     * for deletion if it does, and removes the request's task from the queue.
+     */
+    DeletionResult processDeletion(
+        final DeletionRequest deletionRequest, final boolean hasNoActiveReferences) {
       logger.atInfo().log("Processing async deletion request for %s", deletionRequest.key());
       DeletionResult result =
           ofy()
@@ -325,11 +378,10 @@ public class DeleteContactsAndHostsAction implements Runnable {
           deletionRequest.getMetricOperationType(),
           result.getMetricOperationResult(),
           deletionRequest.requestedTime());
-      String resourceNamePlural = deletionRequest.key().getKind() + "s";
-      getContext().incrementCounter(result.type().renderCounterText(resourceNamePlural));
       logger.atInfo().log(
           "Result of async deletion for resource %s: %s",
           deletionRequest.key(), result.pollMessageText());
+      return result;
     }
 
     private DeletionResult attemptToDeleteResource(
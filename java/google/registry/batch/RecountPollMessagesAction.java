@@ -0,0 +1,71 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.batch;
+
+import static google.registry.flows.async.AsyncFlowEnqueuer.PARAM_CLIENT_ID;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+
+import com.google.common.flogger.FluentLogger;
+import google.registry.model.poll.PollMessageQueue;
+import google.registry.request.Action;
+import google.registry.request.Action.Method;
+import google.registry.request.Parameter;
+import google.registry.request.Response;
+import google.registry.request.auth.Auth;
+import google.registry.util.Clock;
+import javax.inject.Inject;
+import org.joda.time.DateTime;
+
+/**
+ * An action that recounts the messages of a registrar's {@link PollMessageQueue} from a full scan.
+ *
+ * <p>This is enqueued by the poll flow when the count of the queue is due to be redone, since the
+ * full scan can take too long to run while serving a poll request. Tasks that find the queue was
+ * already recounted do nothing.
+ */
+@Action(
+    path = "/_dr/task/recountPollMessages",
+    auth = Auth.AUTH_INTERNAL_OR_ADMIN,
+    method = Method.POST)
+public class RecountPollMessagesAction implements Runnable {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final String clientId;
+  private final Clock clock;
+  private final Response response;
+
+  @Inject
+  RecountPollMessagesAction(
+      @Parameter(PARAM_CLIENT_ID) String clientId, Clock clock, Response response) {
+    this.clientId = clientId;
+    this.clock = clock;
+    this.response = response;
+  }
+
+  @Override
+  public void run() {
+    DateTime now = clock.nowUtc();
+    PollMessageQueue stored = ofy().load().key(PollMessageQueue.createKey(clientId)).now();
+    if (stored != null && !stored.isRecountDue(now)) {
+      logger.atInfo().log("Poll message queue of registrar %s was already recounted.", clientId);
+      response.setPayload("Poll message queue already recounted.");
+      return;
+    }
+    PollMessageQueue.recount(clientId, now);
+    logger.atInfo().log("Recounted poll message queue of registrar %s.", clientId);
+    response.setPayload("Poll message queue recounted.");
+  }
+}
@@ -0,0 +1,115 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.batch;
+
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.PipelineUtils.createJobPath;
+
+import com.google.appengine.tools.mapreduce.Mapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.googlecode.objectify.Key;
+import google.registry.mapreduce.MapreduceRunner;
+import google.registry.mapreduce.inputs.EppResourceInputs;
+import google.registry.model.EppResource;
+import google.registry.model.domain.DomainBase;
+import google.registry.model.index.DomainReferenceIndex;
+import google.registry.request.Action;
+import google.registry.request.Response;
+import google.registry.request.auth.Auth;
+import javax.inject.Inject;
+import org.joda.time.DateTime;
+
+/**
+ * A mapreduce that brings the {@link DomainReferenceIndex} in line with the domains.
+ *
+ * <p>For each domain, this adds the entries of any references the index is missing, and deletes
+ * the entries of references the domain no longer has, or of all its references once it has been
+ * deleted. Domain writes only ever add entries, so this is what removes stale ones. Once writing
+ * the index has been turned on, a complete run of this backfills the entries of all domains saved
+ * before then, after which the index can be used. Each entry is added or deleted in a transaction
+ * of its own, so a domain with many references never needs more entity groups than a transaction
+ * allows. Recently saved entries are never deleted, since their domain may be about to be saved.
+ */
+@Action(
+  path = "/_dr/task/verifyDomainReferenceIndex",
+  auth = Auth.AUTH_INTERNAL_OR_ADMIN
+)
+public class VerifyDomainReferenceIndexAction implements Runnable {
+
+  @Inject MapreduceRunner mrRunner;
+  @Inject Response response;
+  @Inject VerifyDomainReferenceIndexAction() {}
+
+  @Override
+  public void run() {
+    response.sendJavaScriptRedirect(createJobPath(mrRunner
+        .setJobName("Verify the domain reference index")
+        .setModuleName("backend")
+        .runMapOnly(
+            new VerifyDomainReferenceIndexMapper(),
+            ImmutableList.of(EppResourceInputs.createKeyInput(DomainBase.class)))));
+  }
+
+  /** Mapper to verify the domain reference index entries of each domain. */
+  public static class VerifyDomainReferenceIndexMapper extends Mapper<Key<DomainBase>, Void, Void> {
+
+    private static final long serialVersionUID = 2717213385126356541L;
+    public VerifyDomainReferenceIndexMapper() {}
+
+    @Override
+    public final void map(final Key<DomainBase> domainKey) {
+      // The entries of a domain are in the entity groups of its references, so they are read with
+      // a query outside of the transaction, and each is then re-checked against the domain.
+      ImmutableSet<Key<DomainReferenceIndex>> entryKeys =
+          ImmutableSet.copyOf(
+              ofy().load().type(DomainReferenceIndex.class).filter("domain", domainKey).keys());
+      int added = DomainReferenceIndex.saveMissingEntries(domainKey);
+      int deleted = 0;
+      for (Key<DomainReferenceIndex> entryKey : entryKeys) {
+        if (ofy().transact(() -> deleteIfStale(entryKey, domainKey))) {
+          deleted++;
+        }
+      }
+      getContext().incrementCounter("missing entries added", added);
+      getContext().incrementCounter("stale entries deleted", deleted);
+      getContext().incrementCounter("domains processed");
+    }
+
+    /** Deletes an index entry whose domain no longer has the reference, returning if it did. */
+    private static boolean deleteIfStale(
+        Key<DomainReferenceIndex> entryKey, Key<DomainBase> domainKey) {
+      DomainReferenceIndex entry = ofy().load().key(entryKey).now();
+      if (entry == null || entry.isRecentlySaved(ofy().getTransactionTime())) {
+        return false;
+      }
+      DomainBase domain = ofy().load().key(domainKey).now();
+      if (getExpectedReferences(domain, ofy().getTransactionTime())
+          .contains(entry.getReferent())) {
+        return false;
+      }
+      ofy().delete().key(entryKey);
+      return true;
+    }
+
+    /** Returns the references the index should have entries for, which a deleted domain has not. */
+    private static ImmutableSet<Key<? extends EppResource>> getExpectedReferences(
+        DomainBase domain, DateTime now) {
+      return (domain == null || !now.isBefore(domain.getDeletionTime()))
+          ? ImmutableSet.of()
+          : DomainReferenceIndex.getReferences(domain);
+    }
+  }
+}
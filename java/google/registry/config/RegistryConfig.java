@@ -14,6 +14,7 @@
 
 package google.registry.config;
 
+import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Suppliers.memoize;
 import static google.registry.config.ConfigUtils.makeUrl;
 import static java.lang.annotation.RetentionPolicy.RUNTIME;
@@ -215,6 +216,20 @@ public final class RegistryConfig {
       return projectId + "-domain-lists";
     }
 
+    /**
+     * The GCS bucket for the per-TLD domain list views that domain list exports are built from.
+     *
+     * <p>This is kept apart from {@link #provideDomainListsGcsBucket} because the views hold
+     * internal data (repository ids and deletion times) that isn't meant to be shared.
+     *
+     * @see google.registry.export.DomainListView
+     */
+    @Provides
+    @Config("domainListViewsGcsBucket")
+    public static String provideDomainListViewsGcsBucket(@Config("projectId") String projectId) {
+      return projectId + "-domain-list-views";
+    }
+
     /**
      * Batch size for the number of transactions' worth of commit log data to process at once when
      * exporting a commit log diff.
@@ -311,6 +326,30 @@ public final class RegistryConfig {
       return Duration.standardSeconds(45);
     }
 
+    /**
+     * The number of threads ReadDnsQueueAction uses to enqueue the updates of different TLDs and
+     * publish locks concurrently. App Engine allows up to 50 threads per request.
+     *
+     * @see google.registry.dns.DnsPublishEngine
+     */
+    @Provides
+    @Config("dnsPublishEngineThreads")
+    public static int provideDnsPublishEngineThreads() {
+      return 10;
+    }
+
+    /**
+     * The maximum number of batches ReadDnsQueueAction lets pile up before it waits for some of
+     * them to finish.
+     *
+     * @see google.registry.dns.DnsPublishEngine
+     */
+    @Provides
+    @Config("dnsPublishEngineMaxPendingBatches")
+    public static int provideDnsPublishEngineMaxPendingBatches() {
+      return 100;
+    }
+
     /**
      * Returns the default time to live for DNS A and AAAA records.
      *
@@ -357,6 +396,18 @@ public final class RegistryConfig {
       return config.datastore.eppResourceIndexBucketsNum;
     }
 
+    /**
+     * Whether references from domains to contacts and hosts are looked up in the domain reference
+     * index, rather than by scanning all domains.
+     *
+     * @see google.registry.model.index.DomainReferenceIndex
+     */
+    @Provides
+    @Config("useDomainReferenceIndex")
+    public static boolean provideUseDomainReferenceIndex(RegistryConfigSettings config) {
+      return useDomainReferenceIndex(config.datastore);
+    }
+
     @Provides
     @Config("cloudDnsRootUrl")
     public static Optional<String> getCloudDnsRootUrl(RegistryConfigSettings config) {
@@ -776,6 +827,17 @@ public final class RegistryConfig {
       return URI.create(config.rde.uploadUrl);
     }
 
+    /**
+     * Returns the number of threads RyDE deposits are compressed on.
+     *
+     * @see google.registry.rde.RydeEncoder.Builder#setCompressionThreads
+     */
+    @Provides
+    @Config("rdeCompressionThreads")
+    public static int provideRdeCompressionThreads(RegistryConfigSettings config) {
+      return config.rde.compressionThreads;
+    }
+
     /**
      * Whether or not the registrar console is enabled.
      *
@@ -1395,11 +1457,22 @@ public final class RegistryConfig {
     return makeUrl(CONFIG_SETTINGS.get().appEngine.pubapiServiceUrl);
   }
 
-  /** Returns the amount of time a singleton should be cached, before expiring. */
+  /** Returns the amount of time a singleton should be cached, before being refreshed. */
   public static Duration getSingletonCacheRefreshDuration() {
     return Duration.standardSeconds(CONFIG_SETTINGS.get().caching.singletonCacheRefreshSeconds);
   }
 
+  /**
+   * Returns the amount of time past its refresh time that a cached singleton may still be served,
+   * while it is being refreshed or if refreshing it fails.
+   *
+   * @see google.registry.model.CacheUtils#memoizeWithRefresh
+   */
+  public static Duration getSingletonCacheMaxStaleness() {
+    return Duration.standardSeconds(
+        CONFIG_SETTINGS.get().caching.singletonCacheMaxStalenessSeconds);
+  }
+
   /**
    * Returns the amount of time a domain label list should be cached in memory before expiring.
    *
@@ -1422,6 +1495,15 @@ public final class RegistryConfig {
     return CONFIG_SETTINGS.get().caching.staticPremiumListMaxCachedEntries;
   }
 
+  /**
+   * Returns the maximum number of labels of a premium list revision for it to be indexed in memory.
+   *
+   * @see google.registry.model.registry.label.PremiumList
+   */
+  public static int getPremiumListIndexMaxLabels() {
+    return CONFIG_SETTINGS.get().caching.premiumListIndexMaxLabels;
+  }
+
   public static boolean isEppResourceCachingEnabled() {
     return CONFIG_SETTINGS.get().caching.eppResourceCachingEnabled;
   }
@@ -1470,6 +1552,36 @@ public final class RegistryConfig {
     return CONFIG_SETTINGS.get().datastore.eppResourceIndexBucketsNum;
   }
 
+  /**
+   * Returns the number of {@code DomainReferenceIndexShard} entity groups per contact or host.
+   */
+  public static int getDomainReferenceIndexShardCount() {
+    return CONFIG_SETTINGS.get().datastore.domainReferenceIndexShardsNum;
+  }
+
+  /**
+   * Returns whether domain flows and RDE imports save {@code DomainReferenceIndex} entries for the
+   * contacts and hosts that domains gain references to.
+   */
+  public static boolean writeDomainReferenceIndex() {
+    return CONFIG_SETTINGS.get().datastore.writeDomainReferenceIndex;
+  }
+
+  /**
+   * Returns whether linked checks and asynchronous deletions of contacts and hosts look for linked
+   * domains in the {@code DomainReferenceIndex}, rather than querying all domains.
+   */
+  public static boolean useDomainReferenceIndex() {
+    return useDomainReferenceIndex(CONFIG_SETTINGS.get().datastore);
+  }
+
+  private static boolean useDomainReferenceIndex(RegistryConfigSettings.Datastore datastore) {
+    checkState(
+        !datastore.useDomainReferenceIndex || datastore.writeDomainReferenceIndex,
+        "useDomainReferenceIndex requires writeDomainReferenceIndex");
+    return datastore.useDomainReferenceIndex;
+  }
+
   /**
    * Returns the base retry duration that gets doubled after each failure within {@code Ofy}.
    */
@@ -96,6 +96,9 @@ public class RegistryConfigSettings {
   public static class Datastore {
     public int commitLogBucketsNum;
     public int eppResourceIndexBucketsNum;
+    public int domainReferenceIndexShardsNum;
+    public boolean writeDomainReferenceIndex;
+    public boolean useDomainReferenceIndex;
     public int baseOfyRetryMillis;
   }
 
@@ -113,9 +116,11 @@ public class RegistryConfigSettings {
   /** Configuration for caching. */
   public static class Caching {
     public int singletonCacheRefreshSeconds;
+    public int singletonCacheMaxStalenessSeconds;
     public int domainLabelCachingSeconds;
     public int singletonCachePersistSeconds;
     public int staticPremiumListMaxCachedEntries;
+    public int premiumListIndexMaxLabels;
     public boolean eppResourceCachingEnabled;
     public int eppResourceCachingSeconds;
     public int eppResourceMaxCachedEntries;
@@ -137,6 +142,7 @@ public class RegistryConfigSettings {
     public String reportUrlPrefix;
     public String uploadUrl;
     public String sshIdentityEmailAddress;
+    public int compressionThreads;
   }
 
   /** Configuration for the web-based registrar console. */
@@ -61,6 +61,11 @@ public class DnsMetrics {
           LabelDescriptor.create("status", "Whether the publish succeeded, or why it failed."),
           LabelDescriptor.create("dnsWriter", "The DnsWriter used."));
 
+  private static final ImmutableSet<LabelDescriptor> LABEL_DESCRIPTORS_FOR_PREFETCH =
+      ImmutableSet.of(
+          LabelDescriptor.create("tld", "TLD"),
+          LabelDescriptor.create("dnsWriter", "The DnsWriter used."));
+
   // Finer-grained fitter than the DEFAULT_FITTER, allows values between 100 ms and just over 29
   // hours.
   private static final DistributionFitter EXPONENTIAL_FITTER =
@@ -165,6 +170,15 @@ public class DnsMetrics {
               LABEL_DESCRIPTORS_FOR_COMMIT,
               FIBONACCI_FITTER);
 
+  private static final EventMetric prefetchTimePerBatchDist =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/dns/per_batch/prefetch_time",
+              "Time taken by the DnsWriter to bulk load the resources of a publishDnsUpdates batch",
+              "milliseconds",
+              LABEL_DESCRIPTORS_FOR_PREFETCH,
+              EXPONENTIAL_FITTER);
+
   private static final EventMetric updateRequestLatency =
       MetricRegistryImpl.getDefault()
           .newEventMetric(
@@ -253,6 +267,14 @@ public class DnsMetrics {
     hostsCommittedCount.incrementBy(numberOfHosts, tld, status.name(), dnsWriter);
   }
 
+  /**
+   * Records how long {@link google.registry.dns.writer.DnsWriter#prefetch} took for a batch, per
+   * TLD.
+   */
+  void recordPrefetch(String dnsWriter, Duration prefetchDuration) {
+    prefetchTimePerBatchDist.record(prefetchDuration.getMillis(), tld, dnsWriter);
+  }
+
   void recordActionResult(
       String dnsWriter,
       ActionStatus status,
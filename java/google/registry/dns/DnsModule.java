@@ -14,12 +14,14 @@
 
 package google.registry.dns;
 
+import static com.google.appengine.api.ThreadManager.currentRequestThreadFactory;
 import static google.registry.dns.DnsConstants.DNS_PUBLISH_PUSH_QUEUE_NAME;
 import static google.registry.dns.DnsConstants.DNS_PULL_QUEUE_NAME;
 import static google.registry.request.RequestParameters.extractEnumParameter;
 import static google.registry.request.RequestParameters.extractIntParameter;
 import static google.registry.request.RequestParameters.extractRequiredParameter;
 import static google.registry.request.RequestParameters.extractSetOfParameters;
+import static java.util.concurrent.Executors.newFixedThreadPool;
 
 import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.QueueFactory;
@@ -28,11 +30,13 @@ import com.google.common.hash.Hashing;
 import dagger.Binds;
 import dagger.Module;
 import dagger.Provides;
+import google.registry.config.RegistryConfig.Config;
 import google.registry.dns.DnsConstants.TargetType;
 import google.registry.dns.writer.DnsWriterZone;
 import google.registry.request.Parameter;
 import google.registry.request.RequestParameters;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import javax.inject.Named;
 import javax.servlet.http.HttpServletRequest;
 import org.joda.time.DateTime;
@@ -76,6 +80,14 @@ public abstract class DnsModule {
     return QueueFactory.getQueue(DNS_PUBLISH_PUSH_QUEUE_NAME);
   }
 
+  /** Provides the threads on which {@link DnsPublishEngine} runs the batches of a request. */
+  @Provides
+  @Named(DnsPublishEngine.DNS_PUBLISH_ENGINE_EXECUTOR)
+  static ExecutorService provideDnsPublishEngineExecutor(
+      @Config("dnsPublishEngineThreads") int numThreads) {
+    return newFixedThreadPool(numThreads, currentRequestThreadFactory());
+  }
+
   @Provides
   @Parameter(PARAM_PUBLISH_TASK_ENQUEUED)
   static DateTime provideCreateTime(HttpServletRequest req) {
@@ -0,0 +1,277 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.dns;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.monitoring.metrics.DistributionFitter;
+import com.google.monitoring.metrics.EventMetric;
+import com.google.monitoring.metrics.ExponentialFitter;
+import com.google.monitoring.metrics.FibonacciFitter;
+import com.google.monitoring.metrics.LabelDescriptor;
+import com.google.monitoring.metrics.MetricRegistryImpl;
+import google.registry.config.RegistryConfig.Config;
+import google.registry.util.Clock;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Named;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * Runs batches of DNS work for many zones concurrently, at most one batch per zone at a time.
+ *
+ * <p>A zone is typically a TLD or one publish lock shard of a TLD. Since at most one batch per zone
+ * runs at any time, a zone with slow batches holds on to a single thread and can't hold up the
+ * other zones. The batches of a zone run in the order they were submitted, but that only orders the
+ * batches themselves: if a batch merely enqueues tasks, nothing is implied about when those tasks
+ * run. Once {@code maxPendingBatches} batches are queued or running, {@link #submit} blocks until
+ * one of them has finished, so a backlog applies back-pressure to the caller rather than piling up
+ * in memory.
+ *
+ * <p>If a batch fails, the batches submitted after it for the same zone are skipped, and {@link
+ * #awaitCompletion} rethrows the failure once everything else has finished.
+ */
+@ThreadSafe
+public class DnsPublishEngine {
+
+  public static final String DNS_PUBLISH_ENGINE_EXECUTOR = "dnsPublishEngineExecutor";
+
+  private static final ImmutableSet<LabelDescriptor> LABEL_DESCRIPTORS =
+      ImmutableSet.of(
+          LabelDescriptor.create("tld", "TLD"),
+          LabelDescriptor.create("dnsWriter", "DnsWriter implementation."));
+
+  private static final DistributionFitter COUNT_FITTER = FibonacciFitter.create(10946);
+  private static final DistributionFitter LATENCY_FITTER = ExponentialFitter.create(20, 2.0, 100.0);
+
+  @VisibleForTesting
+  static final EventMetric pendingBatches =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/dns/publish_engine/pending_batches",
+              "Number of batches queued or running in the publish engine when one is submitted",
+              "count",
+              LABEL_DESCRIPTORS,
+              COUNT_FITTER);
+
+  @VisibleForTesting
+  static final EventMetric inFlightBatches =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/dns/publish_engine/in_flight_batches",
+              "Number of batches running in the publish engine when a batch starts",
+              "count",
+              LABEL_DESCRIPTORS,
+              COUNT_FITTER);
+
+  @VisibleForTesting
+  static final EventMetric enqueueLag =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/dns/publish_engine/enqueue_lag",
+              "Time from the oldest refresh request in a batch until the batch starts enqueuing",
+              "milliseconds",
+              LABEL_DESCRIPTORS,
+              LATENCY_FITTER);
+
+  private final ExecutorService executor;
+  private final Clock clock;
+  private final Semaphore pendingPermits;
+  private final AtomicInteger pendingCount = new AtomicInteger();
+  private final AtomicInteger inFlightCount = new AtomicInteger();
+
+  @GuardedBy("this")
+  private final Map<String, ZoneQueue> zoneQueues = new HashMap<>();
+
+  @GuardedBy("this")
+  private final List<SettableFuture<Void>> results = new ArrayList<>();
+
+  @Inject
+  DnsPublishEngine(
+      @Named(DNS_PUBLISH_ENGINE_EXECUTOR) ExecutorService executor,
+      @Config("dnsPublishEngineMaxPendingBatches") int maxPendingBatches,
+      Clock clock) {
+    checkArgument(maxPendingBatches > 0, "maxPendingBatches must be positive");
+    this.executor = executor;
+    this.pendingPermits = new Semaphore(maxPendingBatches);
+    this.clock = clock;
+  }
+
+  /**
+   * Queues {@code work} to run after all previously submitted batches of the same zone.
+   *
+   * @param tld the TLD of the batch, for monitoring
+   * @param dnsWriter the DNS writer the batch is for, for monitoring
+   * @param zone the unit within which at most one batch may run at a time
+   * @param oldestRequestTime when the oldest refresh request handled by this batch was created
+   * @param work the batch itself
+   */
+  public void submit(
+      String tld, String dnsWriter, String zone, DateTime oldestRequestTime, Runnable work) {
+    pendingPermits.acquireUninterruptibly();
+    pendingBatches.record(pendingCount.incrementAndGet(), tld, dnsWriter);
+    Batch batch = new Batch(tld, dnsWriter, oldestRequestTime, work);
+    boolean startZone;
+    synchronized (this) {
+      results.add(batch.result);
+      ZoneQueue queue = zoneQueues.computeIfAbsent(zone, key -> new ZoneQueue());
+      queue.batches.add(batch);
+      startZone = !queue.running;
+      queue.running = true;
+    }
+    if (startZone) {
+      executor.execute(() -> runNextBatch(zone));
+    }
+  }
+
+  /**
+   * Waits for every batch submitted so far to finish.
+   *
+   * @throws RuntimeException the failure of the first failed batch, in submission order
+   */
+  public void awaitCompletion() {
+    ImmutableList<SettableFuture<Void>> futures;
+    synchronized (this) {
+      futures = ImmutableList.copyOf(results);
+      results.clear();
+    }
+    Throwable failure = null;
+    for (SettableFuture<Void> future : futures) {
+      try {
+        Uninterruptibles.getUninterruptibly(future);
+      } catch (ExecutionException e) {
+        failure = (failure == null) ? e.getCause() : failure;
+      } catch (CancellationException e) {
+        // Skipped because an earlier batch of the same zone failed, which is reported instead.
+      }
+    }
+    if (failure != null) {
+      Throwables.throwIfUnchecked(failure);
+      throw new RuntimeException(failure);
+    }
+  }
+
+  /** Stops the executor once the submitted batches are done. */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  /**
+   * Runs the next batch of {@code zone}, then hands the zone back to the executor if it has more.
+   *
+   * <p>Resubmitting after every batch, rather than draining the whole zone on this thread, lets
+   * other zones waiting for a thread have their turn. The batch's future is only completed once the
+   * zone has been handed off, so that {@link #awaitCompletion} can't return, and the executor be
+   * shut down, while this zone still needs another turn.
+   */
+  private void runNextBatch(String zone) {
+    Batch batch;
+    boolean zoneFailed;
+    synchronized (this) {
+      ZoneQueue queue = zoneQueues.get(zone);
+      batch = queue.batches.remove();
+      zoneFailed = queue.failed;
+    }
+    Throwable failure = null;
+    if (!zoneFailed) {
+      try {
+        runBatch(batch);
+      } catch (Throwable t) {
+        failure = t;
+      }
+    }
+    boolean hasMoreBatches;
+    synchronized (this) {
+      ZoneQueue queue = zoneQueues.get(zone);
+      queue.failed |= (failure != null);
+      hasMoreBatches = !queue.batches.isEmpty();
+      queue.running = hasMoreBatches;
+    }
+    pendingCount.decrementAndGet();
+    pendingPermits.release();
+    if (hasMoreBatches) {
+      executor.execute(() -> runNextBatch(zone));
+    }
+    if (zoneFailed) {
+      batch.result.cancel(false);
+    } else if (failure != null) {
+      batch.result.setException(failure);
+    } else {
+      batch.result.set(null);
+    }
+  }
+
+  private void runBatch(Batch batch) {
+    inFlightBatches.record(inFlightCount.incrementAndGet(), batch.tld, batch.dnsWriter);
+    enqueueLag.record(
+        new Duration(batch.oldestRequestTime, clock.nowUtc()).getMillis(),
+        batch.tld,
+        batch.dnsWriter);
+    try {
+      batch.work.run();
+    } finally {
+      inFlightCount.decrementAndGet();
+    }
+  }
+
+  /** The batches of one zone that haven't run yet. */
+  private static final class ZoneQueue {
+    final ArrayDeque<Batch> batches = new ArrayDeque<>();
+
+    /**
+     * Whether a batch of this zone is running or about to, so no other may start.
+     *
+     * <p>This is only ever true while {@link #batches} is non-empty or a batch is running.
+     */
+    boolean running;
+
+    /** Whether a batch of this zone has failed, so the later ones must be skipped. */
+    boolean failed;
+  }
+
+  /** A unit of work for one zone. */
+  private static final class Batch {
+    final String tld;
+    final String dnsWriter;
+    final DateTime oldestRequestTime;
+    final Runnable work;
+    final SettableFuture<Void> result = SettableFuture.create();
+
+    Batch(String tld, String dnsWriter, DateTime oldestRequestTime, Runnable work) {
+      this.tld = tld;
+      this.dnsWriter = dnsWriter;
+      this.oldestRequestTime = oldestRequestTime;
+      this.work = work;
+    }
+  }
+}
@@ -107,6 +107,7 @@ public final class ReadDnsQueueAction implements Runnable {
   @Inject @Parameter(PARAM_JITTER_SECONDS) Optional<Integer> jitterSeconds;
   @Inject Clock clock;
   @Inject DnsQueue dnsQueue;
+  @Inject DnsPublishEngine publishEngine;
   @Inject HashFunction hashFunction;
   @Inject TaskQueueUtils taskQueueUtils;
   @Inject ReadDnsQueueAction() {}
@@ -139,15 +140,19 @@ public final class ReadDnsQueueAction implements Runnable {
   public void run() {
     DateTime requestedEndTime = clock.nowUtc().plus(requestedMaximumDuration);
     ImmutableSet<String> tlds = Registries.getTlds();
-    while (requestedEndTime.isAfterNow()) {
-      List<TaskHandle> tasks = dnsQueue.leaseTasks(requestedMaximumDuration.plus(LEASE_PADDING));
-      logger.atInfo().log("Leased %d DNS update tasks.", tasks.size());
-      if (!tasks.isEmpty()) {
-        dispatchTasks(ImmutableSet.copyOf(tasks), tlds);
-      }
-      if (tasks.size() < dnsQueue.getLeaseTasksBatchSize()) {
-        return;
+    try {
+      while (requestedEndTime.isAfterNow()) {
+        List<TaskHandle> tasks = dnsQueue.leaseTasks(requestedMaximumDuration.plus(LEASE_PADDING));
+        logger.atInfo().log("Leased %d DNS update tasks.", tasks.size());
+        if (!tasks.isEmpty()) {
+          dispatchTasks(ImmutableSet.copyOf(tasks), tlds);
+        }
+        if (tasks.size() < dnsQueue.getLeaseTasksBatchSize()) {
+          return;
+        }
       }
+    } finally {
+      publishEngine.shutdown();
     }
   }
 
@@ -235,6 +240,8 @@ public final class ReadDnsQueueAction implements Runnable {
           "The dns-pull queue has unknown TLDs: %s.", classifiedTasks.unknownTlds());
     }
     bucketRefreshItems(classifiedTasks.refreshItemsByTld());
+    // Only delete the tasks once every zone's updates have been handed off.
+    publishEngine.awaitCompletion();
     if (!classifiedTasks.tasksToKeep().isEmpty()) {
       logger.atWarning().log(
           "Keeping %d DNS update tasks in the queue.", classifiedTasks.tasksToKeep().size());
@@ -353,41 +360,65 @@ public final class ReadDnsQueueAction implements Runnable {
   /**
    * Creates DNS refresh tasks for all writers for the tld within a lock index and batches large
    * updates into smaller chunks.
+   *
+   * <p>Each lock index of each TLD is a separate zone of the {@link DnsPublishEngine}, so the
+   * chunks of different zones are enqueued concurrently and a zone with many chunks only ties up
+   * one thread. The publish tasks themselves are pushed with a random countdown, so they may run in
+   * any order; each one takes the publish lock of its zone when it runs.
    */
   private void enqueueUpdates(
       String tld, int lockIndex, int numPublishLocks, Collection<RefreshItem> items) {
+    String zone = String.format("%s-lock-%d", tld, lockIndex);
     for (List<RefreshItem> chunk : Iterables.partition(items, tldUpdateBatchSize)) {
       DateTime earliestCreateTime =
           chunk.stream().map(RefreshItem::creationTime).min(Comparator.naturalOrder()).get();
       for (String dnsWriter : Registry.get(tld).getDnsWriters()) {
-        taskQueueUtils.enqueue(
-            dnsPublishPushQueue,
-            TaskOptions.Builder.withUrl(PublishDnsUpdatesAction.PATH)
-                .countdownMillis(
-                    jitterSeconds
-                        .map(seconds -> random.nextInt((int) SECONDS.toMillis(seconds)))
-                        .orElse(0))
-                .param(PARAM_TLD, tld)
-                .param(PARAM_DNS_WRITER, dnsWriter)
-                .param(PARAM_LOCK_INDEX, Integer.toString(lockIndex))
-                .param(PARAM_NUM_PUBLISH_LOCKS, Integer.toString(numPublishLocks))
-                .param(PARAM_PUBLISH_TASK_ENQUEUED, clock.nowUtc().toString())
-                .param(PARAM_REFRESH_REQUEST_CREATED, earliestCreateTime.toString())
-                .param(
-                    PARAM_DOMAINS,
-                    chunk
-                        .stream()
-                        .filter(item -> item.type() == TargetType.DOMAIN)
-                        .map(RefreshItem::name)
-                        .collect(Collectors.joining(",")))
-                .param(
-                    PARAM_HOSTS,
-                    chunk
-                        .stream()
-                        .filter(item -> item.type() == TargetType.HOST)
-                        .map(RefreshItem::name)
-                        .collect(Collectors.joining(","))));
+        publishEngine.submit(
+            tld,
+            dnsWriter,
+            zone,
+            earliestCreateTime,
+            () ->
+                enqueueChunk(
+                    tld, dnsWriter, lockIndex, numPublishLocks, chunk, earliestCreateTime));
       }
     }
   }
+
+  /** Creates the DNS refresh task of one writer for the tld for one chunk of updates. */
+  private void enqueueChunk(
+      String tld,
+      String dnsWriter,
+      int lockIndex,
+      int numPublishLocks,
+      List<RefreshItem> chunk,
+      DateTime earliestCreateTime) {
+    taskQueueUtils.enqueue(
+        dnsPublishPushQueue,
+        TaskOptions.Builder.withUrl(PublishDnsUpdatesAction.PATH)
+            .countdownMillis(
+                jitterSeconds
+                    .map(seconds -> random.nextInt((int) SECONDS.toMillis(seconds)))
+                    .orElse(0))
+            .param(PARAM_TLD, tld)
+            .param(PARAM_DNS_WRITER, dnsWriter)
+            .param(PARAM_LOCK_INDEX, Integer.toString(lockIndex))
+            .param(PARAM_NUM_PUBLISH_LOCKS, Integer.toString(numPublishLocks))
+            .param(PARAM_PUBLISH_TASK_ENQUEUED, clock.nowUtc().toString())
+            .param(PARAM_REFRESH_REQUEST_CREATED, earliestCreateTime.toString())
+            .param(
+                PARAM_DOMAINS,
+                chunk
+                    .stream()
+                    .filter(item -> item.type() == TargetType.DOMAIN)
+                    .map(RefreshItem::name)
+                    .collect(Collectors.joining(",")))
+            .param(
+                PARAM_HOSTS,
+                chunk
+                    .stream()
+                    .filter(item -> item.type() == TargetType.HOST)
+                    .map(RefreshItem::name)
+                    .collect(Collectors.joining(","))));
+  }
 }
@@ -0,0 +1,172 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.dns.writer;
+
+import static com.google.common.collect.ImmutableSortedSet.toImmutableSortedSet;
+import static com.google.common.collect.Sets.intersection;
+import static google.registry.model.EppResourceUtils.loadByForeignKey;
+import static google.registry.model.EppResourceUtils.loadByForeignKeys;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.DomainNameUtils.getSecondLevelDomain;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Ordering;
+import com.google.common.net.InternetDomainName;
+import com.googlecode.objectify.Key;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.host.HostResource;
+import google.registry.model.registry.Registries;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import javax.annotation.Nullable;
+import org.joda.time.DateTime;
+
+/**
+ * The domains and hosts needed to publish a batch of DNS updates, loaded up front in bulk.
+ *
+ * <p>Publishing a domain needs the domain itself, the names of all its nameservers, and the
+ * addresses of its in-bailiwick nameservers; publishing a host needs its superordinate domain and
+ * the same again. Loading each of these per name costs several sequential Datastore round trips
+ * for every item in the batch. {@link #load} instead resolves the whole batch with one foreign key
+ * query and one entity load per level.
+ *
+ * <p>Lookups for names that weren't part of the snapshot fall back to loading them individually,
+ * so a writer that was never prefetched behaves exactly as before.
+ */
+public final class DnsResourceSnapshot {
+
+  private static final DnsResourceSnapshot EMPTY =
+      new DnsResourceSnapshot(
+          ImmutableMap.of(),
+          ImmutableSet.of(),
+          ImmutableMap.of(),
+          ImmutableMap.of(),
+          ImmutableSet.of());
+
+  /** Domains by fully qualified name; absent for names that don't exist (or are deleted). */
+  private final ImmutableMap<String, DomainResource> domains;
+
+  /** Every domain name looked up, so missing entries can be told apart from unloaded ones. */
+  private final ImmutableSet<String> loadedDomainNames;
+
+  /** Nameserver host names by domain name, for every domain in {@link #domains}. */
+  private final ImmutableMap<String, ImmutableSortedSet<String>> nameserverHostNames;
+
+  /** In-bailiwick nameserver hosts by fully qualified name. */
+  private final ImmutableMap<String, HostResource> hosts;
+
+  /** Every host name that was looked up. */
+  private final ImmutableSet<String> loadedHostNames;
+
+  private DnsResourceSnapshot(
+      ImmutableMap<String, DomainResource> domains,
+      ImmutableSet<String> loadedDomainNames,
+      ImmutableMap<String, ImmutableSortedSet<String>> nameserverHostNames,
+      ImmutableMap<String, HostResource> hosts,
+      ImmutableSet<String> loadedHostNames) {
+    this.domains = domains;
+    this.loadedDomainNames = loadedDomainNames;
+    this.nameserverHostNames = nameserverHostNames;
+    this.hosts = hosts;
+    this.loadedHostNames = loadedHostNames;
+  }
+
+  /** Returns a snapshot with nothing prefetched, which loads every lookup individually. */
+  public static DnsResourceSnapshot empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Loads everything needed to publish {@code domainNames} and {@code hostNames} as of {@code
+   * now}.
+   */
+  public static DnsResourceSnapshot load(
+      Set<String> domainNames, Set<String> hostNames, DateTime now) {
+    // Hosts are published by refreshing their superordinate domain, so load those too.
+    ImmutableSet.Builder<String> allDomainNames = new ImmutableSet.Builder<>();
+    allDomainNames.addAll(domainNames);
+    for (String hostName : hostNames) {
+      Optional<InternetDomainName> tld =
+          Registries.findTldForName(InternetDomainName.from(hostName));
+      if (tld.isPresent()) {
+        allDomainNames.add(getSecondLevelDomain(hostName, tld.get().toString()));
+      }
+    }
+    ImmutableSet<String> loadedDomainNames = allDomainNames.build();
+    ImmutableMap<String, DomainResource> domains =
+        loadByForeignKeys(DomainResource.class, loadedDomainNames, now);
+
+    // Resolve the nameserver keys of every domain in a single batch.
+    ImmutableSet.Builder<Key<HostResource>> nameserverKeys = new ImmutableSet.Builder<>();
+    for (DomainResource domain : domains.values()) {
+      nameserverKeys.addAll(domain.getNameservers());
+    }
+    Map<Key<HostResource>, HostResource> nameservers =
+        ofy().load().keys(nameserverKeys.build());
+    ImmutableMap.Builder<String, ImmutableSortedSet<String>> nameserverHostNames =
+        new ImmutableMap.Builder<>();
+    ImmutableSet.Builder<String> inBailiwickHostNames = new ImmutableSet.Builder<>();
+    for (Map.Entry<String, DomainResource> entry : domains.entrySet()) {
+      ImmutableSortedSet<String> hostNamesOfDomain =
+          entry
+              .getValue()
+              .getNameservers()
+              .stream()
+              .map(nameservers::get)
+              .filter(host -> host != null)
+              .map(HostResource::getFullyQualifiedHostName)
+              .collect(toImmutableSortedSet(Ordering.natural()));
+      nameserverHostNames.put(entry.getKey(), hostNamesOfDomain);
+      inBailiwickHostNames.addAll(
+          intersection(hostNamesOfDomain, entry.getValue().getSubordinateHosts()));
+    }
+
+    // Only in-bailiwick nameservers need their addresses, and those must be loaded at the point in
+    // time of the snapshot rather than through the nameserver keys above.
+    ImmutableSet<String> loadedHostNames = inBailiwickHostNames.build();
+    return new DnsResourceSnapshot(
+        domains,
+        loadedDomainNames,
+        nameserverHostNames.build(),
+        loadByForeignKeys(HostResource.class, loadedHostNames, now),
+        loadedHostNames);
+  }
+
+  /** Returns the domain with the given name, or null if it doesn't exist at {@code now}. */
+  @Nullable
+  public DomainResource loadDomain(String domainName, DateTime now) {
+    return loadedDomainNames.contains(domainName)
+        ? domains.get(domainName)
+        : loadByForeignKey(DomainResource.class, domainName, now);
+  }
+
+  /** Returns the fully qualified host names of the nameservers of {@code domain}. */
+  public ImmutableSortedSet<String> loadNameserverHostNames(DomainResource domain) {
+    ImmutableSortedSet<String> hostNames =
+        nameserverHostNames.get(domain.getFullyQualifiedDomainName());
+    return hostNames != null ? hostNames : domain.loadNameserverFullyQualifiedHostNames();
+  }
+
+  /** Returns the host with the given name, or null if it doesn't exist at {@code now}. */
+  @Nullable
+  public HostResource loadHost(String hostName, DateTime now) {
+    return loadedHostNames.contains(hostName)
+        ? hosts.get(hostName)
+        : loadByForeignKey(HostResource.class, hostName, now);
+  }
+}
@@ -14,6 +14,8 @@
 
 package google.registry.dns.writer;
 
+import java.util.Set;
+
 /**
  * Transaction object for sending an atomic batch of updates for a single zone to the DNS server.
  *
@@ -58,6 +60,15 @@ public interface DnsWriter {
    */
   void publishHost(String hostName);
 
+  /**
+   * Hints that {@code domainNames} and {@code hostNames} are about to be published, so that the
+   * writer can load the resources they need in bulk rather than one name at a time.
+   *
+   * <p>This is purely an optimization; the publish methods must still behave correctly for names
+   * that weren't prefetched. The default implementation does nothing.
+   */
+  default void prefetch(Set<String> domainNames, Set<String> hostNames) {}
+
   /**
    * Commits the updates to the DNS server atomically.
    *
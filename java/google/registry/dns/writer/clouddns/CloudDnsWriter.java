@@ -16,7 +16,6 @@ package google.registry.dns.writer.clouddns;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
-import static google.registry.model.EppResourceUtils.loadByForeignKey;
 import static google.registry.util.DomainNameUtils.getSecondLevelDomain;
 
 import com.google.api.client.googleapis.json.GoogleJsonError.ErrorInfo;
@@ -34,6 +33,7 @@ import com.google.common.net.InternetDomainName;
 import com.google.common.util.concurrent.RateLimiter;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.dns.writer.BaseDnsWriter;
+import google.registry.dns.writer.DnsResourceSnapshot;
 import google.registry.dns.writer.DnsWriter;
 import google.registry.dns.writer.DnsWriterZone;
 import google.registry.model.domain.DomainResource;
@@ -90,6 +90,9 @@ public class CloudDnsWriter extends BaseDnsWriter {
   private final Dns dnsConnection;
   private final HashMap<String, ImmutableSet<ResourceRecordSet>> desiredRecords = new HashMap<>();
 
+  /** The resources loaded up front by {@link #prefetch}, if it was called. */
+  private DnsResourceSnapshot snapshot = DnsResourceSnapshot.empty();
+
   @Inject
   CloudDnsWriter(
       Dns dnsConnection,
@@ -114,6 +117,11 @@ public class CloudDnsWriter extends BaseDnsWriter {
     this.numThreads = numThreads;
   }
 
+  @Override
+  public void prefetch(Set<String> domainNames, Set<String> hostNames) {
+    snapshot = DnsResourceSnapshot.load(domainNames, hostNames, clock.nowUtc());
+  }
+
   /** Publish the domain and all subordinate hosts. */
   @Override
   public void publishDomain(String domainName) {
@@ -122,7 +130,7 @@ public class CloudDnsWriter extends BaseDnsWriter {
 
     // Load the target domain. Note that it can be null if this domain was just deleted.
     Optional<DomainResource> domainResource =
-        Optional.ofNullable(loadByForeignKey(DomainResource.class, domainName, clock.nowUtc()));
+        Optional.ofNullable(snapshot.loadDomain(domainName, clock.nowUtc()));
 
     // Return early if no DNS records should be published.
     // desiredRecordsBuilder is populated with an empty set to indicate that all existing records
@@ -154,7 +162,7 @@ public class CloudDnsWriter extends BaseDnsWriter {
     }
 
     // Construct NS records (if any).
-    Set<String> nameserverData = domainResource.get().loadNameserverFullyQualifiedHostNames();
+    Set<String> nameserverData = snapshot.loadNameserverHostNames(domainResource.get());
     Set<String> subordinateHosts = domainResource.get().getSubordinateHosts();
     if (!nameserverData.isEmpty()) {
       HashSet<String> nsRrData = new HashSet<>();
@@ -192,7 +200,7 @@ public class CloudDnsWriter extends BaseDnsWriter {
     // desiredRecords is populated with an empty set to indicate that all existing records
     // should be deleted.
     Optional<HostResource> host =
-        Optional.ofNullable(loadByForeignKey(HostResource.class, hostName, clock.nowUtc()));
+        Optional.ofNullable(snapshot.loadHost(hostName, clock.nowUtc()));
 
     // Return early if the host is deleted.
     if (!host.isPresent()) {
@@ -256,7 +264,8 @@ public class CloudDnsWriter extends BaseDnsWriter {
     }
 
     // Refresh the superordinate domain, since we shouldn't be publishing glue records if we are not
-    // authoritative for the superordinate domain.
+    // authoritative for the superordinate domain. The superordinate domain, its nameservers and
+    // the host itself are all read from the prefetched snapshot.
     publishDomain(getSecondLevelDomain(hostName, tld.get().toString()));
   }
 
@@ -0,0 +1,259 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.dns.writer.dnsupdate;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Ints;
+import com.google.monitoring.metrics.IncrementableMetric;
+import com.google.monitoring.metrics.LabelDescriptor;
+import com.google.monitoring.metrics.MetricRegistryImpl;
+import google.registry.util.Clock;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.net.SocketFactory;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * A pool of persistent TCP connections to a DNS server.
+ *
+ * <p>Opening a new connection for every UPDATE message means a TCP handshake per commit, which
+ * dominates the commit latency when many TLDs publish every minute. Connections are instead handed
+ * back to the pool once a message exchange has completed, and reused by the next caller. Since the
+ * server may close a connection that has been idle for a while, connections that have sat in the
+ * pool for longer than {@code idleTimeout} are closed instead of being reused.
+ *
+ * <p>A connection that failed in the middle of an exchange may have unread responses in it, so it
+ * must be {@link #discard}ed rather than released.
+ */
+@ThreadSafe
+class DnsConnectionPool {
+
+  private static final ImmutableSet<LabelDescriptor> LABEL_DESCRIPTORS =
+      ImmutableSet.of(LabelDescriptor.create("outcome", "What happened to the connection."));
+
+  /** Outcome label when a new connection was opened. */
+  private static final String CREATED = "created";
+
+  /** Outcome label when a pooled connection was reused. */
+  private static final String REUSED = "reused";
+
+  /** Outcome label when a pooled connection was closed because it had been idle for too long. */
+  private static final String EXPIRED = "expired";
+
+  /** Outcome label when a connection was put back into the pool. */
+  private static final String POOLED = "pooled";
+
+  /** Outcome label when a connection was closed because the pool was already full. */
+  private static final String OVERFLOWED = "overflowed";
+
+  /** Outcome label when a connection was closed because an exchange on it failed. */
+  private static final String DISCARDED = "discarded";
+
+  @VisibleForTesting
+  static final IncrementableMetric connections =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/dns/update/connections",
+              "Count of connection pool events for connections to the DNS update host",
+              "count",
+              LABEL_DESCRIPTORS);
+
+  /** The pools shared by every transport in this process, by their settings. */
+  private static final ConcurrentHashMap<PoolSettings, DnsConnectionPool> sharedPools =
+      new ConcurrentHashMap<>();
+
+  private final SocketFactory factory;
+  private final String host;
+  private final int ioTimeout;
+  private final int maxIdle;
+  private final Duration idleTimeout;
+  private final Clock clock;
+
+  /** Idle connections, most recently used first, so that stale ones sink to the bottom. */
+  private final ConcurrentLinkedDeque<Connection> idle = new ConcurrentLinkedDeque<>();
+
+  /** Number of connections in {@link #idle}, tracked separately since deque size is O(n). */
+  private final AtomicInteger idleCount = new AtomicInteger();
+
+  /**
+   * Class constructor.
+   *
+   * @param factory a factory for TCP sockets
+   * @param host host name of the DNS server
+   * @param ioTimeout read timeout of each connection
+   * @param maxIdle maximum number of idle connections to keep open
+   * @param idleTimeout how long a connection may sit idle before it is no longer reused
+   * @param clock a source of time
+   */
+  DnsConnectionPool(
+      SocketFactory factory,
+      String host,
+      Duration ioTimeout,
+      int maxIdle,
+      Duration idleTimeout,
+      Clock clock) {
+    checkArgument(maxIdle >= 0, "maxIdle must not be negative");
+    this.factory = factory;
+    this.host = host;
+    this.ioTimeout = Ints.checkedCast(ioTimeout.getMillis());
+    this.maxIdle = maxIdle;
+    this.idleTimeout = idleTimeout;
+    this.clock = clock;
+  }
+
+  /**
+   * Returns the pool with the given settings that is shared by the whole process, creating it if
+   * this is the first request for it.
+   *
+   * <p>Transports are created for every request, so the pool has to outlive them to be of any use.
+   * Callers with different settings get different pools, rather than a pool that silently uses the
+   * settings of whoever asked first.
+   */
+  static DnsConnectionPool getShared(
+      SocketFactory factory,
+      String host,
+      Duration ioTimeout,
+      int maxIdle,
+      Duration idleTimeout,
+      Clock clock) {
+    return sharedPools.computeIfAbsent(
+        PoolSettings.create(factory, host, ioTimeout, maxIdle, idleTimeout, clock),
+        settings -> new DnsConnectionPool(factory, host, ioTimeout, maxIdle, idleTimeout, clock));
+  }
+
+  /** Returns an idle connection from the pool, or a new one if none is available. */
+  Connection borrow() throws IOException {
+    DateTime now = clock.nowUtc();
+    Connection connection;
+    while ((connection = idle.pollFirst()) != null) {
+      idleCount.decrementAndGet();
+      if (now.isAfter(connection.lastUsed.plus(idleTimeout))) {
+        connection.close();
+        connections.increment(EXPIRED);
+        continue;
+      }
+      connection.reused = true;
+      connections.increment(REUSED);
+      return connection;
+    }
+    Socket socket = factory.createSocket(InetAddress.getByName(host), DnsMessageTransport.DNS_PORT);
+    try {
+      socket.setSoTimeout(ioTimeout);
+      connection = new Connection(socket);
+    } catch (IOException | RuntimeException e) {
+      socket.close();
+      throw e;
+    }
+    connections.increment(CREATED);
+    return connection;
+  }
+
+  /** Returns {@code connection} to the pool after a successful exchange. */
+  void release(Connection connection) {
+    connection.lastUsed = clock.nowUtc();
+    if (idleCount.incrementAndGet() > maxIdle) {
+      idleCount.decrementAndGet();
+      connection.close();
+      connections.increment(OVERFLOWED);
+      return;
+    }
+    idle.offerFirst(connection);
+    connections.increment(POOLED);
+  }
+
+  /** Closes {@code connection}, which must not be used again, without returning it to the pool. */
+  void discard(Connection connection) {
+    connection.close();
+    connections.increment(DISCARDED);
+  }
+
+  /** Returns the number of connections currently waiting in the pool. */
+  @VisibleForTesting
+  int getIdleCount() {
+    return idleCount.get();
+  }
+
+  /**
+   * The settings a shared pool was created with.
+   *
+   * <p>The socket factory and clock are compared by identity; the injected ones are singletons.
+   */
+  @AutoValue
+  abstract static class PoolSettings {
+    static PoolSettings create(
+        SocketFactory factory,
+        String host,
+        Duration ioTimeout,
+        int maxIdle,
+        Duration idleTimeout,
+        Clock clock) {
+      return new AutoValue_DnsConnectionPool_PoolSettings(
+          factory, host, ioTimeout, maxIdle, idleTimeout, clock);
+    }
+
+    abstract SocketFactory factory();
+
+    abstract String host();
+
+    abstract Duration ioTimeout();
+
+    abstract int maxIdle();
+
+    abstract Duration idleTimeout();
+
+    abstract Clock clock();
+  }
+
+  /** An open connection to the DNS server, which may only be used by one caller at a time. */
+  static final class Connection {
+
+    private final Socket socket;
+    final DataInputStream input;
+    final OutputStream output;
+    private DateTime lastUsed;
+    private boolean reused;
+
+    private Connection(Socket socket) throws IOException {
+      this.socket = socket;
+      this.input = new DataInputStream(socket.getInputStream());
+      this.output = socket.getOutputStream();
+    }
+
+    /** Returns whether this connection was taken from the pool rather than freshly opened. */
+    boolean isReused() {
+      return reused;
+    }
+
+    private void close() {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // Nothing more can be sent on it either way.
+      }
+    }
+  }
+}
@@ -18,17 +18,23 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Verify.verify;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.primitives.Ints;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.flogger.FluentLogger;
+import com.google.monitoring.metrics.EventMetric;
+import com.google.monitoring.metrics.ExponentialFitter;
+import com.google.monitoring.metrics.LabelDescriptor;
+import com.google.monitoring.metrics.MetricRegistryImpl;
 import google.registry.config.RegistryConfig.Config;
+import google.registry.dns.writer.dnsupdate.DnsConnectionPool.Connection;
+import google.registry.util.Clock;
 import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.InetAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import javax.inject.Inject;
 import javax.net.SocketFactory;
+import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.xbill.DNS.Message;
 import org.xbill.DNS.Opcode;
@@ -38,9 +44,14 @@ import org.xbill.DNS.Opcode;
  * s and the message framing defined in <a href="https://tools.ietf.org/html/rfc1035">RFC 1035</a>.
  * We would like use the dnsjava library's {@link org.xbill.DNS.SimpleResolver} class for this, but
  * it requires {@link java.nio.channels.SocketChannel} which is not supported on AppEngine.
+ *
+ * <p>Connections are kept open between messages in a {@link DnsConnectionPool} shared by the whole
+ * process, as permitted by <a href="https://tools.ietf.org/html/rfc7766">RFC 7766</a>.
  */
 public class DnsMessageTransport {
 
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
   /**
    * Size of message length field for DNS TCP transport.
    *
@@ -56,9 +67,18 @@ public class DnsMessageTransport {
    */
   @VisibleForTesting static final int DNS_PORT = 53;
 
-  private final SocketFactory factory;
-  private final String updateHost;
-  private final int updateTimeout;
+  @VisibleForTesting
+  static final EventMetric messageLatency =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/dns/update/message_latency",
+              "Time from sending a DNS message to receiving its response",
+              "milliseconds",
+              ImmutableSet.of(LabelDescriptor.create("status", "Whether the exchange succeeded.")),
+              ExponentialFitter.create(20, 2, 1.0));
+
+  private final DnsConnectionPool pool;
+  private final Clock clock;
 
   /**
    * Class constructor.
@@ -66,36 +86,77 @@ public class DnsMessageTransport {
    * @param factory a factory for TCP sockets
    * @param updateHost host name of the DNS server
    * @param updateTimeout update I/O timeout
+   * @param maxIdleConnections maximum number of idle connections to keep open to the DNS server
+   * @param idleTimeout how long an idle connection is kept before it is no longer reused
+   * @param clock a source of time
    */
   @Inject
   public DnsMessageTransport(
       SocketFactory factory,
       @Config("dnsUpdateHost") String updateHost,
-      @Config("dnsUpdateTimeout") Duration updateTimeout) {
-    this.factory = factory;
-    this.updateHost = updateHost;
-    this.updateTimeout = Ints.checkedCast(updateTimeout.getMillis());
+      @Config("dnsUpdateTimeout") Duration updateTimeout,
+      @Config("dnsUpdateMaxIdleConnections") int maxIdleConnections,
+      @Config("dnsUpdateIdleTimeout") Duration idleTimeout,
+      Clock clock) {
+    this(
+        DnsConnectionPool.getShared(
+            factory, updateHost, updateTimeout, maxIdleConnections, idleTimeout, clock),
+        clock);
+  }
+
+  @VisibleForTesting
+  DnsMessageTransport(DnsConnectionPool pool, Clock clock) {
+    this.pool = pool;
+    this.clock = clock;
   }
 
   /**
    * Sends a DNS "query" message (most likely an UPDATE) and returns the response. The response is
    * checked for matching ID and opcode.
    *
+   * <p>If a connection taken from the pool turns out to have been closed by the server, the
+   * message is sent again on another connection. UPDATE messages written by {@link
+   * DnsUpdateWriter} delete all records of a name before adding them back, so this is safe.
+   *
    * @param query a message to send
    * @return the response received from the server
    * @throws IOException if the Socket input/output streams throws one
    * @throws IllegalArgumentException if the query is too large to be sent (> 65535 bytes)
    */
   public Message send(Message query) throws IOException {
-    try (Socket socket = factory.createSocket(InetAddress.getByName(updateHost), DNS_PORT)) {
-      socket.setSoTimeout(updateTimeout);
-      writeMessage(socket.getOutputStream(), query);
-      Message response = readMessage(socket.getInputStream());
-      checkValidResponse(query, response);
-      return response;
+    byte[] request = encodeMessage(query);
+    while (true) {
+      Connection connection = pool.borrow();
+      DateTime timeAtStart = clock.nowUtc();
+      try {
+        connection.output.write(request);
+        connection.output.flush();
+        Message response = readMessage(connection.input);
+        checkValidResponse(query, response);
+        pool.release(connection);
+        messageLatency.record(new Duration(timeAtStart, clock.nowUtc()).getMillis(), "SUCCESS");
+        return response;
+      } catch (IOException e) {
+        pool.discard(connection);
+        // A pooled connection may have been closed by the server while it was idle; retry on
+        // another one. Don't retry timeouts, though, as the server is just being slow.
+        if (!connection.isReused() || e instanceof SocketTimeoutException) {
+          recordFailure(timeAtStart);
+          throw e;
+        }
+        logger.atInfo().withCause(e).log("Retrying DNS message on a new connection");
+      } catch (RuntimeException e) {
+        pool.discard(connection);
+        recordFailure(timeAtStart);
+        throw e;
+      }
     }
   }
 
+  private void recordFailure(DateTime timeAtStart) {
+    messageLatency.record(new Duration(timeAtStart, clock.nowUtc()).getMillis(), "FAILURE");
+  }
+
   private void checkValidResponse(Message query, Message response) {
     verify(
         response.getHeader().getID() == query.getHeader().getID(),
@@ -109,7 +170,8 @@ public class DnsMessageTransport {
         Opcode.string(query.getHeader().getOpcode()));
   }
 
-  private void writeMessage(OutputStream outputStream, Message message) throws IOException {
+  /** Returns the message prefixed with its length, for writing to the wire in one go. */
+  private byte[] encodeMessage(Message message) {
     byte[] messageData = message.toWire();
     checkArgument(
         messageData.length <= MESSAGE_MAXIMUM_LENGTH,
@@ -119,11 +181,10 @@ public class DnsMessageTransport {
     ByteBuffer buffer = ByteBuffer.allocate(messageData.length + MESSAGE_LENGTH_FIELD_BYTES);
     buffer.putShort((short) messageData.length);
     buffer.put(messageData);
-    outputStream.write(buffer.array());
+    return buffer.array();
   }
 
-  private Message readMessage(InputStream inputStream) throws IOException {
-    DataInputStream stream = new DataInputStream(inputStream);
+  private Message readMessage(DataInputStream stream) throws IOException {
     int length = stream.readUnsignedShort();
     byte[] messageData = new byte[length];
     stream.readFully(messageData);
@@ -41,4 +41,24 @@ public class DnsUpdateConfigModule {
   public static Duration provideDnsUpdateTimeout() {
     return Duration.standardSeconds(30);
   }
+
+  /**
+   * Maximum number of idle connections to keep open to the DNS update host, for reuse by later
+   * updates.
+   */
+  @Provides
+  @Config("dnsUpdateMaxIdleConnections")
+  public static int provideDnsUpdateMaxIdleConnections() {
+    return 4;
+  }
+
+  /**
+   * How long a connection to the DNS update host may sit idle before it is closed rather than
+   * reused. This should be shorter than the idle timeout of the server itself.
+   */
+  @Provides
+  @Config("dnsUpdateIdleTimeout")
+  public static Duration provideDnsUpdateIdleTimeout() {
+    return Duration.standardSeconds(60);
+  }
 }
@@ -17,7 +17,6 @@ package google.registry.dns.writer.dnsupdate;
 import static com.google.common.base.Verify.verify;
 import static com.google.common.collect.Sets.intersection;
 import static com.google.common.collect.Sets.union;
-import static google.registry.model.EppResourceUtils.loadByForeignKey;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
@@ -25,6 +24,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.net.InternetDomainName;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.dns.writer.BaseDnsWriter;
+import google.registry.dns.writer.DnsResourceSnapshot;
 import google.registry.dns.writer.DnsWriterZone;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.domain.secdns.DelegationSignerData;
@@ -36,6 +36,7 @@ import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.util.Optional;
+import java.util.Set;
 import javax.inject.Inject;
 import org.joda.time.Duration;
 import org.xbill.DNS.AAAARecord;
@@ -91,6 +92,9 @@ public class DnsUpdateWriter extends BaseDnsWriter {
   private final Update update;
   private final String zoneName;
 
+  /** The resources loaded up front by {@link #prefetch}, if it was called. */
+  private DnsResourceSnapshot snapshot = DnsResourceSnapshot.empty();
+
   /**
    * Class constructor.
    *
@@ -126,7 +130,7 @@ public class DnsUpdateWriter extends BaseDnsWriter {
    *     this domain refresh request
    */
   private void publishDomain(String domainName, String requestingHostName) {
-    DomainResource domain = loadByForeignKey(DomainResource.class, domainName, clock.nowUtc());
+    DomainResource domain = snapshot.loadDomain(domainName, clock.nowUtc());
     update.delete(toAbsoluteName(domainName), Type.ANY);
     if (domain != null) {
       // As long as the domain exists, orphan glues should be cleaned.
@@ -139,6 +143,11 @@ public class DnsUpdateWriter extends BaseDnsWriter {
     }
   }
 
+  @Override
+  public void prefetch(Set<String> domainNames, Set<String> hostNames) {
+    snapshot = DnsResourceSnapshot.load(domainNames, hostNames, clock.nowUtc());
+  }
+
   @Override
   public void publishDomain(String domainName) {
     publishDomain(domainName, null);
@@ -211,9 +220,8 @@ public class DnsUpdateWriter extends BaseDnsWriter {
 
   private void addInBailiwickNameServerSet(DomainResource domain, Update update) {
     for (String hostName :
-        intersection(
-            domain.loadNameserverFullyQualifiedHostNames(), domain.getSubordinateHosts())) {
-      HostResource host = loadByForeignKey(HostResource.class, hostName, clock.nowUtc());
+        intersection(snapshot.loadNameserverHostNames(domain), domain.getSubordinateHosts())) {
+      HostResource host = snapshot.loadHost(hostName, clock.nowUtc());
       update.add(makeAddressSet(host));
       update.add(makeV6AddressSet(host));
     }
@@ -221,7 +229,7 @@ public class DnsUpdateWriter extends BaseDnsWriter {
 
   private RRset makeNameServerSet(DomainResource domain) {
     RRset nameServerSet = new RRset();
-    for (String hostName : domain.loadNameserverFullyQualifiedHostNames()) {
+    for (String hostName : snapshot.loadNameserverHostNames(domain)) {
       NSRecord record =
           new NSRecord(
               toAbsoluteName(domain.getFullyQualifiedDomainName()),
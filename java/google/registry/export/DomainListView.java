@@ -0,0 +1,302 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.export;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.Iterators.peekingIterator;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.appengine.tools.cloudstorage.GcsFileMetadata;
+import com.google.appengine.tools.cloudstorage.GcsFileOptions;
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.appengine.tools.cloudstorage.GcsService;
+import com.google.common.base.Splitter;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.UnmodifiableIterator;
+import google.registry.model.domain.DomainResource;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+import org.joda.time.DateTime;
+
+/**
+ * A materialized view of the domains of one TLD, from which {@link ExportDomainListsAction}
+ * exports the TLD's domain list.
+ *
+ * <p>The view is a GCS file that lists, sorted by name, every domain of the TLD that was active as
+ * of the commit log checkpoint recorded in its metadata, along with the domain's repository id and
+ * deletion time (which is in the future for domains pending delete). It is brought up to date by
+ * merging the {@link Changes} to domains found in the commit logs written since that checkpoint,
+ * which is a sequential pass over the old view instead of a scan of every domain in Datastore.
+ */
+final class DomainListView {
+
+  /** GCS metadata key for the time of the commit log checkpoint the view is current as of. */
+  static final String CHECKPOINT_TIME = "checkpointTime";
+
+  private static final Splitter FIELD_SPLITTER = Splitter.on('\t');
+
+  /** A domain of the view. */
+  static final class Entry {
+    final String fullyQualifiedDomainName;
+    final String repoId;
+    final DateTime deletionTime;
+
+    Entry(String fullyQualifiedDomainName, String repoId, DateTime deletionTime) {
+      this.fullyQualifiedDomainName = fullyQualifiedDomainName;
+      this.repoId = repoId;
+      this.deletionTime = deletionTime;
+    }
+
+    static Entry create(DomainResource domain) {
+      return new Entry(
+          domain.getFullyQualifiedDomainName(), domain.getRepoId(), domain.getDeletionTime());
+    }
+
+    /** Parses an entry from its line in a view file. */
+    static Entry parse(String line) {
+      List<String> fields = FIELD_SPLITTER.splitToList(line);
+      checkArgument(fields.size() == 3, "Malformed domain list view line: %s", line);
+      return new Entry(fields.get(0), fields.get(1), DateTime.parse(fields.get(2)));
+    }
+
+    /** Returns the line of this entry in a view file. */
+    String toLine() {
+      return fullyQualifiedDomainName + '\t' + repoId + '\t' + deletionTime;
+    }
+  }
+
+  /**
+   * Domain changes to merge into a view, which must be added in commit order.
+   *
+   * <p>A saved domain that is active replaces whatever the view had under its name. A saved domain
+   * that isn't active only removes the view's entry if that entry is the same domain resource, so
+   * that resaving an old deleted domain doesn't remove a newer domain of the same name.
+   */
+  static final class Changes {
+
+    private final TreeMap<String, Entry> saves = new TreeMap<>();
+    private final SetMultimap<String, String> removedRepoIdsByName = HashMultimap.create();
+    private final Set<String> deletedRepoIds = new HashSet<>();
+
+    /** Records that {@code domain} was saved, as seen at {@code now}. */
+    void save(DomainResource domain, DateTime now) {
+      String name = domain.getFullyQualifiedDomainName();
+      if (domain.getDeletionTime().isAfter(now)) {
+        put(Entry.create(domain));
+      } else {
+        Entry saved = saves.get(name);
+        if (saved != null && saved.repoId.equals(domain.getRepoId())) {
+          saves.remove(name);
+        }
+        removedRepoIdsByName.put(name, domain.getRepoId());
+      }
+    }
+
+    /** Records an active domain, replacing any entry of the same name. */
+    void put(Entry entry) {
+      saves.put(entry.fullyQualifiedDomainName, entry);
+      removedRepoIdsByName.remove(entry.fullyQualifiedDomainName, entry.repoId);
+    }
+
+    /** Records that the domain with the given repository id was deleted from Datastore. */
+    void delete(String repoId) {
+      saves.values().removeIf(entry -> entry.repoId.equals(repoId));
+      deletedRepoIds.add(repoId);
+    }
+
+    /** Returns whether the change record says {@code entry} should be dropped from the view. */
+    private boolean removes(Entry entry) {
+      return removedRepoIdsByName.containsEntry(entry.fullyQualifiedDomainName, entry.repoId)
+          || deletedRepoIds.contains(entry.repoId);
+    }
+  }
+
+  private DomainListView() {}
+
+  /**
+   * Returns the checkpoint time of the view of the given TLD, or empty if it has none.
+   *
+   * @throws IOException if the view's metadata cannot be read
+   */
+  static Optional<DateTime> getCheckpointTime(GcsService gcsService, String bucket, String tld)
+      throws IOException {
+    GcsFileMetadata metadata = gcsService.getMetadata(new GcsFilename(bucket, tld));
+    return Optional.ofNullable(metadata)
+        .map(m -> m.getOptions().getUserMetadata().get(CHECKPOINT_TIME))
+        .map(DateTime::parse);
+  }
+
+  /** A view with changes merged into it, which is held in memory until it is written. */
+  static final class Merged {
+    private final byte[] view;
+    private final byte[] domainList;
+    private final int domainCount;
+
+    private Merged(byte[] view, byte[] domainList, int domainCount) {
+      this.view = view;
+      this.domainList = domainList;
+      this.domainCount = domainCount;
+    }
+
+    /** Returns the newline-separated names of the view's domains, to export. */
+    byte[] getDomainList() {
+      return domainList;
+    }
+
+    /** Returns the number of domains in the view. */
+    int getDomainCount() {
+      return domainCount;
+    }
+  }
+
+  /**
+   * Merges {@code changes} into the view of {@code tld}, without writing the new view out.
+   *
+   * <p>Entries whose deletion time is no later than {@code now} are pruned from the new view.
+   *
+   * @param oldViewExists whether to merge into the current view, instead of starting from scratch
+   * @throws IOException if the old view cannot be read
+   */
+  static Merged merge(
+      GcsService gcsService,
+      String bucket,
+      String tld,
+      boolean oldViewExists,
+      Changes changes,
+      DateTime now)
+      throws IOException {
+    ByteArrayOutputStream view = new ByteArrayOutputStream();
+    ByteArrayOutputStream domainList = new ByteArrayOutputStream();
+    int domainCount = 0;
+    try (BufferedReader oldView =
+            oldViewExists
+                ? new BufferedReader(
+                    new InputStreamReader(
+                        Channels.newInputStream(
+                            gcsService.openPrefetchingReadChannel(
+                                new GcsFilename(bucket, tld), 0, 1 << 20)),
+                        UTF_8))
+                : new BufferedReader(new StringReader(""));
+        Writer viewWriter = new OutputStreamWriter(view, UTF_8);
+        Writer domainListWriter = new OutputStreamWriter(domainList, UTF_8)) {
+      for (Iterator<Entry> entries = new MergingIterator(oldView, changes); entries.hasNext(); ) {
+        Entry entry = entries.next();
+        if (!entry.deletionTime.isAfter(now)) {
+          continue;
+        }
+        viewWriter.write(entry.toLine());
+        viewWriter.write('\n');
+        if (domainCount > 0) {
+          domainListWriter.write('\n');
+        }
+        domainListWriter.write(entry.fullyQualifiedDomainName);
+        domainCount++;
+      }
+    }
+    return new Merged(view.toByteArray(), domainList.toByteArray(), domainCount);
+  }
+
+  /**
+   * Replaces the view of {@code tld} with a merged one.
+   *
+   * @param checkpointTime the checkpoint time to record in the new view, if any
+   * @throws IOException if the view cannot be written, in which case the old view is left as is
+   */
+  static void write(
+      GcsService gcsService,
+      String bucket,
+      String tld,
+      Merged merged,
+      @Nullable DateTime checkpointTime)
+      throws IOException {
+    GcsFileOptions.Builder options = new GcsFileOptions.Builder();
+    if (checkpointTime != null) {
+      options.addUserMetadata(CHECKPOINT_TIME, checkpointTime.toString());
+    }
+    // The new view only replaces the old one once it is closed.
+    try (OutputStream newView =
+        Channels.newOutputStream(
+            gcsService.createOrReplace(new GcsFilename(bucket, tld), options.build()))) {
+      newView.write(merged.view);
+    }
+  }
+
+  /** Iterator over the entries of an old view with the changes applied, in name order. */
+  private static final class MergingIterator extends UnmodifiableIterator<Entry> {
+
+    private final BufferedReader oldView;
+    private final Changes changes;
+    private final PeekingIterator<Map.Entry<String, Entry>> saves;
+    @Nullable private Entry nextOld;
+
+    MergingIterator(BufferedReader oldView, Changes changes) throws IOException {
+      this.oldView = oldView;
+      this.changes = changes;
+      this.saves = peekingIterator(changes.saves.entrySet().iterator());
+      advanceOld();
+    }
+
+    /** Moves to the next entry of the old view that the changes don't remove or replace. */
+    private void advanceOld() throws IOException {
+      String line;
+      while ((line = oldView.readLine()) != null) {
+        Entry entry = Entry.parse(line);
+        if (!changes.removes(entry) && !changes.saves.containsKey(entry.fullyQualifiedDomainName)) {
+          nextOld = entry;
+          return;
+        }
+      }
+      nextOld = null;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return nextOld != null || saves.hasNext();
+    }
+
+    @Override
+    public Entry next() {
+      if (nextOld == null
+          || (saves.hasNext()
+              && saves.peek().getKey().compareTo(nextOld.fullyQualifiedDomainName) < 0)) {
+        return saves.next().getValue();
+      }
+      Entry entry = nextOld;
+      try {
+        advanceOld();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      return entry;
+    }
+  }
+}
@@ -15,52 +15,87 @@
 package google.registry.export;
 
 import static com.google.appengine.tools.cloudstorage.GcsServiceFactory.createGcsService;
+import static com.google.common.base.MoreObjects.firstNonNull;
 import static com.google.common.base.Verify.verifyNotNull;
+import static com.google.common.collect.Iterables.getOnlyElement;
+import static com.google.common.collect.Iterables.partition;
+import static com.google.common.collect.Iterators.filter;
 import static google.registry.mapreduce.inputs.EppResourceInputs.createEntityInput;
 import static google.registry.model.EppResourceUtils.isActive;
+import static google.registry.model.ofy.CommitLogBucket.getBucketKey;
+import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.registry.Registries.getTldsOfType;
 import static google.registry.request.Action.Method.POST;
+import static google.registry.util.DateTimeUtils.START_OF_TIME;
 import static google.registry.util.PipelineUtils.createJobPath;
-import static java.nio.charset.StandardCharsets.UTF_8;
-import static org.joda.time.DateTimeZone.UTC;
+import static java.util.Comparator.comparingLong;
 
+import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.appengine.tools.cloudstorage.GcsService;
 import com.google.appengine.tools.cloudstorage.RetryParams;
 import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.appengine.tools.mapreduce.Reducer;
 import com.google.appengine.tools.mapreduce.ReducerInput;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Joiner;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.net.MediaType;
+import com.googlecode.objectify.Key;
 import google.registry.config.RegistryConfig.Config;
+import google.registry.export.DomainListView.Changes;
+import google.registry.export.DomainListView.Merged;
 import google.registry.gcs.GcsUtils;
 import google.registry.mapreduce.MapreduceRunner;
+import google.registry.mapreduce.inputs.NullInput;
+import google.registry.model.domain.DomainBase;
 import google.registry.model.domain.DomainResource;
+import google.registry.model.ofy.CommitLogBucket;
+import google.registry.model.ofy.CommitLogCheckpoint;
+import google.registry.model.ofy.CommitLogCheckpointRoot;
+import google.registry.model.ofy.CommitLogManifest;
+import google.registry.model.ofy.CommitLogMutation;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.Registry.TldType;
 import google.registry.request.Action;
 import google.registry.request.Response;
 import google.registry.request.auth.Auth;
 import google.registry.storage.drive.DriveConnection;
+import google.registry.util.Clock;
 import google.registry.util.NonFinalForTesting;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.function.Supplier;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 
 /**
  * A mapreduce that exports the list of active domains on all real TLDs to Google Cloud Storage.
  *
  * <p>Each TLD's active domain names are exported as a newline-delimited flat text file with the
  * name TLD.txt into the domain-lists bucket. Note that this overwrites the files in place.
+ *
+ * <p>Each export also leaves a {@link DomainListView} of every TLD in the domain list views bucket.
+ * When all views are recent enough that the commit logs written since their checkpoint are still in
+ * Datastore, the next export replays those commit logs onto the views instead of running the
+ * mapreduce, so that its cost depends on how many domains changed rather than on how many exist.
  */
 @Action(path = "/_dr/task/exportDomainLists", method = POST, auth = Auth.AUTH_INTERNAL_ONLY)
 public class ExportDomainListsAction implements Runnable {
@@ -68,24 +103,275 @@ public class ExportDomainListsAction implements Runnable {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
   private static final int MAX_NUM_REDUCE_SHARDS = 100;
 
+  /**
+   * The most transactions an incremental export replays, beyond which a full rebuild is cheaper
+   * than loading their commit logs within a single request.
+   */
+  private static final int MAX_INCREMENTAL_TRANSACTIONS = 200000;
+
+  /** The number of domain mutations loaded from Datastore at once by an incremental export. */
+  private static final int MUTATION_LOAD_BATCH_SIZE = 500;
+
   @Inject MapreduceRunner mrRunner;
   @Inject Response response;
+  @Inject GcsService gcsService;
+  @Inject Clock clock;
   @Inject @Config("domainListsGcsBucket") String gcsBucket;
+  @Inject @Config("domainListViewsGcsBucket") String viewsGcsBucket;
   @Inject @Config("gcsBufferSize") int gcsBufferSize;
+  @Inject @Config("commitLogDatastoreRetention") Duration datastoreRetention;
   @Inject ExportDomainListsAction() {}
 
   @Override
   public void run() {
     ImmutableSet<String> realTlds = getTldsOfType(TldType.REAL);
+    DateTime now = clock.nowUtc();
+    // Changes committed after this checkpoint will be replayed by the next incremental export.
+    Optional<CommitLogCheckpoint> checkpoint = loadLatestCheckpoint();
+    try {
+      if (checkpoint.isPresent() && exportIncrementally(realTlds, checkpoint.get(), now)) {
+        return;
+      }
+    } catch (IOException | RuntimeException e) {
+      // Whatever went wrong, e. g. a deadline or a malformed view, a rebuild starts from scratch.
+      logger.atWarning().withCause(e).log("Incremental export failed, rebuilding domain lists");
+    }
     logger.atInfo().log("Exporting domain lists for tlds %s", realTlds);
     response.sendJavaScriptRedirect(createJobPath(mrRunner
         .setJobName("Export domain lists")
         .setModuleName("backend")
         .setDefaultReduceShards(Math.min(realTlds.size(), MAX_NUM_REDUCE_SHARDS))
         .runMapreduce(
-            new ExportDomainListsMapper(DateTime.now(UTC), realTlds),
-            new ExportDomainListsReducer(gcsBucket, gcsBufferSize),
-            ImmutableList.of(createEntityInput(DomainResource.class)))));
+            new ExportDomainListsMapper(now, realTlds),
+            new ExportDomainListsReducer(
+                gcsBucket,
+                viewsGcsBucket,
+                gcsBufferSize,
+                now,
+                checkpoint.map(CommitLogCheckpoint::getCheckpointTime).orElse(null)),
+            ImmutableList.of(new NullInput<>(), createEntityInput(DomainResource.class)))));
+  }
+
+  /**
+   * Exports the domain lists by replaying the commit logs since the views' checkpoint onto them.
+   *
+   * @return false, without exporting anything, if the views can't be brought up to date
+   */
+  private boolean exportIncrementally(
+      ImmutableSet<String> realTlds, CommitLogCheckpoint upperCheckpoint, DateTime now)
+      throws IOException {
+    Set<DateTime> viewCheckpointTimes = new HashSet<>();
+    for (String tld : realTlds) {
+      Optional<DateTime> checkpointTime =
+          DomainListView.getCheckpointTime(gcsService, viewsGcsBucket, tld);
+      if (!checkpointTime.isPresent()) {
+        logger.atInfo().log("No domain list view for TLD %s, rebuilding domain lists", tld);
+        return false;
+      }
+      viewCheckpointTimes.add(checkpointTime.get());
+    }
+    if (viewCheckpointTimes.size() != 1) {
+      logger.atInfo().log("Domain list views are at different checkpoints, rebuilding them");
+      return false;
+    }
+    DateTime lowerCheckpointTime = getOnlyElement(viewCheckpointTimes);
+    // Commit logs older than the retention period may already have been deleted.
+    CommitLogCheckpoint lowerCheckpoint =
+        ofy().load().key(CommitLogCheckpoint.createKey(lowerCheckpointTime)).now();
+    if (lowerCheckpointTime.isBefore(now.minus(datastoreRetention)) || lowerCheckpoint == null) {
+      logger.atInfo().log(
+          "Domain list views checkpoint %s is too old, rebuilding them", lowerCheckpointTime);
+      return false;
+    }
+    Optional<Map<String, Changes>> changes =
+        loadDomainChanges(realTlds, lowerCheckpoint, upperCheckpoint, now);
+    if (!changes.isPresent()) {
+      return false;
+    }
+    DriveConnection driveConnection = ExportDomainListsReducer.driveConnectionSupplier.get();
+    for (String tld : realTlds) {
+      Merged merged =
+          DomainListView.merge(
+              gcsService,
+              viewsGcsBucket,
+              tld,
+              true,
+              changes.get().getOrDefault(tld, new Changes()),
+              now);
+      // As in the mapreduce, TLDs without domains keep their view but export no list.
+      if (merged.getDomainCount() > 0) {
+        exportToGcs(
+            new GcsUtils(gcsService, gcsBufferSize), gcsBucket, tld, merged.getDomainList());
+        exportToDrive(driveConnection, tld, merged.getDomainList());
+      }
+      writeView(gcsService, viewsGcsBucket, tld, merged, upperCheckpoint.getCheckpointTime());
+    }
+    String message =
+        String.format(
+            "Exported domain lists for tlds %s incrementally, from checkpoint %s to %s",
+            realTlds, lowerCheckpointTime, upperCheckpoint.getCheckpointTime());
+    logger.atInfo().log(message);
+    response.setPayload(message);
+    return true;
+  }
+
+  /**
+   * Loads the changes to the domains of the given TLDs committed between two checkpoints, by TLD.
+   *
+   * @return empty if there are too many transactions to replay them
+   */
+  private static Optional<Map<String, Changes>> loadDomainChanges(
+      ImmutableSet<String> realTlds,
+      CommitLogCheckpoint lowerCheckpoint,
+      CommitLogCheckpoint upperCheckpoint,
+      DateTime now) {
+    String domainKind = Key.getKind(DomainBase.class);
+    // Manifests are processed in commit order, breaking ties by bucket as commit log exports do.
+    Comparator<Key<CommitLogManifest>> commitOrder =
+        comparingLong(Key<CommitLogManifest>::getId)
+            .thenComparingLong(key -> key.getParent().getId());
+    TreeMap<Key<CommitLogManifest>, CommitLogManifest> manifests = new TreeMap<>(commitOrder);
+    Map<Key<CommitLogManifest>, List<DomainResource>> domainSaves = new HashMap<>();
+    for (Entry<Integer, DateTime> bucket : upperCheckpoint.getBucketTimestamps().entrySet()) {
+      Key<CommitLogBucket> bucketKey = getBucketKey(bucket.getKey());
+      // Load lowerBound < x <= upperBound, shifting both bounds as in ExportCommitLogDiffAction.
+      DateTime lowerBound =
+          firstNonNull(lowerCheckpoint.getBucketTimestamps().get(bucket.getKey()), START_OF_TIME)
+              .plusMillis(1);
+      DateTime upperBound = bucket.getValue().plusMillis(1);
+      if (lowerBound.equals(upperBound)) {
+        continue;
+      }
+      Key<CommitLogManifest> lowerKey = CommitLogManifest.createKey(bucketKey, lowerBound);
+      Key<CommitLogManifest> upperKey = CommitLogManifest.createKey(bucketKey, upperBound);
+      for (CommitLogManifest manifest :
+          ofy()
+              .load()
+              .type(CommitLogManifest.class)
+              .ancestor(bucketKey)
+              .filterKey(">=", lowerKey)
+              .filterKey("<", upperKey)) {
+        manifests.put(Key.create(manifest), manifest);
+        if (manifests.size() > MAX_INCREMENTAL_TRANSACTIONS) {
+          logger.atInfo().log("Too many transactions since the last export, rebuilding it");
+          return Optional.empty();
+        }
+      }
+      // The mutations of a manifest sort after its key and before the next manifest's, so those of
+      // all the manifests above are found by a single keys-only query over the same key range. The
+      // id of a mutation is the web-safe string of the key of the entity it saved, so only the
+      // mutations of domains need to be loaded.
+      List<Key<CommitLogMutation>> domainMutationKeys = new ArrayList<>();
+      for (Key<CommitLogMutation> mutationKey :
+          ofy()
+              .load()
+              .type(CommitLogMutation.class)
+              .ancestor(bucketKey)
+              .filterKey(">=", lowerKey)
+              .filterKey("<", upperKey)
+              .keys()) {
+        if (KeyFactory.stringToKey(mutationKey.getName()).getKind().equals(domainKind)) {
+          domainMutationKeys.add(mutationKey);
+        }
+      }
+      for (List<Key<CommitLogMutation>> batch :
+          partition(domainMutationKeys, MUTATION_LOAD_BATCH_SIZE)) {
+        for (Entry<Key<CommitLogMutation>, CommitLogMutation> mutation :
+            ofy().load().keys(batch).entrySet()) {
+          Object entity = ofy().load().fromEntity(mutation.getValue().getEntity());
+          if (entity instanceof DomainResource
+              && realTlds.contains(((DomainResource) entity).getTld())) {
+            domainSaves
+                .computeIfAbsent(mutation.getKey().getParent(), key -> new ArrayList<>())
+                .add((DomainResource) entity);
+          }
+        }
+      }
+    }
+    Map<String, Changes> changes = new HashMap<>();
+    for (Entry<Key<CommitLogManifest>, CommitLogManifest> manifest : manifests.entrySet()) {
+      for (Key<?> deletion : manifest.getValue().getDeletions()) {
+        // Domains are almost never deleted from Datastore, so look for them in every TLD.
+        if (deletion.getKind().equals(domainKind)) {
+          for (String tld : realTlds) {
+            changes.computeIfAbsent(tld, t -> new Changes()).delete(deletion.getName());
+          }
+        }
+      }
+      for (DomainResource domain :
+          domainSaves.getOrDefault(manifest.getKey(), ImmutableList.of())) {
+        changes.computeIfAbsent(domain.getTld(), tld -> new Changes()).save(domain, now);
+      }
+    }
+    return Optional.of(changes);
+  }
+
+  /**
+   * Writes out the view of a TLD whose domain list has been exported.
+   *
+   * <p>This is best-effort: a view that can't be written keeps its old checkpoint, which differs
+   * from the other TLDs', so the next export rebuilds all views with the mapreduce.
+   *
+   * @return whether the view was written
+   */
+  private static boolean writeView(
+      GcsService gcsService,
+      String viewsGcsBucket,
+      String tld,
+      Merged merged,
+      @Nullable DateTime checkpointTime) {
+    try {
+      DomainListView.write(gcsService, viewsGcsBucket, tld, merged, checkpointTime);
+      return true;
+    } catch (IOException | RuntimeException e) {
+      logger.atWarning().withCause(e).log("Error writing the domain list view of TLD %s", tld);
+      return false;
+    }
+  }
+
+  /** Loads the latest commit log checkpoint, if any was ever written. */
+  private static Optional<CommitLogCheckpoint> loadLatestCheckpoint() {
+    DateTime checkpointTime = CommitLogCheckpointRoot.loadRoot().getLastWrittenTime();
+    return checkpointTime.equals(START_OF_TIME)
+        ? Optional.empty()
+        : Optional.ofNullable(
+            ofy().load().key(CommitLogCheckpoint.createKey(checkpointTime)).now());
+  }
+
+  private static void exportToDrive(DriveConnection driveConnection, String tld, byte[] domains) {
+    verifyNotNull(driveConnection, "expecting non-null driveConnection");
+    try {
+      Registry registry = Registry.get(tld);
+      if (registry.getDriveFolderId() == null) {
+        logger.atInfo().log(
+            "Skipping registered domains export for TLD %s because Drive folder isn't specified",
+            tld);
+      } else {
+        String resultMsg =
+            driveConnection.createOrUpdateFile(
+                ExportDomainListsReducer.REGISTERED_DOMAINS_FILENAME,
+                ExportDomainListsReducer.EXPORT_MIME_TYPE,
+                registry.getDriveFolderId(),
+                domains);
+        logger.atInfo().log(
+            "Exporting registered domains succeeded for TLD %s, response was: %s",
+            tld, resultMsg);
+      }
+    } catch (Throwable e) {
+      logger.atSevere().withCause(e).log(
+          "Error exporting registered domains for TLD %s to Drive", tld);
+    }
+  }
+
+  private static void exportToGcs(
+      GcsUtils cloudStorage, String gcsBucket, String tld, byte[] domains) {
+    GcsFilename filename = new GcsFilename(gcsBucket, tld + ".txt");
+    try (OutputStream gcsOutput = cloudStorage.openOutputStream(filename)) {
+      gcsOutput.write(domains);
+    } catch (IOException e) {
+      logger.atSevere().withCause(e).log(
+          "Error exporting registered domains for TLD %s to GCS.", tld);
+    }
   }
 
   static class ExportDomainListsMapper extends Mapper<DomainResource, String, String> {
@@ -102,8 +388,12 @@ public class ExportDomainListsAction implements Runnable {
 
     @Override
     public void map(DomainResource domain) {
-      if (realTlds.contains(domain.getTld()) && isActive(domain, exportTime)) {
-        emit(domain.getTld(), domain.getFullyQualifiedDomainName());
+      if (domain == null) {  // Force the reducer to write a view for each tld, even if it's empty.
+        for (String tld : realTlds) {
+          emit(tld, null);
+        }
+      } else if (realTlds.contains(domain.getTld()) && isActive(domain, exportTime)) {
+        emit(domain.getTld(), DomainListView.Entry.create(domain).toLine());
         getContext().incrementCounter(String.format("domains in tld %s", domain.getTld()));
       }
     }
@@ -122,7 +412,10 @@ public class ExportDomainListsAction implements Runnable {
     static final MediaType EXPORT_MIME_TYPE = MediaType.PLAIN_TEXT_UTF_8;
 
     private final String gcsBucket;
+    private final String viewsGcsBucket;
     private final int gcsBufferSize;
+    private final DateTime exportTime;
+    @Nullable private final DateTime checkpointTime;
 
     /**
      * Non-serializable {@link DriveConnection} that will be created when an instance of {@link
@@ -132,9 +425,17 @@ public class ExportDomainListsAction implements Runnable {
      */
     private transient DriveConnection driveConnection;
 
-    public ExportDomainListsReducer(String gcsBucket, int gcsBufferSize) {
+    public ExportDomainListsReducer(
+        String gcsBucket,
+        String viewsGcsBucket,
+        int gcsBufferSize,
+        DateTime exportTime,
+        @Nullable DateTime checkpointTime) {
       this.gcsBucket = gcsBucket;
+      this.viewsGcsBucket = viewsGcsBucket;
       this.gcsBufferSize = gcsBufferSize;
+      this.exportTime = exportTime;
+      this.checkpointTime = checkpointTime;
     }
 
     @SuppressWarnings("unused")
@@ -143,53 +444,36 @@ public class ExportDomainListsAction implements Runnable {
       driveConnection = driveConnectionSupplier.get();
     }
 
-    private void exportToDrive(String tld, String domains) {
-      verifyNotNull(driveConnection, "expecting non-null driveConnection");
-      try {
-        Registry registry = Registry.get(tld);
-        if (registry.getDriveFolderId() == null) {
-          logger.atInfo().log(
-              "Skipping registered domains export for TLD %s because Drive folder isn't specified",
-              tld);
-        } else {
-          String resultMsg =
-              driveConnection.createOrUpdateFile(
-                  REGISTERED_DOMAINS_FILENAME,
-                  EXPORT_MIME_TYPE,
-                  registry.getDriveFolderId(),
-                  domains.getBytes(UTF_8));
-          logger.atInfo().log(
-              "Exporting registered domains succeeded for TLD %s, response was: %s",
-              tld, resultMsg);
-        }
-      } catch (Throwable e) {
-        logger.atSevere().withCause(e).log(
-            "Error exporting registered domains for TLD %s to Drive", tld);
+    @Override
+    public void reduce(String tld, ReducerInput<String> viewLines) {
+      Changes domains = new Changes();
+      for (Iterator<String> lines = filter(viewLines, Objects::nonNull); lines.hasNext(); ) {
+        domains.put(DomainListView.Entry.parse(lines.next()));
       }
-      getContext().incrementCounter("domain lists written out to Drive");
-    }
-
-    private void exportToGcs(String tld, String domains) {
-      GcsFilename filename = new GcsFilename(gcsBucket, tld + ".txt");
-      GcsUtils cloudStorage =
-          new GcsUtils(createGcsService(RetryParams.getDefaultInstance()), gcsBufferSize);
-      try (OutputStream gcsOutput = cloudStorage.openOutputStream(filename);
-          Writer osWriter = new OutputStreamWriter(gcsOutput, UTF_8)) {
-        osWriter.write(domains);
+      GcsService gcsService = createGcsService(RetryParams.getDefaultInstance());
+      Merged merged;
+      try {
+        // Without an old view to read, merging can't fail on I/O.
+        merged = DomainListView.merge(gcsService, viewsGcsBucket, tld, false, domains, exportTime);
       } catch (IOException e) {
-        logger.atSevere().withCause(e).log(
-            "Error exporting registered domains for TLD %s to GCS.", tld);
+        throw new RuntimeException(e);
+      }
+      if (merged.getDomainCount() > 0) {
+        logger.atInfo().log(
+            "Exporting %d domains for TLD %s to GCS and Drive.", merged.getDomainCount(), tld);
+        exportToGcs(
+            new GcsUtils(gcsService, gcsBufferSize), gcsBucket, tld, merged.getDomainList());
+        getContext().incrementCounter("domain lists written out to GCS");
+        exportToDrive(driveConnection, tld, merged.getDomainList());
+        getContext().incrementCounter("domain lists written out to Drive");
+      }
+      // The view of every TLD, even an empty one, is written so that the next export can be
+      // incremental.
+      if (writeView(gcsService, viewsGcsBucket, tld, merged, checkpointTime)) {
+        getContext().incrementCounter("domain list views written out to GCS");
+      } else {
+        getContext().incrementCounter("domain list views that failed to write out to GCS");
       }
-      getContext().incrementCounter("domain lists written out to GCS");
-    }
-
-    @Override
-    public void reduce(String tld, ReducerInput<String> fqdns) {
-      ImmutableList<String> domains = ImmutableList.sortedCopyOf(() -> fqdns);
-      String domainsList = Joiner.on('\n').join(domains);
-      logger.atInfo().log("Exporting %d domains for TLD %s to GCS and Drive.", domains.size(), tld);
-      exportToGcs(tld, domainsList);
-      exportToDrive(tld, domainsList);
     }
 
     @VisibleForTesting
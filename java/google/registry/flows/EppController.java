@@ -23,6 +23,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.flogger.FluentLogger;
 import google.registry.flows.FlowModule.EppExceptionInProviderException;
@@ -35,6 +36,7 @@ import google.registry.model.eppoutput.Result.Code;
 import google.registry.monitoring.whitebox.EppMetric;
 import java.util.Optional;
 import javax.inject.Inject;
+import javax.xml.stream.events.XMLEvent;
 import org.json.simple.JSONValue;
 
 /**
@@ -64,8 +66,10 @@ public final class EppController {
     eppMetricBuilder.setClientId(Optional.ofNullable(sessionMetadata.getClientId()));
     try {
       EppInput eppInput;
+      // Parse events are kept so that the flow runner can log the input without reparsing it.
+      ImmutableList.Builder<XMLEvent> inputXmlEvents = new ImmutableList.Builder<>();
       try {
-        eppInput = unmarshal(EppInput.class, inputXmlBytes);
+        eppInput = unmarshal(EppInput.class, inputXmlBytes, inputXmlEvents::add);
       } catch (EppException e) {
         // Log the unmarshalling error, with the raw bytes (in base64) to help with debugging.
         logger.atInfo().withCause(e).log(
@@ -107,6 +111,7 @@ public final class EppController {
               .setIsDryRun(isDryRun)
               .setIsSuperuser(isSuperuser)
               .setInputXmlBytes(inputXmlBytes)
+              .setInputXmlEvents(inputXmlEvents.build())
               .setEppInput(eppInput)
               .build())
           .build());
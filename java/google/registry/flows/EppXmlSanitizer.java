@@ -21,9 +21,14 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.Base64;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -34,9 +39,15 @@ import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLEventWriter;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.stream.events.Attribute;
 import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.Comment;
+import javax.xml.stream.events.Namespace;
 import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
 
 /**
@@ -71,6 +82,12 @@ public class EppXmlSanitizer {
   private static final String CTRL_CHAR_MASK = "C";
   private static final String DEFAULT_MASK = "*";
 
+  /** XML declaration emitted by {@link #sanitizeAndPrettyPrintEppXml}. */
+  private static final String PRETTY_PRINT_HEADER =
+      "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>";
+
+  private static final String PRETTY_PRINT_INDENT = "  ";
+
   private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
   private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newFactory();
   private static final XMLEventFactory XML_EVENT_FACTORY = XMLEventFactory.newFactory();
@@ -95,6 +112,122 @@ public class EppXmlSanitizer {
     }
   }
 
+  /**
+   * Returns the sanitized and pretty-printed form of an EPP XML message that has already been
+   * parsed into {@code xmlEvents}.
+   *
+   * <p>This is the log rendering of the events recorded while unmarshalling an EPP request (see
+   * {@link EppXmlTransformer#unmarshal(Class, byte[], java.util.function.Consumer)}), and produces
+   * the same output as {@code XmlTransformer.prettyPrint(sanitizeEppXml(bytes))} in a single pass
+   * over the events, without reparsing the raw bytes. Whitespace between elements is discarded and
+   * replaced by two-space indentation, and elements with no content are written in short form.
+   */
+  public static String sanitizeAndPrettyPrintEppXml(List<XMLEvent> xmlEvents) {
+    StringWriter output = new StringWriter();
+    output.write(PRETTY_PRINT_HEADER);
+    try {
+      XMLStreamWriter xmlStreamWriter = XML_OUTPUT_FACTORY.createXMLStreamWriter(output);
+      // One entry per open element, recording whether it has had any child elements so far.
+      Deque<Boolean> openElements = new ArrayDeque<>();
+      int sensitiveDepth = 0;
+      for (int i = 0; i < xmlEvents.size(); i++) {
+        XMLEvent xmlEvent = xmlEvents.get(i);
+        if (xmlEvent.isStartElement()) {
+          if (!openElements.isEmpty()) {
+            openElements.pop();
+            openElements.push(true);
+          }
+          writeIndent(xmlStreamWriter, openElements.size());
+          boolean isEmpty = i + 1 < xmlEvents.size() && xmlEvents.get(i + 1).isEndElement();
+          writeStartElement(xmlStreamWriter, xmlEvent.asStartElement(), isEmpty);
+          if (isEmpty) {
+            i++; // Skip the matching end element, which the short form already covers.
+            continue;
+          }
+          openElements.push(false);
+          if (sensitiveDepth > 0 || isStartEventForSensitiveData(xmlEvent)) {
+            sensitiveDepth++;
+          }
+        } else if (xmlEvent.isEndElement()) {
+          if (openElements.pop()) {
+            writeIndent(xmlStreamWriter, openElements.size());
+          }
+          xmlStreamWriter.writeEndElement();
+          if (sensitiveDepth > 0) {
+            sensitiveDepth--;
+          }
+        } else if (xmlEvent.isCharacters()) {
+          Characters characters = xmlEvent.asCharacters();
+          // Whitespace is only kept when it is the sole content of an element.
+          boolean isOnlyContent =
+              i > 0
+                  && xmlEvents.get(i - 1).isStartElement()
+                  && i + 1 < xmlEvents.size()
+                  && xmlEvents.get(i + 1).isEndElement();
+          if (characters.isWhiteSpace() && !isOnlyContent) {
+            continue;
+          }
+          xmlStreamWriter.writeCharacters(
+              sensitiveDepth > 0
+                  ? maskSensitiveData(characters.getData())
+                  : characters.getData());
+        } else if (xmlEvent.getEventType() == XMLStreamConstants.COMMENT) {
+          writeIndent(xmlStreamWriter, openElements.size());
+          xmlStreamWriter.writeComment(((Comment) xmlEvent).getText());
+        }
+      }
+      xmlStreamWriter.writeCharacters("\n");
+      xmlStreamWriter.flush();
+      return output.toString();
+    } catch (XMLStreamException e) {
+      logger.atWarning().withCause(e).log("Failed to pretty print EPP XML events.");
+      return "";
+    }
+  }
+
+  private static void writeIndent(XMLStreamWriter xmlStreamWriter, int depth)
+      throws XMLStreamException {
+    StringBuilder indent = new StringBuilder("\n");
+    for (int i = 0; i < depth; i++) {
+      indent.append(PRETTY_PRINT_INDENT);
+    }
+    xmlStreamWriter.writeCharacters(indent.toString());
+  }
+
+  private static void writeStartElement(
+      XMLStreamWriter xmlStreamWriter, StartElement startElement, boolean isEmpty)
+      throws XMLStreamException {
+    QName name = startElement.getName();
+    if (isEmpty) {
+      xmlStreamWriter.writeEmptyElement(
+          name.getPrefix(), name.getLocalPart(), name.getNamespaceURI());
+    } else {
+      xmlStreamWriter.writeStartElement(
+          name.getPrefix(), name.getLocalPart(), name.getNamespaceURI());
+    }
+    for (Iterator<?> namespaces = startElement.getNamespaces(); namespaces.hasNext(); ) {
+      Namespace namespace = (Namespace) namespaces.next();
+      if (namespace.isDefaultNamespaceDeclaration()) {
+        xmlStreamWriter.writeDefaultNamespace(namespace.getNamespaceURI());
+      } else {
+        xmlStreamWriter.writeNamespace(namespace.getPrefix(), namespace.getNamespaceURI());
+      }
+    }
+    for (Iterator<?> attributes = startElement.getAttributes(); attributes.hasNext(); ) {
+      Attribute attribute = (Attribute) attributes.next();
+      QName attributeName = attribute.getName();
+      if (attributeName.getNamespaceURI().isEmpty()) {
+        xmlStreamWriter.writeAttribute(attributeName.getLocalPart(), attribute.getValue());
+      } else {
+        xmlStreamWriter.writeAttribute(
+            attributeName.getPrefix(),
+            attributeName.getNamespaceURI(),
+            attributeName.getLocalPart(),
+            attribute.getValue());
+      }
+    }
+  }
+
   private static String sanitizeAndEncode(byte[] inputXmlBytes)
       throws XMLStreamException, UnsupportedEncodingException {
     XMLEventReader xmlEventReader =
@@ -40,6 +40,8 @@ import google.registry.xml.XmlTransformer;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.util.List;
+import java.util.function.Consumer;
+import javax.xml.stream.events.XMLEvent;
 
 /** {@link XmlTransformer} for marshalling to and from the Epp model classes.  */
 public class EppXmlTransformer  {
@@ -87,22 +89,44 @@ public class EppXmlTransformer  {
     try {
       return INPUT_TRANSFORMER.unmarshal(clazz, new ByteArrayInputStream(bytes));
     } catch (XmlException e) {
-      // If this XmlException is wrapping a known type find it. If not, it's a syntax error.
-      List<Throwable> causalChain = Throwables.getCausalChain(e);
-      if (causalChain.stream().anyMatch(IpVersionMismatchException.class::isInstance)) {
-        throw new IpAddressVersionMismatchException();
-      }
-      if (causalChain.stream().anyMatch(WrongProtocolVersionException.class::isInstance)) {
-        throw new UnimplementedProtocolVersionException();
-      }
-      if (causalChain.stream().anyMatch(InvalidRepoIdException.class::isInstance)) {
-        throw new InvalidRepoIdEppException();
-      }
-      if (causalChain.stream().anyMatch(UnknownCurrencyException.class::isInstance)) {
-        throw new UnknownCurrencyEppException();
-      }
-      throw new GenericSyntaxErrorException(e.getMessage());
+      throw toEppException(e);
+    }
+  }
+
+  /**
+   * Unmarshal bytes into Epp classes, passing each parsed {@link XMLEvent} to a listener.
+   *
+   * <p>The recorded events can be rendered for logging with {@link
+   * EppXmlSanitizer#sanitizeAndPrettyPrintEppXml}, so the input only has to be parsed once.
+   *
+   * @param clazz type to return, specified as a param to enforce typesafe generics
+   * @see <a href="https://errorprone.info/bugpattern/TypeParameterUnusedInFormals">TypeParameterUnusedInFormals</a>
+   */
+  public static <T> T unmarshal(Class<T> clazz, byte[] bytes, Consumer<XMLEvent> eventListener)
+      throws EppException {
+    try {
+      return INPUT_TRANSFORMER.unmarshal(clazz, new ByteArrayInputStream(bytes), eventListener);
+    } catch (XmlException e) {
+      throw toEppException(e);
+    }
+  }
+
+  private static EppException toEppException(XmlException e) {
+    // If this XmlException is wrapping a known type find it. If not, it's a syntax error.
+    List<Throwable> causalChain = Throwables.getCausalChain(e);
+    if (causalChain.stream().anyMatch(IpVersionMismatchException.class::isInstance)) {
+      return new IpAddressVersionMismatchException();
+    }
+    if (causalChain.stream().anyMatch(WrongProtocolVersionException.class::isInstance)) {
+      return new UnimplementedProtocolVersionException();
+    }
+    if (causalChain.stream().anyMatch(InvalidRepoIdException.class::isInstance)) {
+      return new InvalidRepoIdEppException();
+    }
+    if (causalChain.stream().anyMatch(UnknownCurrencyException.class::isInstance)) {
+      return new UnknownCurrencyEppException();
     }
+    return new GenericSyntaxErrorException(e.getMessage());
   }
 
   private static byte[] marshal(
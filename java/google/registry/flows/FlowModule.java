@@ -18,6 +18,7 @@ import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Strings.nullToEmpty;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 import dagger.Module;
 import dagger.Provides;
 import google.registry.flows.picker.FlowPicker;
@@ -36,6 +37,7 @@ import google.registry.model.reporting.HistoryEntry;
 import java.lang.annotation.Documented;
 import java.util.Optional;
 import javax.inject.Qualifier;
+import javax.xml.stream.events.XMLEvent;
 
 /** Module to choose and instantiate an EPP flow. */
 @Module
@@ -43,6 +45,7 @@ public class FlowModule {
 
   private EppInput eppInput;
   private byte[] inputXmlBytes;
+  private ImmutableList<XMLEvent> inputXmlEvents = ImmutableList.of();
   private SessionMetadata sessionMetadata;
   private TransportCredentials credentials;
   private boolean isDryRun;
@@ -65,6 +68,11 @@ public class FlowModule {
       return this;
     }
 
+    Builder setInputXmlEvents(ImmutableList<XMLEvent> inputXmlEvents) {
+      module.inputXmlEvents = inputXmlEvents;
+      return this;
+    }
+
     Builder setSessionMetadata(SessionMetadata sessionMetadata) {
       module.sessionMetadata = sessionMetadata;
       return this;
@@ -107,6 +115,13 @@ public class FlowModule {
     return inputXmlBytes;
   }
 
+  @Provides
+  @FlowScope
+  @InputXmlEvents
+  ImmutableList<XMLEvent> provideInputXmlEvents() {
+    return inputXmlEvents;
+  }
+
   @Provides
   @FlowScope
   EppInput provideEppInput() {
@@ -284,6 +299,15 @@ public class FlowModule {
   @Documented
   public @interface InputXml {}
 
+  /**
+   * Dagger qualifier for the XML events recorded while unmarshalling inputXml.
+   *
+   * <p>This is empty if the module was built without recording them.
+   */
+  @Qualifier
+  @Documented
+  public @interface InputXmlEvents {}
+
   /** Dagger qualifier for registrar client id. */
   @Qualifier
   @Documented
@@ -14,14 +14,17 @@
 
 package google.registry.flows;
 
+import static com.google.common.flogger.LazyArgs.lazy;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.xml.XmlTransformer.prettyPrint;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 import com.google.common.flogger.FluentLogger;
 import google.registry.flows.FlowModule.ClientId;
 import google.registry.flows.FlowModule.DryRun;
 import google.registry.flows.FlowModule.InputXml;
+import google.registry.flows.FlowModule.InputXmlEvents;
 import google.registry.flows.FlowModule.Superuser;
 import google.registry.flows.FlowModule.Transactional;
 import google.registry.flows.session.LoginFlow;
@@ -30,6 +33,7 @@ import google.registry.model.eppoutput.EppOutput;
 import google.registry.monitoring.whitebox.EppMetric;
 import javax.inject.Inject;
 import javax.inject.Provider;
+import javax.xml.stream.events.XMLEvent;
 
 /** Run a flow, either transactionally or not, with logging and retrying as needed. */
 public class FlowRunner {
@@ -44,6 +48,7 @@ public class FlowRunner {
   @Inject Provider<Flow> flowProvider;
   @Inject Class<? extends Flow> flowClass;
   @Inject @InputXml byte[] inputXmlBytes;
+  @Inject @InputXmlEvents ImmutableList<XMLEvent> inputXmlEvents;
   @Inject @DryRun boolean isDryRun;
   @Inject @Superuser boolean isSuperuser;
   @Inject @Transactional boolean isTransactional;
@@ -54,14 +59,12 @@ public class FlowRunner {
 
   /** Runs the EPP flow, and records metrics on the given builder. */
   public EppOutput run(final EppMetric.Builder eppMetricBuilder) throws EppException {
-    String prettyXml = prettyPrint(EppXmlSanitizer.sanitizeEppXml(inputXmlBytes));
-
     logger.atInfo().log(
         COMMAND_LOG_FORMAT,
         trid.getServerTransactionId(),
         clientId,
         sessionMetadata,
-        prettyXml.replace("\n", "\n\t"),
+        lazy(() -> getSanitizedPrettyXml().replace("\n", "\n\t")),
         credentials,
         eppRequestSource,
         isDryRun ? "DRY_RUN" : "LIVE",
@@ -100,6 +103,18 @@ public class FlowRunner {
     }
   }
 
+  /**
+   * Returns the sanitized, pretty-printed input XML for logging.
+   *
+   * <p>The events recorded while unmarshalling the input are reused when present, so that the
+   * input doesn't have to be parsed again just to be logged.
+   */
+  private String getSanitizedPrettyXml() {
+    return inputXmlEvents.isEmpty()
+        ? prettyPrint(EppXmlSanitizer.sanitizeEppXml(inputXmlBytes))
+        : EppXmlSanitizer.sanitizeAndPrettyPrintEppXml(inputXmlEvents);
+  }
+
   /** Exception for canceling a transaction while capturing what the output would have been. */
   private static class DryRunException extends RuntimeException {
     final EppOutput output;
@@ -18,8 +18,10 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.Sets.intersection;
+import static google.registry.model.EppResourceUtils.getLinkedDomainKeys;
 import static google.registry.model.EppResourceUtils.loadByForeignKey;
 import static google.registry.model.EppResourceUtils.queryForLinkedDomains;
+import static google.registry.model.EppResourceUtils.usesDomainReferenceIndex;
 import static google.registry.model.domain.DomainResource.extendRegistrationWithCap;
 import static google.registry.model.index.ForeignKeyIndex.loadAndGetKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
@@ -184,6 +186,12 @@ public final class ResourceFlowUtils {
                   if (fki == null) {
                     return new ResourceDoesNotExistException(resourceClass, targetId);
                   }
+                  // The domain reference index is strongly consistent, so it can be trusted.
+                  if (usesDomainReferenceIndex()) {
+                    return getLinkedDomainKeys(fki.getResourceKey(), now, 1).isEmpty()
+                        ? null
+                        : new ResourceToDeleteIsReferencedException();
+                  }
                   /* Query for the first few linked domains, and if found, actually load them. The
                    * query is eventually consistent and so might be very stale, but the direct
                    * load will not be stale, just non-transactional. If we find at least one
@@ -16,8 +16,10 @@ package google.registry.flows.async;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static google.registry.util.DateTimeUtils.isBeforeOrAt;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.appengine.api.taskqueue.TaskOptions.Method;
 import com.google.appengine.api.taskqueue.TransientFailureException;
@@ -25,12 +27,14 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.io.BaseEncoding;
 import com.googlecode.objectify.Key;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.model.EppResource;
 import google.registry.model.ImmutableObject;
 import google.registry.model.eppcommon.Trid;
 import google.registry.model.host.HostResource;
+import google.registry.model.poll.PollMessageQueue;
 import google.registry.util.AppEngineServiceUtils;
 import google.registry.util.Retrier;
 import javax.inject.Inject;
@@ -50,6 +54,7 @@ public final class AsyncFlowEnqueuer {
   public static final String PARAM_HOST_KEY = "hostKey";
   public static final String PARAM_REQUESTED_TIME = "requestedTime";
   public static final String PARAM_RESAVE_TIMES = "resaveTimes";
+  public static final String PARAM_CLIENT_ID = "clientId";
 
   /** The task queue names used by async flows. */
   public static final String QUEUE_ASYNC_ACTIONS = "async-actions";
@@ -57,6 +62,7 @@ public final class AsyncFlowEnqueuer {
   public static final String QUEUE_ASYNC_HOST_RENAME = "async-host-rename-pull";
 
   public static final String PATH_RESAVE_ENTITY = "/_dr/task/resaveEntity";
+  public static final String PATH_RECOUNT_POLL_MESSAGES = "/_dr/task/recountPollMessages";
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
   private static final Duration MAX_ASYNC_ETA = Duration.standardDays(30);
@@ -159,6 +165,33 @@ public final class AsyncFlowEnqueuer {
             .param(PARAM_REQUESTED_TIME, now.toString()));
   }
 
+  /**
+   * Enqueues a task to recount the messages of a registrar's poll message queue that is due for it.
+   *
+   * <p>The task is named after the last full count of the queue, so that the polls that find the
+   * same stale count only enqueue it once.
+   */
+  public void enqueuePollMessageRecount(PollMessageQueue queue) {
+    String clientId = queue.getClientId();
+    String taskName =
+        String.format(
+            "recountPollMessages-%s-%d",
+            BaseEncoding.base64Url().omitPadding().encode(clientId.getBytes(UTF_8)),
+            queue.getFullyCountedAt().getMillis());
+    logger.atInfo().log("Enqueuing poll message recount for registrar %s.", clientId);
+    try {
+      addTaskToQueueWithRetry(
+          asyncActionsPushQueue,
+          TaskOptions.Builder.withUrl(PATH_RECOUNT_POLL_MESSAGES)
+              .taskName(taskName)
+              .method(Method.POST)
+              .header("Host", appEngineServiceUtils.getServiceHostname("backend"))
+              .param(PARAM_CLIENT_ID, clientId));
+    } catch (TaskAlreadyExistsException e) {
+      logger.atInfo().log("Poll message recount for registrar %s is already enqueued.", clientId);
+    }
+  }
+
   /**
    * Adds a task to a queue with retrying, to avoid aborting the entire flow over a transient issue
    * enqueuing a task.
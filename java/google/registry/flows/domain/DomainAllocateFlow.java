@@ -77,6 +77,7 @@ import google.registry.model.eppinput.EppInput;
 import google.registry.model.eppinput.ResourceCommand;
 import google.registry.model.eppoutput.CreateData.DomainCreateData;
 import google.registry.model.eppoutput.EppResponse;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.ForeignKeyIndex;
 import google.registry.model.ofy.ObjectifyService;
@@ -200,6 +201,7 @@ public class DomainAllocateFlow implements TransactionalFlow {
         EppResourceIndex.create(Key.create(newDomain)));
     ofy().save().entities(entitiesToSave.build());
     enqueueTasks(allocateCreate, newDomain);
+    DomainReferenceIndex.saveEntriesForAddedReferences(newDomain, null);
     return responseBuilder
         .setResData(DomainCreateData.create(targetId, now, registrationExpirationTime))
         .setExtensions(createResponseExtensions(now, registry, years))
@@ -86,6 +86,7 @@ import google.registry.model.eppoutput.CreateData.DomainCreateData;
 import google.registry.model.eppoutput.EppResponse;
 import google.registry.model.eppoutput.EppResponse.ResponseExtension;
 import google.registry.model.index.DomainApplicationIndex;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.ofy.ObjectifyService;
 import google.registry.model.registry.Registry;
@@ -287,6 +288,7 @@ public final class DomainApplicationCreateFlow implements TransactionalFlow {
                 .setYears(years)
                 .build());
     persistEntityChanges(entityChanges);
+    DomainReferenceIndex.saveEntriesForAddedReferences(newApplication, null);
     BeforeResponseReturnData responseData =
         flowCustomLogic.beforeResponse(
             BeforeResponseParameters.newBuilder()
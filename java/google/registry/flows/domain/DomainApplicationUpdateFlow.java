@@ -72,6 +72,7 @@ import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.eppinput.EppInput;
 import google.registry.model.eppinput.ResourceCommand;
 import google.registry.model.eppoutput.EppResponse;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.registry.Registry;
 import google.registry.model.reporting.HistoryEntry;
 import google.registry.model.reporting.IcannReportingTypes.ActivityReportField;
@@ -166,6 +167,7 @@ public class DomainApplicationUpdateFlow implements TransactionalFlow {
     DomainApplication newApplication = updateApplication(existingApplication, command, now);
     validateNewApplication(newApplication);
     ofy().save().<ImmutableObject>entities(newApplication, historyEntry);
+    DomainReferenceIndex.saveEntriesForAddedReferences(newApplication, existingApplication);
     return responseBuilder.build();
   }
 
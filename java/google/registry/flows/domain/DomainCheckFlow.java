@@ -15,6 +15,7 @@
 package google.registry.flows.domain;
 
 import static com.google.common.base.Strings.emptyToNull;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static google.registry.flows.FlowUtils.validateClientIsLoggedIn;
 import static google.registry.flows.ResourceFlowUtils.verifyTargetIdCount;
 import static google.registry.flows.domain.DomainFlowUtils.checkAllowedAccessToTld;
@@ -24,12 +25,13 @@ import static google.registry.flows.domain.DomainFlowUtils.validateDomainName;
 import static google.registry.flows.domain.DomainFlowUtils.validateDomainNameWithIdnTables;
 import static google.registry.flows.domain.DomainFlowUtils.verifyNotInPredelegation;
 import static google.registry.model.EppResourceUtils.checkResourcesExist;
-import static google.registry.model.index.DomainApplicationIndex.loadActiveApplicationsByDomainName;
+import static google.registry.model.index.DomainApplicationIndex.loadActiveApplicationsByDomainNames;
 import static google.registry.model.registry.label.ReservationType.getTypeOfHighestSeverity;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Sets;
 import com.google.common.net.InternetDomainName;
 import google.registry.config.RegistryConfig.Config;
@@ -44,6 +46,7 @@ import google.registry.flows.custom.DomainCheckFlowCustomLogic;
 import google.registry.flows.custom.DomainCheckFlowCustomLogic.BeforeResponseParameters;
 import google.registry.flows.custom.DomainCheckFlowCustomLogic.BeforeResponseReturnData;
 import google.registry.flows.domain.token.AllocationTokenFlowUtils;
+import google.registry.model.domain.DomainApplication;
 import google.registry.model.domain.DomainCommand.Check;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.domain.fee.FeeCheckCommandExtension;
@@ -153,6 +156,18 @@ public final class DomainCheckFlow implements Flow {
             .setAsOfDate(now)
             .build());
     Set<String> existingIds = checkResourcesExist(DomainResource.class, targetIds, now);
+    // Load the applications of all names that could be pending allocation at once, rather than
+    // one name at a time, so that large checks don't cost a round trip per name.
+    ImmutableSetMultimap<String, DomainApplication> activeApplications =
+        loadActiveApplicationsByDomainNames(
+            domainNames
+                .values()
+                .stream()
+                .filter(domainName -> !existingIds.contains(domainName.toString()))
+                .filter(domainName -> isPendingAllocationPhase(domainName, now))
+                .map(InternetDomainName::toString)
+                .collect(toImmutableSet()),
+            now);
     Optional<AllocationTokenExtension> allocationTokenExtension =
         eppInput.getSingleExtension(AllocationTokenExtension.class);
     ImmutableMap<InternetDomainName, String> tokenCheckResults =
@@ -166,7 +181,12 @@ public final class DomainCheckFlow implements Flow {
     ImmutableList.Builder<DomainCheck> checks = new ImmutableList.Builder<>();
     for (String targetId : targetIds) {
       Optional<String> message =
-          getMessageForCheck(domainNames.get(targetId), existingIds, tokenCheckResults, now);
+          getMessageForCheck(
+              domainNames.get(targetId),
+              existingIds,
+              activeApplications,
+              tokenCheckResults,
+              now);
       checks.add(DomainCheck.create(!message.isPresent(), targetId, message.orElse(null)));
     }
     BeforeResponseReturnData responseData =
@@ -185,14 +205,15 @@ public final class DomainCheckFlow implements Flow {
   private Optional<String> getMessageForCheck(
       InternetDomainName domainName,
       Set<String> existingIds,
+      ImmutableSetMultimap<String, DomainApplication> activeApplications,
       ImmutableMap<InternetDomainName, String> tokenCheckResults,
       DateTime now) {
     if (existingIds.contains(domainName.toString())) {
       return Optional.of("In use");
     }
-    Registry registry = Registry.get(domainName.parent().toString());
-    if (PENDING_ALLOCATION_TLD_STATES.contains(registry.getTldState(now))
-        && loadActiveApplicationsByDomainName(domainName.toString(), now)
+    if (isPendingAllocationPhase(domainName, now)
+        && activeApplications
+            .get(domainName.toString())
             .stream()
             .anyMatch(input -> !input.getApplicationStatus().isFinalStatus())) {
       return Optional.of("Pending allocation");
@@ -204,6 +225,12 @@ public final class DomainCheckFlow implements Flow {
     return Optional.ofNullable(emptyToNull(tokenCheckResults.get(domainName)));
   }
 
+  /** Returns whether domains with pending applications are unavailable in this domain's TLD. */
+  private static boolean isPendingAllocationPhase(InternetDomainName domainName, DateTime now) {
+    return PENDING_ALLOCATION_TLD_STATES.contains(
+        Registry.get(domainName.parent().toString()).getTldState(now));
+  }
+
   /** Handle the fee check extension. */
   private ImmutableList<? extends ResponseExtension> getResponseExtensions(
       ImmutableMap<String, InternetDomainName> domainNames, DateTime now) throws EppException {
@@ -101,6 +101,7 @@ import google.registry.model.eppinput.EppInput;
 import google.registry.model.eppinput.ResourceCommand;
 import google.registry.model.eppoutput.CreateData.DomainCreateData;
 import google.registry.model.eppoutput.EppResponse;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.ForeignKeyIndex;
 import google.registry.model.ofy.ObjectifyService;
@@ -382,6 +383,7 @@ public class DomainCreateFlow implements TransactionalFlow {
     allocationToken.ifPresent(
         t -> entitiesToSave.add(allocationTokenFlowUtils.redeemToken(t, Key.create(historyEntry))));
     enqueueTasks(newDomain, hasSignedMarks, hasClaimsNotice);
+    DomainReferenceIndex.saveEntriesForAddedReferences(newDomain, null);
 
     EntityChanges entityChanges =
         flowCustomLogic.beforeSave(
@@ -77,6 +77,7 @@ import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.eppinput.EppInput;
 import google.registry.model.eppinput.ResourceCommand;
 import google.registry.model.eppoutput.EppResponse;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.registry.Registry;
 import google.registry.model.reporting.HistoryEntry;
 import google.registry.model.reporting.IcannReportingTypes.ActivityReportField;
@@ -189,6 +190,7 @@ public final class DomainUpdateFlow implements TransactionalFlow {
     }
     validateNewState(newDomain);
     dnsQueue.addDomainRefreshTask(targetId);
+    DomainReferenceIndex.saveEntriesForAddedReferences(newDomain, existingDomain);
     ImmutableSet.Builder<ImmutableObject> entitiesToSave = new ImmutableSet.Builder<>();
     entitiesToSave.add(newDomain, historyEntry);
     Optional<BillingEvent.OneTime> statusUpdateBillingEvent =
@@ -14,9 +14,8 @@
 
 package google.registry.flows.poll;
 
-import static com.google.common.base.Preconditions.checkState;
 import static google.registry.flows.FlowUtils.validateClientIsLoggedIn;
-import static google.registry.flows.poll.PollFlowUtils.getPollMessagesQuery;
+import static google.registry.flows.poll.PollFlowUtils.ackPollMessage;
 import static google.registry.model.eppoutput.Result.Code.SUCCESS_WITH_NO_MESSAGES;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.poll.PollMessageExternalKeyConverter.makePollMessageExternalId;
@@ -38,6 +37,8 @@ import google.registry.model.poll.MessageQueueInfo;
 import google.registry.model.poll.PollMessage;
 import google.registry.model.poll.PollMessageExternalKeyConverter;
 import google.registry.model.poll.PollMessageExternalKeyConverter.PollMessageExternalKeyParseException;
+import google.registry.model.poll.PollMessageQueue;
+import java.util.Optional;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 
@@ -49,6 +50,10 @@ import org.joda.time.DateTime;
  * they are ACKed, whereas autorenew poll messages are simply marked as read, and won't be delivered
  * again until the next year of their recurrence.
  *
+ * <p>The number of remaining messages is taken from the registrar's {@link PollMessageQueue} rather
+ * than from a scan of all of them. The queue isn't written by this flow, so that acks don't contend
+ * on it; the acked message is dropped from it when it is next loaded.
+ *
  * @error {@link PollAckFlow.InvalidMessageIdException}
  * @error {@link PollAckFlow.MessageDoesNotExistException}
  * @error {@link PollAckFlow.MissingMessageIdException}
@@ -96,36 +101,17 @@ public class PollAckFlow implements TransactionalFlow {
       throw new NotAuthorizedToAckMessageException();
     }
 
-    // This keeps track of whether we should include the current acked message in the updated
-    // message count that's returned to the user. The only case where we do so is if an autorenew
-    // poll message is acked, but its next event is already ready to be delivered.
-    boolean includeAckedMessageInCount = false;
-    if (pollMessage instanceof PollMessage.OneTime) {
-      // One-time poll messages are deleted once acked.
-      ofy().delete().entity(pollMessage);
-    } else {
-      checkState(pollMessage instanceof PollMessage.Autorenew, "Unknown poll message type");
-      PollMessage.Autorenew autorenewPollMessage = (PollMessage.Autorenew) pollMessage;
-
-      // Move the eventTime of this autorenew poll message forward by a year.
-      DateTime nextEventTime = autorenewPollMessage.getEventTime().plusYears(1);
-
-      // If the next event falls within the bounds of the end time, then just update the eventTime
-      // and re-save it for future autorenew poll messages to be delivered. Otherwise, this
-      // autorenew poll message has no more events to deliver and should be deleted.
-      if (nextEventTime.isBefore(autorenewPollMessage.getAutorenewEndTime())) {
-        ofy().save().entity(autorenewPollMessage.asBuilder().setEventTime(nextEventTime).build());
-        includeAckedMessageInCount = isBeforeOrAt(nextEventTime, now);
-      } else {
-        ofy().delete().entity(autorenewPollMessage);
-      }
-    }
-    // We need to return the new queue length. If this was the last message in the queue being
-    // acked, then we return a special status code indicating that. Note that the query will
-    // include the message being acked.
-
-    int messageCount = ofy().doTransactionless(() -> getPollMessagesQuery(clientId, now).count());
-    if (!includeAckedMessageInCount) {
+    // We need to return the new queue length. The queue can't be brought up to date inside this
+    // transaction, since that takes queries, so it is counted before the ack, including the
+    // message being acked.
+    PollMessageQueue queue = ofy().doTransactionless(() -> PollMessageQueue.load(clientId, now));
+    int messageCount = ofy().doTransactionless(() -> queue.getMessageCount(now));
+
+    Optional<PollMessage.Autorenew> requeued = ackPollMessage(pollMessage);
+    // The acked message is still counted if it is an autorenew poll message whose next event is
+    // already ready to be delivered. If this was the last message in the queue being acked, then
+    // we return a special status code indicating that.
+    if (!requeued.isPresent() || !isBeforeOrAt(requeued.get().getEventTime(), now)) {
       messageCount--;
     }
     if (messageCount <= 0) {
@@ -14,10 +14,11 @@
 
 package google.registry.flows.poll;
 
+import static com.google.common.base.Preconditions.checkState;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 
-import com.googlecode.objectify.cmd.Query;
 import google.registry.model.poll.PollMessage;
+import java.util.Optional;
 import org.joda.time.DateTime;
 
 /** Static utility functions for poll flows. */
@@ -25,12 +26,30 @@ public final class PollFlowUtils {
 
   private PollFlowUtils() {}
 
-  /** Returns a query for poll messages for the logged in registrar which are not in the future. */
-  static Query<PollMessage> getPollMessagesQuery(String clientId, DateTime now) {
-    return ofy().load()
-        .type(PollMessage.class)
-        .filter("clientId", clientId)
-        .filter("eventTime <=", now.toDate())
-        .order("eventTime");
+  /**
+   * Acks a poll message in the current transaction.
+   *
+   * <p>One-time poll messages are deleted once acked, whereas autorenew poll messages have their
+   * event time moved forward by a year, unless that is past the end of their recurrence, in which
+   * case they have no more events to deliver and are deleted too.
+   *
+   * @return the autorenew poll message with its next event time, or empty if it was deleted
+   */
+  public static Optional<PollMessage.Autorenew> ackPollMessage(PollMessage pollMessage) {
+    if (pollMessage instanceof PollMessage.OneTime) {
+      ofy().delete().entity(pollMessage);
+      return Optional.empty();
+    }
+    checkState(pollMessage instanceof PollMessage.Autorenew, "Unknown poll message type");
+    PollMessage.Autorenew autorenewPollMessage = (PollMessage.Autorenew) pollMessage;
+    DateTime nextEventTime = autorenewPollMessage.getEventTime().plusYears(1);
+    if (!nextEventTime.isBefore(autorenewPollMessage.getAutorenewEndTime())) {
+      ofy().delete().entity(autorenewPollMessage);
+      return Optional.empty();
+    }
+    PollMessage.Autorenew requeued =
+        autorenewPollMessage.asBuilder().setEventTime(nextEventTime).build();
+    ofy().save().entity(requeued);
+    return Optional.of(requeued);
   }
 }
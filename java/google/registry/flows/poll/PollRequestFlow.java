@@ -15,7 +15,6 @@
 package google.registry.flows.poll;
 
 import static google.registry.flows.FlowUtils.validateClientIsLoggedIn;
-import static google.registry.flows.poll.PollFlowUtils.getPollMessagesQuery;
 import static google.registry.model.eppoutput.Result.Code.SUCCESS_WITH_ACK_MESSAGE;
 import static google.registry.model.eppoutput.Result.Code.SUCCESS_WITH_NO_MESSAGES;
 import static google.registry.model.poll.PollMessageExternalKeyConverter.makePollMessageExternalId;
@@ -26,22 +25,27 @@ import google.registry.flows.ExtensionManager;
 import google.registry.flows.Flow;
 import google.registry.flows.FlowModule.ClientId;
 import google.registry.flows.FlowModule.PollMessageId;
+import google.registry.flows.async.AsyncFlowEnqueuer;
 import google.registry.model.eppoutput.EppResponse;
 import google.registry.model.poll.MessageQueueInfo;
 import google.registry.model.poll.PollMessage;
 import google.registry.model.poll.PollMessageExternalKeyConverter;
+import google.registry.model.poll.PollMessageQueue;
 import google.registry.util.Clock;
+import java.util.Optional;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 
 /**
  * An EPP flow for requesting {@link PollMessage}s.
  *
- * <p>This flow uses an eventually consistent Datastore query to return the oldest poll message for
- * the registrar, as well as the total number of pending messages. Note that poll messages whose
+ * <p>This flow returns the oldest poll message for the registrar, as well as the total number of
+ * pending messages, from the registrar's {@link PollMessageQueue}, which only needs to query for
+ * the messages that became deliverable in the last few minutes. Note that poll messages whose
  * event time is in the future (i.e. they are speculative and could still be changed or rescinded)
  * are ignored. The externally visible id for the poll message that the registrar sees is generated
- * by {@link PollMessageExternalKeyConverter}.
+ * by {@link PollMessageExternalKeyConverter}. When the count of the queue is due to be redone from
+ * a full scan, that is left to a backend task, and the stale count is returned meanwhile.
  *
  * @error {@link PollRequestFlow.UnexpectedMessageIdException}
  */
@@ -51,6 +55,7 @@ public class PollRequestFlow implements Flow {
   @Inject @ClientId String clientId;
   @Inject @PollMessageId String messageId;
   @Inject Clock clock;
+  @Inject AsyncFlowEnqueuer asyncFlowEnqueuer;
   @Inject EppResponse.Builder responseBuilder;
   @Inject PollRequestFlow() {}
 
@@ -63,16 +68,22 @@ public class PollRequestFlow implements Flow {
     }
     // Return the oldest message from the queue.
     DateTime now = clock.nowUtc();
-    PollMessage pollMessage = getPollMessagesQuery(clientId, now).first().now();
-    if (pollMessage == null) {
+    PollMessageQueue queue = PollMessageQueue.load(clientId, now);
+    queue.saveIfNeeded();
+    if (queue.isRecountDue(now)) {
+      asyncFlowEnqueuer.enqueuePollMessageRecount(queue);
+    }
+    Optional<PollMessage> firstMessage = queue.getFirstMessage(now);
+    if (!firstMessage.isPresent()) {
       return responseBuilder.setResultFromCode(SUCCESS_WITH_NO_MESSAGES).build();
     }
+    PollMessage pollMessage = firstMessage.get();
     return responseBuilder
         .setResultFromCode(SUCCESS_WITH_ACK_MESSAGE)
         .setMessageQueueInfo(new MessageQueueInfo.Builder()
             .setQueueDate(pollMessage.getEventTime())
             .setMsg(pollMessage.getMsg())
-            .setQueueLength(getPollMessagesQuery(clientId, now).count())
+            .setQueueLength(queue.getMessageCount(now))
             .setMessageId(makePollMessageExternalId(pollMessage))
             .build())
         .setMultipleResData(pollMessage.getResponseData())
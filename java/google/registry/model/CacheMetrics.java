@@ -0,0 +1,103 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.monitoring.metrics.DistributionFitter;
+import com.google.monitoring.metrics.EventMetric;
+import com.google.monitoring.metrics.ExponentialFitter;
+import com.google.monitoring.metrics.IncrementableMetric;
+import com.google.monitoring.metrics.LabelDescriptor;
+import com.google.monitoring.metrics.MetricRegistryImpl;
+import org.joda.time.Duration;
+
+/** Metrics for the in-memory caches of singletons made by {@link CacheUtils}. */
+final class CacheMetrics {
+
+  /** Outcome of a lookup that was served a value that wasn't due for a refresh. */
+  static final String FRESH = "fresh";
+
+  /** Outcome of a lookup that was served a stale value while another caller refreshed it. */
+  static final String STALE = "stale";
+
+  /** Outcome of a lookup that refreshed a stale value, and was served the new one. */
+  static final String REFRESHED = "refreshed";
+
+  /** Outcome of a lookup that failed to refresh a stale value, and was served the stale one. */
+  static final String REFRESH_FAILED = "refresh_failed";
+
+  /** Outcome of a lookup that had to wait for a value, because there was none it could serve. */
+  static final String LOADED = "loaded";
+
+  private static final LabelDescriptor CACHE_LABEL =
+      LabelDescriptor.create("cache", "Name of the cache.");
+
+  // Allows values between 1ms and 4^14ms (about 3 days).
+  private static final DistributionFitter EXPONENTIAL_FITTER =
+      ExponentialFitter.create(14, 4.0, 1.0);
+
+  @VisibleForTesting
+  static final IncrementableMetric lookupsMetric =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/cache/lookups",
+              "Count of lookups of cached singletons",
+              "count",
+              ImmutableSet.of(
+                  CACHE_LABEL,
+                  LabelDescriptor.create(
+                      "outcome",
+                      "One of fresh, stale, refreshed, refresh_failed or loaded.")));
+
+  @VisibleForTesting
+  static final EventMetric loadTimeMetric =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/cache/load_time",
+              "Time taken to load or refresh a cached singleton",
+              "milliseconds",
+              ImmutableSet.of(
+                  CACHE_LABEL,
+                  LabelDescriptor.create("success", "Whether the load succeeded.")),
+              EXPONENTIAL_FITTER);
+
+  @VisibleForTesting
+  static final EventMetric stalenessMetric =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/cache/staleness",
+              "How long past its refresh time a cached singleton was when it was served",
+              "milliseconds",
+              ImmutableSet.of(CACHE_LABEL),
+              EXPONENTIAL_FITTER);
+
+  private CacheMetrics() {}
+
+  /** Records a lookup in the named cache. */
+  static void recordLookup(String cacheName, String outcome) {
+    lookupsMetric.increment(cacheName, outcome);
+  }
+
+  /** Records an attempt to load a value into the named cache. */
+  static void recordLoad(String cacheName, Duration loadTime, boolean success) {
+    loadTimeMetric.record(loadTime.getMillis(), cacheName, String.valueOf(success));
+  }
+
+  /** Records that a value was served from the named cache {@code staleness} past its refresh. */
+  static void recordStaleness(String cacheName, Duration staleness) {
+    stalenessMetric.record(staleness.getMillis(), cacheName);
+  }
+}
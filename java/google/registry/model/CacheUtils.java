@@ -14,27 +14,43 @@
 
 package google.registry.model;
 
-import static com.google.common.base.Suppliers.memoizeWithExpiration;
+import static google.registry.config.RegistryConfig.getSingletonCacheMaxStaleness;
 import static google.registry.config.RegistryConfig.getSingletonCacheRefreshDuration;
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.joda.time.Duration.ZERO;
 
 import com.google.common.base.Supplier;
+import google.registry.util.SystemClock;
 import org.joda.time.Duration;
 
 /** Utility methods related to caching Datastore entities. */
 public class CacheUtils {
 
   /**
-   * Memoize a supplier, with a short expiration specified in the environment config.
+   * Memoize a supplier, refreshing it after the short duration specified in the environment config.
    *
    * <p>Use this for things that might change while code is running. (For example, the various
    * lists downloaded from the TMCH get updated in Datastore and the caches need to be refreshed.)
+   *
+   * @param name the name of the cache, used to label its metrics
+   * @see #memoizeWithRefresh(String, Duration, Supplier)
+   */
+  public static <T> Supplier<T> memoizeWithRefresh(String name, Supplier<T> original) {
+    return memoizeWithRefresh(name, getSingletonCacheRefreshDuration(), original);
+  }
+
+  /**
+   * Memoize a supplier, refreshing it once it is older than {@code refreshInterval}.
+   *
+   * <p>A refresh is done by the first caller to find the value due for one, while other callers
+   * keep getting the old value, which is served for up to the configured maximum staleness past its
+   * refresh time. Lookups, load times and staleness are reported as metrics labeled with {@code
+   * name}. A zero {@code refreshInterval} disables memoization altogether.
    */
-  public static <T> Supplier<T> memoizeWithShortExpiration(Supplier<T> original) {
-    Duration expiration = getSingletonCacheRefreshDuration();
-    return expiration.isEqual(ZERO)
+  public static <T> Supplier<T> memoizeWithRefresh(
+      String name, Duration refreshInterval, Supplier<T> original) {
+    return refreshInterval.isEqual(ZERO)
         ? original
-        : memoizeWithExpiration(original, expiration.getMillis(), MILLISECONDS);
+        : new RefreshingSupplier<>(
+            name, original, refreshInterval, getSingletonCacheMaxStaleness(), new SystemClock());
   }
 }
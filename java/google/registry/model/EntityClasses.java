@@ -26,6 +26,8 @@ import google.registry.model.domain.DomainResource;
 import google.registry.model.domain.token.AllocationToken;
 import google.registry.model.host.HostResource;
 import google.registry.model.index.DomainApplicationIndex;
+import google.registry.model.index.DomainReferenceIndex;
+import google.registry.model.index.DomainReferenceIndexShard;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.EppResourceIndexBucket;
 import google.registry.model.index.ForeignKeyIndex;
@@ -35,6 +37,7 @@ import google.registry.model.ofy.CommitLogCheckpointRoot;
 import google.registry.model.ofy.CommitLogManifest;
 import google.registry.model.ofy.CommitLogMutation;
 import google.registry.model.poll.PollMessage;
+import google.registry.model.poll.PollMessageQueue;
 import google.registry.model.rde.RdeRevision;
 import google.registry.model.registrar.Registrar;
 import google.registry.model.registrar.RegistrarContact;
@@ -77,6 +80,8 @@ public final class EntityClasses {
           DomainApplication.class,
           DomainApplicationIndex.class,
           DomainBase.class,
+          DomainReferenceIndex.class,
+          DomainReferenceIndexShard.class,
           DomainResource.class,
           EntityGroupRoot.class,
           EppResourceIndex.class,
@@ -93,6 +98,7 @@ public final class EntityClasses {
           PollMessage.class,
           PollMessage.Autorenew.class,
           PollMessage.OneTime.class,
+          PollMessageQueue.class,
           PremiumList.class,
           PremiumList.PremiumListEntry.class,
           PremiumList.PremiumListRevision.class,
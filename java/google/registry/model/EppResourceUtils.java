@@ -15,13 +15,19 @@
 package google.registry.model;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.DateTimeUtils.isAtOrAfter;
 import static google.registry.util.DateTimeUtils.isBeforeOrAt;
 import static google.registry.util.DateTimeUtils.latestOf;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.flogger.FluentLogger;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.Result;
@@ -36,13 +42,19 @@ import google.registry.model.contact.ContactResource;
 import google.registry.model.domain.DomainApplication;
 import google.registry.model.domain.DomainBase;
 import google.registry.model.eppcommon.StatusValue;
+import google.registry.model.index.DomainReferenceIndex;
+import google.registry.model.index.DomainReferenceIndexShard;
 import google.registry.model.index.ForeignKeyIndex;
 import google.registry.model.ofy.CommitLogManifest;
 import google.registry.model.ofy.CommitLogMutation;
 import google.registry.model.registry.Registry;
 import google.registry.model.transfer.TransferData;
 import google.registry.model.transfer.TransferStatus;
+import google.registry.util.NonFinalForTesting;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.function.Function;
@@ -55,6 +67,12 @@ public final class EppResourceUtils {
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  /** Number of domains to load at a time when checking domain reference index entries. */
+  private static final int LINKED_DOMAIN_BATCH_SIZE = 100;
+
+  @NonFinalForTesting @VisibleForTesting
+  static boolean useDomainReferenceIndex = RegistryConfig.useDomainReferenceIndex();
+
   /** Returns the full domain repoId in the format HEX-TLD for the specified long id and tld. */
   public static String createDomainRepoId(long repoId, String tld) {
     return createRepoId(repoId, Registry.get(tld).getRoidSuffix());
@@ -97,6 +115,47 @@ public final class EppResourceUtils {
     return loadByForeignKeyHelper(clazz, foreignKey, now, false);
   }
 
+  /**
+   * Loads the last created versions of many {@link EppResource}s from Datastore by foreign key.
+   *
+   * <p>This is the bulk equivalent of {@link #loadByForeignKey}. All of the {@link
+   * ForeignKeyIndex} entities are fetched in one batch load, and all of the resources they point to
+   * in a second, so the number of Datastore round trips doesn't grow with the number of foreign
+   * keys. The returned map omits every foreign key for which {@link #loadByForeignKey} would have
+   * returned null, and each resource is projected forward in the same way.
+   *
+   * @param clazz the resource type to load
+   * @param foreignKeys ids to match
+   * @param now the current logical time to project resources at
+   */
+  public static <T extends EppResource> ImmutableMap<String, T> loadByForeignKeys(
+      Class<T> clazz, Collection<String> foreignKeys, DateTime now) {
+    checkArgument(
+        ForeignKeyedEppResource.class.isAssignableFrom(clazz),
+        "loadByForeignKeys may only be called for foreign keyed EPP resources");
+    // The value of fki.getResourceKey() might be null for hard-deleted prober data.
+    ImmutableMap<String, Key<T>> resourceKeys =
+        ForeignKeyIndex.load(clazz, foreignKeys, now)
+            .entrySet()
+            .stream()
+            .filter(entry -> entry.getValue().getResourceKey() != null)
+            .collect(toImmutableMap(Entry::getKey, entry -> entry.getValue().getResourceKey()));
+    Map<Key<T>, T> resources = ofy().load().keys(resourceKeys.values());
+    ImmutableMap.Builder<String, T> results = new ImmutableMap.Builder<>();
+    resourceKeys.forEach(
+        (foreignKey, resourceKey) -> {
+          T resource = resources.get(resourceKey);
+          if (resource != null && !isAtOrAfter(now, resource.getDeletionTime())) {
+            // Project forward exactly as loadByForeignKeyHelper() does; see comment there.
+            results.put(
+                foreignKey,
+                cloneProjectedAtTime(
+                    resource, latestOf(now, resource.getUpdateAutoTimestamp().getTimestamp())));
+          }
+        });
+    return results.build();
+  }
+
   /**
    * Loads the last created version of an {@link EppResource} from Datastore by foreign key, using a
    * cache.
@@ -295,6 +354,7 @@ public final class EppResourceUtils {
    *
    * @return an asynchronous operation returning resource at {@code timestamp} or {@code null} if
    *     resource is deleted or not yet created
+   * @see PointInTimeLoader
    */
   public static <T extends EppResource>
       Result<T> loadAtPointInTime(final T resource, final DateTime timestamp) {
@@ -310,13 +370,20 @@ public final class EppResourceUtils {
         (isAtOrAfter(timestamp, resource.getUpdateAutoTimestamp().getTimestamp()))
             ? new ResultNow<>(resource)
             : loadMostRecentRevisionAtTime(resource, timestamp);
-    return () -> {
-      T loadedResource = loadResult.now();
-      return (loadedResource == null) ? null
-          : (isActive(loadedResource, timestamp)
-              ? cloneProjectedAtTime(loadedResource, timestamp)
-              : null);
-    };
+    return () -> projectIfActive(loadResult.now(), timestamp);
+  }
+
+  /**
+   * Returns a revision of a resource projected forward to {@code timestamp}, or null if the
+   * resource is null or isn't active at that time.
+   */
+  @Nullable
+  static <T extends EppResource> T projectIfActive(
+      @Nullable T loadedResource, DateTime timestamp) {
+    return (loadedResource == null) ? null
+        : (isActive(loadedResource, timestamp)
+            ? cloneProjectedAtTime(loadedResource, timestamp)
+            : null);
   }
 
   /**
@@ -336,21 +403,30 @@ public final class EppResourceUtils {
     }
     final Result<CommitLogMutation> mutationResult =
         ofy().load().key(CommitLogMutation.createKey(revision, resourceKey));
-    return () -> {
-      CommitLogMutation mutation = mutationResult.now();
-      if (mutation != null) {
-        return ofy().load().fromEntity(mutation.getEntity());
-      }
-      logger.atSevere().log(
-          "Couldn't load mutation for revision at %s for %s, falling back to resource."
-              + " Revision: %s",
-          timestamp, resourceKey, revision);
-      return resource;
-    };
+    return () -> loadFromMutation(mutationResult.now(), resource, revision, timestamp);
+  }
+
+  /**
+   * Returns the revision of a resource saved by a loaded mutation, falling back to the resource
+   * as-is if the mutation couldn't be loaded.
+   */
+  static <T extends EppResource> T loadFromMutation(
+      @Nullable CommitLogMutation mutation,
+      T resource,
+      Key<CommitLogManifest> revision,
+      DateTime timestamp) {
+    if (mutation != null) {
+      return ofy().load().fromEntity(mutation.getEntity());
+    }
+    logger.atSevere().log(
+        "Couldn't load mutation for revision at %s for %s, falling back to resource."
+            + " Revision: %s",
+        timestamp, Key.create(resource), revision);
+    return resource;
   }
 
   @Nullable
-  private static <T extends EppResource> Key<CommitLogManifest>
+  static <T extends EppResource> Key<CommitLogManifest>
       findMostRecentRevisionAtTime(final T resource, final DateTime timestamp) {
     final Key<T> resourceKey = Key.create(resource);
     Entry<?, Key<CommitLogManifest>> revision = resource.getRevisions().floorEntry(timestamp);
@@ -390,16 +466,72 @@ public final class EppResourceUtils {
         .filter("deletionTime >", now);
   }
 
+  /**
+   * Returns the keys of up to {@code limit} domains or applications that reference a specified
+   * contact or host, found through the {@link DomainReferenceIndex}.
+   *
+   * <p>This is strongly consistent, since it only runs ancestor queries over the index and loads
+   * domains by key. Each index entry is checked against its domain, so stale entries are skipped.
+   * The result is only complete once the index has been backfilled; see {@link
+   * DomainReferenceIndex}.
+   *
+   * @param key the referent key
+   * @param now the logical time of the check
+   * @param limit the maximum number of keys to return
+   */
+  public static ImmutableSet<Key<DomainBase>> getLinkedDomainKeys(
+      Key<? extends EppResource> key, DateTime now, int limit) {
+    Set<Key<DomainBase>> linkedDomainKeys = new LinkedHashSet<>();
+    for (Key<DomainReferenceIndexShard> shardKey : DomainReferenceIndexShard.getAllShardKeys(key)) {
+      for (List<DomainReferenceIndex> entries :
+          Iterables.partition(
+              ofy().load().type(DomainReferenceIndex.class).ancestor(shardKey),
+              LINKED_DOMAIN_BATCH_SIZE)) {
+        Map<Key<DomainBase>, DomainBase> domains =
+            ofy()
+                .load()
+                .keys(
+                    entries
+                        .stream()
+                        .map(DomainReferenceIndex::getDomain)
+                        .collect(toImmutableList()));
+        for (DomainReferenceIndex entry : entries) {
+          DomainBase domain = domains.get(entry.getDomain());
+          if (domain != null
+              && now.isBefore(domain.getDeletionTime())
+              && DomainReferenceIndex.getReferences(domain).contains(key)) {
+            linkedDomainKeys.add(entry.getDomain());
+            if (linkedDomainKeys.size() == limit) {
+              return ImmutableSet.copyOf(linkedDomainKeys);
+            }
+          }
+        }
+      }
+    }
+    return ImmutableSet.copyOf(linkedDomainKeys);
+  }
+
   /**
    * Returns whether the given contact or host is linked to (that is, referenced by) a domain.
    *
-   * <p>This is an eventually consistent query.
+   * <p>This is an eventually consistent query, unless {@link #usesDomainReferenceIndex} is true.
    *
    * @param key the referent key
    * @param now the logical time of the check
    */
   public static boolean isLinked(Key<? extends EppResource> key, DateTime now) {
-    return queryForLinkedDomains(key, now).limit(1).count() > 0;
+    return useDomainReferenceIndex
+        ? !getLinkedDomainKeys(key, now, 1).isEmpty()
+        : queryForLinkedDomains(key, now).limit(1).count() > 0;
+  }
+
+  /**
+   * Returns whether linked checks use the {@link DomainReferenceIndex}.
+   *
+   * @see RegistryConfig#useDomainReferenceIndex()
+   */
+  public static boolean usesDomainReferenceIndex() {
+    return useDomainReferenceIndex;
   }
 
   /** Exception to throw when failing to parse a repo id. */
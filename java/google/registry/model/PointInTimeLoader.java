@@ -0,0 +1,277 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static google.registry.model.EppResourceUtils.findMostRecentRevisionAtTime;
+import static google.registry.model.EppResourceUtils.loadFromMutation;
+import static google.registry.model.EppResourceUtils.projectIfActive;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.DateTimeUtils.isAtOrAfter;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.monitoring.metrics.EventMetric;
+import com.google.monitoring.metrics.ExponentialFitter;
+import com.google.monitoring.metrics.IncrementableMetric;
+import com.google.monitoring.metrics.LabelDescriptor;
+import com.google.monitoring.metrics.MetricRegistryImpl;
+import com.googlecode.objectify.Key;
+import google.registry.model.ofy.CommitLogManifest;
+import google.registry.model.ofy.CommitLogMutation;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.joda.time.DateTime;
+
+/**
+ * Loads {@link EppResource}s as they were at points in time, in batches and through a cache.
+ *
+ * <p>{@link EppResourceUtils#loadAtPointInTime} fetches the {@link CommitLogMutation} of each
+ * resource it rewinds on its own. Mapreduces that rewind every resource to the same watermark,
+ * such as RDE staging and zone file generation, make one such fetch per resource, and also rewind
+ * the same resources (superordinate domains, shared nameservers) over and over. This loader
+ * collects the mutation keys of all the resources of a call, starts the multi-gets of all their
+ * batches before waiting on any of them, and keeps the rewound resources in a bounded cache keyed
+ * by point in time and resource key.
+ *
+ * <p>The state of a resource at a point in the past doesn't change, so cached resources never go
+ * stale, provided the point in time is far enough in the past for all writes before it to have
+ * been committed, which is already a requirement of {@link EppResourceUtils#loadAtPointInTime}.
+ * The rewound resources are the same as that method returns.
+ *
+ * <p>Instances are meant to be kept for the length of one job, or one mapper shard.
+ */
+@NotThreadSafe
+public final class PointInTimeLoader {
+
+  /** Default number of mutations fetched by each multi-get. */
+  public static final int DEFAULT_BATCH_SIZE = 500;
+
+  /** Default number of rewound resources kept in the cache. */
+  public static final int DEFAULT_MAX_CACHE_SIZE = 10000;
+
+  /** Outcome of a lookup served from the cache. */
+  @VisibleForTesting static final String CACHED = "cached";
+
+  /** Outcome of a lookup of a resource that hasn't changed since the point in time. */
+  @VisibleForTesting static final String CURRENT = "current";
+
+  /** Outcome of a lookup that was rewound by fetching a mutation. */
+  @VisibleForTesting static final String REWOUND = "rewound";
+
+  @VisibleForTesting
+  static final IncrementableMetric lookupsMetric =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/point_in_time_loader/lookups",
+              "Count of resources looked up at a point in time",
+              "count",
+              ImmutableSet.of(
+                  LabelDescriptor.create("outcome", "One of cached, current or rewound.")));
+
+  // Allows values between 1 and 2^12 (4096), which covers the largest batches Datastore serves.
+  @VisibleForTesting
+  static final EventMetric batchSizeMetric =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/point_in_time_loader/batch_size",
+              "Number of mutations fetched by one multi-get",
+              "count",
+              ImmutableSet.of(),
+              ExponentialFitter.create(12, 2.0, 1.0));
+
+  private final int batchSize;
+
+  /** Rewound resources by point in time and key, with empty for ones that didn't exist. */
+  private final Cache<Map.Entry<DateTime, Key<?>>, Optional<EppResource>> cache;
+
+  private PointInTimeLoader(int batchSize, long maxCacheSize) {
+    checkArgument(batchSize > 0, "batchSize must be positive");
+    this.batchSize = batchSize;
+    this.cache = CacheBuilder.newBuilder().maximumSize(maxCacheSize).build();
+  }
+
+  /** Creates a loader with the default batch and cache sizes. */
+  public static PointInTimeLoader create() {
+    return create(DEFAULT_BATCH_SIZE, DEFAULT_MAX_CACHE_SIZE);
+  }
+
+  /** Creates a loader that fetches up to {@code batchSize} mutations per multi-get. */
+  public static PointInTimeLoader create(int batchSize, long maxCacheSize) {
+    return new PointInTimeLoader(batchSize, maxCacheSize);
+  }
+
+  /**
+   * Returns {@code resource} as it was at {@code timestamp}, or null if it was deleted or not yet
+   * created.
+   *
+   * @see EppResourceUtils#loadAtPointInTime
+   */
+  @Nullable
+  public <T extends EppResource> T loadAtPointInTime(T resource, DateTime timestamp) {
+    return loadAtPointInTime(ImmutableList.of(resource), timestamp).get(Key.create(resource));
+  }
+
+  /**
+   * Returns the resource with the given key as it was at {@code timestamp}, or null if it doesn't
+   * exist, or was deleted or not yet created at that time.
+   *
+   * <p>Unlike the other methods, this doesn't load the current resource if it is cached.
+   */
+  @Nullable
+  public <T extends EppResource> T loadAtPointInTime(Key<T> key, DateTime timestamp) {
+    return loadByKeysAtPointInTime(ImmutableList.of(key), timestamp).get(key);
+  }
+
+  /**
+   * Returns the given resources as they were at {@code timestamp}, by key and in the same order,
+   * leaving out the ones that were deleted or not yet created at that time.
+   */
+  public <T extends EppResource> ImmutableMap<Key<T>, T> loadAtPointInTime(
+      Iterable<T> resources, DateTime timestamp) {
+    Map<Key<T>, Optional<T>> results = new LinkedHashMap<>();
+    Map<Key<CommitLogMutation>, Rewind<T>> rewinds = new LinkedHashMap<>();
+    for (T resource : resources) {
+      Key<T> key = Key.create(resource);
+      Optional<T> cached = getCached(timestamp, key);
+      if (cached != null) {
+        results.put(key, cached);
+        continue;
+      }
+      // If the resource was not modified after the requested time, use it as-is. If it wasn't
+      // created yet, it is projected to null.
+      if (timestamp.isBefore(resource.getCreationTime())
+          || isAtOrAfter(timestamp, resource.getUpdateAutoTimestamp().getTimestamp())) {
+        lookupsMetric.increment(CURRENT);
+        results.put(key, cache(timestamp, key, resource));
+        continue;
+      }
+      lookupsMetric.increment(REWOUND);
+      Key<CommitLogManifest> revision = findMostRecentRevisionAtTime(resource, timestamp);
+      if (revision == null) {
+        results.put(key, cache(timestamp, key, resource));
+        continue;
+      }
+      // Hold the place of the resource in the results until its mutation has been loaded.
+      results.put(key, Optional.empty());
+      rewinds.put(
+          CommitLogMutation.createKey(revision, key), new Rewind<>(key, resource, revision));
+    }
+    List<List<Key<CommitLogMutation>>> partitions =
+        Lists.partition(ImmutableList.copyOf(rewinds.keySet()), batchSize);
+    // Objectify starts each multi-get asynchronously, so the batches are all fetched in parallel.
+    List<Map<Key<CommitLogMutation>, CommitLogMutation>> batches = new ArrayList<>();
+    for (List<Key<CommitLogMutation>> partition : partitions) {
+      batchSizeMetric.record(partition.size());
+      batches.add(ofy().load().keys(partition));
+    }
+    for (int i = 0; i < partitions.size(); i++) {
+      Map<Key<CommitLogMutation>, CommitLogMutation> mutations = batches.get(i);
+      for (Key<CommitLogMutation> mutationKey : partitions.get(i)) {
+        Rewind<T> rewind = rewinds.get(mutationKey);
+        results.put(
+            rewind.key,
+            cache(
+                timestamp,
+                rewind.key,
+                loadFromMutation(
+                    mutations.get(mutationKey), rewind.resource, rewind.revision, timestamp)));
+      }
+    }
+    ImmutableMap.Builder<Key<T>, T> builder = new ImmutableMap.Builder<>();
+    for (Map.Entry<Key<T>, Optional<T>> entry : results.entrySet()) {
+      entry.getValue().ifPresent(resource -> builder.put(entry.getKey(), resource));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns the resources with the given keys as they were at {@code timestamp}, by key and in
+   * the same order, leaving out the ones that don't exist, or were deleted or not yet created at
+   * that time.
+   *
+   * <p>Only the current resources that aren't cached are loaded, with a single multi-get.
+   */
+  public <T extends EppResource> ImmutableMap<Key<T>, T> loadByKeysAtPointInTime(
+      Iterable<Key<T>> keys, DateTime timestamp) {
+    List<Key<T>> uncachedKeys = new ArrayList<>();
+    for (Key<T> key : keys) {
+      if (cache.getIfPresent(cacheKey(timestamp, key)) == null) {
+        uncachedKeys.add(key);
+      }
+    }
+    ImmutableMap<Key<T>, T> loaded =
+        loadAtPointInTime(ofy().load().keys(uncachedKeys).values(), timestamp);
+    ImmutableMap.Builder<Key<T>, T> builder = new ImmutableMap.Builder<>();
+    for (Key<T> key : keys) {
+      T resource = loaded.get(key);
+      if (resource == null) {
+        Optional<T> cached = getCached(timestamp, key);
+        resource = (cached == null) ? null : cached.orElse(null);
+      }
+      if (resource != null) {
+        builder.put(key, resource);
+      }
+    }
+    return builder.build();
+  }
+
+  /** Returns the cached resource at a point in time, or null if it isn't cached. */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  private <T extends EppResource> Optional<T> getCached(DateTime timestamp, Key<T> key) {
+    Optional<T> cached = (Optional<T>) cache.getIfPresent(cacheKey(timestamp, key));
+    if (cached != null) {
+      lookupsMetric.increment(CACHED);
+    }
+    return cached;
+  }
+
+  /** Projects a revision of a resource to a point in time, and caches the result. */
+  private <T extends EppResource> Optional<T> cache(
+      DateTime timestamp, Key<T> key, T revision) {
+    Optional<T> result = Optional.ofNullable(projectIfActive(revision, timestamp));
+    cache.put(cacheKey(timestamp, key), result.map(EppResource.class::cast));
+    return result;
+  }
+
+  private static Map.Entry<DateTime, Key<?>> cacheKey(DateTime timestamp, Key<?> key) {
+    return Maps.immutableEntry(timestamp, key);
+  }
+
+  /** A resource that needs rewinding to a revision. */
+  private static final class Rewind<T extends EppResource> {
+    final Key<T> key;
+    final T resource;
+    final Key<CommitLogManifest> revision;
+
+    Rewind(Key<T> key, T resource, Key<CommitLogManifest> revision) {
+      this.key = key;
+      this.resource = resource;
+      this.revision = revision;
+    }
+  }
+}
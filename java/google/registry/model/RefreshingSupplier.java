@@ -0,0 +1,154 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static google.registry.model.CacheMetrics.FRESH;
+import static google.registry.model.CacheMetrics.LOADED;
+import static google.registry.model.CacheMetrics.REFRESHED;
+import static google.registry.model.CacheMetrics.REFRESH_FAILED;
+import static google.registry.model.CacheMetrics.STALE;
+
+import com.google.common.base.Supplier;
+import com.google.common.flogger.FluentLogger;
+import google.registry.util.Clock;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * A memoizing {@link Supplier} that refreshes its value without making its other callers wait.
+ *
+ * <p>Once the value is older than the refresh interval, the first caller to notice reloads it,
+ * while all other callers keep getting the stale value until the new one is ready. If the reload
+ * fails, the stale value stays in place and the next caller tries again. Only when there is no
+ * value at all, or it is past its refresh time by more than the maximum staleness, do callers
+ * wait for a load, one at a time.
+ *
+ * <p>Reloads run on the thread of the caller that claimed them rather than on a background thread,
+ * because App Engine threads can't outlive the request that started them.
+ */
+@ThreadSafe
+final class RefreshingSupplier<T> implements Supplier<T> {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final String name;
+  private final Supplier<T> loader;
+  private final Duration refreshInterval;
+  private final Duration maxStaleness;
+  private final Clock clock;
+
+  private final Object loadLock = new Object();
+  private final AtomicBoolean isRefreshing = new AtomicBoolean();
+
+  @Nullable private volatile Snapshot<T> snapshot;
+
+  /**
+   * Creates a supplier of the values returned by {@code loader}.
+   *
+   * @param name the name of the cache, used to label its metrics
+   * @param refreshInterval how old a value can be before it is refreshed
+   * @param maxStaleness how long past its refresh time a value can still be served while it is
+   *     being refreshed, or while refreshing it fails
+   */
+  RefreshingSupplier(
+      String name,
+      Supplier<T> loader,
+      Duration refreshInterval,
+      Duration maxStaleness,
+      Clock clock) {
+    checkArgument(refreshInterval.isLongerThan(Duration.ZERO), "refreshInterval must be positive");
+    this.name = checkNotNull(name);
+    this.loader = checkNotNull(loader);
+    this.refreshInterval = refreshInterval;
+    this.maxStaleness = maxStaleness;
+    this.clock = clock;
+  }
+
+  @Override
+  public T get() {
+    Snapshot<T> current = snapshot;
+    DateTime now = clock.nowUtc();
+    if (current == null || isExpired(current, now)) {
+      return getBlocking();
+    }
+    DateTime refreshTime = current.loadTime.plus(refreshInterval);
+    if (now.isBefore(refreshTime)) {
+      CacheMetrics.recordLookup(name, FRESH);
+      return current.value;
+    }
+    CacheMetrics.recordStaleness(name, new Duration(refreshTime, now));
+    if (!isRefreshing.compareAndSet(false, true)) {
+      CacheMetrics.recordLookup(name, STALE);
+      return current.value;
+    }
+    try {
+      T value = load().value;
+      CacheMetrics.recordLookup(name, REFRESHED);
+      return value;
+    } catch (RuntimeException e) {
+      logger.atWarning().withCause(e).log(
+          "Failed to refresh cached %s, serving the value loaded at %s", name, current.loadTime);
+      CacheMetrics.recordLookup(name, REFRESH_FAILED);
+      return current.value;
+    } finally {
+      isRefreshing.set(false);
+    }
+  }
+
+  /** Waits for a value that can be served, loading it unless another caller already has. */
+  private T getBlocking() {
+    synchronized (loadLock) {
+      Snapshot<T> current = snapshot;
+      if (current == null || isExpired(current, clock.nowUtc())) {
+        current = load();
+      }
+      CacheMetrics.recordLookup(name, LOADED);
+      return current.value;
+    }
+  }
+
+  private Snapshot<T> load() {
+    DateTime start = clock.nowUtc();
+    boolean success = false;
+    try {
+      Snapshot<T> loaded = new Snapshot<>(loader.get(), start);
+      snapshot = loaded;
+      success = true;
+      return loaded;
+    } finally {
+      CacheMetrics.recordLoad(name, new Duration(start, clock.nowUtc()), success);
+    }
+  }
+
+  private boolean isExpired(Snapshot<T> current, DateTime now) {
+    return !now.isBefore(current.loadTime.plus(refreshInterval).plus(maxStaleness));
+  }
+
+  /** A loaded value, and the time its load started. */
+  private static final class Snapshot<T> {
+    final T value;
+    final DateTime loadTime;
+
+    Snapshot(T value, DateTime loadTime) {
+      this.value = value;
+      this.loadTime = loadTime;
+    }
+  }
+}
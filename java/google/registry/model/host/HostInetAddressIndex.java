@@ -0,0 +1,131 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.host;
+
+import static com.google.appengine.api.datastore.DatastoreServiceFactory.getDatastoreService;
+import static com.google.appengine.api.datastore.Query.FilterOperator.GREATER_THAN;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static google.registry.model.CacheUtils.memoizeWithRefresh;
+import static org.joda.time.DateTimeZone.UTC;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.PropertyProjection;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.collect.SortedSetMultimap;
+import com.google.common.net.InetAddresses;
+import com.googlecode.objectify.Key;
+import google.registry.model.EppResource;
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.Map;
+import org.joda.time.DateTime;
+
+/**
+ * An in-memory index from IP address to the keys of the live hosts that have that address.
+ *
+ * <p>This serves nameserver lookups by IP address without an index query per request.
+ *
+ * <p>The index is a snapshot that is rebuilt after the singleton cache refresh duration, so a host
+ * that gains an address shows up only after the next rebuild. Hosts that have been deleted or lost
+ * the address since are filtered out by {@link #loadLiveHosts} when they are loaded.
+ */
+public final class HostInetAddressIndex {
+
+  /** Number of hosts to load from the EPP resource cache at a time. */
+  private static final int LOAD_BATCH_SIZE = 100;
+
+  private static final String INET_ADDRESSES_PROPERTY = "inetAddresses";
+
+  private static final Supplier<HostInetAddressIndex> cache =
+      memoizeWithRefresh("host_inet_address_index", () -> load(DateTime.now(UTC)));
+
+  private final ImmutableMap<InetAddress, ImmutableList<Key<HostResource>>> hostKeys;
+
+  private HostInetAddressIndex(
+      ImmutableMap<InetAddress, ImmutableList<Key<HostResource>>> hostKeys) {
+    this.hostKeys = hostKeys;
+  }
+
+  /** Returns the index, rebuilding it if it is older than the singleton cache refresh duration. */
+  public static HostInetAddressIndex get() {
+    return cache.get();
+  }
+
+  /**
+   * Builds an index of the hosts that are live at {@code now}.
+   *
+   * <p>Only the keys and addresses of the hosts are needed, so rather than loading every live host,
+   * this is a projection query on their addresses, which returns a key and an address for each
+   * address of each host and skips the hosts without any.
+   */
+  static HostInetAddressIndex load(DateTime now) {
+    Query query =
+        new Query(Key.getKind(HostResource.class))
+            .setFilter(new FilterPredicate("deletionTime", GREATER_THAN, now.toDate()))
+            .addProjection(new PropertyProjection(INET_ADDRESSES_PROPERTY, String.class));
+    SortedSetMultimap<InetAddress, Key<HostResource>> hostKeys =
+        MultimapBuilder.hashKeys().treeSetValues().build();
+    for (Entity entity : getDatastoreService().prepare(query).asIterable()) {
+      hostKeys.put(
+          InetAddresses.forString((String) entity.getProperty(INET_ADDRESSES_PROPERTY)),
+          Key.create(entity.getKey()));
+    }
+    ImmutableMap.Builder<InetAddress, ImmutableList<Key<HostResource>>> builder =
+        new ImmutableMap.Builder<>();
+    for (Map.Entry<InetAddress, Collection<Key<HostResource>>> entry :
+        hostKeys.asMap().entrySet()) {
+      builder.put(entry.getKey(), ImmutableList.copyOf(entry.getValue()));
+    }
+    return new HostInetAddressIndex(builder.build());
+  }
+
+  /** Returns the keys of the hosts with the given address, in key order. */
+  public ImmutableList<Key<HostResource>> getHostKeys(InetAddress address) {
+    return hostKeys.getOrDefault(address, ImmutableList.of());
+  }
+
+  /**
+   * Returns the hosts with the given keys that are live at {@code now} and still have {@code
+   * address}, in the order of the keys.
+   *
+   * <p>The hosts are loaded lazily through the EPP resource cache, in batches, so callers that
+   * only need the first few hosts don't load the rest.
+   */
+  public static Iterable<HostResource> loadLiveHosts(
+      Iterable<Key<HostResource>> keys, InetAddress address, DateTime now) {
+    return Iterables.concat(
+        Iterables.transform(
+            Iterables.partition(keys, LOAD_BATCH_SIZE),
+            batch -> {
+              Map<Key<? extends EppResource>, EppResource> hosts =
+                  EppResource.loadCached(ImmutableList.<Key<? extends EppResource>>copyOf(batch));
+              return batch
+                  .stream()
+                  .map(key -> (HostResource) hosts.get(key))
+                  .filter(
+                      host ->
+                          host != null
+                              && now.isBefore(host.getDeletionTime())
+                              && host.getInetAddresses().contains(address))
+                  .collect(toImmutableList());
+            }));
+  }
+}
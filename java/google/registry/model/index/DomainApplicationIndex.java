@@ -16,10 +16,13 @@ package google.registry.model.index;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Strings.isNullOrEmpty;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static com.google.common.collect.ImmutableSetMultimap.toImmutableSetMultimap;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.CollectionUtils.isNullOrEmpty;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
@@ -110,6 +113,45 @@ public class DomainApplicationIndex extends BackupGroupRoot {
     });
   }
 
+  /**
+   * Returns the active DomainApplications for each of the given fully qualified domain names.
+   *
+   * <p>This is the batch version of {@link #loadActiveApplicationsByDomainName}: it loads all of
+   * the indexes in one batch, and then all of the applications they reference in another, rather
+   * than two round trips per domain name. Domain names without active applications have no entry
+   * in the returned multimap. The applications are loaded non-transactionally, for the same
+   * reasons.
+   */
+  public static ImmutableSetMultimap<String, DomainApplication>
+      loadActiveApplicationsByDomainNames(
+          Iterable<String> fullyQualifiedDomainNames, final DateTime now) {
+    ImmutableSet<Key<DomainApplication>> keys =
+        ofy()
+            .load()
+            .type(DomainApplicationIndex.class)
+            .ids(fullyQualifiedDomainNames)
+            .values()
+            .stream()
+            .flatMap(index -> index.getKeys().stream())
+            .collect(toImmutableSet());
+    if (keys.isEmpty()) {
+      return ImmutableSetMultimap.of();
+    }
+    // Perform eventually consistent query, to avoid overenlisting cross entity groups
+    return ofy()
+        .doTransactionless(
+            () ->
+                ofy()
+                    .load()
+                    .keys(keys)
+                    .values()
+                    .stream()
+                    .filter(app -> app.getDeletionTime().isAfter(now))
+                    .collect(
+                        toImmutableSetMultimap(
+                            DomainApplication::getFullyQualifiedDomainName, app -> app)));
+  }
+
   /**
    * Returns the DomainApplicationIndex for the given fully qualified domain name.
    *
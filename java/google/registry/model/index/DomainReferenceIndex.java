@@ -0,0 +1,224 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package google.registry.model.index;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.Sets.difference;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.TypeUtils.instantiate;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+import google.registry.config.RegistryConfig;
+import google.registry.model.BackupGroupRoot;
+import google.registry.model.EppResource;
+import google.registry.model.domain.DomainBase;
+import google.registry.util.NonFinalForTesting;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * An index entry recording that a domain or domain application references a contact or host.
+ *
+ * <p>This is the reverse of the references held by {@link DomainBase}, so that the domains linked
+ * to a contact or host can be found with strongly consistent ancestor queries over its entries,
+ * rather than with an eventually consistent query over all domains. The entries of a contact or
+ * host are spread over a fixed number of {@link DomainReferenceIndexShard} entity groups, so that
+ * creating many domains with the same popular nameserver doesn't contend on one entity group.
+ *
+ * <p>When the index is being written, domain flows and RDE imports save the entries for the
+ * references a domain gains before the domain itself is saved (see {@link
+ * #saveEntriesForAddedReferences}), so that every reference of a saved domain has an entry.
+ * Entries aren't removed when a domain drops a reference or is deleted, so an entry only means that
+ * the domain may reference the contact or host, and readers must check it against the domain
+ * itself. Stale entries are deleted, and the entries of domains saved before the index was written
+ * are backfilled, by {@code VerifyDomainReferenceIndexAction}.
+ */
+@Entity
+public class DomainReferenceIndex extends BackupGroupRoot {
+
+  /** The most entries to save in one transaction, to stay below its limit of 25 entity groups. */
+  private static final int MAX_ENTRIES_PER_TRANSACTION = 20;
+
+  /**
+   * How long an entry is considered recently saved.
+   *
+   * <p>This is well over the deadline of the request that saves an entry ahead of its domain, so by
+   * the time an entry is no longer recently saved, its domain has been saved or has failed to be.
+   */
+  private static final Duration RECENTLY_SAVED_DURATION = Duration.standardMinutes(10);
+
+  @NonFinalForTesting @VisibleForTesting
+  static boolean writeDomainReferenceIndex = RegistryConfig.writeDomainReferenceIndex();
+
+  @Parent
+  Key<DomainReferenceIndexShard> shard;
+
+  /** The web-safe string of the domain's key. */
+  @Id
+  String id;
+
+  /** The contact or host that is referenced. */
+  Key<? extends EppResource> referent;
+
+  /** The domain or domain application that references it. */
+  @Index
+  Key<DomainBase> domain;
+
+  public Key<? extends EppResource> getReferent() {
+    return referent;
+  }
+
+  public Key<DomainBase> getDomain() {
+    return domain;
+  }
+
+  /**
+   * Returns whether this entry was saved within the last {@link #RECENTLY_SAVED_DURATION}.
+   *
+   * <p>An entry that was recently saved may be for a domain whose transaction hasn't committed yet,
+   * so it must not be deleted as stale.
+   */
+  public boolean isRecentlySaved(DateTime now) {
+    return getUpdateAutoTimestamp().getTimestamp().isAfter(now.minus(RECENTLY_SAVED_DURATION));
+  }
+
+  /** Creates the entry for a domain referencing a contact or host. */
+  public static DomainReferenceIndex create(
+      Key<? extends EppResource> referentKey, Key<DomainBase> domainKey) {
+    DomainReferenceIndex instance = instantiate(DomainReferenceIndex.class);
+    instance.shard = DomainReferenceIndexShard.getShardKey(referentKey, domainKey);
+    instance.id = domainKey.getString();
+    instance.referent = referentKey;
+    instance.domain = domainKey;
+    return instance;
+  }
+
+  /** Returns the key of the entry for a domain referencing a contact or host. */
+  public static Key<DomainReferenceIndex> createKey(
+      Key<? extends EppResource> referentKey, Key<DomainBase> domainKey) {
+    return Key.create(
+        DomainReferenceIndexShard.getShardKey(referentKey, domainKey),
+        DomainReferenceIndex.class,
+        domainKey.getString());
+  }
+
+  /**
+   * Saves the entries for the contacts and hosts that {@code domain} references and {@code
+   * previousDomain} didn't, if the index is being written.
+   *
+   * <p>This is called within the transaction that saves the domain, but the entries are saved in
+   * new transactions that commit first, since they are in the entity groups of the references and
+   * would otherwise add too many entity groups to it. An entry is thus never missing for a saved
+   * domain, and if the domain's transaction fails, its entries are merely stale. Entries that
+   * already exist are saved again unless they were recently saved, so that the verifier doesn't
+   * delete an old entry for a reference that the domain is about to regain.
+   *
+   * @param previousDomain the domain before it was changed, or null if it is new
+   */
+  public static void saveEntriesForAddedReferences(
+      DomainBase domain, @Nullable DomainBase previousDomain) {
+    if (!writeDomainReferenceIndex) {
+      return;
+    }
+    Key<DomainBase> domainKey = Key.create(domain);
+    ImmutableSet<Key<? extends EppResource>> addedReferences =
+        previousDomain == null
+            ? getReferences(domain)
+            : difference(getReferences(domain), getReferences(previousDomain)).immutableCopy();
+    for (List<Key<? extends EppResource>> batch :
+        Iterables.partition(addedReferences, MAX_ENTRIES_PER_TRANSACTION)) {
+      ofy()
+          .transactNew(
+              () -> {
+                Map<Key<DomainReferenceIndex>, DomainReferenceIndex> existingEntries =
+                    ofy()
+                        .load()
+                        .keys(
+                            batch
+                                .stream()
+                                .map(referentKey -> createKey(referentKey, domainKey))
+                                .collect(toImmutableList()));
+                ImmutableList<DomainReferenceIndex> entriesToSave =
+                    batch
+                        .stream()
+                        .filter(
+                            referentKey -> {
+                              DomainReferenceIndex entry =
+                                  existingEntries.get(createKey(referentKey, domainKey));
+                              return entry == null
+                                  || !entry.isRecentlySaved(ofy().getTransactionTime());
+                            })
+                        .map(referentKey -> create(referentKey, domainKey))
+                        .collect(toImmutableList());
+                ofy().save().entities(entriesToSave);
+              });
+    }
+  }
+
+  /**
+   * Saves the entries that are missing for the contacts and hosts a domain references.
+   *
+   * <p>This is used to backfill the entries of domains saved before the index was written. Each
+   * entry is saved in a transaction of its own, after checking that the domain still has the
+   * reference. A deleted domain gets no entries.
+   *
+   * @return the number of entries saved
+   */
+  public static int saveMissingEntries(Key<DomainBase> domainKey) {
+    DomainBase domain = ofy().load().key(domainKey).now();
+    if (domain == null) {
+      return 0;
+    }
+    int saved = 0;
+    for (Key<? extends EppResource> referentKey : getReferences(domain)) {
+      boolean entrySaved =
+          ofy()
+              .transact(
+                  () -> {
+                    DomainBase currentDomain = ofy().load().key(domainKey).now();
+                    if (currentDomain == null
+                        || !ofy().getTransactionTime().isBefore(currentDomain.getDeletionTime())
+                        || !getReferences(currentDomain).contains(referentKey)
+                        || ofy().load().key(createKey(referentKey, domainKey)).now() != null) {
+                      return false;
+                    }
+                    ofy().save().entity(create(referentKey, domainKey));
+                    return true;
+                  });
+      if (entrySaved) {
+        saved++;
+      }
+    }
+    return saved;
+  }
+
+  /** Returns the keys of all the contacts and hosts that a domain references. */
+  public static ImmutableSet<Key<? extends EppResource>> getReferences(DomainBase domain) {
+    return new ImmutableSet.Builder<Key<? extends EppResource>>()
+        .addAll(domain.getReferencedContacts())
+        .addAll(domain.getNameservers())
+        .build();
+  }
+}
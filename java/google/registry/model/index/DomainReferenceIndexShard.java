@@ -0,0 +1,63 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package google.registry.model.index;
+
+import static google.registry.config.RegistryConfig.getDomainReferenceIndexShardCount;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import google.registry.model.EppResource;
+import google.registry.model.ImmutableObject;
+import google.registry.model.annotations.VirtualEntity;
+import google.registry.model.domain.DomainBase;
+
+/**
+ * A virtual entity to represent the entity groups that the {@link DomainReferenceIndex} entries of
+ * a contact or host are spread over.
+ */
+@Entity
+@VirtualEntity
+public class DomainReferenceIndexShard extends ImmutableObject {
+
+  /** The repo id of the contact or host, and the shard number, separated by a slash. */
+  @Id
+  String id;
+
+  /** Returns the key of the shard that holds the entry for a domain referencing a resource. */
+  static Key<DomainReferenceIndexShard> getShardKey(
+      Key<? extends EppResource> referentKey, Key<DomainBase> domainKey) {
+    int shardCount = getDomainReferenceIndexShardCount();
+    return getShardKey(
+        referentKey, Hashing.consistentHash(domainKey.getName().hashCode(), shardCount));
+  }
+
+  /** Returns the keys of all the shards of the entries of a contact or host. */
+  public static ImmutableList<Key<DomainReferenceIndexShard>> getAllShardKeys(
+      Key<? extends EppResource> referentKey) {
+    ImmutableList.Builder<Key<DomainReferenceIndexShard>> builder = new ImmutableList.Builder<>();
+    for (int shard = 0; shard < getDomainReferenceIndexShardCount(); shard++) {
+      builder.add(getShardKey(referentKey, shard));
+    }
+    return builder.build();
+  }
+
+  private static Key<DomainReferenceIndexShard> getShardKey(
+      Key<? extends EppResource> referentKey, int shard) {
+    return Key.create(
+        DomainReferenceIndexShard.class, String.format("%s/%d", referentKey.getName(), shard));
+  }
+}
@@ -20,7 +20,9 @@ import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static google.registry.config.RegistryConfig.getCommitLogBucketCount;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
+import static java.lang.Math.floorMod;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ContiguousSet;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
@@ -35,11 +37,12 @@ import google.registry.model.annotations.NotBackedUp;
 import google.registry.model.annotations.NotBackedUp.Reason;
 import google.registry.util.NonFinalForTesting;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 import org.joda.time.DateTime;
 
 /**
- * Root for a random commit log bucket.
+ * Root for an arbitrary commit log bucket.
  *
  * <p>This is used to shard {@link CommitLogManifest} objects into
  * {@link RegistryConfig#getCommitLogBucketCount() N} entity groups. This increases
@@ -94,7 +97,10 @@ public class CommitLogBucket extends ImmutableObject implements Buildable {
     return Range.closed(1, getCommitLogBucketCount());
   }
 
-  /** Returns an arbitrary numeric bucket ID.  Default behavior is randomly chosen IDs. */
+  /**
+   * Returns an arbitrary numeric bucket ID. Default behavior is to hand out the buckets of this
+   * instance in turn, starting from a random one.
+   */
   public static int getArbitraryBucketId() {
     return bucketIdSupplier.get();
   }
@@ -102,19 +108,40 @@ public class CommitLogBucket extends ImmutableObject implements Buildable {
   /**
    * Supplier of valid bucket IDs to use for {@link #getArbitraryBucketId()}.
    *
-   * <p>Default supplier is one that returns bucket IDs via uniform random selection, but can be
-   * overridden in tests that rely on predictable bucket assignment for commit logs.
+   * <p>Default supplier is a {@link RoundRobinBucketIdSupplier}, but can be overridden in tests
+   * that rely on predictable bucket assignment for commit logs.
    */
   @NonFinalForTesting
-  private static Supplier<Integer> bucketIdSupplier =
-      new Supplier<Integer>() {
-        private final Random random = new Random();
-
-        @Override
-        public Integer get() {
-          return random.nextInt(getCommitLogBucketCount()) + 1;  // Add 1 since IDs can't be 0.
-        }
-      };
+  private static Supplier<Integer> bucketIdSupplier = new RoundRobinBucketIdSupplier(new Random());
+
+  /**
+   * Supplier that hands out every bucket once before handing out any of them again.
+   *
+   * <p>Two transactions that pick the same bucket contend on it, and if they commit within the
+   * same millisecond the second one fails with a {@link TimestampInversionException} and has to be
+   * retried. With uniformly random buckets, concurrent transactions of a busy instance (such as
+   * the many EPP commands of one hot registrar) collide on some bucket long before every bucket is
+   * in use. Cycling through the buckets means that a bucket is only reused once all of the others
+   * have been, i.e. this always picks the least recently used bucket of the instance. The cycle
+   * starts at a random bucket so that instances don't all start out writing to the same buckets.
+   *
+   * <p>A retried transaction gets a new bucket on its next attempt, so it moves away from a
+   * contended bucket on its own.
+   */
+  @VisibleForTesting
+  static class RoundRobinBucketIdSupplier implements Supplier<Integer> {
+    private final AtomicInteger next;
+
+    RoundRobinBucketIdSupplier(Random random) {
+      next = new AtomicInteger(random.nextInt(Integer.MAX_VALUE));
+    }
+
+    @Override
+    public Integer get() {
+      // The bucket count is read each time since it can be changed in tests.
+      return floorMod(next.getAndIncrement(), getCommitLogBucketCount()) + 1;  // IDs can't be 0.
+    }
+  }
 
   /** Returns the loaded bucket for the given key, or a new object if the bucket doesn't exist. */
   public static CommitLogBucket loadBucket(Key<CommitLogBucket> bucketKey) {
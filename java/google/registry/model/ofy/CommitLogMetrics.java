@@ -0,0 +1,97 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.ofy;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.monitoring.metrics.DistributionFitter;
+import com.google.monitoring.metrics.EventMetric;
+import com.google.monitoring.metrics.ExponentialFitter;
+import com.google.monitoring.metrics.IncrementableMetric;
+import com.google.monitoring.metrics.LabelDescriptor;
+import com.google.monitoring.metrics.MetricRegistryImpl;
+import org.joda.time.Duration;
+
+/** Metrics for contention on commit log buckets. */
+class CommitLogMetrics {
+
+  /** Outcome label of an attempt that committed. */
+  static final String COMMITTED = "committed";
+
+  /** Outcome label of an attempt that Objectify retried after a concurrent modification. */
+  static final String CONCURRENT_MODIFICATION = "ConcurrentModificationException";
+
+  /** Bucket label of an attempt that failed before it was assigned a bucket. */
+  static final String NO_BUCKET = "none";
+
+  private static final ImmutableSet<LabelDescriptor> ATTEMPT_LABEL_DESCRIPTORS =
+      ImmutableSet.of(
+          LabelDescriptor.create("bucket", "Commit log bucket number."),
+          LabelDescriptor.create(
+              "outcome", "Either committed, or the simple name of the exception it failed with."));
+
+  private static final ImmutableSet<LabelDescriptor> LATENCY_LABEL_DESCRIPTORS =
+      ImmutableSet.of(LabelDescriptor.create("bucket", "Commit log bucket number."));
+
+  // Allows values between 10ms and 10*2^16ms, which is beyond the ~25 seconds of ofy retries.
+  private static final DistributionFitter EXPONENTIAL_FITTER =
+      ExponentialFitter.create(16, 2.0, 10.0);
+
+  @VisibleForTesting
+  static final IncrementableMetric attemptsMetric =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/commit_log/transaction/attempts",
+              "Count of attempts to commit a commit logged transaction",
+              "count",
+              ATTEMPT_LABEL_DESCRIPTORS);
+
+  @VisibleForTesting
+  static final EventMetric commitLatencyMetric =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/commit_log/transaction/commit_latency",
+              "Time to commit a commit logged transaction, including Objectify's own retries",
+              "milliseconds",
+              LATENCY_LABEL_DESCRIPTORS,
+              EXPONENTIAL_FITTER);
+
+  /**
+   * Records the attempts made by one call to Objectify's {@code transactNew()}.
+   *
+   * <p>Every attempt but the last was retried by Objectify itself, which it only does on a
+   * concurrent modification; the last one ended with {@code outcome}.
+   *
+   * @param bucketIds the bucket of each attempt, in order, which is empty if the transaction
+   *     failed before any attempt started
+   * @param outcome {@link #COMMITTED} or the simple name of the exception of the last attempt
+   */
+  void recordAttempts(ImmutableList<Integer> bucketIds, String outcome) {
+    if (bucketIds.isEmpty()) {
+      attemptsMetric.increment(NO_BUCKET, outcome);
+      return;
+    }
+    for (int i = 0; i < bucketIds.size() - 1; i++) {
+      attemptsMetric.increment(String.valueOf(bucketIds.get(i)), CONCURRENT_MODIFICATION);
+    }
+    attemptsMetric.increment(String.valueOf(bucketIds.get(bucketIds.size() - 1)), outcome);
+  }
+
+  /** Records the latency of a transaction that committed to {@code bucketId}. */
+  void recordCommit(int bucketId, Duration latency) {
+    commitLatencyMetric.record(latency.getMillis(), String.valueOf(bucketId));
+  }
+}
@@ -25,6 +25,7 @@ import static google.registry.model.ofy.CommitLogBucket.loadBucket;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.DateTimeUtils.isBeforeOrAt;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
@@ -33,7 +34,9 @@ import com.googlecode.objectify.Work;
 import google.registry.model.BackupGroupRoot;
 import google.registry.model.ImmutableObject;
 import google.registry.util.Clock;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -74,6 +77,15 @@ class CommitLoggedWork<R> extends VoidWork {
    */
   protected ImmutableSet<ImmutableObject> mutations = ImmutableSet.of();
 
+  /**
+   * The commit log bucket of each attempt to run this work, in order.
+   *
+   * <p>Objectify silently retries transactions that failed with a {@link
+   * java.util.ConcurrentModificationException}, so this is the only place where those attempts
+   * can be seen.
+   */
+  private final List<Integer> attemptBucketIds = new ArrayList<>();
+
   /** Lifecycle marker to track whether {@link #vrun} has been called. */
   private boolean vrunCalled;
 
@@ -105,13 +117,20 @@ class CommitLoggedWork<R> extends VoidWork {
     return mutations;
   }
 
+  /** Returns the commit log bucket of each attempt to run this work so far, in order. */
+  ImmutableList<Integer> getAttemptBucketIds() {
+    return ImmutableList.copyOf(attemptBucketIds);
+  }
+
   @Override
   public void vrun() {
     // The previous time will generally be null, except when using transactNew.
     TransactionInfo previous = Ofy.TRANSACTION_INFO.get();
     // Set the time to be used for "now" within the transaction.
     try {
-      Ofy.TRANSACTION_INFO.set(createNewTransactionInfo());
+      TransactionInfo info = createNewTransactionInfo();
+      attemptBucketIds.add((int) info.bucketKey.getId());
+      Ofy.TRANSACTION_INFO.set(info);
       result = work.run();
       saveCommitLog(Ofy.TRANSACTION_INFO.get());
     } finally {
@@ -25,6 +25,7 @@ import com.google.appengine.api.datastore.DatastoreFailureException;
 import com.google.appengine.api.datastore.DatastoreTimeoutException;
 import com.google.appengine.api.taskqueue.TransientFailureException;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Streams;
@@ -77,6 +78,8 @@ public class Ofy {
    */
   private final Clock injectedClock;
 
+  private static final CommitLogMetrics commitLogMetrics = new CommitLogMetrics();
+
   /** Retry for 8^2 * 100ms = ~25 seconds. */
   private static final int NUM_RETRIES = 8;
 
@@ -245,9 +248,13 @@ public class Ofy {
     for (long attempt = 0, sleepMillis = baseRetryMillis;
         true;
         attempt++, sleepMillis *= 2) {
+      DateTime startTime = getClock().nowUtc();
+      int previousAttempts = work.getAttemptBucketIds().size();
       try {
         ofy().transactNew(work);
-        return work.getResult();
+        R result = work.getResult();
+        recordCommit(work, previousAttempts, startTime);
+        return result;
       } catch (TransientFailureException
           | TimestampInversionException
           | DatastoreTimeoutException
@@ -257,8 +264,11 @@ public class Ofy {
         // However, Datastore exceptions might get thrown even if the transaction succeeded.
         if ((e instanceof DatastoreTimeoutException || e instanceof DatastoreFailureException)
             && checkIfAlreadySucceeded(work)) {
+          recordCommit(work, previousAttempts, startTime);
           return work.getResult();
         }
+        commitLogMetrics.recordAttempts(
+            getAttemptBucketIdsSince(work, previousAttempts), e.getClass().getSimpleName());
         if (attempt == NUM_RETRIES) {
           throw e;  // Give up.
         }
@@ -269,6 +279,21 @@ public class Ofy {
     }
   }
 
+  /** Records the attempts and commit latency of a commit logged transaction that committed. */
+  private void recordCommit(CommitLoggedWork<?> work, int previousAttempts, DateTime startTime) {
+    ImmutableList<Integer> bucketIds = getAttemptBucketIdsSince(work, previousAttempts);
+    commitLogMetrics.recordAttempts(bucketIds, CommitLogMetrics.COMMITTED);
+    commitLogMetrics.recordCommit(
+        bucketIds.get(bucketIds.size() - 1), new Duration(startTime, getClock().nowUtc()));
+  }
+
+  /** Returns the buckets of the attempts made since {@code previousAttempts} attempts ago. */
+  private static ImmutableList<Integer> getAttemptBucketIdsSince(
+      CommitLoggedWork<?> work, int previousAttempts) {
+    ImmutableList<Integer> bucketIds = work.getAttemptBucketIds();
+    return bucketIds.subList(previousAttempts, bucketIds.size());
+  }
+
   /**
    * We can determine whether a transaction has succeded by trying to read the commit log back in
    * its own retryable read-only transaction.
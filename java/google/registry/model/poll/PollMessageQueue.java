@@ -0,0 +1,407 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.poll;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.CollectionUtils.forceEmptyToNull;
+import static google.registry.util.CollectionUtils.nullToEmptyImmutableCopy;
+import static google.registry.util.DateTimeUtils.START_OF_TIME;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Embed;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.cmd.Query;
+import google.registry.model.ImmutableObject;
+import google.registry.model.annotations.NotBackedUp;
+import google.registry.model.annotations.NotBackedUp.Reason;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import javax.annotation.Nullable;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * The queue of {@link PollMessage}s pending for a registrar, kept so that poll requests and acks
+ * don't have to scan all of the registrar's messages.
+ *
+ * <p>Poll messages are spread over the entity groups of the resources they are about, so finding a
+ * registrar's oldest message takes an eventually consistent query, and counting its messages
+ * takes a scan of all of them. This entity instead holds the number of the registrar's messages
+ * with event times up to {@link #countedThrough}, along with the keys of the oldest of them in
+ * delivery order. Poll requests read it with a single get, and only query for the few messages
+ * after {@link #countedThrough}, which is kept a {@link #CONSISTENCY_MARGIN} behind the present so
+ * that messages whose writes haven't yet reached the index aren't skipped by the count.
+ *
+ * <p>Acks don't write the queue, so that they never contend on it. An acked message is deleted or
+ * rescheduled, and is dropped from the head, and from the count, when the queue is next loaded. A
+ * loaded queue is only saved if its head or count changed, or if it was counted at least a {@link
+ * #CONSISTENCY_MARGIN} further than the saved one, so that most polls don't write it either.
+ *
+ * <p>Poll messages are also created and deleted outside of the poll flows, for instance when a
+ * pending transfer is cancelled, without the queue being updated. Messages at the head of the
+ * queue are checked against Datastore before they are delivered, and the count is redone from a
+ * full scan once it is {@link #FULL_COUNT_INTERVAL} old, so such changes can only make the count
+ * briefly inexact, as the eventually consistent query it replaces could already be. The full scan
+ * can take too long for a poll request, so it is never done while loading the queue. Instead, the
+ * poll flow enqueues a task to {@link #recount} the queue when {@link #isRecountDue}, and serves
+ * the stale count meanwhile. A registrar without a saved queue likewise starts with a queue that
+ * only counts its oldest {@link #HEAD_SIZE} messages, until the task has counted the rest.
+ *
+ * <p>The queue is derived entirely from the poll messages, so it isn't backed up.
+ */
+@Entity
+@NotBackedUp(reason = Reason.AUTO_GENERATED)
+public class PollMessageQueue extends ImmutableObject {
+
+  /** Number of the oldest counted messages whose keys are kept at the head of the queue. */
+  @VisibleForTesting static final int HEAD_SIZE = 50;
+
+  /** How far behind the present messages are counted. */
+  @VisibleForTesting static final Duration CONSISTENCY_MARGIN = Duration.standardMinutes(2);
+
+  /** How long a count is trusted before it is redone from a full scan of the messages. */
+  @VisibleForTesting static final Duration FULL_COUNT_INTERVAL = Duration.standardHours(1);
+
+  /** The registrar whose messages these are. */
+  @Id String clientId;
+
+  /** The time through which messages are counted. */
+  DateTime countedThrough;
+
+  /** The time the messages were last counted from a full scan. */
+  DateTime fullyCountedAt;
+
+  /** The number of messages with event times at or before {@link #countedThrough}. */
+  int count;
+
+  /** The oldest of the counted messages, in delivery order. */
+  List<QueuedMessage> head;
+
+  /** Incremented on every save, so that concurrent saves don't overwrite each other. */
+  long version;
+
+  /** Whether this differs enough from the saved queue to be worth saving. */
+  @Ignore boolean needsSave;
+
+  public String getClientId() {
+    return clientId;
+  }
+
+  public DateTime getCountedThrough() {
+    return countedThrough;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  public DateTime getFullyCountedAt() {
+    return fullyCountedAt;
+  }
+
+  public ImmutableList<QueuedMessage> getHead() {
+    return nullToEmptyImmutableCopy(head);
+  }
+
+  public static Key<PollMessageQueue> createKey(String clientId) {
+    return Key.create(PollMessageQueue.class, clientId);
+  }
+
+  private static PollMessageQueue create(
+      String clientId,
+      DateTime countedThrough,
+      DateTime fullyCountedAt,
+      int count,
+      List<QueuedMessage> head,
+      long version) {
+    PollMessageQueue instance = new PollMessageQueue();
+    instance.clientId = clientId;
+    instance.countedThrough = countedThrough;
+    instance.fullyCountedAt = fullyCountedAt;
+    instance.count = count;
+    instance.head = forceEmptyToNull(ImmutableList.copyOf(head));
+    instance.version = version;
+    return instance;
+  }
+
+  /**
+   * Loads the queue of a registrar and brings it up to date as of {@code now}, without saving it.
+   *
+   * <p>This must be called outside of a transaction, since it queries for the messages that were
+   * added since the queue was last saved.
+   */
+  public static PollMessageQueue load(String clientId, DateTime now) {
+    PollMessageQueue stored = ofy().load().key(createKey(clientId)).now();
+    DateTime countThrough = now.minus(CONSISTENCY_MARGIN);
+    PollMessageQueue queue =
+        (stored == null)
+            ? countHead(clientId, countThrough, now)
+            : stored.countThrough(countThrough);
+    queue = queue.withValidatedHead();
+    queue.needsSave = queue.hasMovedFrom(stored);
+    return queue;
+  }
+
+  /**
+   * Returns whether the count of this queue is due to be redone from a full scan with {@link
+   * #recount}, either because it is old or because it was never fully counted.
+   */
+  public boolean isRecountDue(DateTime now) {
+    return fullyCountedAt.isBefore(now.minus(FULL_COUNT_INTERVAL));
+  }
+
+  /**
+   * Returns whether this queue has moved far enough from the saved one to be worth saving.
+   *
+   * <p>Merely counting a little further isn't worth a write, since the next load only has to query
+   * a slightly longer window of recent messages.
+   */
+  private boolean hasMovedFrom(@Nullable PollMessageQueue stored) {
+    return stored == null
+        || count != stored.count
+        || !getHead().equals(stored.getHead())
+        || !fullyCountedAt.equals(stored.fullyCountedAt)
+        || !countedThrough.isBefore(stored.countedThrough.plus(CONSISTENCY_MARGIN));
+  }
+
+  /**
+   * Recounts all of a registrar's messages with a full scan and saves the queue.
+   *
+   * <p>This can take long for a registrar with many messages, so it is only run by a backend task;
+   * see {@link #isRecountDue}. It must be called outside of a transaction.
+   */
+  public static void recount(String clientId, DateTime now) {
+    DateTime countThrough = now.minus(CONSISTENCY_MARGIN);
+    Query<PollMessage> query = queryMessages(clientId, null, countThrough);
+    PollMessageQueue queue =
+        create(
+            clientId,
+            countThrough,
+            now,
+            query.count(),
+            toQueuedMessages(query.limit(HEAD_SIZE).list()),
+            0);
+    ofy()
+        .transact(
+            () -> {
+              PollMessageQueue stored = ofy().load().key(createKey(clientId)).now();
+              ofy()
+                  .saveWithoutBackup()
+                  .entity(queue.withVersion(((stored == null) ? 0 : stored.version) + 1));
+            });
+  }
+
+  /**
+   * Marks the saved queue of a registrar as due to be recounted, for after many of its messages
+   * were acked at once, which would otherwise only be dropped from the count one by one.
+   *
+   * <p>The last full count is backdated to just before the interval, rather than reset, so that it
+   * differs from any earlier one.
+   */
+  public static void markForRecount(String clientId, DateTime now) {
+    ofy()
+        .transact(
+            () -> {
+              PollMessageQueue stored = ofy().load().key(createKey(clientId)).now();
+              if (stored != null) {
+                ofy()
+                    .saveWithoutBackup()
+                    .entity(
+                        create(
+                            clientId,
+                            stored.countedThrough,
+                            now.minus(FULL_COUNT_INTERVAL).minusMillis(1),
+                            stored.count,
+                            stored.getHead(),
+                            stored.version + 1));
+              }
+            });
+  }
+
+  /**
+   * Starts the queue of a registrar without a saved one, by loading the oldest of its messages
+   * through a time into the head.
+   *
+   * <p>Only a bounded number of messages is loaded. If the registrar has more, the count is just
+   * that of the head, and isn't fully counted until the queue is recounted.
+   */
+  private static PollMessageQueue countHead(String clientId, DateTime countThrough, DateTime now) {
+    List<PollMessage> messages =
+        queryMessages(clientId, null, countThrough).limit(HEAD_SIZE + 1).list();
+    boolean allCounted = messages.size() <= HEAD_SIZE;
+    ImmutableList<QueuedMessage> newHead =
+        toQueuedMessages(allCounted ? messages : messages.subList(0, HEAD_SIZE));
+    return create(
+        clientId, countThrough, allCounted ? now : START_OF_TIME, newHead.size(), newHead, 0);
+  }
+
+  /** Returns this queue with the messages up to a later time counted. */
+  private PollMessageQueue countThrough(DateTime countThrough) {
+    if (!countThrough.isAfter(countedThrough)) {
+      return this;
+    }
+    Query<PollMessage> query = queryMessages(clientId, countedThrough, countThrough);
+    int added = query.count();
+    List<QueuedMessage> newHead = new ArrayList<>(getHead());
+    // Newly counted messages come after all the others, so they only belong in the head if it
+    // already holds every counted message.
+    if (added > 0 && newHead.size() == count && newHead.size() < HEAD_SIZE) {
+      newHead.addAll(toQueuedMessages(query.limit(HEAD_SIZE - newHead.size()).list()));
+    }
+    return create(clientId, countThrough, fullyCountedAt, count + added, newHead, version);
+  }
+
+  /**
+   * Returns this queue with the messages at its head that were deleted or rescheduled since they
+   * were queued dropped, reloading the head if it empties while messages are still counted.
+   */
+  private PollMessageQueue withValidatedHead() {
+    List<QueuedMessage> newHead = new ArrayList<>(getHead());
+    int newCount = count;
+    boolean reloaded = false;
+    while (true) {
+      if (newHead.isEmpty()) {
+        if (newCount <= 0 || reloaded) {
+          break;
+        }
+        Query<PollMessage> query = queryMessages(clientId, null, countedThrough);
+        newHead.addAll(toQueuedMessages(query.limit(HEAD_SIZE).list()));
+        reloaded = true;
+        if (newHead.isEmpty()) {
+          // No messages are left to deliver, so any remaining count is stale.
+          newCount = 0;
+          break;
+        }
+        continue;
+      }
+      QueuedMessage first = newHead.get(0);
+      PollMessage message = ofy().load().key(first.key).now();
+      if (message != null && message.getEventTime().isEqual(first.eventTime)) {
+        break;
+      }
+      newHead.remove(0);
+      // A message that was rescheduled within the counted range is still counted, and is found
+      // again when the head is reloaded.
+      if (message == null || message.getEventTime().isAfter(countedThrough)) {
+        newCount--;
+      }
+    }
+    if (newHead.equals(getHead()) && newCount == count) {
+      return this;
+    }
+    return create(
+        clientId, countedThrough, fullyCountedAt, Math.max(newCount, 0), newHead, version);
+  }
+
+  /**
+   * Returns the oldest message that can be delivered at {@code now}, if there is one.
+   *
+   * <p>This must be called outside of a transaction.
+   */
+  public Optional<PollMessage> getFirstMessage(DateTime now) {
+    if (!getHead().isEmpty()) {
+      return Optional.ofNullable(ofy().load().key(getHead().get(0).key).now());
+    }
+    return Optional.ofNullable(queryMessages(clientId, countedThrough, now).first().now());
+  }
+
+  /**
+   * Returns the number of messages that can be delivered at {@code now}.
+   *
+   * <p>This must be called outside of a transaction.
+   */
+  public int getMessageCount(DateTime now) {
+    if (!now.isAfter(countedThrough)) {
+      return count;
+    }
+    return count + queryMessages(clientId, countedThrough, now).count();
+  }
+
+  /**
+   * Saves this queue in a new transaction if it is worth saving, unless it was saved concurrently.
+   */
+  public void saveIfNeeded() {
+    if (!needsSave) {
+      return;
+    }
+    ofy()
+        .transact(
+            () -> {
+              PollMessageQueue stored = ofy().load().key(createKey(clientId)).now();
+              if (((stored == null) ? 0 : stored.version) == version) {
+                ofy().saveWithoutBackup().entity(withVersion(version + 1));
+              }
+            });
+  }
+
+  private PollMessageQueue withVersion(long newVersion) {
+    return create(clientId, countedThrough, fullyCountedAt, count, getHead(), newVersion);
+  }
+
+  /**
+   * Returns a query for a registrar's messages with event times after {@code after}, if given, and
+   * at or before {@code atOrBefore}, in delivery order.
+   */
+  private static Query<PollMessage> queryMessages(
+      String clientId, @Nullable DateTime after, DateTime atOrBefore) {
+    Query<PollMessage> query =
+        ofy().load()
+            .type(PollMessage.class)
+            .filter("clientId", clientId)
+            .filter("eventTime <=", atOrBefore.toDate());
+    if (after != null) {
+      query = query.filter("eventTime >", after.toDate());
+    }
+    return query.order("eventTime");
+  }
+
+  private static ImmutableList<QueuedMessage> toQueuedMessages(List<PollMessage> messages) {
+    return messages.stream().map(QueuedMessage::create).collect(toImmutableList());
+  }
+
+  private static Key<PollMessage> createMessageKey(PollMessage message) {
+    return Key.create(message.getParentKey(), PollMessage.class, message.getId());
+  }
+
+  /** A counted message, with the event time it was counted at. */
+  @Embed
+  public static class QueuedMessage extends ImmutableObject {
+
+    Key<PollMessage> key;
+
+    DateTime eventTime;
+
+    public Key<PollMessage> getKey() {
+      return key;
+    }
+
+    public DateTime getEventTime() {
+      return eventTime;
+    }
+
+    static QueuedMessage create(PollMessage message) {
+      QueuedMessage instance = new QueuedMessage();
+      instance.key = createMessageKey(message);
+      instance.eventTime = message.getEventTime();
+      return instance;
+    }
+  }
+}
@@ -25,7 +25,7 @@ import static com.google.common.collect.Ordering.natural;
 import static com.google.common.collect.Sets.immutableEnumSet;
 import static com.google.common.io.BaseEncoding.base64;
 import static google.registry.config.RegistryConfig.getDefaultRegistrarWhoisServer;
-import static google.registry.model.CacheUtils.memoizeWithShortExpiration;
+import static google.registry.model.CacheUtils.memoizeWithRefresh;
 import static google.registry.model.common.EntityGroupRoot.getCrossTldKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.registry.Registries.assertTldsExist;
@@ -191,7 +191,8 @@ public class Registrar extends ImmutableObject implements Buildable, Jsonifiable
    * query inside an unrelated client-affecting transaction.
    */
   private static final Supplier<ImmutableMap<String, Registrar>> CACHE_BY_CLIENT_ID =
-      memoizeWithShortExpiration(
+      memoizeWithRefresh(
+          "registrars_by_client_id",
           () ->
               ofy()
                   .doTransactionless(
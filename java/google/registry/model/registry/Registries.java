@@ -21,7 +21,7 @@ import static com.google.common.base.Predicates.not;
 import static com.google.common.base.Strings.emptyToNull;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.common.collect.Maps.filterValues;
-import static google.registry.model.CacheUtils.memoizeWithShortExpiration;
+import static google.registry.model.CacheUtils.memoizeWithRefresh;
 import static google.registry.model.common.EntityGroupRoot.getCrossTldKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.PreconditionsUtils.checkArgumentNotNull;
@@ -50,7 +50,8 @@ public final class Registries {
    * query inside an unrelated client-affecting transaction.
    */
   private static Supplier<ImmutableMap<String, TldType>> createFreshCache() {
-    return memoizeWithShortExpiration(
+    return memoizeWithRefresh(
+        "registries",
         () ->
             ofy()
                 .doTransactionless(
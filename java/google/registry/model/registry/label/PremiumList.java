@@ -17,11 +17,13 @@ package google.registry.model.registry.label;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.hash.Funnels.unencodedCharsFunnel;
 import static google.registry.config.RegistryConfig.getDomainLabelListCacheDuration;
+import static google.registry.config.RegistryConfig.getPremiumListIndexMaxLabels;
 import static google.registry.config.RegistryConfig.getSingletonCachePersistDuration;
 import static google.registry.config.RegistryConfig.getStaticPremiumListMaxCachedEntries;
 import static google.registry.model.common.EntityGroupRoot.getCrossTldKey;
 import static google.registry.model.ofy.ObjectifyService.allocateId;
 import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.DateTimeUtils.START_OF_TIME;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -31,11 +33,14 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
 import com.google.common.cache.LoadingCache;
 import com.google.common.hash.BloomFilter;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Parent;
+import google.registry.config.RegistryConfig;
 import google.registry.model.Buildable;
 import google.registry.model.ImmutableObject;
 import google.registry.model.annotations.ReportedOn;
@@ -47,9 +52,11 @@ import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import javax.annotation.Nullable;
 import org.joda.money.Money;
+import org.joda.time.DateTime;
 import org.joda.time.Duration;
 
 /**
@@ -83,6 +90,18 @@ public final class PremiumList extends BaseDomainLabelList<Money, PremiumList.Pr
      */
     private BloomFilter<String> probablePremiumLabels;
 
+    /**
+     * The number of labels in this revision.
+     *
+     * <p>This is null for revisions created before it was recorded, whose size is unknown.
+     */
+    @Nullable Integer labelCount;
+
+    /** Returns whether this revision is small enough to be held in a {@link PremiumListIndex}. */
+    boolean isIndexable() {
+      return labelCount != null && labelCount <= premiumListIndexMaxLabels;
+    }
+
     /**
      * Get the Bloom filter.
      *
@@ -108,6 +127,7 @@ public final class PremiumList extends BaseDomainLabelList<Money, PremiumList.Pr
       PremiumListRevision revision = new PremiumListRevision();
       revision.parent = Key.create(parent);
       revision.revisionId = allocateId();
+      revision.labelCount = premiumLabels.size();
       // All premium list labels are already punycoded, so don't perform any further character
       // encoding on them.
       revision.probablePremiumLabels =
@@ -202,6 +222,96 @@ public final class PremiumList extends BaseDomainLabelList<Money, PremiumList.Pr
             });
   }
 
+  /**
+   * In-memory indexes of the current revision of each premium list, by list name.
+   *
+   * <p>Only the revisions that are {@link PremiumListRevision#isIndexable indexable} are held here.
+   * When a premium list is found to have a new revision, the index of its previous revision is
+   * replaced in a single step, so that lookups see either the old or the new revision in full, and
+   * the old index can be reclaimed as soon as the lookups that are using it are done.
+   */
+  static final ConcurrentHashMap<String, PremiumListIndex> premiumListIndexes =
+      new ConcurrentHashMap<>();
+
+  /**
+   * The maximum number of labels of a revision for it to be held in {@link #premiumListIndexes}.
+   *
+   * @see RegistryConfig#getPremiumListIndexMaxLabels()
+   */
+  @NonFinalForTesting @VisibleForTesting
+  static int premiumListIndexMaxLabels = getPremiumListIndexMaxLabels();
+
+  /**
+   * Loads of indexes that are in progress, by revision.
+   *
+   * <p>When a premium list gets a new revision, every lookup of the list needs its index at once.
+   * Only the first one loads the entries of the revision, and the others wait for its result.
+   */
+  private static final ConcurrentHashMap<Key<PremiumListRevision>, SettableFuture<PremiumListIndex>>
+      indexLoads = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the index of the current revision of the given premium list, building it if needed.
+   *
+   * <p>Building an index loads every entry of the revision, but this only happens once per
+   * revision, after which the revision's labels can be checked without any Datastore access.
+   * Concurrent lookups of a revision whose index is being built wait for that build rather than
+   * starting their own.
+   *
+   * <p>The index is built outside of {@link #premiumListIndexes}, so that the Datastore load
+   * doesn't hold up lookups of other lists, and is then installed unless the index already there
+   * is of a later version of the list. A lookup with an out-of-date copy of the list
+   * still gets the index of that copy's revision, but never replaces a newer one with it.
+   */
+  static PremiumListIndex getIndex(PremiumList premiumList) {
+    String listName = premiumList.getName();
+    Key<PremiumListRevision> revisionKey = premiumList.getRevisionKey();
+    PremiumListIndex index = premiumListIndexes.get(listName);
+    if (index != null && index.getRevisionKey().equals(revisionKey)) {
+      return index;
+    }
+    SettableFuture<PremiumListIndex> newLoad = SettableFuture.create();
+    SettableFuture<PremiumListIndex> load = indexLoads.putIfAbsent(revisionKey, newLoad);
+    if (load == null) {
+      load = newLoad;
+      try {
+        PremiumListIndex loadedIndex =
+            loadIndex(
+                revisionKey,
+                Optional.ofNullable(premiumList.getLastUpdateTime()).orElse(START_OF_TIME));
+        premiumListIndexes.merge(
+            listName,
+            loadedIndex,
+            (current, loaded) ->
+                loaded.getListUpdateTime().isBefore(current.getListUpdateTime())
+                    ? current
+                    : loaded);
+        newLoad.set(loadedIndex);
+      } catch (Throwable e) {
+        newLoad.setException(e);
+      } finally {
+        indexLoads.remove(revisionKey, newLoad);
+      }
+    }
+    try {
+      return Uninterruptibles.getUninterruptibly(load);
+    } catch (ExecutionException e) {
+      throw new UncheckedExecutionException(
+          "Could not build index of premium list revision " + revisionKey, e.getCause());
+    }
+  }
+
+  private static PremiumListIndex loadIndex(
+      Key<PremiumListRevision> revisionKey, DateTime listUpdateTime) {
+    return ofy()
+        .doTransactionless(
+            () ->
+                PremiumListIndex.create(
+                    revisionKey,
+                    listUpdateTime,
+                    ofy().load().type(PremiumListEntry.class).ancestor(revisionKey).iterable()));
+  }
+
   @VisibleForTesting
   public Key<PremiumListRevision> getRevisionKey() {
     return revisionKey;
@@ -0,0 +1,174 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.registry.label;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Streams;
+import com.googlecode.objectify.Key;
+import google.registry.model.registry.label.PremiumList.PremiumListEntry;
+import google.registry.model.registry.label.PremiumList.PremiumListRevision;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import org.joda.money.Money;
+import org.joda.time.DateTime;
+
+/**
+ * An immutable, in-memory index of all the labels of one {@link PremiumListRevision} and their
+ * prices.
+ *
+ * <p>Looking up a label in the index needs no Datastore access, and doesn't allocate any objects.
+ * The labels are kept sorted in a single direct (off-heap) buffer, so that even large premium
+ * lists take a few bytes of memory per label, with none of the per-entity overhead of caching
+ * {@link PremiumListEntry} objects. Its layout is:
+ *
+ * <ul>
+ *   <li>for each label, in sorted order, the offset just past its end in the label section (int)
+ *   <li>for each label, in sorted order, the position of its price in {@link #prices} (int)
+ *   <li>the label section: all labels, in sorted order, as ASCII bytes
+ * </ul>
+ *
+ * <p>Since premium list labels are always punycoded, they are pure ASCII, so their byte order is
+ * the same as their {@link String} order.
+ */
+@ThreadSafe
+final class PremiumListIndex {
+
+  private static final int INT_BYTES = 4;
+
+  private final Key<PremiumListRevision> revisionKey;
+  private final DateTime listUpdateTime;
+  private final ByteBuffer buffer;
+  private final ImmutableList<Money> prices;
+  private final int size;
+  private final int labelsOffset;
+
+  private PremiumListIndex(
+      Key<PremiumListRevision> revisionKey,
+      DateTime listUpdateTime,
+      ByteBuffer buffer,
+      ImmutableList<Money> prices) {
+    this.revisionKey = revisionKey;
+    this.listUpdateTime = listUpdateTime;
+    this.buffer = buffer;
+    this.prices = prices;
+    this.size = buffer.getInt(0);
+    this.labelsOffset = INT_BYTES + 2 * INT_BYTES * size;
+  }
+
+  /**
+   * Builds the index of the given entries, which must all belong to {@code revisionKey}.
+   *
+   * @param listUpdateTime the last update time of the premium list that has this revision, which
+   *     orders the indexes of the same list
+   */
+  static PremiumListIndex create(
+      Key<PremiumListRevision> revisionKey,
+      DateTime listUpdateTime,
+      Iterable<PremiumListEntry> entries) {
+    ImmutableList<PremiumListEntry> sortedEntries =
+        Streams.stream(entries)
+            .sorted(Comparator.comparing(PremiumListEntry::getLabel))
+            .collect(toImmutableList());
+    // Distinct prices are few (a list typically has a handful of price tiers), so each is stored
+    // once on the heap and referred to by its position.
+    Map<Money, Integer> priceIds = new LinkedHashMap<>();
+    int labelBytes = 0;
+    for (PremiumListEntry entry : sortedEntries) {
+      checkArgument(
+          CharMatcher.ascii().matchesAllOf(entry.getLabel()),
+          "Premium list label %s is not punycoded",
+          entry.getLabel());
+      labelBytes += entry.getLabel().length();
+      priceIds.putIfAbsent(entry.getValue(), priceIds.size());
+    }
+    int size = sortedEntries.size();
+    ByteBuffer buffer = ByteBuffer.allocateDirect(INT_BYTES + 2 * INT_BYTES * size + labelBytes);
+    buffer.putInt(size);
+    int labelEnd = 0;
+    for (PremiumListEntry entry : sortedEntries) {
+      labelEnd += entry.getLabel().length();
+      buffer.putInt(labelEnd);
+    }
+    for (PremiumListEntry entry : sortedEntries) {
+      buffer.putInt(priceIds.get(entry.getValue()));
+    }
+    for (PremiumListEntry entry : sortedEntries) {
+      buffer.put(entry.getLabel().getBytes(US_ASCII));
+    }
+    return new PremiumListIndex(
+        revisionKey,
+        listUpdateTime,
+        buffer.asReadOnlyBuffer(),
+        ImmutableList.copyOf(priceIds.keySet()));
+  }
+
+  /** Returns the key of the revision this index was built from. */
+  Key<PremiumListRevision> getRevisionKey() {
+    return revisionKey;
+  }
+
+  /** Returns the last update time of the premium list when it had this index's revision. */
+  DateTime getListUpdateTime() {
+    return listUpdateTime;
+  }
+
+  /** Returns the number of labels in this index. */
+  int size() {
+    return size;
+  }
+
+  /** Returns the price of {@code label}, or null if it is not premium. */
+  @Nullable
+  Money getPrice(String label) {
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int comparison = compareLabel(middle, label);
+      if (comparison < 0) {
+        low = middle + 1;
+      } else if (comparison > 0) {
+        high = middle - 1;
+      } else {
+        return prices.get(buffer.getInt(INT_BYTES + INT_BYTES * (size + middle)));
+      }
+    }
+    return null;
+  }
+
+  /** Compares the label at position {@code i} with {@code label}, without decoding it. */
+  private int compareLabel(int i, String label) {
+    int start = (i == 0) ? 0 : buffer.getInt(INT_BYTES * i);
+    int length = buffer.getInt(INT_BYTES * (i + 1)) - start;
+    int commonLength = Math.min(length, label.length());
+    for (int j = 0; j < commonLength; j++) {
+      // Only absolute reads are used, so that the buffer can be read by many threads at once.
+      int comparison = (buffer.get(labelsOffset + start + j) & 0xff) - label.charAt(j);
+      if (comparison != 0) {
+        return comparison;
+      }
+    }
+    return length - label.length();
+  }
+}
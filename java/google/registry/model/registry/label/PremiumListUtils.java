@@ -22,11 +22,14 @@ import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.BLOOM_FILTER_NEGATIVE;
 import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.CACHED_NEGATIVE;
 import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.CACHED_POSITIVE;
+import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.INDEXED_NEGATIVE;
+import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.INDEXED_POSITIVE;
 import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.UNCACHED_NEGATIVE;
 import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.UNCACHED_POSITIVE;
 import static google.registry.model.registry.label.PremiumList.cachePremiumListEntries;
 import static google.registry.model.registry.label.PremiumList.cachePremiumListRevisions;
 import static google.registry.model.registry.label.PremiumList.cachePremiumLists;
+import static google.registry.model.registry.label.PremiumList.premiumListIndexes;
 import static org.joda.time.DateTimeZone.UTC;
 
 import com.google.auto.value.AutoValue;
@@ -90,7 +93,10 @@ public final class PremiumListUtils {
         "Probable premium labels Bloom filter is null on revision '%s'",
         premiumList.getRevisionKey());
 
-    CheckResults checkResults = checkStatus(revision, label);
+    CheckResults checkResults =
+        revision.isIndexable()
+            ? checkIndex(PremiumList.getIndex(premiumList), label)
+            : checkStatus(revision, label);
     DomainLabelMetrics.recordPremiumListCheckOutcome(
         registry.getTldStr(),
         listName,
@@ -99,6 +105,13 @@ public final class PremiumListUtils {
     return checkResults.premiumPrice();
   }
 
+  private static CheckResults checkIndex(PremiumListIndex index, String label) {
+    Money price = index.getPrice(label);
+    return (price == null)
+        ? CheckResults.create(INDEXED_NEGATIVE, Optional.empty())
+        : CheckResults.create(INDEXED_POSITIVE, Optional.of(price));
+  }
+
   private static CheckResults checkStatus(PremiumListRevision premiumListRevision, String label) {
     if (!premiumListRevision.getProbablePremiumLabels().mightContain(label)) {
       return CheckResults.create(BLOOM_FILTER_NEGATIVE, Optional.empty());
@@ -198,6 +211,7 @@ public final class PremiumListUtils {
     ofy().transactNew(() -> ofy().delete().entity(premiumList));
     deleteRevisionAndEntriesOfPremiumList(premiumList);
     cachePremiumLists.invalidate(premiumList.getName());
+    premiumListIndexes.remove(premiumList.getName());
   }
 
   static void deleteRevisionAndEntriesOfPremiumList(final PremiumList premiumList) {
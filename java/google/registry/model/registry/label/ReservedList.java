@@ -191,6 +191,17 @@ public final class ReservedList
     return ImmutableMap.copyOf(nullToEmpty(reservedListMap));
   }
 
+  /**
+   * Returns the entry for {@code label} in this list, or null if there is none.
+   *
+   * <p>Unlike {@link #getReservedListEntries}, this doesn't copy the whole list, which matters
+   * since it is called for every label checked against every reserved list of a TLD.
+   */
+  @Nullable
+  private ReservedListEntry getReservedListEntry(String label) {
+    return (reservedListMap == null) ? null : reservedListMap.get(label);
+  }
+
   /**
    * Gets a ReservedList by name using the caching layer.
    *
@@ -254,8 +265,8 @@ public final class ReservedList
 
     // Loop through all reservation lists and add each of them.
     for (ReservedList rl : loadReservedLists(registry.getReservedLists())) {
-      if (rl.getReservedListEntries().containsKey(label)) {
-        ReservedListEntry entry = rl.getReservedListEntries().get(label);
+      ReservedListEntry entry = rl.getReservedListEntry(label);
+      if (entry != null) {
         entriesBuilder.add(entry);
         metricMatchesBuilder.add(
             MetricsReservedListMatch.create(rl.getName(), entry.reservationType));
@@ -309,7 +320,7 @@ public final class ReservedList
    * lists.
    */
   public Optional<ReservationType> getReservationInList(String label) {
-    ReservedListEntry entry = getReservedListEntries().get(label);
+    ReservedListEntry entry = getReservedListEntry(label);
     return Optional.ofNullable(entry == null ? null : entry.reservationType);
   }
 
@@ -0,0 +1,175 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.tmch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.UnsignedBytes;
+import com.googlecode.objectify.Key;
+import google.registry.model.tmch.ClaimsListShard.ClaimsListRevision;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * An immutable, in-memory index of the labels of one {@link ClaimsListRevision} and their claims
+ * keys.
+ *
+ * <p>The claims list has hundreds of thousands of labels, so rather than a map of {@link String}
+ * objects, the labels and keys are each packed into a single byte array as UTF-8, with the labels
+ * in sorted order. Each entry then takes the bytes of its label and key plus two ints, and a label
+ * is looked up with a binary search that compares it with the packed bytes directly.
+ */
+@ThreadSafe
+final class ClaimsListIndex {
+
+  private static final Comparator<byte[]> BYTE_ORDERING =
+      UnsignedBytes.lexicographicalComparator();
+
+  @Nullable private final Key<ClaimsListRevision> revisionKey;
+
+  /** For each label, in sorted order, the offset just past its end in {@link #labels}. */
+  private final int[] labelEnds;
+
+  /** For each label, in sorted order, the offset just past the end of its key in {@link #keys}. */
+  private final int[] keyEnds;
+
+  private final byte[] labels;
+  private final byte[] keys;
+
+  private ClaimsListIndex(
+      @Nullable Key<ClaimsListRevision> revisionKey,
+      int[] labelEnds,
+      int[] keyEnds,
+      byte[] labels,
+      byte[] keys) {
+    this.revisionKey = revisionKey;
+    this.labelEnds = labelEnds;
+    this.keyEnds = keyEnds;
+    this.labels = labels;
+    this.keys = keys;
+  }
+
+  /**
+   * Builds the index of the given label to claims key entries of {@code revisionKey}.
+   *
+   * <p>If a label occurs more than once, which the shards of one revision never do, the first of
+   * its entries is kept.
+   */
+  static ClaimsListIndex create(
+      @Nullable Key<ClaimsListRevision> revisionKey,
+      Iterable<Map.Entry<String, String>> labelsToKeys) {
+    List<byte[][]> entries = new ArrayList<>();
+    for (Map.Entry<String, String> entry : labelsToKeys) {
+      entries.add(
+          new byte[][] {entry.getKey().getBytes(UTF_8), entry.getValue().getBytes(UTF_8)});
+    }
+    // Sorting the UTF-8 bytes, rather than the strings, keeps the order consistent with the
+    // comparisons made by lookups.
+    entries.sort((a, b) -> BYTE_ORDERING.compare(a[0], b[0]));
+    int size = 0;
+    int labelBytes = 0;
+    int keyBytes = 0;
+    for (int i = 0; i < entries.size(); i++) {
+      byte[][] entry = entries.get(i);
+      if (i > 0 && BYTE_ORDERING.compare(entries.get(i - 1)[0], entry[0]) == 0) {
+        continue;
+      }
+      entries.set(size++, entry);
+      labelBytes += entry[0].length;
+      keyBytes += entry[1].length;
+    }
+    int[] labelEnds = new int[size];
+    int[] keyEnds = new int[size];
+    byte[] labels = new byte[labelBytes];
+    byte[] keys = new byte[keyBytes];
+    int labelEnd = 0;
+    int keyEnd = 0;
+    for (int i = 0; i < size; i++) {
+      byte[][] entry = entries.get(i);
+      System.arraycopy(entry[0], 0, labels, labelEnd, entry[0].length);
+      System.arraycopy(entry[1], 0, keys, keyEnd, entry[1].length);
+      labelEnd += entry[0].length;
+      keyEnd += entry[1].length;
+      labelEnds[i] = labelEnd;
+      keyEnds[i] = keyEnd;
+    }
+    return new ClaimsListIndex(revisionKey, labelEnds, keyEnds, labels, keys);
+  }
+
+  /** Returns the key of the revision this index was built from, or null if there was none. */
+  @Nullable
+  Key<ClaimsListRevision> getRevisionKey() {
+    return revisionKey;
+  }
+
+  /** Returns the number of labels in this index. */
+  int size() {
+    return labelEnds.length;
+  }
+
+  /** Returns the claims key of {@code label}, or null if it has none. */
+  @Nullable
+  String getClaimKey(String label) {
+    byte[] target = label.getBytes(UTF_8);
+    int low = 0;
+    int high = size() - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int comparison = compareLabel(middle, target);
+      if (comparison < 0) {
+        low = middle + 1;
+      } else if (comparison > 0) {
+        high = middle - 1;
+      } else {
+        return getKey(middle);
+      }
+    }
+    return null;
+  }
+
+  /** Returns a map of all the labels in this index to their claims keys, in label order. */
+  ImmutableMap<String, String> toMap() {
+    ImmutableMap.Builder<String, String> builder = new ImmutableMap.Builder<>();
+    for (int i = 0; i < size(); i++) {
+      int start = (i == 0) ? 0 : labelEnds[i - 1];
+      builder.put(new String(labels, start, labelEnds[i] - start, UTF_8), getKey(i));
+    }
+    return builder.build();
+  }
+
+  private String getKey(int i) {
+    int start = (i == 0) ? 0 : keyEnds[i - 1];
+    return new String(keys, start, keyEnds[i] - start, UTF_8);
+  }
+
+  /** Compares the label at position {@code i} with {@code target}, as unsigned bytes. */
+  private int compareLabel(int i, byte[] target) {
+    int start = (i == 0) ? 0 : labelEnds[i - 1];
+    int length = labelEnds[i] - start;
+    int commonLength = Math.min(length, target.length);
+    for (int j = 0; j < commonLength; j++) {
+      int comparison = UnsignedBytes.compare(labels[start + j], target[j]);
+      if (comparison != 0) {
+        return comparison;
+      }
+    }
+    return length - target.length;
+  }
+}
@@ -17,14 +17,18 @@ package google.registry.model.tmch;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Verify.verify;
-import static google.registry.model.CacheUtils.memoizeWithShortExpiration;
+import static google.registry.config.RegistryConfig.getSingletonCacheRefreshDuration;
+import static google.registry.model.CacheUtils.memoizeWithRefresh;
 import static google.registry.model.ofy.ObjectifyService.allocateId;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
+import static org.joda.time.Duration.ZERO;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.EmbedMap;
 import com.googlecode.objectify.annotation.Entity;
@@ -39,11 +43,12 @@ import google.registry.model.annotations.VirtualEntity;
 import google.registry.model.common.CrossTldSingleton;
 import google.registry.util.CollectionUtils;
 import google.registry.util.Concurrent;
+import google.registry.util.NonFinalForTesting;
 import google.registry.util.Retrier;
 import google.registry.util.SystemSleeper;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.Callable;
 import javax.annotation.Nullable;
@@ -88,73 +93,119 @@ public class ClaimsListShard extends ImmutableObject {
   @Ignore
   boolean isShard = false;
 
+  /**
+   * The index of all the shards of a revision, which replaces {@link #labelsToKeys} in the
+   * instances returned by {@link #get}.
+   */
+  @Ignore
+  @Nullable
+  ClaimsListIndex index;
+
   private static final Retrier LOADER_RETRIER = new Retrier(new SystemSleeper(), 2);
 
+  /**
+   * Whether {@link #get} reuses the list it last loaded for as long as its revision is current.
+   *
+   * <p>This is off when singleton caching is, as in unit tests, where revision ids are reused from
+   * one test to the next.
+   */
+  @NonFinalForTesting @VisibleForTesting
+  static boolean reuseLoadedRevision = !getSingletonCacheRefreshDuration().isEqual(ZERO);
+
+  /** The list last loaded by {@link #get}, which is reused until a new revision is published. */
+  @Nullable @VisibleForTesting
+  static volatile ClaimsListShard lastLoaded;
+
   private static final Callable<ClaimsListShard> LOADER_CALLABLE =
       () -> {
-        // Find the most recent revision.
+        // Find the most recent revision, and only load its shards if they aren't loaded already.
         Key<ClaimsListRevision> revisionKey = getCurrentRevision();
-
-        Map<String, String> combinedLabelsToKeys = new HashMap<>();
-        DateTime creationTime = START_OF_TIME;
-        if (revisionKey != null) {
-          // Grab all of the keys for the shards that belong to the current revision.
-          final List<Key<ClaimsListShard>> shardKeys =
-              ofy().load().type(ClaimsListShard.class).ancestor(revisionKey).keys().list();
-
-          // Load all of the shards concurrently, each in a separate transaction.
-          List<ClaimsListShard> shards =
-              Concurrent.transform(
-                  shardKeys,
-                  (final Key<ClaimsListShard> key) ->
-                      ofy()
-                          .transactNewReadOnly(
-                              () -> {
-                                ClaimsListShard claimsListShard = ofy().load().key(key).now();
-                                checkState(
-                                    claimsListShard != null,
-                                    "Key not found when loading claims list shards.");
-                                return claimsListShard;
-                              }));
-
-          // Combine the shards together and return the concatenated ClaimsList.
-          if (!shards.isEmpty()) {
-            creationTime = shards.get(0).creationTime;
-            for (ClaimsListShard shard : shards) {
-              combinedLabelsToKeys.putAll(shard.labelsToKeys);
-              checkState(
-                  creationTime.equals(shard.creationTime),
-                  "Inconsistent claims list shard creation times.");
-            }
-          }
+        ClaimsListShard loaded = lastLoaded;
+        if (reuseLoadedRevision
+            && loaded != null
+            && Objects.equals(loaded.index.getRevisionKey(), revisionKey)) {
+          return loaded;
         }
-        return create(creationTime, ImmutableMap.copyOf(combinedLabelsToKeys));
+        loaded = loadRevision(revisionKey);
+        lastLoaded = loaded;
+        return loaded;
       };
 
   /**
-   * A cached supplier that fetches the claims list shards from Datastore and recombines them into a
-   * single {@link ClaimsListShard} object.
+   * A cached supplier that returns the claims list shards of the current revision, recombined into
+   * a single {@link ClaimsListShard} object.
+   *
+   * <p>When this expires, the next call only checks which revision is current, and reloads the
+   * shards only if it has changed.
    */
   private static final Supplier<ClaimsListShard> CACHE =
-      memoizeWithShortExpiration(
+      memoizeWithRefresh(
+          "claims_list",
           () -> LOADER_RETRIER.callWithRetry(LOADER_CALLABLE, IllegalStateException.class));
 
+  /** Loads all of the shards of a revision and combines them into one indexed list. */
+  private static ClaimsListShard loadRevision(@Nullable Key<ClaimsListRevision> revisionKey) {
+    List<ClaimsListShard> shards = ImmutableList.of();
+    if (revisionKey != null) {
+      // Grab all of the keys for the shards that belong to the current revision.
+      final List<Key<ClaimsListShard>> shardKeys =
+          ofy().load().type(ClaimsListShard.class).ancestor(revisionKey).keys().list();
+
+      // Load all of the shards concurrently, each in a separate transaction.
+      shards =
+          Concurrent.transform(
+              shardKeys,
+              (final Key<ClaimsListShard> key) ->
+                  ofy()
+                      .transactNewReadOnly(
+                          () -> {
+                            ClaimsListShard claimsListShard = ofy().load().key(key).now();
+                            checkState(
+                                claimsListShard != null,
+                                "Key not found when loading claims list shards.");
+                            return claimsListShard;
+                          }));
+    }
+
+    // Combine the shards together into one index, without copying them into a map first.
+    DateTime creationTime = shards.isEmpty() ? START_OF_TIME : shards.get(0).creationTime;
+    for (ClaimsListShard shard : shards) {
+      checkState(
+          creationTime.equals(shard.creationTime),
+          "Inconsistent claims list shard creation times.");
+    }
+    ClaimsListShard instance = new ClaimsListShard();
+    instance.creationTime = creationTime;
+    instance.index =
+        ClaimsListIndex.create(
+            revisionKey,
+            Iterables.concat(Iterables.transform(shards, shard -> shard.labelsToKeys.entrySet())));
+    return instance;
+  }
+
   public DateTime getCreationTime() {
     return creationTime;
   }
 
   /** Returns the claim key for a given domain if there is one, empty otherwise. */
   public Optional<String> getClaimKey(String label) {
-    return Optional.ofNullable(labelsToKeys.get(label));
+    return Optional.ofNullable(
+        (index != null) ? index.getClaimKey(label) : labelsToKeys.get(label));
   }
 
+  /**
+   * Returns a map of all the labels to their claims keys.
+   *
+   * <p>For the list returned by {@link #get}, this builds a new map of the whole list, so it should
+   * only be used to export the list; use {@link #getClaimKey} to look up labels.
+   */
   public ImmutableMap<String, String> getLabelsToKeys() {
-    return ImmutableMap.copyOf(labelsToKeys);
+    return (index != null) ? index.toMap() : ImmutableMap.copyOf(labelsToKeys);
   }
 
   /** Returns the number of claims. */
   public int size() {
-    return labelsToKeys.size();
+    return (index != null) ? index.size() : labelsToKeys.size();
   }
 
   /**
@@ -173,7 +224,7 @@ public class ClaimsListShard extends ImmutableObject {
 
     // Save the ClaimsList shards in separate transactions.
     Concurrent.transform(
-        CollectionUtils.partitionMap(labelsToKeys, shardSize),
+        CollectionUtils.partitionMap(getLabelsToKeys(), shardSize),
         (final ImmutableMap<String, String> labelsToKeysShard) ->
             ofy()
                 .transactNew(
@@ -25,9 +25,11 @@ import google.registry.batch.DeleteContactsAndHostsAction;
 import google.registry.batch.DeleteLoadTestDataAction;
 import google.registry.batch.DeleteProberDataAction;
 import google.registry.batch.ExpandRecurringBillingEventsAction;
+import google.registry.batch.RecountPollMessagesAction;
 import google.registry.batch.RefreshDnsOnHostRenameAction;
 import google.registry.batch.ResaveAllEppResourcesAction;
 import google.registry.batch.ResaveEntityAction;
+import google.registry.batch.VerifyDomainReferenceIndexAction;
 import google.registry.cron.CommitLogFanoutAction;
 import google.registry.cron.CronModule;
 import google.registry.cron.TldFanoutAction;
@@ -148,6 +150,7 @@ interface BackendRequestComponent {
   RdeStagingAction rdeStagingAction();
   RdeUploadAction rdeUploadAction();
   RdeReporter rdeReporter();
+  RecountPollMessagesAction recountPollMessagesAction();
   RefreshDnsAction refreshDnsAction();
   RefreshDnsOnHostRenameAction refreshDnsOnHostRenameAction();
   ResaveAllEppResourcesAction resaveAllEppResourcesAction();
@@ -160,6 +163,7 @@ interface BackendRequestComponent {
   TmchSmdrlAction tmchSmdrlAction();
   UpdateSnapshotViewAction updateSnapshotViewAction();
   PublishInvoicesAction uploadInvoicesAction();
+  VerifyDomainReferenceIndexAction verifyDomainReferenceIndexAction();
 
   @Subcomponent.Builder
   abstract class Builder implements RequestComponentBuilder<BackendRequestComponent> {
@@ -34,7 +34,7 @@ import google.registry.proxy.quota.QuotaManager;
 import google.registry.proxy.quota.TokenStore;
 import google.registry.util.Clock;
 import io.netty.channel.ChannelHandler;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.codec.LengthFieldPrepender;
 import io.netty.handler.ssl.SslProvider;
@@ -80,7 +80,7 @@ public class EppProtocolModule {
   @EppProtocol
   static ImmutableList<Provider<? extends ChannelHandler>> provideHandlerProviders(
       Provider<ProxyProtocolHandler> proxyProtocolHandlerProvider,
-      @EppProtocol Provider<SslServerInitializer<NioSocketChannel>> sslServerInitializerProvider,
+      @EppProtocol Provider<SslServerInitializer<SocketChannel>> sslServerInitializerProvider,
       @EppProtocol Provider<ReadTimeoutHandler> readTimeoutHandlerProvider,
       Provider<LengthFieldBasedFrameDecoder> lengthFieldBasedFrameDecoderProvider,
       Provider<LengthFieldPrepender> lengthFieldPrependerProvider,
@@ -157,7 +157,7 @@ public class EppProtocolModule {
   @Singleton
   @Provides
   @EppProtocol
-  static SslServerInitializer<NioSocketChannel> provideSslServerInitializer(
+  static SslServerInitializer<SocketChannel> provideSslServerInitializer(
       SslProvider sslProvider,
       Supplier<PrivateKey> privateKeySupplier,
       Supplier<X509Certificate[]> certificatesSupplier) {
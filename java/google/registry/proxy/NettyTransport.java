@@ -0,0 +1,125 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.proxy;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.flogger.FluentLogger;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import java.util.Optional;
+import java.util.function.IntFunction;
+
+/**
+ * The Netty transport that the proxy's event loops and channels are built on.
+ *
+ * <p>The native epoll library is bundled for Linux on x86-64 only. Elsewhere, e. g. when running
+ * locally on a Mac, {@link Epoll#isAvailable} is false and only NIO can be used.
+ */
+final class NettyTransport {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static final NettyTransport NIO =
+      new NettyTransport(
+          "nio", NioEventLoopGroup::new, NioServerSocketChannel.class, NioSocketChannel.class);
+
+  static final NettyTransport EPOLL =
+      new NettyTransport(
+          "epoll",
+          EpollEventLoopGroup::new,
+          EpollServerSocketChannel.class,
+          EpollSocketChannel.class);
+
+  private final String name;
+  private final IntFunction<EventLoopGroup> eventLoopGroupFactory;
+  private final Class<? extends ServerChannel> serverChannelClass;
+  private final Class<? extends SocketChannel> channelClass;
+
+  private NettyTransport(
+      String name,
+      IntFunction<EventLoopGroup> eventLoopGroupFactory,
+      Class<? extends ServerChannel> serverChannelClass,
+      Class<? extends SocketChannel> channelClass) {
+    this.name = name;
+    this.eventLoopGroupFactory = eventLoopGroupFactory;
+    this.serverChannelClass = serverChannelClass;
+    this.channelClass = channelClass;
+  }
+
+  /**
+   * Returns the transport configured by {@code ProxyConfig.netty.transport}.
+   *
+   * @throws IllegalStateException if epoll is requested but cannot be loaded
+   * @throws IllegalArgumentException if the transport name is not recognized
+   */
+  static NettyTransport select(String transport) {
+    switch (transport) {
+      case "nio":
+        return NIO;
+      case "epoll":
+        return loadEpoll()
+            .orElseThrow(() -> new IllegalStateException("Native epoll transport is unavailable"));
+      case "auto":
+        return loadEpoll().orElse(NIO);
+      default:
+        throw new IllegalArgumentException(String.format("Unknown transport: %s", transport));
+    }
+  }
+
+  /** Returns the native epoll transport, if its native library can be loaded on this machine. */
+  @VisibleForTesting
+  static Optional<NettyTransport> loadEpoll() {
+    if (!Epoll.isAvailable()) {
+      logger
+          .atInfo()
+          .withCause(Epoll.unavailabilityCause())
+          .log("Native epoll transport cannot be used.");
+      return Optional.empty();
+    }
+    return Optional.of(EPOLL);
+  }
+
+  /** Returns the name of the transport, as used in the config file. */
+  String name() {
+    return name;
+  }
+
+  /**
+   * Creates an event loop group with the given number of threads.
+   *
+   * @param threads number of threads, or 0 for Netty's default of twice the number of processors
+   */
+  EventLoopGroup newEventLoopGroup(int threads) {
+    return eventLoopGroupFactory.apply(threads);
+  }
+
+  /** Returns the class of channels that listen for incoming connections. */
+  Class<? extends ServerChannel> serverChannelClass() {
+    return serverChannelClass;
+  }
+
+  /** Returns the class of channels for accepted and outgoing connections. */
+  Class<? extends SocketChannel> channelClass() {
+    return channelClass;
+  }
+}
@@ -47,6 +47,7 @@ public class ProxyConfig {
   public WebWhois webWhois;
   public HttpsRelay httpsRelay;
   public Metrics metrics;
+  public Netty netty;
 
   /** Configuration options that apply to GCS. */
   public static class Gcs {
@@ -100,6 +101,7 @@ public class ProxyConfig {
   public static class HttpsRelay {
     public int port;
     public int maxMessageLengthBytes;
+    public int maxConnectionsPerThread;
   }
 
   /** Configuration options that apply to Stackdriver monitoring metrics. */
@@ -109,6 +111,14 @@ public class ProxyConfig {
     public int writeIntervalSeconds;
   }
 
+  /** Configuration options that apply to the Netty event loops and channels. */
+  public static class Netty {
+    public String transport;
+    public int bossThreads;
+    public int workerThreads;
+    public boolean pooledDirectBuffers;
+  }
+
   /** Configuration options that apply to quota management. */
   public static class Quota {
 
@@ -40,6 +40,7 @@ import google.registry.proxy.WebWhoisProtocolsModule.HttpWhoisProtocol;
 import google.registry.proxy.WebWhoisProtocolsModule.HttpsWhoisProtocol;
 import google.registry.proxy.WhoisProtocolModule.WhoisProtocol;
 import google.registry.proxy.handler.ProxyProtocolHandler;
+import google.registry.proxy.metric.BackendMetrics;
 import google.registry.util.Clock;
 import google.registry.util.SystemClock;
 import io.netty.handler.logging.LogLevel;
@@ -350,6 +351,12 @@ public class ProxyModule {
 
     ImmutableMap<Integer, FrontendProtocol> portToProtocolMap();
 
+    ProxyConfig proxyConfig();
+
+    BackendMetrics backendMetrics();
+
+    Clock clock();
+
     MetricReporter metricReporter();
   }
 }
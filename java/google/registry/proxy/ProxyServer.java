@@ -27,18 +27,22 @@ import google.registry.proxy.Protocol.BackendProtocol;
 import google.registry.proxy.Protocol.FrontendProtocol;
 import google.registry.proxy.ProxyConfig.Environment;
 import google.registry.proxy.ProxyModule.ProxyComponent;
+import google.registry.proxy.handler.BackendChannelPool;
+import google.registry.proxy.metric.BackendMetrics;
+import google.registry.util.Clock;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoop;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.socket.SocketChannel;
 import io.netty.util.ReferenceCountUtil;
 import io.netty.util.concurrent.Future;
 import io.netty.util.internal.logging.InternalLoggerFactory;
@@ -46,6 +50,7 @@ import io.netty.util.internal.logging.JdkLoggerFactory;
 import java.util.ArrayDeque;
 import java.util.HashMap;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import javax.inject.Provider;
@@ -63,10 +68,30 @@ public class ProxyServer implements Runnable {
 
   private final ImmutableMap<Integer, FrontendProtocol> portToProtocolMap;
   private final HashMap<Integer, Channel> portToChannelMap = new HashMap<>();
-  private final EventLoopGroup eventGroup = new NioEventLoopGroup();
+  private final NettyTransport transport;
+  private final EventLoopGroup bossGroup;
+  private final EventLoopGroup workerGroup;
+  private final ByteBufAllocator allocator;
+  private final int maxPooledChannels;
+  private final BackendMetrics backendMetrics;
+  private final Clock clock;
 
   ProxyServer(ProxyComponent proxyComponent) {
     this.portToProtocolMap = proxyComponent.portToProtocolMap();
+    this.maxPooledChannels = proxyComponent.proxyConfig().httpsRelay.maxConnectionsPerThread;
+    this.backendMetrics = proxyComponent.backendMetrics();
+    this.clock = proxyComponent.clock();
+    ProxyConfig.Netty nettyConfig = proxyComponent.proxyConfig().netty;
+    this.transport = NettyTransport.select(nettyConfig.transport);
+    this.bossGroup = transport.newEventLoopGroup(nettyConfig.bossThreads);
+    this.workerGroup = transport.newEventLoopGroup(nettyConfig.workerThreads);
+    this.allocator =
+        nettyConfig.pooledDirectBuffers
+            ? new PooledByteBufAllocator(/* preferDirect= */ true)
+            : ByteBufAllocator.DEFAULT;
+    logger.atInfo().log(
+        "Using %s transport with %d boss and %d worker threads (0 means Netty's default).",
+        transport.name(), nettyConfig.bossThreads, nettyConfig.workerThreads);
   }
 
   /**
@@ -83,10 +108,38 @@ public class ProxyServer implements Runnable {
    *   <li>After the outbound {@link Channel} connects successfully, enable {@link
    *       ChannelOption#AUTO_READ} on the inbound {@link Channel} to start reading.
    * </ol>
+   *
+   * <p>If connection pooling is enabled, the last two steps are replaced by registering the inbound
+   * {@link Channel} with the {@link BackendChannelPool} of its event loop, which leases it an
+   * outbound {@link Channel} whenever it has a request to relay, and reading starts immediately.
    */
-  private static class ServerChannelInitializer extends ChannelInitializer<NioSocketChannel> {
+  private static class ServerChannelInitializer extends ChannelInitializer<SocketChannel> {
+
+    private final NettyTransport transport;
+    private final ByteBufAllocator allocator;
+    private final int maxPooledChannels;
+    private final BackendMetrics backendMetrics;
+    private final Clock clock;
+
+    /** Backend channel pools, by frontend protocol name and event loop. */
+    private final ConcurrentHashMap<String, ConcurrentHashMap<EventLoop, BackendChannelPool>>
+        pools = new ConcurrentHashMap<>();
+
+    ServerChannelInitializer(
+        NettyTransport transport,
+        ByteBufAllocator allocator,
+        int maxPooledChannels,
+        BackendMetrics backendMetrics,
+        Clock clock) {
+      this.transport = transport;
+      this.allocator = allocator;
+      this.maxPooledChannels = maxPooledChannels;
+      this.backendMetrics = backendMetrics;
+      this.clock = clock;
+    }
+
     @Override
-    protected void initChannel(NioSocketChannel inboundChannel) throws Exception {
+    protected void initChannel(SocketChannel inboundChannel) throws Exception {
       // Add inbound channel handlers.
       FrontendProtocol inboundProtocol =
           (FrontendProtocol) inboundChannel.parent().attr(PROTOCOL_KEY).get();
@@ -101,32 +154,23 @@ public class ProxyServer implements Runnable {
       } else {
         logger.atInfo().log(
             "Connection established: %s %s", inboundProtocol.name(), inboundChannel);
-        // Connect to the relay (outbound) channel specified by the BackendProtocol.
         BackendProtocol outboundProtocol = inboundProtocol.relayProtocol();
-        Bootstrap bootstrap =
-            new Bootstrap()
-                // Use the same thread to connect to the relay channel, therefore avoiding
-                // synchronization handling due to interactions between the two channels
-                .group(inboundChannel.eventLoop())
-                .channel(NioSocketChannel.class)
-                .handler(
-                    new ChannelInitializer<NioSocketChannel>() {
-                      @Override
-                      protected void initChannel(NioSocketChannel outboundChannel)
-                          throws Exception {
-                        addHandlers(
-                            outboundChannel.pipeline(), outboundProtocol.handlerProviders());
-                      }
-                    })
-                .option(ChannelOption.SO_KEEPALIVE, true)
-                // Outbound channel relays to inbound channel.
-                .attr(RELAY_CHANNEL_KEY, inboundChannel)
-                .attr(PROTOCOL_KEY, outboundProtocol);
-
-        connectOutboundChannel(bootstrap, inboundProtocol, outboundProtocol, inboundChannel);
+        if (maxPooledChannels > 0) {
+          // Share the relay (outbound) channels with the other inbound channels of this thread.
+          getPool(inboundProtocol, inboundChannel.eventLoop()).register(inboundChannel);
+          inboundChannel.config().setAutoRead(true);
+        } else {
+          // Connect to the relay (outbound) channel specified by the BackendProtocol.
+          Bootstrap bootstrap =
+              newOutboundBootstrap(inboundChannel.eventLoop(), outboundProtocol)
+                  // Outbound channel relays to inbound channel.
+                  .attr(RELAY_CHANNEL_KEY, inboundChannel);
+          connectOutboundChannel(bootstrap, inboundProtocol, outboundProtocol, inboundChannel);
+        }
         // If the inbound connection is closed, close its outbound relay connection as well. There
         // is no way to recover from an inbound connection termination, as the connection can only
-        // be initiated by the client.
+        // be initiated by the client. A pooled relay channel is only set while requests relayed on
+        // it are in flight, whose responses can no longer be delivered.
         ChannelFuture unusedChannelFuture =
             inboundChannel
                 .closeFuture()
@@ -157,6 +201,43 @@ public class ProxyServer implements Runnable {
       }
     }
 
+    /** Returns the backend channel pool for {@code inboundProtocol} on {@code eventLoop}. */
+    private BackendChannelPool getPool(FrontendProtocol inboundProtocol, EventLoop eventLoop) {
+      BackendProtocol outboundProtocol = inboundProtocol.relayProtocol();
+      return pools
+          .computeIfAbsent(inboundProtocol.name(), name -> new ConcurrentHashMap<>())
+          .computeIfAbsent(
+              eventLoop,
+              loop -> {
+                Bootstrap bootstrap = newOutboundBootstrap(loop, outboundProtocol);
+                return new BackendChannelPool(
+                    inboundProtocol.name(),
+                    () -> bootstrap.connect(outboundProtocol.host(), outboundProtocol.port()),
+                    maxPooledChannels,
+                    backendMetrics,
+                    clock);
+              });
+    }
+
+    /** Returns a {@link Bootstrap} for outbound relay channels on {@code eventLoop}. */
+    private Bootstrap newOutboundBootstrap(EventLoop eventLoop, BackendProtocol outboundProtocol) {
+      return new Bootstrap()
+          // Use the same thread to connect to the relay channel, therefore avoiding
+          // synchronization handling due to interactions between the two channels
+          .group(eventLoop)
+          .channel(transport.channelClass())
+          .handler(
+              new ChannelInitializer<SocketChannel>() {
+                @Override
+                protected void initChannel(SocketChannel outboundChannel) throws Exception {
+                  addHandlers(outboundChannel.pipeline(), outboundProtocol.handlerProviders());
+                }
+              })
+          .option(ChannelOption.SO_KEEPALIVE, true)
+          .option(ChannelOption.ALLOCATOR, allocator)
+          .attr(PROTOCOL_KEY, outboundProtocol);
+    }
+
     /**
      * Establishes an outbound relay channel and sets the relevant metadata on both channels.
      *
@@ -170,7 +251,7 @@ public class ProxyServer implements Runnable {
         Bootstrap bootstrap,
         FrontendProtocol inboundProtocol,
         BackendProtocol outboundProtocol,
-        NioSocketChannel inboundChannel) {
+        SocketChannel inboundChannel) {
       ChannelFuture outboundChannelFuture =
           bootstrap.connect(outboundProtocol.host(), outboundProtocol.port());
       outboundChannelFuture.addListener(
@@ -254,11 +335,15 @@ public class ProxyServer implements Runnable {
     try {
       ServerBootstrap serverBootstrap =
           new ServerBootstrap()
-              .group(eventGroup)
-              .channel(NioServerSocketChannel.class)
-              .childHandler(new ServerChannelInitializer())
+              .group(bossGroup, workerGroup)
+              .channel(transport.serverChannelClass())
+              .childHandler(
+                  new ServerChannelInitializer(
+                      transport, allocator, maxPooledChannels, backendMetrics, clock))
               .option(ChannelOption.SO_BACKLOG, MAX_SOCKET_BACKLOG)
+              .option(ChannelOption.ALLOCATOR, allocator)
               .childOption(ChannelOption.SO_KEEPALIVE, true)
+              .childOption(ChannelOption.ALLOCATOR, allocator)
               // Do not read before relay channel is established.
               .childOption(ChannelOption.AUTO_READ, false);
 
@@ -298,7 +383,8 @@ public class ProxyServer implements Runnable {
           });
     } finally {
       logger.atInfo().log("Shutting down server...");
-      Future<?> unusedFuture = eventGroup.shutdownGracefully();
+      Future<?> unusedFuture = bossGroup.shutdownGracefully();
+      Future<?> unusedFuture2 = workerGroup.shutdownGracefully();
     }
   }
 
@@ -22,7 +22,7 @@ import google.registry.proxy.Protocol.FrontendProtocol;
 import google.registry.proxy.handler.SslServerInitializer;
 import google.registry.proxy.handler.WebWhoisRedirectHandler;
 import io.netty.channel.ChannelHandler;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.codec.http.HttpServerExpectContinueHandler;
 import io.netty.handler.ssl.SslProvider;
@@ -92,7 +92,7 @@ public class WebWhoisProtocolsModule {
   @HttpsWhoisProtocol
   static ImmutableList<Provider<? extends ChannelHandler>> providerHttpsWhoisHandlerProviders(
       @HttpsWhoisProtocol
-          Provider<SslServerInitializer<NioSocketChannel>> sslServerInitializerProvider,
+          Provider<SslServerInitializer<SocketChannel>> sslServerInitializerProvider,
       Provider<HttpServerCodec> httpServerCodecProvider,
       Provider<HttpServerExpectContinueHandler> httpServerExpectContinueHandlerProvider,
       @HttpsWhoisProtocol Provider<WebWhoisRedirectHandler> webWhoisRedirectHandlerProvides) {
@@ -130,7 +130,7 @@ public class WebWhoisProtocolsModule {
   @Singleton
   @Provides
   @HttpsWhoisProtocol
-  static SslServerInitializer<NioSocketChannel> provideSslServerInitializer(
+  static SslServerInitializer<SocketChannel> provideSslServerInitializer(
       SslProvider sslProvider,
       Supplier<PrivateKey> privateKeySupplier,
       Supplier<X509Certificate[]> certificatesSupplier) {
@@ -0,0 +1,372 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.proxy.handler;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static google.registry.proxy.handler.RelayHandler.RELAY_BUFFER_KEY;
+import static google.registry.proxy.handler.RelayHandler.RELAY_CHANNEL_KEY;
+import static google.registry.proxy.handler.RelayHandler.writeToRelayChannel;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.flogger.FluentLogger;
+import google.registry.proxy.metric.BackendMetrics;
+import google.registry.util.Clock;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.function.Supplier;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.joda.time.DateTime;
+
+/**
+ * A pool of backend channels shared by the frontend channels of one event loop.
+ *
+ * <p>Without a pool, every frontend channel keeps its own backend channel open for as long as the
+ * client stays connected, which for idle EPP sessions means thousands of upstream TLS connections
+ * that are hardly ever used. Instead, a frontend channel leases a backend channel from the pool
+ * when it has a request to relay, and hands it back once all the responses to its requests have
+ * been relayed back, so that the next frontend channel can reuse the connection.
+ *
+ * <p>While a backend channel is leased, its {@link RelayHandler#RELAY_CHANNEL_KEY} points to the
+ * frontend channel and vice versa, so responses are relayed to the frontend channel that sent the
+ * requests. Session state is unaffected by the reuse, since session cookies are kept by the
+ * frontend channel's {@link HttpsRelayServiceHandler} and sent with each request.
+ *
+ * <p>If all {@code maxChannels} channels are leased, requests wait in the pool until a channel is
+ * returned. Idle channels that the backend has closed are dropped from the pool, and checked again
+ * before they are leased.
+ *
+ * <p>All frontend and backend channels of a pool must be registered with the same event loop, and
+ * the pool must only be used from that event loop's thread. That is what allows it to do without
+ * any synchronization, just like a frontend channel and its relay channel did before.
+ */
+@NotThreadSafe
+public class BackendChannelPool {
+
+  /** Key used to retrieve the pool that a frontend or backend channel relays through. */
+  public static final AttributeKey<BackendChannelPool> BACKEND_POOL_KEY =
+      AttributeKey.valueOf("BACKEND_POOL_KEY");
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Lease outcome when an idle channel was reused. */
+  private static final String REUSED = "reused";
+
+  /** Lease outcome when a new channel was opened for the request. */
+  private static final String CREATED = "created";
+
+  /** Lease outcome when the request had to wait because all channels were leased. */
+  private static final String QUEUED = "queued";
+
+  private final String protocolName;
+  private final Supplier<ChannelFuture> connector;
+  private final int maxChannels;
+  private final BackendMetrics metrics;
+  private final Clock clock;
+
+  /** Backend channels that are connected, whether they are leased or idle. */
+  private final Set<Channel> connected = new HashSet<>();
+
+  /** Idle backend channels, most recently used first. */
+  private final ArrayDeque<Channel> idle = new ArrayDeque<>();
+
+  /** The leases of the backend channels that are currently leased. */
+  private final Map<Channel, Lease> leases = new HashMap<>();
+
+  /** Frontend channels waiting for a backend channel, in order of arrival. */
+  private final LinkedHashMap<Channel, Waiter> waiters = new LinkedHashMap<>();
+
+  /** Number of backend channels that are still connecting. */
+  private int connecting;
+
+  /**
+   * Class constructor.
+   *
+   * @param protocolName name of the frontend protocol, for monitoring
+   * @param connector opens a new backend channel on this pool's event loop
+   * @param maxChannels maximum number of backend channels to open
+   * @param metrics backend metrics
+   * @param clock a source of time
+   */
+  public BackendChannelPool(
+      String protocolName,
+      Supplier<ChannelFuture> connector,
+      int maxChannels,
+      BackendMetrics metrics,
+      Clock clock) {
+    checkArgument(maxChannels > 0, "maxChannels must be positive");
+    this.protocolName = protocolName;
+    this.connector = connector;
+    this.maxChannels = maxChannels;
+    this.metrics = metrics;
+    this.clock = clock;
+  }
+
+  /** Starts relaying the requests of {@code frontendChannel} through this pool. */
+  public void register(Channel frontendChannel) {
+    frontendChannel.attr(BACKEND_POOL_KEY).set(this);
+    ChannelFuture unusedFuture =
+        frontendChannel.closeFuture().addListener(future -> frontendClosed(frontendChannel));
+  }
+
+  /**
+   * Relays {@code msg} read from {@code channel}.
+   *
+   * <p>A request from a frontend channel is written to the backend channel it has leased, leasing
+   * one first if needed. A response from a backend channel is written to the frontend channel that
+   * leased it, and the backend channel is returned to the pool once it has no requests left.
+   */
+  void relay(Channel channel, Object msg) {
+    if (connected.contains(channel)) {
+      relayResponse(channel, msg);
+    } else {
+      relayRequest(channel, msg);
+    }
+  }
+
+  private void relayRequest(Channel frontendChannel, Object msg) {
+    Channel backendChannel = frontendChannel.attr(RELAY_CHANNEL_KEY).get();
+    if (backendChannel != null && leases.containsKey(backendChannel)) {
+      // Requests sent while an earlier one is in flight are pipelined on the same backend channel,
+      // so that the responses are relayed back in order.
+      leases.get(backendChannel).inFlight++;
+      writeToRelayChannel(frontendChannel, backendChannel, msg, false);
+      return;
+    }
+    Waiter waiter = waiters.get(frontendChannel);
+    if (waiter != null) {
+      waiter.messages.add(msg);
+      return;
+    }
+    Channel idleChannel = pollIdle();
+    if (idleChannel != null) {
+      metrics.connectionLeased(protocolName, REUSED);
+      List<Object> messages = new ArrayList<>();
+      messages.add(msg);
+      lease(frontendChannel, idleChannel, messages);
+      return;
+    }
+    waiter = new Waiter(clock.nowUtc());
+    waiter.messages.add(msg);
+    waiters.put(frontendChannel, waiter);
+    if (connected.size() + connecting < maxChannels) {
+      metrics.connectionLeased(protocolName, CREATED);
+      connect();
+    } else {
+      metrics.connectionLeased(protocolName, QUEUED);
+    }
+  }
+
+  private void relayResponse(Channel backendChannel, Object msg) {
+    Lease lease = leases.get(backendChannel);
+    if (lease == null) {
+      logger.atWarning().log("Unexpected response on idle backend channel %s", backendChannel);
+      ReferenceCountUtil.release(msg);
+      ChannelFuture unusedFuture = backendChannel.close();
+      return;
+    }
+    writeToRelayChannel(backendChannel, lease.frontendChannel, msg, false);
+    if (--lease.inFlight == 0) {
+      endLease(backendChannel, lease);
+      offer(backendChannel);
+    }
+  }
+
+  private void connect() {
+    connecting++;
+    ChannelFuture unusedFuture =
+        connector
+            .get()
+            .addListener(
+                (ChannelFuture future) -> {
+                  connecting--;
+                  if (future.isSuccess()) {
+                    Channel backendChannel = future.channel();
+                    backendChannel.attr(BACKEND_POOL_KEY).set(this);
+                    connected.add(backendChannel);
+                    ChannelFuture unusedFuture2 =
+                        backendChannel
+                            .closeFuture()
+                            .addListener(closeFuture -> backendClosed(backendChannel));
+                    offer(backendChannel);
+                  } else {
+                    // We cannot connect to GAE for unknown reasons, so the request that asked for
+                    // this channel cannot be relayed. Drop its frontend channel, just like when a
+                    // frontend channel cannot connect to its own relay channel.
+                    Map.Entry<Channel, Waiter> entry = pollWaiter();
+                    if (entry != null) {
+                      logger.atSevere().withCause(future.cause()).log(
+                          "Cannot connect to relay channel for %s channel: %s.",
+                          protocolName, entry.getKey());
+                      entry.getValue().release();
+                      ChannelFuture unusedFuture2 = entry.getKey().close();
+                    }
+                    connectForWaiters();
+                  }
+                });
+  }
+
+  /** Opens new channels for waiting frontend channels that no connecting channel will serve. */
+  private void connectForWaiters() {
+    while (waiters.size() > connecting && connected.size() + connecting < maxChannels) {
+      connect();
+    }
+  }
+
+  /** Hands a free backend channel to the first waiting frontend channel, or makes it idle. */
+  private void offer(Channel backendChannel) {
+    if (!backendChannel.isActive()) {
+      return;
+    }
+    Map.Entry<Channel, Waiter> entry;
+    while ((entry = pollWaiter()) != null) {
+      Channel frontendChannel = entry.getKey();
+      Waiter waiter = entry.getValue();
+      if (!frontendChannel.isActive()) {
+        waiter.release();
+        continue;
+      }
+      metrics.connectionWaited(
+          protocolName, clock.nowUtc().getMillis() - waiter.since.getMillis());
+      lease(frontendChannel, backendChannel, waiter.messages);
+      return;
+    }
+    idle.push(backendChannel);
+  }
+
+  private void lease(Channel frontendChannel, Channel backendChannel, List<Object> messages) {
+    Lease lease = new Lease(frontendChannel);
+    lease.inFlight = messages.size();
+    leases.put(backendChannel, lease);
+    backendChannel.attr(RELAY_CHANNEL_KEY).set(frontendChannel);
+    frontendChannel.attr(RELAY_CHANNEL_KEY).set(backendChannel);
+    for (Object msg : messages) {
+      writeToRelayChannel(frontendChannel, backendChannel, msg, false);
+    }
+  }
+
+  private void endLease(Channel backendChannel, Lease lease) {
+    leases.remove(backendChannel);
+    backendChannel.attr(RELAY_CHANNEL_KEY).set(null);
+    if (lease.frontendChannel.attr(RELAY_CHANNEL_KEY).get() == backendChannel) {
+      lease.frontendChannel.attr(RELAY_CHANNEL_KEY).set(null);
+    }
+  }
+
+  private Channel pollIdle() {
+    Channel channel;
+    while ((channel = idle.poll()) != null) {
+      if (channel.isActive()) {
+        return channel;
+      }
+    }
+    return null;
+  }
+
+  private Map.Entry<Channel, Waiter> pollWaiter() {
+    Iterator<Map.Entry<Channel, Waiter>> iterator = waiters.entrySet().iterator();
+    if (!iterator.hasNext()) {
+      return null;
+    }
+    Map.Entry<Channel, Waiter> entry = iterator.next();
+    iterator.remove();
+    return entry;
+  }
+
+  /**
+   * Cleans up after a backend channel is closed.
+   *
+   * <p>The backend may close a channel at any time, and a relay failure closes it as well. If the
+   * channel was leased, the requests that failed to be relayed, which are kept in the frontend
+   * channel's {@link RelayHandler#RELAY_BUFFER_KEY}, are relayed again through another channel.
+   */
+  private void backendClosed(Channel backendChannel) {
+    connected.remove(backendChannel);
+    idle.remove(backendChannel);
+    Lease lease = leases.get(backendChannel);
+    if (lease != null) {
+      endLease(backendChannel, lease);
+      Channel frontendChannel = lease.frontendChannel;
+      Queue<Object> relayBuffer = frontendChannel.attr(RELAY_BUFFER_KEY).get();
+      if (frontendChannel.isActive() && relayBuffer != null && !relayBuffer.isEmpty()) {
+        logger.atInfo().log(
+            "Relay interrupted: %s\nFRONTEND: %s\nBACKEND: %s",
+            protocolName, frontendChannel, backendChannel);
+        // Obtain a copy of the messages and clear the queue first, because if the relay is not
+        // successful, the message will be written back to the queue.
+        Object[] messages = relayBuffer.toArray();
+        relayBuffer.clear();
+        for (Object msg : messages) {
+          relayRequest(frontendChannel, msg);
+        }
+      }
+    }
+    connectForWaiters();
+  }
+
+  private void frontendClosed(Channel frontendChannel) {
+    Waiter waiter = waiters.remove(frontendChannel);
+    if (waiter != null) {
+      waiter.release();
+    }
+  }
+
+  @VisibleForTesting
+  int getIdleCount() {
+    return idle.size();
+  }
+
+  @VisibleForTesting
+  int getConnectedCount() {
+    return connected.size();
+  }
+
+  /** A frontend channel's use of a backend channel. */
+  private static final class Lease {
+    final Channel frontendChannel;
+
+    /** Number of requests relayed on the backend channel that have not been responded to. */
+    int inFlight;
+
+    Lease(Channel frontendChannel) {
+      this.frontendChannel = frontendChannel;
+    }
+  }
+
+  /** The requests of a frontend channel that is waiting for a backend channel. */
+  private static final class Waiter {
+    final DateTime since;
+    final List<Object> messages = new ArrayList<>();
+
+    Waiter(DateTime since) {
+      this.since = since;
+    }
+
+    void release() {
+      messages.forEach(ReferenceCountUtil::release);
+    }
+  }
+}
@@ -50,12 +50,8 @@ public class BackendMetricsHandler extends ChannelDuplexHandler {
   private final Clock clock;
   private final BackendMetrics metrics;
 
-  private String relayedProtocolName;
-  private String clientCertHash;
-  private Channel relayedChannel;
-
   /**
-   * A queue that saves the time at which a request is sent to the GAE app.
+   * A queue that saves the requests sent to the GAE app that have not yet received a response.
    *
    * <p>This queue is used to calculate HTTP request-response latency. HTTP 1.1 specification allows
    * for pipelining, in which a client can sent multiple requests without waiting for each
@@ -63,13 +59,17 @@ public class BackendMetricsHandler extends ChannelDuplexHandler {
    * yet received a response.
    *
    * <p>A server must send its response in the same order it receives requests. This invariance
-   * guarantees that the request time at the head of the queue always corresponds to the response
+   * guarantees that the request at the head of the queue always corresponds to the response
    * received in {@link #channelRead}.
    *
+   * <p>The frontend channel is recorded with each request rather than once per backend channel,
+   * because a pooled backend channel relays requests for different frontend channels over its
+   * lifetime.
+   *
    * @see <a href="https://www.w3.org/Protocols/rfc2616/rfc2616-sec8.html">RFC 2616 8.1.2.2
    *     Pipelining</a>
    */
-  private final Queue<DateTime> requestSentTimeQueue = new ArrayDeque<>();
+  private final Queue<SentRequest> sentRequestQueue = new ArrayDeque<>();
 
   @Inject
   BackendMetricsHandler(Clock clock, BackendMetrics metrics) {
@@ -77,25 +77,16 @@ public class BackendMetricsHandler extends ChannelDuplexHandler {
     this.metrics = metrics;
   }
 
-  @Override
-  public void channelRegistered(ChannelHandlerContext ctx) throws Exception {
-    // Backend channel is always established after a frontend channel is connected, so this call
-    // should always return a non-null relay channel.
-    relayedChannel = ctx.channel().attr(RELAY_CHANNEL_KEY).get();
-    checkNotNull(relayedChannel, "No frontend channel found.");
-    relayedProtocolName = relayedChannel.attr(PROTOCOL_KEY).get().name();
-    super.channelRegistered(ctx);
-  }
-
   @Override
   public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
     checkArgument(msg instanceof FullHttpResponse, "Incoming response must be FullHttpResponse.");
-    checkState(!requestSentTimeQueue.isEmpty(), "Response received before request is sent.");
+    checkState(!sentRequestQueue.isEmpty(), "Response received before request is sent.");
+    SentRequest request = sentRequestQueue.remove();
     metrics.responseReceived(
-        relayedProtocolName,
-        clientCertHash,
+        request.relayedProtocolName,
+        request.clientCertHash,
         (FullHttpResponse) msg,
-        clock.nowUtc().getMillis() - requestSentTimeQueue.remove().getMillis());
+        clock.nowUtc().getMillis() - request.sentTime.getMillis());
     super.channelRead(ctx, msg);
   }
 
@@ -103,15 +94,17 @@ public class BackendMetricsHandler extends ChannelDuplexHandler {
   public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
       throws Exception {
     checkArgument(msg instanceof FullHttpRequest, "Outgoing request must be FullHttpRequest.");
+    // The request is always written on behalf of the frontend channel that the backend channel
+    // currently relays for.
+    Channel relayedChannel = ctx.channel().attr(RELAY_CHANNEL_KEY).get();
+    checkNotNull(relayedChannel, "No frontend channel found.");
+    String relayedProtocolName = relayedChannel.attr(PROTOCOL_KEY).get().name();
     // For WHOIS, client certificate hash is always set to "none".
     // For EPP, the client hash attribute is set upon handshake completion, before the first HELLO
     // is sent to the server. Therefore the first call to write() with HELLO payload has access to
     // the hash in its channel attribute.
-    if (clientCertHash == null) {
-      clientCertHash =
-          Optional.ofNullable(relayedChannel.attr(CLIENT_CERTIFICATE_HASH_KEY).get())
-              .orElse("none");
-    }
+    String clientCertHash =
+        Optional.ofNullable(relayedChannel.attr(CLIENT_CERTIFICATE_HASH_KEY).get()).orElse("none");
     FullHttpRequest request = (FullHttpRequest) msg;
 
     // Record request size now because the content would have read by the time the listener is
@@ -127,8 +120,22 @@ public class BackendMetricsHandler extends ChannelDuplexHandler {
                   if (future.isSuccess()) {
                     // Only instrument request metrics when the request is actually sent to GAE.
                     metrics.requestSent(relayedProtocolName, clientCertHash, bytes);
-                    requestSentTimeQueue.add(sentTime);
+                    sentRequestQueue.add(
+                        new SentRequest(relayedProtocolName, clientCertHash, sentTime));
                   }
                 });
   }
+
+  /** A request that has been sent to the GAE app, with the frontend it was sent on behalf of. */
+  private static final class SentRequest {
+    final String relayedProtocolName;
+    final String clientCertHash;
+    final DateTime sentTime;
+
+    SentRequest(String relayedProtocolName, String clientCertHash, DateTime sentTime) {
+      this.relayedProtocolName = relayedProtocolName;
+      this.clientCertHash = clientCertHash;
+      this.sentTime = sentTime;
+    }
+  }
 }
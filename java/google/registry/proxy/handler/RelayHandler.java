@@ -15,6 +15,7 @@
 package google.registry.proxy.handler;
 
 import static google.registry.proxy.Protocol.PROTOCOL_KEY;
+import static google.registry.proxy.handler.BackendChannelPool.BACKEND_POOL_KEY;
 
 import com.google.common.flogger.FluentLogger;
 import google.registry.proxy.handler.QuotaHandler.OverQuotaException;
@@ -60,12 +61,20 @@ public class RelayHandler<I> extends SimpleChannelInboundHandler<I> {
     super(clazz, false);
   }
 
-  /** Read message of type {@code I}, write it as-is into the relay channel. */
+  /**
+   * Read message of type {@code I}, write it as-is into the relay channel.
+   *
+   * <p>If the channel relays through a {@link BackendChannelPool}, the pool picks the relay
+   * channel instead.
+   */
   @Override
   protected void channelRead0(ChannelHandlerContext ctx, I msg) throws Exception {
     Channel channel = ctx.channel();
+    BackendChannelPool pool = channel.attr(BACKEND_POOL_KEY).get();
     Channel relayChannel = channel.attr(RELAY_CHANNEL_KEY).get();
-    if (relayChannel == null) {
+    if (pool != null) {
+      pool.relay(channel, msg);
+    } else if (relayChannel == null) {
       logger.atSevere().log("Relay channel not specified for channel: %s", channel);
       ChannelFuture unusedFuture = channel.close();
     } else {
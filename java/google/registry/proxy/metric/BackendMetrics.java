@@ -93,6 +93,28 @@ public class BackendMetrics {
               LABELS,
               DEFAULT_LATENCY_FITTER);
 
+  static final IncrementableMetric poolLeasesCounter =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/proxy/backend/pool/leases",
+              "Total number of backend connections leased from the connection pool.",
+              "Leases",
+              ImmutableSet.of(
+                  LabelDescriptor.create("protocol", "Name of the protocol."),
+                  LabelDescriptor.create(
+                      "outcome",
+                      "Whether an idle connection was reused, a new one was created, or the "
+                          + "request had to wait because the pool was saturated.")));
+
+  static final EventMetric poolWaitMs =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/proxy/backend/pool/wait_ms",
+              "Time a request waited for a backend connection from the connection pool.",
+              "Wait Milliseconds",
+              ImmutableSet.of(LabelDescriptor.create("protocol", "Name of the protocol.")),
+              DEFAULT_LATENCY_FITTER);
+
   @Inject
   BackendMetrics() {}
 
@@ -108,6 +130,8 @@ public class BackendMetrics {
     responseBytes.reset();
     responsesCounter.reset();
     latencyMs.reset();
+    poolLeasesCounter.reset();
+    poolWaitMs.reset();
   }
 
   @NonFinalForTesting
@@ -123,4 +147,14 @@ public class BackendMetrics {
     responseBytes.record(response.content().readableBytes(), protocol, certHash);
     responsesCounter.increment(protocol, certHash, response.status().toString());
   }
+
+  @NonFinalForTesting
+  public void connectionLeased(String protocol, String outcome) {
+    poolLeasesCounter.increment(protocol, outcome);
+  }
+
+  @NonFinalForTesting
+  public void connectionWaited(String protocol, long waitMs) {
+    poolWaitMs.record(waitMs, protocol);
+  }
 }
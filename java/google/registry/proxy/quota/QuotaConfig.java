@@ -14,6 +14,7 @@
 
 package google.registry.proxy.quota;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -42,13 +43,26 @@ public class QuotaConfig {
   public QuotaConfig(Quota quota, String protocolName) {
     this.protocolName = protocolName;
     refreshSeconds = quota.refreshSeconds;
-    defaultQuota = quota.defaultQuota;
+    defaultQuota = checkTokenAmount(quota.defaultQuota);
     ImmutableMap.Builder<String, QuotaGroup> mapBuilder = new ImmutableMap.Builder<>();
     quota.customQuota.forEach(
-        quotaGroup -> quotaGroup.userId.forEach(userId -> mapBuilder.put(userId, quotaGroup)));
+        quotaGroup ->
+            checkTokenAmount(quotaGroup)
+                .userId
+                .forEach(userId -> mapBuilder.put(userId, quotaGroup)));
     customQuotaMap = mapBuilder.build();
   }
 
+  /** Checks that the token amount of {@code quotaGroup} fits in a {@link TokenStore}. */
+  private static QuotaGroup checkTokenAmount(QuotaGroup quotaGroup) {
+    checkArgument(
+        quotaGroup.tokenAmount <= TokenStore.MAX_TOKEN_AMOUNT,
+        "Token amount %s exceeds the maximum of %s",
+        quotaGroup.tokenAmount,
+        TokenStore.MAX_TOKEN_AMOUNT);
+    return quotaGroup;
+  }
+
   @VisibleForTesting
   QuotaGroup findQuotaGroup(String userId) {
     return customQuotaMap.getOrDefault(userId, defaultQuota);
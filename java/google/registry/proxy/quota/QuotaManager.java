@@ -15,6 +15,7 @@
 package google.registry.proxy.quota;
 
 import com.google.auto.value.AutoValue;
+import com.google.common.util.concurrent.Futures;
 import google.registry.proxy.quota.TokenStore.TimestampedInteger;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -29,8 +30,10 @@ import org.joda.time.DateTime;
  * <ul>
  *   <li>Translates a {@link QuotaRequest} to taking one token from the store, blocks the caller,
  *       and responds with a {@link QuotaResponse}.
- *   <li>Translates a {@link QuotaRebate} to putting the token to the store asynchronously, and
- *       immediately returns.
+ *   <li>Translates a {@link QuotaRebate} to putting the token to the store. This is done on the
+ *       caller's thread if the store can be updated right away, and asynchronously if another
+ *       thread is updating the same user's tokens at the same time, so that the caller never
+ *       blocks.
  *   <li>Periodically refreshes the token records asynchronously to purge stale recodes.
  * </ul>
  *
@@ -94,8 +97,11 @@ public class QuotaManager {
     return QuotaResponse.create(tokens.value() != 0, request.userId(), tokens.timestamp());
   }
 
-  /** Returns granted quota to the token store, asynchronously. */
+  /** Returns granted quota to the token store, asynchronously if the store is contended. */
   public Future<?> releaseQuota(QuotaRebate rebate) {
+    if (tokenStore.tryPut(rebate.userId(), rebate.grantedTokenRefillTime())) {
+      return Futures.immediateFuture(null);
+    }
     return backgroundExecutor.submit(
         () -> tokenStore.put(rebate.userId(), rebate.grantedTokenRefillTime()));
   }
@@ -14,6 +14,7 @@
 
 package google.registry.proxy.quota;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static google.registry.proxy.quota.QuotaConfig.SENTINEL_UNLIMITED_TOKENS;
 import static java.lang.StrictMath.max;
 import static java.lang.StrictMath.min;
@@ -26,8 +27,10 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.concurrent.ThreadSafe;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.joda.time.Duration;
 
 /**
@@ -43,6 +46,11 @@ import org.joda.time.Duration;
  * #put} takes place. It also exposes a {@link #refresh} method that goes through each entry in the
  * store and purges stale entries, in order to prevent the token store from growing too large.
  *
+ * <p>Each user's tokens live in a {@link Bucket} that packs the token count and the last refill
+ * time into a single {@code long}, which is updated with compare-and-set. Taking or returning a
+ * token therefore neither locks the map nor allocates a new entry, which matters when a large
+ * registrar opens many connections at once.
+ *
  * <p>There should be one token store for each protocol.
  */
 @ThreadSafe
@@ -61,19 +69,24 @@ public class TokenStore {
     abstract DateTime timestamp();
   }
 
+  /** Number of low bits of a bucket's state that hold the token count. */
+  private static final int TOKEN_BITS = 22;
+
+  private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+
   /**
-   * A wrapper to get around Java lambda's closure limitation.
+   * The largest token amount a user can be provisioned with.
    *
-   * <p>Use the class to modify the value of a local variable captured by an lambda.
+   * <p>The token count is stored off by one so that {@link QuotaConfig#SENTINEL_UNLIMITED_TOKENS}
+   * fits, which leaves one value fewer than the field can hold. The remaining 42 bits hold the
+   * refill time in milliseconds since the epoch, which lasts until the year 2109.
    */
-  private static class Wrapper<T> {
-    T value;
-  }
+  static final int MAX_TOKEN_AMOUNT = (int) TOKEN_MASK - 1;
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
-  /** A map of {@code userId} to available tokens, timestamped at last refill time. */
-  private final ConcurrentHashMap<String, TimestampedInteger> tokensMap = new ConcurrentHashMap<>();
+  /** A map of {@code userId} to the bucket holding the available tokens. */
+  private final ConcurrentHashMap<String, Bucket> tokensMap = new ConcurrentHashMap<>();
 
   private final QuotaConfig config;
   private final ScheduledExecutorService refreshExecutor;
@@ -92,45 +105,35 @@ public class TokenStore {
    * that entry has been last refilled before the refill period. In either case it will reset the
    * token amount to the allotted to the user.
    *
-   * <p>The request can be partially fulfilled or all-or-nothing, meaning if there are fewer tokens
-   * available than requested, we can grant all available ones, or grant nothing, depending on the
-   * {@code partialGrant} parameter.
-   *
    * @param userId the identifier of the user requesting the token.
    * @return the number of token granted, timestamped at refill time of the pool of tokens from
    *     which the granted one is taken.
    */
   TimestampedInteger take(String userId) {
-    Wrapper<TimestampedInteger> grantedToken = new Wrapper<>();
-    tokensMap.compute(
-        userId,
-        (user, availableTokens) -> {
-          DateTime now = clock.nowUtc();
-          int currentTokenCount;
-          DateTime refillTime;
-          // Checks if the user is provisioned with unlimited tokens.
-          if (config.hasUnlimitedTokens(user)) {
-            grantedToken.value = TimestampedInteger.create(1, now);
-            return TimestampedInteger.create(SENTINEL_UNLIMITED_TOKENS, now);
-          }
-          // Checks if the entry exists.
-          if (availableTokens == null
-              // Or if refill is enabled and the entry needs to be refilled.
-              || (!config.getRefillPeriod(user).isEqual(Duration.ZERO)
-                  && !new Duration(availableTokens.timestamp(), now)
-                      .isShorterThan(config.getRefillPeriod(user)))) {
-            currentTokenCount = config.getTokenAmount(user);
-            refillTime = now;
-          } else {
-            currentTokenCount = availableTokens.value();
-            refillTime = availableTokens.timestamp();
-          }
-          int newTokenCount = max(0, currentTokenCount - 1);
-          grantedToken.value =
-              TimestampedInteger.create(currentTokenCount - newTokenCount, refillTime);
-          return TimestampedInteger.create(newTokenCount, refillTime);
-        });
-    return grantedToken.value;
+    DateTime now = clock.nowUtc();
+    long nowMillis = now.getMillis();
+    Bucket bucket = getOrCreateBucket(userId, nowMillis);
+    // Checks if the user is provisioned with unlimited tokens.
+    if (bucket.unlimited) {
+      bucket.state.set(pack(nowMillis, SENTINEL_UNLIMITED_TOKENS));
+      return TimestampedInteger.create(1, now);
+    }
+    while (true) {
+      long current = bucket.state.get();
+      long refillMillis = refillMillis(current);
+      int currentTokenCount = tokenCount(current);
+      if (bucket.needsRefill(refillMillis, nowMillis)) {
+        currentTokenCount = bucket.tokenAmount;
+        refillMillis = nowMillis;
+      }
+      int newTokenCount = max(0, currentTokenCount - 1);
+      long next = pack(refillMillis, newTokenCount);
+      if (next == current || bucket.state.compareAndSet(current, next)) {
+        return TimestampedInteger.create(
+            currentTokenCount - newTokenCount,
+            refillMillis == nowMillis ? now : new DateTime(refillMillis, DateTimeZone.UTC));
+      }
+    }
   }
 
   /**
@@ -145,32 +148,42 @@ public class TokenStore {
    *     one is taken from.
    */
   void put(String userId, DateTime returnedTokenRefillTime) {
-    tokensMap.computeIfPresent(
-        userId,
-        (user, availableTokens) -> {
-          DateTime now = clock.nowUtc();
-          int currentTokenCount = availableTokens.value();
-          DateTime refillTime = availableTokens.timestamp();
-          int newTokenCount;
-          // Check if quota is unlimited.
-          if (!config.hasUnlimitedTokens(userId)) {
-            // Check if refill is enabled and a refill is needed.
-            if (!config.getRefillPeriod(user).isEqual(Duration.ZERO)
-                && !new Duration(availableTokens.timestamp(), now)
-                    .isShorterThan(config.getRefillPeriod(user))) {
-              currentTokenCount = config.getTokenAmount(user);
-              refillTime = now;
-            }
-            // If the returned token comes from the current pool, add it back, otherwise discard it.
-            newTokenCount =
-                returnedTokenRefillTime.equals(refillTime)
-                    ? min(currentTokenCount + 1, config.getTokenAmount(userId))
-                    : currentTokenCount;
-          } else {
-            newTokenCount = SENTINEL_UNLIMITED_TOKENS;
-          }
-          return TimestampedInteger.create(newTokenCount, refillTime);
-        });
+    while (!tryPut(userId, returnedTokenRefillTime)) {
+      // Another thread updated the bucket in the meantime, try again with its new state.
+    }
+  }
+
+  /**
+   * Makes a single attempt to return the granted token to the token store.
+   *
+   * <p>This does the same as {@link #put}, except that it gives up instead of retrying when another
+   * thread updates the same bucket concurrently.
+   *
+   * @return {@code true} if the token store no longer needs updating, {@code false} if the attempt
+   *     lost a race and has to be repeated
+   */
+  boolean tryPut(String userId, DateTime returnedTokenRefillTime) {
+    Bucket bucket = tokensMap.get(userId);
+    // Check if the entry exists and the quota is limited.
+    if (bucket == null || bucket.unlimited) {
+      return true;
+    }
+    long nowMillis = clock.nowUtc().getMillis();
+    long current = bucket.state.get();
+    long refillMillis = refillMillis(current);
+    int currentTokenCount = tokenCount(current);
+    // Check if refill is enabled and a refill is needed.
+    if (bucket.needsRefill(refillMillis, nowMillis)) {
+      currentTokenCount = bucket.tokenAmount;
+      refillMillis = nowMillis;
+    }
+    // If the returned token comes from the current pool, add it back, otherwise discard it.
+    int newTokenCount =
+        returnedTokenRefillTime.getMillis() == refillMillis
+            ? min(currentTokenCount + 1, bucket.tokenAmount)
+            : currentTokenCount;
+    long next = pack(refillMillis, newTokenCount);
+    return next == current || bucket.state.compareAndSet(current, next);
   }
 
   /**
@@ -184,11 +197,12 @@ public class TokenStore {
    * later from the refill time, otherwise another refill would have been performed.
    */
   void refresh() {
+    long refreshPeriodMillis = config.getRefreshPeriod().getMillis();
     tokensMap.forEach(
-        (user, availableTokens) -> {
-          if (!new Duration(availableTokens.timestamp(), clock.nowUtc())
-              .isShorterThan(config.getRefreshPeriod())) {
-            tokensMap.remove(user);
+        (user, bucket) -> {
+          if (clock.nowUtc().getMillis() - refillMillis(bucket.state.get())
+              >= refreshPeriodMillis) {
+            tokensMap.remove(user, bucket);
           }
         });
   }
@@ -217,6 +231,61 @@ public class TokenStore {
    */
   @VisibleForTesting
   TimestampedInteger getTokenForTests(String userId) {
-    return tokensMap.get(userId);
+    Bucket bucket = tokensMap.get(userId);
+    if (bucket == null) {
+      return null;
+    }
+    long state = bucket.state.get();
+    return TimestampedInteger.create(
+        tokenCount(state), new DateTime(refillMillis(state), DateTimeZone.UTC));
+  }
+
+  private Bucket getOrCreateBucket(String userId, long nowMillis) {
+    // Looks up the bucket first, since computeIfAbsent locks the map bin even if the key exists.
+    Bucket bucket = tokensMap.get(userId);
+    return (bucket != null)
+        ? bucket
+        : tokensMap.computeIfAbsent(userId, user -> new Bucket(user, nowMillis));
+  }
+
+  private static long pack(long refillMillis, int tokenCount) {
+    checkArgument(refillMillis >= 0, "Refill time %s is before the epoch", refillMillis);
+    return (refillMillis << TOKEN_BITS) | (tokenCount + 1);
+  }
+
+  private static long refillMillis(long state) {
+    return state >>> TOKEN_BITS;
+  }
+
+  private static int tokenCount(long state) {
+    return (int) (state & TOKEN_MASK) - 1;
+  }
+
+  /**
+   * The tokens of a single user.
+   *
+   * <p>The quota of the user is copied from the {@link QuotaConfig} when the bucket is created, so
+   * that it does not need to be looked up again for every token.
+   */
+  private final class Bucket {
+
+    /** The token count and the refill time in milliseconds, packed by {@link #pack}. */
+    final AtomicLong state;
+
+    final boolean unlimited;
+    final int tokenAmount;
+    final long refillPeriodMillis;
+
+    Bucket(String userId, long nowMillis) {
+      unlimited = config.hasUnlimitedTokens(userId);
+      tokenAmount = unlimited ? SENTINEL_UNLIMITED_TOKENS : config.getTokenAmount(userId);
+      refillPeriodMillis = config.getRefillPeriod(userId).getMillis();
+      state = new AtomicLong(pack(nowMillis, tokenAmount));
+    }
+
+    /** Returns whether refill is enabled and the tokens last refilled at the given time are due. */
+    boolean needsRefill(long refillMillis, long nowMillis) {
+      return refillPeriodMillis != 0 && nowMillis - refillMillis >= refillPeriodMillis;
+    }
   }
 }
@@ -14,6 +14,8 @@
 
 package google.registry.rdap;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static google.registry.config.RegistryConfig.isEppResourceCachingEnabled;
 import static google.registry.model.EppResourceUtils.loadByForeignKey;
 import static google.registry.model.index.ForeignKeyIndex.loadAndGetKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
@@ -21,10 +23,12 @@ import static google.registry.request.Action.Method.GET;
 import static google.registry.request.Action.Method.HEAD;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
 
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Streams;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.net.InetAddresses;
@@ -32,6 +36,7 @@ import com.google.common.primitives.Booleans;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.cmd.Query;
 import google.registry.model.domain.DomainResource;
+import google.registry.model.host.HostInetAddressIndex;
 import google.registry.model.host.HostResource;
 import google.registry.rdap.RdapJsonFormatter.BoilerplateType;
 import google.registry.rdap.RdapJsonFormatter.OutputDataType;
@@ -50,9 +55,10 @@ import google.registry.util.NonFinalForTesting;
 import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Stream;
+import java.util.function.Predicate;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 
@@ -75,8 +81,25 @@ public class RdapDomainSearchAction extends RdapSearchActionBase {
 
   static final String PATH = "/rdap/domains";
 
+  /**
+   * The most domains a page of search results reads, as a multiple of the result set size.
+   *
+   * <p>Deleted domains can't be excluded by the queries that return domains in name order, so they
+   * are skipped as they are read. A page that has read this many domains without filling up ends
+   * early, with a cursor just past the last domain read, so that no request does an unbounded
+   * amount of work and the client can still go on to the rest of the results.
+   */
   static final int RESULT_SET_SIZE_SCALING_FACTOR = 30;
 
+  /**
+   * Separates the domain name from the repository id in the cursor of a page that ended early.
+   *
+   * <p>The domain read last by such a page may be deleted, and a live domain of the same name can
+   * follow it, so the next page must resume after that domain rather than after its name. Domain
+   * names can't contain this character, so it can't occur in the cursor of a full page.
+   */
+  private static final String CURSOR_REPO_ID_SEPARATOR = " ";
+
   @NonFinalForTesting
   static int maxNameserversInFirstStage = 300;
 
@@ -87,6 +110,9 @@ public class RdapDomainSearchAction extends RdapSearchActionBase {
   @Inject @Parameter("nsIp") Optional<String> nsIpParam;
   @Inject public RdapDomainSearchAction() {}
 
+  /** The repository id of the domain the cursor points at, if the cursor resumes a truncation. */
+  private Optional<String> cursorRepoId;
+
   @Override
   public String getHumanReadableObjectTypeName() {
     return "domain search";
@@ -122,6 +148,13 @@ public class RdapDomainSearchAction extends RdapSearchActionBase {
           "You must specify either name=XXXX, nsLdhName=YYYY or nsIp=ZZZZ");
     }
     decodeCursorToken();
+    cursorRepoId = Optional.empty();
+    if (cursorString.isPresent() && cursorString.get().contains(CURSOR_REPO_ID_SEPARATOR)) {
+      List<String> cursorParts =
+          Splitter.on(CURSOR_REPO_ID_SEPARATOR).limit(2).splitToList(cursorString.get());
+      cursorString = Optional.of(cursorParts.get(0));
+      cursorRepoId = Optional.of(cursorParts.get(1));
+    }
     RdapSearchResults results;
     if (nameParam.isPresent()) {
       metricInformationBuilder.setSearchType(SearchType.BY_DOMAIN_NAME);
@@ -157,7 +190,7 @@ public class RdapDomainSearchAction extends RdapSearchActionBase {
       }
       results = searchByNameserverIp(inetAddress, now);
     }
-    if (results.jsonList().isEmpty()) {
+    if (results.jsonList().isEmpty() && !results.nextCursor().isPresent()) {
       throw new NotFoundException("No domains found");
     }
     ImmutableMap.Builder<String, Object> builder = new ImmutableMap.Builder<>();
@@ -230,29 +263,26 @@ public class RdapDomainSearchAction extends RdapSearchActionBase {
       final RdapSearchPattern partialStringQuery, final DateTime now) {
     // We can't query for undeleted domains as part of the query itself; that would require an
     // inequality query on deletion time, and we are already using inequality queries on
-    // fullyQualifiedDomainName. So we instead pick an arbitrary limit of
-    // RESULT_SET_SIZE_SCALING_FACTOR times the result set size limit, fetch up to that many, and
-    // weed out all deleted domains. If there still isn't a full result set's worth of domains, we
-    // give up and return just the ones we found. Don't use queryItems, because it checks that the
-    // initial string is at least a certain length, which we don't need in this case. Query the
-    // domains directly, rather than the foreign keys, because then we have an index on TLD if we
-    // need it.
-    int querySizeLimit = RESULT_SET_SIZE_SCALING_FACTOR * rdapResultSetMaxSize;
+    // fullyQualifiedDomainName. So deleted domains are skipped as the results are read. Don't use
+    // queryItems, because it checks that the initial string is at least a certain length, which
+    // we don't need in this case. Query the domains directly, rather than the foreign keys,
+    // because then we have an index on TLD if we need it.
     Query<DomainResource> query =
         ofy()
             .load()
             .type(DomainResource.class)
             .filter("fullyQualifiedDomainName <", partialStringQuery.getNextInitialString())
             .filter("fullyQualifiedDomainName >=", partialStringQuery.getInitialString());
-    if (cursorString.isPresent()) {
-      query = query.filter("fullyQualifiedDomainName >", cursorString.get());
-    }
+    query = filterByCursor(query);
     if (partialStringQuery.getSuffix() != null) {
       query = query.filter("tld", partialStringQuery.getSuffix());
     }
-    query = query.limit(querySizeLimit);
     // Always check for visibility, because we couldn't look at the deletionTime in the query.
-    return makeSearchResults(getMatchingResources(query, true, now, querySizeLimit), now);
+    return searchDomainsInNameOrder(
+        ImmutableList.of(filterByDesiredRegistrar(query)),
+        domain -> shouldBeVisible(domain, now),
+        IncompletenessWarningType.COMPLETE,
+        now);
   }
 
   /** Searches for domains by domain name with a TLD suffix. */
@@ -261,17 +291,47 @@ public class RdapDomainSearchAction extends RdapSearchActionBase {
     // back ordered by name, so we are still in the same boat as
     // searchByDomainNameWithInitialString, unable to perform an inequality query on deletion time.
     // Don't use queryItems, because it doesn't handle pending deletes.
-    int querySizeLimit = RESULT_SET_SIZE_SCALING_FACTOR * rdapResultSetMaxSize;
     Query<DomainResource> query =
         ofy()
             .load()
             .type(DomainResource.class)
             .filter("tld", tld);
-    if (cursorString.isPresent()) {
-      query = query.filter("fullyQualifiedDomainName >", cursorString.get());
+    query = filterByCursor(query);
+    return searchDomainsInNameOrder(
+        ImmutableList.of(filterByDesiredRegistrar(query.order("fullyQualifiedDomainName"))),
+        domain -> shouldBeVisible(domain, now),
+        IncompletenessWarningType.COMPLETE,
+        now);
+  }
+
+  /**
+   * Restricts a domain query to the domains after the cursor, if any.
+   *
+   * <p>If the cursor resumes a page that ended early, domains of the cursor's name are kept, and it
+   * is up to {@link #searchDomainsInNameOrder} to skip those up to the cursor's repository id.
+   */
+  private Query<DomainResource> filterByCursor(Query<DomainResource> query) {
+    if (!cursorString.isPresent()) {
+      return query;
     }
-    query = query.order("fullyQualifiedDomainName").limit(querySizeLimit);
-    return makeSearchResults(getMatchingResources(query, true, now, querySizeLimit), now);
+    return query.filter(
+        cursorRepoId.isPresent() ? "fullyQualifiedDomainName >=" : "fullyQualifiedDomainName >",
+        cursorString.get());
+  }
+
+  /** Returns whether a page that ended early has already read {@code domain}. */
+  private boolean isAtOrBeforeCursor(DomainResource domain) {
+    return cursorRepoId.isPresent()
+        && domain.getFullyQualifiedDomainName().equals(cursorString.get())
+        && domain.getRepoId().compareTo(cursorRepoId.get()) <= 0;
+  }
+
+  /** Restricts a domain query to the registrar the request asks for, if any. */
+  private Query<DomainResource> filterByDesiredRegistrar(Query<DomainResource> query) {
+    Optional<String> desiredRegistrar = getDesiredRegistrar();
+    return desiredRegistrar.isPresent()
+        ? query.filter("currentSponsorClientId", desiredRegistrar.get())
+        : query;
   }
 
   /**
@@ -329,7 +389,6 @@ public class RdapDomainSearchAction extends RdapSearchActionBase {
             partialStringQuery,
             DeletedItemHandling.EXCLUDE,
             maxNameserversInFirstStage);
-    Optional<String> desiredRegistrar = getDesiredRegistrar();
     if (desiredRegistrar.isPresent()) {
       query = query.filter("currentSponsorClientId", desiredRegistrar.get());
     }
@@ -422,9 +481,29 @@ public class RdapDomainSearchAction extends RdapSearchActionBase {
    *
    * <p>The includeDeleted parameter does NOT cause deleted nameservers to be searched, only deleted
    * domains which used to be connected to an undeleted nameserver.
+   *
+   * <p>When EPP resource caching is enabled, the hosts are found using the in-memory {@link
+   * HostInetAddressIndex} rather than a Datastore query.
    */
   private RdapSearchResults searchByNameserverIp(
       final InetAddress inetAddress, final DateTime now) {
+    Optional<String> desiredRegistrar = getDesiredRegistrar();
+    if (isEppResourceCachingEnabled()) {
+      return searchByNameserverRefs(
+          Streams.stream(
+                  HostInetAddressIndex.loadLiveHosts(
+                      HostInetAddressIndex.get().getHostKeys(inetAddress), inetAddress, now))
+              .filter(
+                  host ->
+                      !desiredRegistrar.isPresent()
+                          || desiredRegistrar
+                              .get()
+                              .equals(host.getPersistedCurrentSponsorClientId()))
+              .limit(maxNameserversInFirstStage)
+              .map(host -> Key.create(host))
+              .collect(toImmutableList()),
+          now);
+    }
     Query<HostResource> query =
         queryItems(
             HostResource.class,
@@ -434,7 +513,6 @@ public class RdapDomainSearchAction extends RdapSearchActionBase {
             Optional.empty(),
             DeletedItemHandling.EXCLUDE,
             maxNameserversInFirstStage);
-    Optional<String> desiredRegistrar = getDesiredRegistrar();
     if (desiredRegistrar.isPresent()) {
       query = query.filter("currentSponsorClientId", desiredRegistrar.get());
     }
@@ -450,72 +528,94 @@ public class RdapDomainSearchAction extends RdapSearchActionBase {
   private RdapSearchResults searchByNameserverRefs(
       final Iterable<Key<HostResource>> hostKeys, final DateTime now) {
     // We must break the query up into chunks, because the in operator is limited to 30 subqueries.
-    // Since it is possible for the same domain to show up more than once in our result list (if
-    // we do a wildcard nameserver search that returns multiple nameservers used by the same
-    // domain), we must create a set of resulting {@link DomainResource} objects. Use a sorted set,
-    // and fetch all domains, to make sure that we can return the first domains in alphabetical
-    // order.
-    ImmutableSortedSet.Builder<DomainResource> domainSetBuilder =
-        ImmutableSortedSet.orderedBy(
-            Comparator.comparing(DomainResource::getFullyQualifiedDomainName));
+    // Each chunk's query returns its domains in name order, so that the queries can be merged to
+    // read just the first domains in alphabetical order, rather than fetching all of them and
+    // sorting them. This means that deleted domains can't be excluded in the query itself.
+    ImmutableList.Builder<Query<DomainResource>> queries = new ImmutableList.Builder<>();
     int numHostKeysSearched = 0;
     for (List<Key<HostResource>> chunk : Iterables.partition(hostKeys, 30)) {
       numHostKeysSearched += chunk.size();
       Query<DomainResource> query = ofy().load()
           .type(DomainResource.class)
           .filter("nsHosts in", chunk);
-      if (!shouldIncludeDeleted()) {
-        query = query.filter("deletionTime >", now);
-      // If we are not performing an inequality query, we can filter on the cursor in the query.
-      // Otherwise, we will need to filter the results afterward.
-      } else if (cursorString.isPresent()) {
-        query = query.filter("fullyQualifiedDomainName >", cursorString.get());
-      }
-      Stream<DomainResource> stream =
-          Streams.stream(query).filter(domain -> isAuthorized(domain, now));
-      if (cursorString.isPresent()) {
-        stream =
-            stream.filter(
-                domain -> (domain.getFullyQualifiedDomainName().compareTo(cursorString.get()) > 0));
-      }
-      stream.forEach(domainSetBuilder::add);
+      query = filterByCursor(query);
+      queries.add(query.order("fullyQualifiedDomainName"));
     }
-    List<DomainResource> domains = domainSetBuilder.build().asList();
     metricInformationBuilder.setNumHostsRetrieved(numHostKeysSearched);
-    if (domains.size() > rdapResultSetMaxSize) {
-      return makeSearchResults(
-          domains.subList(0, rdapResultSetMaxSize),
-          IncompletenessWarningType.TRUNCATED,
-          Optional.of((long) domains.size()),
-          now);
-    } else {
-      // If everything that we found will fit in the result, check whether there might have been
-      // more results that got dropped because the first stage limit on number of nameservers. If
-      // so, indicate the result might be incomplete.
+    if (numHostKeysSearched == 0) {
       return makeSearchResults(
-          domains,
-          (numHostKeysSearched >= maxNameserversInFirstStage)
-              ? IncompletenessWarningType.MIGHT_BE_INCOMPLETE
-              : IncompletenessWarningType.COMPLETE,
-          (numHostKeysSearched > 0) ? Optional.of((long) domains.size()) : Optional.empty(),
-          now);
+          ImmutableList.of(), IncompletenessWarningType.COMPLETE, Optional.empty(), now);
     }
+    // If everything that we find fits in the result, there might still have been more results
+    // that got dropped because of the first stage limit on number of nameservers. If so, indicate
+    // the result might be incomplete.
+    return searchDomainsInNameOrder(
+        queries.build(),
+        domain -> isAuthorized(domain, now),
+        (numHostKeysSearched >= maxNameserversInFirstStage)
+            ? IncompletenessWarningType.MIGHT_BE_INCOMPLETE
+            : IncompletenessWarningType.COMPLETE,
+        now);
   }
 
-  /** Output JSON for a list of domains, with no incompleteness warnings. */
-  private RdapSearchResults makeSearchResults(List<DomainResource> domains, DateTime now) {
+  /**
+   * Reads the domains returned by a set of queries, in name order, until it has a page of results.
+   *
+   * <p>Each query must return its domains sorted by name, and then by key, which Datastore does
+   * implicitly. A domain returned by more than one query is only read once. Reading stops as soon
+   * as there is one visible domain more than fits in the result set, which is all it takes to know
+   * that there is a next page, so the queries are only ever read as far as the page needs.
+   *
+   * @param incompletenessWarningType the warning to give if all the results fit in one page
+   */
+  private RdapSearchResults searchDomainsInNameOrder(
+      ImmutableList<Query<DomainResource>> queries,
+      Predicate<DomainResource> isVisible,
+      IncompletenessWarningType incompletenessWarningType,
+      DateTime now) {
+    Iterator<DomainResource> domains =
+        Iterators.mergeSorted(
+            queries
+                .stream()
+                .map(query -> query.chunk(rdapResultSetMaxSize + 1).iterator())
+                .collect(toImmutableList()),
+            Comparator.comparing(DomainResource::getFullyQualifiedDomainName)
+                .thenComparing(DomainResource::getRepoId));
+    int maxDomainsRead = RESULT_SET_SIZE_SCALING_FACTOR * rdapResultSetMaxSize;
+    List<DomainResource> results = new ArrayList<>();
+    DomainResource lastRead = null;
+    long numDomainsRead = 0;
+    while (domains.hasNext() && results.size() <= rdapResultSetMaxSize) {
+      if (numDomainsRead >= maxDomainsRead) {
+        return makeSearchResults(
+            results,
+            IncompletenessWarningType.TRUNCATED,
+            Optional.of(numDomainsRead),
+            Optional.of(
+                lastRead.getFullyQualifiedDomainName()
+                    + CURSOR_REPO_ID_SEPARATOR
+                    + lastRead.getRepoId()),
+            now);
+      }
+      DomainResource domain = domains.next();
+      if ((lastRead != null && lastRead.getRepoId().equals(domain.getRepoId()))
+          || isAtOrBeforeCursor(domain)) {
+        continue;
+      }
+      lastRead = domain;
+      numDomainsRead++;
+      if (isVisible.test(domain)) {
+        results.add(domain);
+      }
+    }
     return makeSearchResults(
-        domains, IncompletenessWarningType.COMPLETE, Optional.of((long) domains.size()), now);
+        results, incompletenessWarningType, Optional.of(numDomainsRead), now);
   }
 
-  /** Output JSON from data in an {@link RdapResultSet} object. */
-  private RdapSearchResults makeSearchResults(
-      RdapResultSet<DomainResource> resultSet, DateTime now) {
+  /** Output JSON for a list of domains, with no incompleteness warnings. */
+  private RdapSearchResults makeSearchResults(List<DomainResource> domains, DateTime now) {
     return makeSearchResults(
-        resultSet.resources(),
-        resultSet.incompletenessWarningType(),
-        Optional.of((long) resultSet.numResourcesRetrieved()),
-        now);
+        domains, IncompletenessWarningType.COMPLETE, Optional.of((long) domains.size()), now);
   }
 
   /**
@@ -530,6 +630,22 @@ public class RdapDomainSearchAction extends RdapSearchActionBase {
       IncompletenessWarningType incompletenessWarningType,
       Optional<Long> numDomainsRetrieved,
       DateTime now) {
+    return makeSearchResults(
+        domains, incompletenessWarningType, numDomainsRetrieved, Optional.empty(), now);
+  }
+
+  /**
+   * Output JSON for a list of domains, with a cursor to resume the search at.
+   *
+   * <p>The resumeCursor is for searches that stopped before they knew whether there are more
+   * results, and is only used if the list of domains fits in the result set.
+   */
+  private RdapSearchResults makeSearchResults(
+      List<DomainResource> domains,
+      IncompletenessWarningType incompletenessWarningType,
+      Optional<Long> numDomainsRetrieved,
+      Optional<String> resumeCursor,
+      DateTime now) {
     numDomainsRetrieved.ifPresent(metricInformationBuilder::setNumDomainsRetrieved);
     OutputDataType outputDataType =
         (domains.size() > 1) ? OutputDataType.SUMMARY : OutputDataType.FULL;
@@ -545,16 +661,13 @@ public class RdapDomainSearchAction extends RdapSearchActionBase {
         break;
       }
     }
+    if (jsonList.size() == domains.size()) {
+      newCursor = resumeCursor;
+    }
     IncompletenessWarningType finalIncompletenessWarningType =
-        (jsonList.size() < domains.size())
-            ? IncompletenessWarningType.TRUNCATED
-            : incompletenessWarningType;
+        newCursor.isPresent() ? IncompletenessWarningType.TRUNCATED : incompletenessWarningType;
     metricInformationBuilder.setIncompletenessWarningType(finalIncompletenessWarningType);
     return RdapSearchResults.create(
-        ImmutableList.copyOf(jsonList),
-        finalIncompletenessWarningType,
-        (finalIncompletenessWarningType == IncompletenessWarningType.TRUNCATED)
-            ? newCursor
-            : Optional.empty());
+        ImmutableList.copyOf(jsonList), finalIncompletenessWarningType, newCursor);
   }
 }
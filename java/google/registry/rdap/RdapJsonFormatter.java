@@ -18,11 +18,19 @@ import static com.google.common.base.Predicates.not;
 import static com.google.common.base.Strings.nullToEmpty;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableSortedSet.toImmutableSortedSet;
+import static google.registry.config.RegistryConfig.getEppResourceCachingDuration;
+import static google.registry.config.RegistryConfig.getEppResourceMaxCachedEntries;
+import static google.registry.config.RegistryConfig.isEppResourceCachingEnabled;
 import static google.registry.model.EppResourceUtils.isLinked;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.CollectionUtils.union;
 import static google.registry.util.DomainNameUtils.ACE_PREFIX;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -50,6 +58,7 @@ import google.registry.model.reporting.HistoryEntry;
 import google.registry.request.HttpException.InternalServerErrorException;
 import google.registry.request.HttpException.NotFoundException;
 import google.registry.util.Idn;
+import google.registry.util.NonFinalForTesting;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
@@ -264,6 +273,27 @@ public class RdapJsonFormatter {
                   .put(HistoryEntry.Type.HOST_DELETE, RdapEventAction.DELETION)
                   .build());
 
+  /**
+   * Cache of the events derived from the history entries of EPP resources, which would otherwise
+   * take an ancestor query per resource in every response.
+   *
+   * <p>The events are keyed by the resource and its update time, since most history entries are
+   * saved in the same transaction as the resource they belong to. That's not true of all of them:
+   * {@code ExpandRecurringBillingEventsAction} saves {@code DOMAIN_AUTORENEW} entries without
+   * touching the domain, so such an event may be missing for as long as the entry takes to expire.
+   */
+  @NonFinalForTesting
+  private static Cache<HistoryEventsKey, ImmutableList<Object>> historyEventsCache =
+      CacheBuilder.newBuilder()
+          .expireAfterWrite(getEppResourceCachingDuration().getMillis(), MILLISECONDS)
+          .maximumSize(getEppResourceMaxCachedEntries())
+          .build();
+
+  @VisibleForTesting
+  static void setHistoryEventsCacheForTest(CacheBuilder<Object, Object> cacheBuilder) {
+    historyEventsCache = cacheBuilder.build();
+  }
+
   private static final ImmutableList<String> CONFORMANCE_LIST =
       ImmutableList.of(RDAP_CONFORMANCE_LEVEL);
 
@@ -1010,6 +1040,44 @@ public class RdapJsonFormatter {
    * Creates an event list for a domain, host or contact resource.
    */
   private static ImmutableList<Object> makeEvents(EppResource resource, DateTime now) {
+    ImmutableList.Builder<Object> eventsBuilder = new ImmutableList.Builder<>();
+    eventsBuilder.addAll(getHistoryEvents(resource));
+    if (resource instanceof DomainResource) {
+      DateTime expirationTime = ((DomainResource) resource).getRegistrationExpirationTime();
+      if (expirationTime != null) {
+        eventsBuilder.add(makeEvent(RdapEventAction.EXPIRATION, null, expirationTime));
+      }
+    }
+    if ((resource.getLastEppUpdateTime() != null)
+        && resource.getLastEppUpdateTime().isAfter(resource.getCreationTime())) {
+      eventsBuilder.add(makeEvent(
+          RdapEventAction.LAST_CHANGED, null, resource.getLastEppUpdateTime()));
+    }
+    eventsBuilder.add(makeEvent(RdapEventAction.LAST_UPDATE_OF_RDAP_DATABASE, null, now));
+    return eventsBuilder.build();
+  }
+
+  /**
+   * Returns the events derived from the history entries of a resource, from the cache if enabled.
+   */
+  private static ImmutableList<Object> getHistoryEvents(EppResource resource) {
+    if (!isEppResourceCachingEnabled()) {
+      return loadHistoryEvents(resource);
+    }
+    HistoryEventsKey key =
+        HistoryEventsKey.create(
+            Key.create(resource), resource.getUpdateAutoTimestamp().getTimestamp());
+    ImmutableList<Object> events = historyEventsCache.getIfPresent(key);
+    RdapMetrics.recordHistoryEventsCacheLookup(events != null);
+    if (events == null) {
+      events = loadHistoryEvents(resource);
+      historyEventsCache.put(key, events);
+    }
+    return events;
+  }
+
+  /** Loads the history entries of a resource and creates events for the ones RDAP reports. */
+  private static ImmutableList<Object> loadHistoryEvents(EppResource resource) {
     ImmutableList.Builder<Object> eventsBuilder = new ImmutableList.Builder<>();
     for (HistoryEntry historyEntry : ofy().load()
         .type(HistoryEntry.class)
@@ -1024,18 +1092,6 @@ public class RdapJsonFormatter {
       eventsBuilder.add(makeEvent(
           eventAction, historyEntry.getClientId(), historyEntry.getModificationTime()));
     }
-    if (resource instanceof DomainResource) {
-      DateTime expirationTime = ((DomainResource) resource).getRegistrationExpirationTime();
-      if (expirationTime != null) {
-        eventsBuilder.add(makeEvent(RdapEventAction.EXPIRATION, null, expirationTime));
-      }
-    }
-    if ((resource.getLastEppUpdateTime() != null)
-        && resource.getLastEppUpdateTime().isAfter(resource.getCreationTime())) {
-      eventsBuilder.add(makeEvent(
-          RdapEventAction.LAST_CHANGED, null, resource.getLastEppUpdateTime()));
-    }
-    eventsBuilder.add(makeEvent(RdapEventAction.LAST_UPDATE_OF_RDAP_DATABASE, null, now));
     return eventsBuilder.build();
   }
 
@@ -1216,4 +1272,16 @@ public class RdapJsonFormatter {
     return fullyQualifiedName.startsWith(ACE_PREFIX)
         || fullyQualifiedName.contains("." + ACE_PREFIX);
   }
+
+  /** Key of the history events of a resource in the cache. */
+  @AutoValue
+  abstract static class HistoryEventsKey {
+    abstract Key<EppResource> resourceKey();
+
+    abstract DateTime updateTime();
+
+    static HistoryEventsKey create(Key<EppResource> resourceKey, DateTime updateTime) {
+      return new AutoValue_RdapJsonFormatter_HistoryEventsKey(resourceKey, updateTime);
+    }
+  }
 }
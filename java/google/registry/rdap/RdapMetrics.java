@@ -146,9 +146,24 @@ public class RdapMetrics {
               LABEL_DESCRIPTORS_FOR_RETRIEVAL_COUNTS,
               FIBONACCI_FITTER);
 
+  @VisibleForTesting
+  static final IncrementableMetric historyEventsCacheLookups =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/rdap/history_events_cache_lookups",
+              "Count of lookups in the cache of events derived from history entries",
+              "count",
+              ImmutableSet.of(
+                  LabelDescriptor.create("result", "Whether the lookup was a hit or a miss.")));
+
   @Inject
   public RdapMetrics() {}
 
+  /** Records a lookup of a resource in the cache of events derived from history entries. */
+  static void recordHistoryEventsCacheLookup(boolean hit) {
+    historyEventsCacheLookups.increment(hit ? "hit" : "miss");
+  }
+
   private static String getLabelStringForPrefixLength(int prefixLength) {
     return (prefixLength >= MAX_RECORDED_PREFIX_LENGTH)
         ? MAX_PREFIX_LENGTH_LABEL
@@ -14,6 +14,8 @@
 
 package google.registry.rdap;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static google.registry.config.RegistryConfig.isEppResourceCachingEnabled;
 import static google.registry.model.EppResourceUtils.loadByForeignKey;
 import static google.registry.request.Action.Method.GET;
 import static google.registry.request.Action.Method.HEAD;
@@ -22,10 +24,13 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Streams;
 import com.google.common.net.InetAddresses;
 import com.google.common.primitives.Booleans;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.cmd.Query;
 import google.registry.model.domain.DomainResource;
+import google.registry.model.host.HostInetAddressIndex;
 import google.registry.model.host.HostResource;
 import google.registry.rdap.RdapJsonFormatter.BoilerplateType;
 import google.registry.rdap.RdapJsonFormatter.OutputDataType;
@@ -262,6 +267,11 @@ public class RdapNameserverSearchAction extends RdapSearchActionBase {
   private RdapSearchResults searchByIp(final InetAddress inetAddress, DateTime now) {
     // Add 1 so we can detect truncation.
     int querySizeLimit = getStandardQuerySizeLimit();
+    // The index only knows about live hosts, so it can't be used when deleted ones are wanted.
+    if (isEppResourceCachingEnabled() && !shouldIncludeDeleted()) {
+      return makeSearchResults(
+          searchByIpUsingIndex(inetAddress, now, querySizeLimit), CursorType.ADDRESS, now);
+    }
     Query<HostResource> query =
         queryItems(
                 HostResource.class,
@@ -277,6 +287,31 @@ public class RdapNameserverSearchAction extends RdapSearchActionBase {
         now);
   }
 
+  /**
+   * Searches for live nameservers by IP address using the in-memory {@link HostInetAddressIndex}.
+   *
+   * <p>The hosts are returned in key order, as the Datastore query would return them, so that a
+   * cursor from either works with the other.
+   */
+  private RdapResultSet<HostResource> searchByIpUsingIndex(
+      InetAddress inetAddress, DateTime now, int querySizeLimit) {
+    Iterable<Key<HostResource>> hostKeys = HostInetAddressIndex.get().getHostKeys(inetAddress);
+    if (cursorString.isPresent()) {
+      hostKeys =
+          Iterables.filter(hostKeys, key -> key.getName().compareTo(cursorString.get()) > 0);
+    }
+    Optional<String> desiredRegistrar = getDesiredRegistrar();
+    return RdapResultSet.create(
+        Streams.stream(
+                HostInetAddressIndex.loadLiveHosts(hostKeys, inetAddress, now))
+            .filter(
+                host ->
+                    !desiredRegistrar.isPresent()
+                        || desiredRegistrar.get().equals(host.getPersistedCurrentSponsorClientId()))
+            .limit(querySizeLimit)
+            .collect(toImmutableList()));
+  }
+
   /** Output JSON for a lists of hosts contained in an {@link RdapResultSet}. */
   private RdapSearchResults makeSearchResults(
       RdapResultSet<HostResource> resultSet, CursorType cursorType, DateTime now) {
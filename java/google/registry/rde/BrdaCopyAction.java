@@ -66,6 +66,7 @@ public final class BrdaCopyAction implements Runnable {
   @Inject GcsUtils gcsUtils;
   @Inject @Config("brdaBucket") String brdaBucket;
   @Inject @Config("rdeBucket") String stagingBucket;
+  @Inject @Config("rdeCompressionThreads") int compressionThreads;
   @Inject @Parameter(RequestParameters.PARAM_TLD) String tld;
   @Inject @Parameter(RdeModule.PARAM_WATERMARK) DateTime watermark;
   @Inject @Key("brdaReceiverKey") PGPPublicKey receiverKey;
@@ -100,6 +101,7 @@ public final class BrdaCopyAction implements Runnable {
             .setRydeOutput(rydeOut, receiverKey)
             .setSignatureOutput(sigOut, signingKey)
             .setFileMetadata(prefix, xmlLength, watermark)
+            .setCompressionThreads(compressionThreads)
             .build()) {
       ByteStreams.copy(ghostrydeDecoder, rydeEncoder);
     }
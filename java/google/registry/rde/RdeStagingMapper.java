@@ -15,18 +15,14 @@
 package google.registry.rde;
 
 import static com.google.common.base.Strings.nullToEmpty;
-import static com.google.common.collect.ImmutableSet.toImmutableSet;
-import static google.registry.model.EppResourceUtils.loadAtPointInTime;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 
 import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.auto.value.AutoValue;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
-import com.google.common.collect.Maps;
-import com.googlecode.objectify.Result;
 import google.registry.model.EppResource;
+import google.registry.model.PointInTimeLoader;
 import google.registry.model.contact.ContactResource;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.host.HostResource;
@@ -36,6 +32,7 @@ import google.registry.xml.ValidationMode;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import javax.annotation.Nullable;
 import org.joda.time.DateTime;
 
 /** Mapper for {@link RdeStagingAction}. */
@@ -46,6 +43,9 @@ public final class RdeStagingMapper extends Mapper<EppResource, PendingDeposit,
   private final RdeMarshaller marshaller;
   private final ImmutableSetMultimap<String, PendingDeposit> pendings;
 
+  /** Created on first use, since it isn't serializable. */
+  @Nullable private transient PointInTimeLoader pointInTimeLoader;
+
   RdeStagingMapper(
       ValidationMode validationMode, ImmutableSetMultimap<String, PendingDeposit> pendings) {
     this.marshaller = new RdeMarshaller(validationMode);
@@ -105,20 +105,8 @@ public final class RdeStagingMapper extends Mapper<EppResource, PendingDeposit,
       tlds = pendings.keySet();
     }
 
-    // Get the set of all point-in-time watermarks we need, to minimize rewinding.
-    ImmutableSet<DateTime> dates =
-        tlds.stream()
-            .map(pendings::get)
-            .flatMap(ImmutableSet::stream)
-            .map(PendingDeposit::watermark)
-            .collect(toImmutableSet());
-
-    // Launch asynchronous fetches of point-in-time representations of resource.
-    ImmutableMap<DateTime, Result<EppResource>> resourceAtTimes =
-        ImmutableMap.copyOf(Maps.asMap(dates, input -> loadAtPointInTime(resource, input)));
-
     // Convert resource to an XML fragment for each watermark/mode pair lazily and cache the result.
-    Fragmenter fragmenter = new Fragmenter(resourceAtTimes);
+    Fragmenter fragmenter = new Fragmenter(resource);
 
     // Emit resource as an XML fragment for all TLDs and modes pending deposit.
     long resourcesEmitted = 0;
@@ -147,17 +135,28 @@ public final class RdeStagingMapper extends Mapper<EppResource, PendingDeposit,
     ofy().clearSessionCache();
   }
 
+  /**
+   * Returns the loader of resources at the watermarks, which is kept across the resources of a
+   * shard so that superordinate domains are only rewound once per watermark.
+   */
+  private PointInTimeLoader getPointInTimeLoader() {
+    if (pointInTimeLoader == null) {
+      pointInTimeLoader = PointInTimeLoader.create();
+    }
+    return pointInTimeLoader;
+  }
+
   /** Loading cache that turns a resource into XML for the various points in time and modes. */
   private class Fragmenter {
     private final Map<WatermarkModePair, Optional<DepositFragment>> cache = new HashMap<>();
-    private final ImmutableMap<DateTime, Result<EppResource>> resourceAtTimes;
+    private final EppResource currentResource;
 
     long cacheHits = 0;
     long resourcesNotFound = 0;
     long resourcesFound = 0;
 
-    Fragmenter(ImmutableMap<DateTime, Result<EppResource>> resourceAtTimes) {
-      this.resourceAtTimes = resourceAtTimes;
+    Fragmenter(EppResource currentResource) {
+      this.currentResource = currentResource;
     }
 
     Optional<DepositFragment> marshal(DateTime watermark, RdeMode mode) {
@@ -166,7 +165,7 @@ public final class RdeStagingMapper extends Mapper<EppResource, PendingDeposit,
         cacheHits++;
         return result;
       }
-      EppResource resource = resourceAtTimes.get(watermark).now();
+      EppResource resource = getPointInTimeLoader().loadAtPointInTime(currentResource, watermark);
       if (resource == null) {
         result = Optional.empty();
         cache.put(WatermarkModePair.create(watermark, RdeMode.FULL), result);
@@ -190,8 +189,8 @@ public final class RdeStagingMapper extends Mapper<EppResource, PendingDeposit,
             ? marshaller.marshalSubordinateHost(
                 host,
                 // Note that loadAtPointInTime() does cloneProjectedAtTime(watermark) for us.
-                loadAtPointInTime(
-                    ofy().load().key(host.getSuperordinateDomain()).now(), watermark).now())
+                getPointInTimeLoader()
+                    .loadAtPointInTime(host.getSuperordinateDomain(), watermark))
             : marshaller.marshalExternalHost(host));
         cache.put(WatermarkModePair.create(watermark, RdeMode.FULL), result);
         cache.put(WatermarkModePair.create(watermark, RdeMode.THIN), result);
@@ -109,6 +109,7 @@ public final class RdeUploadAction implements Runnable, EscrowTask {
   @Inject Retrier retrier;
   @Inject @Parameter(RequestParameters.PARAM_TLD) String tld;
   @Inject @Config("rdeBucket") String bucket;
+  @Inject @Config("rdeCompressionThreads") int compressionThreads;
   @Inject @Config("rdeInterval") Duration interval;
   @Inject @Config("rdeUploadLockTimeout") Duration timeout;
   @Inject @Config("rdeUploadSftpCooldown") Duration sftpCooldown;
@@ -222,6 +223,7 @@ public final class RdeUploadAction implements Runnable, EscrowTask {
                     .setRydeOutput(teeOutput, receiverKey)
                     .setSignatureOutput(sigOut, signingKey)
                     .setFileMetadata(name, xmlLength, watermark)
+                    .setCompressionThreads(compressionThreads)
                     .build()) {
             long bytesCopied = ByteStreams.copy(ghostrydeDecoder, rydeEncoder);
             logger.atInfo().log("uploaded %,d bytes: %s", bytesCopied, rydeFilename);
@@ -21,6 +21,7 @@ import google.registry.util.ImprovedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
 import javax.annotation.CheckReturnValue;
 import javax.annotation.WillNotClose;
 import org.bouncycastle.openpgp.PGPCompressedData;
@@ -62,6 +63,25 @@ final class RydeCompression {
     }
   }
 
+  /**
+   * Creates an OutputStream that compresses the data in blocks, in parallel on {@code executor}.
+   *
+   * <p>The output can be read by {@link #openDecompressor} just like that of {@link
+   * #openCompressor}.
+   *
+   * @see RydeParallelCompressor
+   */
+  @CheckReturnValue
+  static ImprovedOutputStream openParallelCompressor(
+      @WillNotClose OutputStream os, ExecutorService executor, int parallelism) {
+    try {
+      return new ImprovedOutputStream(
+          "RydeParallelCompressor", new RydeParallelCompressor(os, executor, parallelism));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
   /**
    * Creates an InputStream that decompresses the data.
    *
@@ -14,19 +14,30 @@
 
 package google.registry.rde;
 
+import static com.google.appengine.api.ThreadManager.currentRequestThreadFactory;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static google.registry.rde.RydeCompression.openCompressor;
+import static google.registry.rde.RydeCompression.openParallelCompressor;
 import static google.registry.rde.RydeEncryption.RYDE_USE_INTEGRITY_PACKET;
 import static google.registry.rde.RydeEncryption.openEncryptor;
 import static google.registry.rde.RydeFileEncoding.openPgpFileWriter;
 import static google.registry.rde.RydeTar.openTarWriter;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
 import com.google.common.io.Closer;
+import java.io.Closeable;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import javax.annotation.concurrent.NotThreadSafe;
 import org.bouncycastle.openpgp.PGPException;
 import org.bouncycastle.openpgp.PGPKeyPair;
@@ -52,12 +63,16 @@ import org.joda.time.DateTime;
 @NotThreadSafe
 public final class RydeEncoder extends FilterOutputStream {
 
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
   private final OutputStream sigOutput;
   private final RydePgpSigningOutputStream signer;
   private final OutputStream encryptLayer;
   private final OutputStream kompressor;
   private final OutputStream fileLayer;
   private final OutputStream tarLayer;
+  // The input of each layer, from the first to the last, counting what is written to it.
+  private final ImmutableList<StageCounter> stageCounters;
   // We use a Closer to handle the stream .close, to make sure it's done correctly.
   private final Closer closer = Closer.create();
   private boolean isClosed = false;
@@ -69,16 +84,47 @@ public final class RydeEncoder extends FilterOutputStream {
       String filenamePrefix,
       DateTime modified,
       PGPKeyPair signingKey,
-      Collection<PGPPublicKey> receiverKeys) {
+      Collection<PGPPublicKey> receiverKeys,
+      int compressionThreads) {
     super(null);
     this.sigOutput = sigOutput;
+    // Registered first so that it is closed last, once all the layers are done with it.
+    Optional<ExecutorService> compressionExecutor = Optional.empty();
+    if (compressionThreads > 1) {
+      ExecutorService executor =
+          newFixedThreadPool(compressionThreads, getCompressionThreadFactory());
+      Closeable executorShutdown = executor::shutdownNow;
+      closer.register(executorShutdown);
+      compressionExecutor = Optional.of(executor);
+    }
+    StageCounter signingInput = new StageCounter("signing");
+    StageCounter encryptionInput = new StageCounter("encryption");
+    StageCounter compressionInput = new StageCounter("compression");
+    StageCounter fileInput = new StageCounter("file encoding");
+    StageCounter tarInput = new StageCounter("tar");
+    stageCounters =
+        ImmutableList.of(tarInput, fileInput, compressionInput, encryptionInput, signingInput);
     signer = closer.register(new RydePgpSigningOutputStream(checkNotNull(rydeOutput), signingKey));
-    encryptLayer = closer.register(openEncryptor(signer, RYDE_USE_INTEGRITY_PACKET, receiverKeys));
-    kompressor = closer.register(openCompressor(encryptLayer));
-    fileLayer = closer.register(openPgpFileWriter(kompressor, filenamePrefix + ".tar", modified));
+    encryptLayer =
+        closer.register(
+            openEncryptor(signingInput.wrap(signer), RYDE_USE_INTEGRITY_PACKET, receiverKeys));
+    kompressor =
+        closer.register(
+            compressionExecutor.isPresent()
+                ? openParallelCompressor(
+                    encryptionInput.wrap(encryptLayer),
+                    compressionExecutor.get(),
+                    compressionThreads)
+                : openCompressor(encryptionInput.wrap(encryptLayer)));
+    fileLayer =
+        closer.register(
+            openPgpFileWriter(
+                compressionInput.wrap(kompressor), filenamePrefix + ".tar", modified));
     tarLayer =
-        closer.register(openTarWriter(fileLayer, dataLength, filenamePrefix + ".xml", modified));
-    this.out = tarLayer;
+        closer.register(
+            openTarWriter(
+                fileInput.wrap(fileLayer), dataLength, filenamePrefix + ".xml", modified));
+    this.out = tarInput.wrap(tarLayer);
   }
 
   /**
@@ -100,6 +146,7 @@ public final class RydeEncoder extends FilterOutputStream {
     // Close all the streams we opened
     closer.close();
     isClosed = true;
+    logStageCounters();
     try {
       sigOutput.write(signer.getSignature());
     } catch (PGPException e) {
@@ -107,6 +154,77 @@ public final class RydeEncoder extends FilterOutputStream {
     }
   }
 
+  /**
+   * Logs how much data went through each layer, and how long each took.
+   *
+   * <p>A layer writes to the next one synchronously, so the time spent writing to a layer includes
+   * the time of all the later ones, which is subtracted out to get the layer's own time.
+   */
+  private void logStageCounters() {
+    for (int i = 0; i < stageCounters.size(); i++) {
+      StageCounter stage = stageCounters.get(i);
+      long ownNanos =
+          stage.nanos - ((i + 1 < stageCounters.size()) ? stageCounters.get(i + 1).nanos : 0);
+      logger.atInfo().log(
+          "RyDE %s stage: %,d bytes written in %,d ms (%,d ms of its own, %,d KiB/s)",
+          stage.name,
+          stage.bytes,
+          NANOSECONDS.toMillis(stage.nanos),
+          NANOSECONDS.toMillis(ownNanos),
+          (ownNanos > 0) ? stage.bytes * SECONDS.toNanos(1) / 1024 / ownNanos : 0);
+    }
+  }
+
+  /**
+   * Returns the thread factory for the compression workers.
+   *
+   * <p>The compression doesn't use any App Engine APIs, so plain threads are fine when App Engine
+   * doesn't provide a request thread factory.
+   */
+  private static ThreadFactory getCompressionThreadFactory() {
+    ThreadFactory threadFactory = currentRequestThreadFactory();
+    return (threadFactory != null) ? threadFactory : Executors.defaultThreadFactory();
+  }
+
+  /** Counts the bytes written to a layer of the encoder, and the time spent writing them. */
+  private static final class StageCounter {
+    final String name;
+    long bytes = 0;
+    long nanos = 0;
+
+    StageCounter(String name) {
+      this.name = name;
+    }
+
+    /** Returns a stream that writes to {@code out}, counting the writes. */
+    OutputStream wrap(OutputStream out) {
+      return new FilterOutputStream(out) {
+        @Override
+        public void write(int b) throws IOException {
+          long start = System.nanoTime();
+          out.write(b);
+          nanos += System.nanoTime() - start;
+          bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          long start = System.nanoTime();
+          out.write(b, off, len);
+          nanos += System.nanoTime() - start;
+          bytes += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+          long start = System.nanoTime();
+          super.close();
+          nanos += System.nanoTime() - start;
+        }
+      };
+    }
+  }
+
   /** Builder for {@link RydeEncoder}. */
   public static class Builder {
     OutputStream rydeOutput;
@@ -116,6 +234,7 @@ public final class RydeEncoder extends FilterOutputStream {
     DateTime modified;
     PGPKeyPair signingKey;
     ImmutableList<PGPPublicKey> receiverKeys;
+    int compressionThreads = 1;
 
     /** Sets the OutputStream for the Ryde-encoded data, and the keys used for the encryption. */
     public Builder setRydeOutput(
@@ -141,6 +260,17 @@ public final class RydeEncoder extends FilterOutputStream {
       return this;
     }
 
+    /**
+     * Sets the number of threads to compress the data on.
+     *
+     * <p>With more than one thread, the data is compressed in blocks by {@link
+     * RydeParallelCompressor}. The default is to compress it on the calling thread.
+     */
+    public Builder setCompressionThreads(int compressionThreads) {
+      this.compressionThreads = compressionThreads;
+      return this;
+    }
+
     /** Returns the built {@link RydeEncoder}. */
     public RydeEncoder build() {
       return new RydeEncoder(
@@ -150,7 +280,8 @@ public final class RydeEncoder extends FilterOutputStream {
           checkNotNull(filenamePrefix, "Must call 'setFileMetadata'"),
           checkNotNull(modified, "Must call 'setFileMetadata'"),
           checkNotNull(signingKey, "Must call 'setSignatureOutput'"),
-          checkNotNull(receiverKeys, "Must call 'setRydeOutput'"));
+          checkNotNull(receiverKeys, "Must call 'setRydeOutput'"),
+          compressionThreads);
     }
   }
 }
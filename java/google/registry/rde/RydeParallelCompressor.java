@@ -0,0 +1,210 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.rde;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.bouncycastle.bcpg.CompressionAlgorithmTags.ZIP;
+
+import com.google.common.flogger.FluentLogger;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.bouncycastle.bcpg.BCPGOutputStream;
+import org.bouncycastle.bcpg.PacketTags;
+
+/**
+ * OpenPGP compression stream that compresses blocks of its input in parallel.
+ *
+ * <p>This writes the same kind of packet as {@link RydeCompression#openCompressor}: an OpenPGP
+ * compressed data packet using the ZIP algorithm, i.e. a raw DEFLATE stream. The input is split
+ * into blocks that are deflated independently on an executor, each using the last 32 KiB of the
+ * previous block as its preset dictionary so that the compression ratio barely suffers. Every
+ * block but the last ends with a sync flush, which leaves the DEFLATE stream byte-aligned without
+ * marking it final, so the compressed blocks can simply be concatenated.
+ *
+ * <p>Compressed blocks are written out in order on the thread writing to this stream, so the
+ * layers below (encryption and signing) run concurrently with the compression of later blocks. At
+ * most a fixed number of blocks are in flight, which bounds the memory used.
+ */
+@NotThreadSafe
+final class RydeParallelCompressor extends OutputStream {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Number of bytes of input compressed as one unit. */
+  static final int BLOCK_SIZE = 1024 * 1024;
+
+  /** Size of the DEFLATE window, which is as much of the previous block as can be referred to. */
+  private static final int DICTIONARY_SIZE = 32 * 1024;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final BCPGOutputStream packetOutput;
+  private final ExecutorService executor;
+  private final int maxPendingBlocks;
+  private final Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<>();
+
+  private byte[] block = new byte[BLOCK_SIZE];
+  private int blockLength = 0;
+  @Nullable private byte[] dictionary = null;
+  private boolean isClosed = false;
+
+  // Throughput counters, logged when the stream is closed.
+  private long bytesIn = 0;
+  private long bytesOut = 0;
+  private long blockCount = 0;
+  private long waitNanos = 0;
+  private final AtomicLong deflateNanos = new AtomicLong();
+
+  /**
+   * Creates a stream that writes compressed data to {@code os}.
+   *
+   * @param executor the executor blocks are compressed on, which the caller must shut down
+   * @param parallelism the number of blocks to compress at the same time
+   */
+  RydeParallelCompressor(
+      @WillNotClose OutputStream os, ExecutorService executor, int parallelism)
+      throws IOException {
+    checkArgument(parallelism > 0, "parallelism must be positive");
+    this.packetOutput =
+        new BCPGOutputStream(os, PacketTags.COMPRESSED_DATA, new byte[BUFFER_SIZE]);
+    this.packetOutput.write(ZIP);
+    this.executor = executor;
+    // Allow a few more blocks than there are workers, so that workers don't sit idle while the
+    // oldest block is written out.
+    this.maxPendingBlocks = parallelism * 2;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    checkState(!isClosed, "Stream is closed");
+    bytesIn += len;
+    while (len > 0) {
+      int chunk = min(len, BLOCK_SIZE - blockLength);
+      System.arraycopy(b, off, block, blockLength, chunk);
+      blockLength += chunk;
+      off += chunk;
+      len -= chunk;
+      if (blockLength == BLOCK_SIZE) {
+        submitBlock(false);
+      }
+    }
+  }
+
+  /** Finishes the compressed data packet, without closing the underlying stream. */
+  @Override
+  public void close() throws IOException {
+    if (isClosed) {
+      return;
+    }
+    isClosed = true;
+    submitBlock(true);
+    while (!pendingBlocks.isEmpty()) {
+      writeOldestBlock();
+    }
+    packetOutput.finish();
+    packetOutput.flush();
+    logger.atInfo().log(
+        "RydeParallelCompressor compressed %,d bytes to %,d bytes in %,d blocks, spending %,d ms"
+            + " deflating and %,d ms waiting for blocks",
+        bytesIn,
+        bytesOut,
+        blockCount,
+        NANOSECONDS.toMillis(deflateNanos.get()),
+        NANOSECONDS.toMillis(waitNanos));
+  }
+
+  /** Queues the current block for compression, and writes out blocks if too many are pending. */
+  private void submitBlock(boolean isLast) throws IOException {
+    byte[] input = block;
+    int length = blockLength;
+    byte[] preset = dictionary;
+    // Only the last block can be shorter than the dictionary, so it never needs to be combined
+    // with the previous one.
+    dictionary = Arrays.copyOfRange(input, max(0, length - DICTIONARY_SIZE), length);
+    pendingBlocks.add(executor.submit(() -> deflate(input, length, preset, isLast)));
+    blockCount++;
+    block = new byte[BLOCK_SIZE];
+    blockLength = 0;
+    while (pendingBlocks.size() > maxPendingBlocks) {
+      writeOldestBlock();
+    }
+  }
+
+  private void writeOldestBlock() throws IOException {
+    long start = System.nanoTime();
+    byte[] compressed;
+    try {
+      compressed = getUninterruptibly(pendingBlocks.remove());
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to compress RyDE block", e.getCause());
+    }
+    waitNanos += System.nanoTime() - start;
+    packetOutput.write(compressed);
+    bytesOut += compressed.length;
+  }
+
+  /** Deflates one block into a piece of a raw DEFLATE stream. */
+  private byte[] deflate(byte[] input, int length, @Nullable byte[] preset, boolean isLast) {
+    long start = System.nanoTime();
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    try {
+      if (preset != null) {
+        deflater.setDictionary(preset);
+      }
+      deflater.setInput(input, 0, length);
+      if (isLast) {
+        deflater.finish();
+      }
+      ByteArrayOutputStream output = new ByteArrayOutputStream(length / 2 + BUFFER_SIZE);
+      byte[] buffer = new byte[BUFFER_SIZE];
+      while (true) {
+        int count =
+            deflater.deflate(
+                buffer, 0, buffer.length, isLast ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+        output.write(buffer, 0, count);
+        // A sync flush is complete once it leaves room in the buffer.
+        if (isLast ? deflater.finished() : count < buffer.length) {
+          break;
+        }
+      }
+      return output.toByteArray();
+    } finally {
+      deflater.end();
+      deflateNanos.addAndGet(System.nanoTime() - start);
+    }
+  }
+}
@@ -45,6 +45,7 @@ import google.registry.model.domain.DomainResource;
 import google.registry.model.domain.Period;
 import google.registry.model.domain.Period.Unit;
 import google.registry.model.domain.rgp.GracePeriodStatus;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.poll.PollMessage;
 import google.registry.model.reporting.HistoryEntry;
 import google.registry.model.transfer.TransferData;
@@ -280,6 +281,7 @@ public class RdeDomainImportAction implements Runnable {
                 .addAll(serverApproveEntities)
                 .build();
       } // End pending transfer check
+      DomainReferenceIndex.saveEntriesForAddedReferences(domain, null);
       ofy()
           .save()
           .entities(
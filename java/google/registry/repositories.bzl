@@ -113,6 +113,8 @@ def domain_registry_repositories(
         omit_io_netty_tcnative = False,
         omit_io_netty_tcnative_boringssl_static = False,
         omit_io_netty_transport = False,
+        omit_io_netty_transport_native_epoll = False,
+        omit_io_netty_transport_native_unix_common = False,
         omit_it_unimi_dsi_fastutil = False,
         omit_com_sun_activation_javax_activation = False,
         omit_javax_annotation_jsr250_api = False,
@@ -349,6 +351,10 @@ def domain_registry_repositories(
         io_netty_tcnative_boringssl_static()
     if not omit_io_netty_transport:
         io_netty_transport()
+    if not omit_io_netty_transport_native_epoll:
+        io_netty_transport_native_epoll()
+    if not omit_io_netty_transport_native_unix_common:
+        io_netty_transport_native_unix_common()
     if not omit_it_unimi_dsi_fastutil:
         it_unimi_dsi_fastutil()
     if not omit_com_sun_activation_javax_activation:
@@ -1884,6 +1890,39 @@ def io_netty_transport():
         ],
     )
 
+def io_netty_transport_native_epoll():
+    java_import_external(
+        name = "io_netty_transport_native_epoll",
+        licenses = ["notice"],  # Apache License, Version 2.0
+        jar_sha256 = "4371e9454e194950b48657f49f26024a9d3d8eef96b9fe77768f38a0f73b3529",
+        jar_urls = [
+            "http://maven.ibiblio.org/maven2/io/netty/netty-transport-native-epoll/4.1.28.Final/netty-transport-native-epoll-4.1.28.Final-linux-x86_64.jar",
+            "http://repo1.maven.org/maven2/io/netty/netty-transport-native-epoll/4.1.28.Final/netty-transport-native-epoll-4.1.28.Final-linux-x86_64.jar",
+        ],
+        deps = [
+            "@io_netty_buffer",
+            "@io_netty_common",
+            "@io_netty_transport",
+            "@io_netty_transport_native_unix_common",
+        ],
+    )
+
+def io_netty_transport_native_unix_common():
+    java_import_external(
+        name = "io_netty_transport_native_unix_common",
+        licenses = ["notice"],  # Apache License, Version 2.0
+        jar_sha256 = "77a24a1e9606c599d8d633ba36aaad51fd69b5ff9e186e59c82270285b6eaffc",
+        jar_urls = [
+            "http://maven.ibiblio.org/maven2/io/netty/netty-transport-native-unix-common/4.1.28.Final/netty-transport-native-unix-common-4.1.28.Final.jar",
+            "http://repo1.maven.org/maven2/io/netty/netty-transport-native-unix-common/4.1.28.Final/netty-transport-native-unix-common-4.1.28.Final.jar",
+        ],
+        deps = [
+            "@io_netty_buffer",
+            "@io_netty_common",
+            "@io_netty_transport",
+        ],
+    )
+
 def it_unimi_dsi_fastutil():
     java_import_external(
         name = "it_unimi_dsi_fastutil",
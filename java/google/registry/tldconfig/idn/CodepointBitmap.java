@@ -0,0 +1,71 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tldconfig.idn;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.BitSet;
+
+/**
+ * An immutable set of Unicode code points, stored as a two-level bitmap.
+ *
+ * <p>The code point space is split into blocks of {@value #BLOCK_SIZE} code points, and only the
+ * blocks that contain at least one code point of the set are allocated. Since the code points of
+ * an IDN table are clustered in the few blocks of its scripts, this takes a few kilobytes even for
+ * tables with tens of thousands of code points, while a lookup is two array reads and needs no
+ * boxing.
+ */
+final class CodepointBitmap {
+
+  private static final int BLOCK_BITS = 10;
+  private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+  private static final int WORDS_PER_BLOCK = BLOCK_SIZE / Long.SIZE;
+
+  /** The bits of each block, or null for blocks that contain no code point of the set. */
+  private final long[][] blocks;
+
+  private CodepointBitmap(long[][] blocks) {
+    this.blocks = blocks;
+  }
+
+  /** Creates a bitmap containing exactly the code points set in {@code codepoints}. */
+  static CodepointBitmap create(BitSet codepoints) {
+    checkArgument(
+        codepoints.length() <= Character.MAX_CODE_POINT + 1,
+        "Code point %s is out of range",
+        codepoints.length() - 1);
+    long[][] blocks = new long[(codepoints.length() + BLOCK_SIZE - 1) >>> BLOCK_BITS][];
+    for (int codepoint = codepoints.nextSetBit(0);
+        codepoint >= 0;
+        codepoint = codepoints.nextSetBit(codepoint + 1)) {
+      int block = codepoint >>> BLOCK_BITS;
+      if (blocks[block] == null) {
+        blocks[block] = new long[WORDS_PER_BLOCK];
+      }
+      // Shifts of a long only use the low six bits of the distance, i.e. codepoint % 64.
+      blocks[block][(codepoint & (BLOCK_SIZE - 1)) >>> 6] |= 1L << codepoint;
+    }
+    return new CodepointBitmap(blocks);
+  }
+
+  /** Returns whether {@code codepoint} is in this set. */
+  boolean contains(int codepoint) {
+    int block = codepoint >>> BLOCK_BITS;
+    if (block >= blocks.length || blocks[block] == null) {
+      return false;
+    }
+    return (blocks[block][(codepoint & (BLOCK_SIZE - 1)) >>> 6] & (1L << codepoint)) != 0;
+  }
+}
@@ -14,6 +14,7 @@
 
 package google.registry.tldconfig.idn;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static google.registry.tldconfig.idn.IdnTableEnum.EXTENDED_LATIN;
 import static google.registry.tldconfig.idn.IdnTableEnum.JA;
 
@@ -37,6 +38,10 @@ public final class IdnLabelValidator {
   private ImmutableMap<String, ImmutableList<IdnTableEnum>> idnTableListsPerTld;
 
   IdnLabelValidator(ImmutableMap<String, ImmutableList<IdnTableEnum>> indTableListsPerTld) {
+    indTableListsPerTld.forEach(
+        (tld, tables) ->
+            checkArgument(
+                tables.size() <= Long.SIZE, "Too many IDN tables for TLD %s: %s", tld, tables));
     this.idnTableListsPerTld = indTableListsPerTld;
   }
 
@@ -49,13 +54,32 @@ public final class IdnLabelValidator {
    *
    * <p>A label is valid if it is considered valid by at least one configured IDN table for that
    * TLD. If no match is found, an absent value is returned.
+   *
+   * <p>All of the TLD's tables are checked in a single pass over the label, which stops as soon as
+   * a codepoint is found that none of the remaining tables contain. The language rules, which are
+   * more expensive, are only checked for the tables that contain every codepoint of the label.
    */
   public Optional<String> findValidIdnTableForTld(String label, String tld) {
     String unicodeString = Idn.toUnicode(label);
-    for (IdnTableEnum idnTable :
-        Optional.ofNullable(idnTableListsPerTld.get(tld)).orElse(DEFAULT_IDN_TABLES)) {
-      if (idnTable.getTable().isValidLabel(unicodeString)) {
-        return Optional.of(idnTable.getTable().getName());
+    ImmutableList<IdnTableEnum> idnTables =
+        Optional.ofNullable(idnTableListsPerTld.get(tld)).orElse(DEFAULT_IDN_TABLES);
+    // Bit i is set while every codepoint seen so far is in the i-th table.
+    long candidates = (idnTables.size() == Long.SIZE) ? -1L : (1L << idnTables.size()) - 1;
+    final int length = unicodeString.length();
+    for (int i = 0; i < length && candidates != 0; ) {
+      int codepoint = unicodeString.codePointAt(i);
+      for (int table = 0; table < idnTables.size(); table++) {
+        if ((candidates & (1L << table)) != 0
+            && !idnTables.get(table).getTable().isValidCodepoint(codepoint)) {
+          candidates &= ~(1L << table);
+        }
+      }
+      i += Character.charCount(codepoint);
+    }
+    for (int table = 0; table < idnTables.size(); table++) {
+      IdnTable idnTable = idnTables.get(table).getTable();
+      if ((candidates & (1L << table)) != 0 && idnTable.isValidForLanguage(unicodeString)) {
+        return Optional.of(idnTable.getName());
       }
     }
     return Optional.empty();
@@ -0,0 +1,112 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.Iterables.partition;
+import static com.google.common.collect.Streams.stream;
+import static google.registry.flows.poll.PollFlowUtils.ackPollMessage;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.DateTimeUtils.isBeforeOrAt;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import google.registry.model.poll.PollMessage;
+import google.registry.model.poll.PollMessageQueue;
+import google.registry.util.Clock;
+import java.util.List;
+import javax.inject.Inject;
+import org.joda.time.DateTime;
+
+/**
+ * Command to ack all of the deliverable autorenew {@link PollMessage}s of a registrar.
+ *
+ * <p>Every domain of a registrar gets an autorenew poll message each year, so registrars that
+ * don't poll for them can build up a backlog too large to ack one message at a time. The messages
+ * are acked the same way as by the poll ack flow, in batches of one transaction each, and the
+ * registrar's {@link PollMessageQueue} is then marked to be recounted by a backend task, which the
+ * registrar's next poll enqueues.
+ */
+@Parameters(
+    separators = " =",
+    commandDescription = "Acks all deliverable autorenew poll messages of a registrar.")
+final class AckAutorenewPollMessagesCommand extends ConfirmingCommand
+    implements CommandWithRemoteApi {
+
+  @Parameter(
+      names = {"-c", "--client"},
+      description = "Client identifier of the registrar whose poll messages to ack",
+      required = true)
+  private String clientId;
+
+  @Inject Clock clock;
+
+  /**
+   * Number of messages acked per transaction. Each transaction touches the entity group of every
+   * message as well as that of the commit log, and so must stay within the limit of 25 entity
+   * groups.
+   */
+  private static final int BATCH_SIZE = 20;
+
+  private ImmutableList<Key<PollMessage>> deliverableMessages;
+
+  @Override
+  public void init() {
+    deliverableMessages =
+        ImmutableList.copyOf(
+            ofy()
+                .load()
+                .type(PollMessage.class)
+                .filter("clientId", clientId)
+                .filter("eventTime <=", clock.nowUtc().toDate())
+                .keys());
+  }
+
+  @Override
+  protected String prompt() {
+    return String.format(
+        "Found %d deliverable poll messages for %s, of which the autorenew ones will be acked.",
+        deliverableMessages.size(), clientId);
+  }
+
+  @Override
+  protected String execute() {
+    long numAcked =
+        stream(partition(deliverableMessages, BATCH_SIZE))
+            .mapToLong(batch -> ofy().transact(() -> ackBatch(batch)))
+            .sum();
+    PollMessageQueue.markForRecount(clientId, clock.nowUtc());
+    return String.format("Acked %d autorenew poll messages in total.", numAcked);
+  }
+
+  /** Acks the autorenew messages of a batch that are still deliverable, returning how many. */
+  private long ackBatch(List<Key<PollMessage>> batch) {
+    // Load the messages in the same transaction as they are acked, in case they were acked or
+    // rescheduled since the query ran.
+    DateTime now = ofy().getTransactionTime();
+    ImmutableList<PollMessage> ackedMessages =
+        ofy().load().keys(batch).values().stream()
+            .filter(message -> message instanceof PollMessage.Autorenew)
+            .filter(message -> clientId.equals(message.getClientId()))
+            .filter(message -> isBeforeOrAt(message.getEventTime(), now))
+            .collect(toImmutableList());
+    for (PollMessage message : ackedMessages) {
+      ackPollMessage(message);
+    }
+    return ackedMessages.size();
+  }
+}
@@ -14,17 +14,55 @@
 
 package google.registry.tools;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.appengine.api.datastore.Entity;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Sets.SetView;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-/** Compare two database backups. */
+/**
+ * Compare two database backups.
+ *
+ * <p>By default, both backups are loaded in memory and compared at once. When a number of
+ * partitions is given, the entities of each backup are instead split by key into that many
+ * partition files on disk, and the partitions are compared in parallel. Since an entity always
+ * lands in the same partition in both backups, only one partition of each backup (per thread)
+ * needs to fit in memory, however big the backups are.
+ */
 class CompareDbBackups {
 
-  public static void main(String[] args) {
-    if (args.length != 2) {
-      System.err.println("Usage: compare_db_backups <directory1> <directory2>");
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2 && args.length != 3) {
+      System.err.println("Usage: compare_db_backups <directory1> <directory2> [<partitions>]");
+      return;
+    }
+
+    if (args.length == 3) {
+      comparePartitioned(new File(args[0]), new File(args[1]), Integer.parseInt(args[2]));
       return;
     }
 
@@ -56,6 +94,137 @@ class CompareDbBackups {
     }
   }
 
+  /** Compares two backups by splitting them into partitions on disk and diffing those in turn. */
+  private static void comparePartitioned(File backup1, File backup2, int partitionCount)
+      throws IOException, InterruptedException, ExecutionException {
+    checkArgument(partitionCount > 0, "The number of partitions must be positive");
+    Path tempDir = Files.createTempDirectory("compare_db_backups");
+    ExecutorService executor =
+        Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    try {
+      long recordCount1 = partition(backup1, tempDir.resolve("first"), partitionCount);
+      long recordCount2 = partition(backup2, tempDir.resolve("second"), partitionCount);
+
+      List<Future<PartitionDiff>> futures = new ArrayList<>();
+      for (int i = 0; i < partitionCount; i++) {
+        int partition = i;
+        futures.add(executor.submit(() -> diffPartition(tempDir, partition)));
+      }
+      long removedCount = 0;
+      long addedCount = 0;
+      for (Future<PartitionDiff> future : futures) {
+        removedCount += future.get().removedCount;
+        addedCount += future.get().addedCount;
+      }
+
+      printHeader(
+          String.format("First backup: %d records", recordCount1),
+          String.format("Second backup: %d records", recordCount2));
+
+      if (removedCount > 0) {
+        printHeader(removedCount + " records were removed:");
+        printPartitionFiles(tempDir, "removed", partitionCount);
+      }
+
+      if (addedCount > 0) {
+        printHeader(addedCount + " records were added:");
+        printPartitionFiles(tempDir, "added", partitionCount);
+      }
+    } finally {
+      executor.shutdownNow();
+      MoreFiles.deleteRecursively(tempDir, RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+  }
+
+  /**
+   * Splits the records of a backup into partition files by the hash of their entity key.
+   *
+   * <p>Each partition file is a sequence of raw records, each preceded by its length.
+   *
+   * @return the number of records in the backup
+   */
+  private static long partition(File backup, Path partitionDir, int partitionCount)
+      throws IOException {
+    Files.createDirectory(partitionDir);
+    List<DataOutputStream> outputs = new ArrayList<>();
+    long recordCount = 0;
+    try {
+      for (int i = 0; i < partitionCount; i++) {
+        outputs.add(
+            new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(partitionDir.resolve("" + i)))));
+      }
+      for (Iterator<byte[]> records = new RecordAccumulator().readDirectory(backup).getRecords();
+          records.hasNext(); ) {
+        byte[] rawRecord = records.next();
+        Entity entity = RecordAccumulator.parse(rawRecord);
+        DataOutputStream output =
+            outputs.get(Math.floorMod(entity.getKey().hashCode(), partitionCount));
+        output.writeInt(rawRecord.length);
+        output.write(rawRecord);
+        recordCount++;
+      }
+    } finally {
+      for (OutputStream output : outputs) {
+        output.close();
+      }
+    }
+    return recordCount;
+  }
+
+  /** Compares one partition of both backups, writing the differences to files next to it. */
+  private static PartitionDiff diffPartition(Path tempDir, int partition) throws IOException {
+    ImmutableSet<ComparableEntity> entities1 =
+        readPartition(tempDir.resolve("first").resolve("" + partition));
+    ImmutableSet<ComparableEntity> entities2 =
+        readPartition(tempDir.resolve("second").resolve("" + partition));
+    SetView<ComparableEntity> removed = Sets.difference(entities1, entities2);
+    SetView<ComparableEntity> added = Sets.difference(entities2, entities1);
+    writeEntities(removed, tempDir.resolve("removed-" + partition));
+    writeEntities(added, tempDir.resolve("added-" + partition));
+    return new PartitionDiff(removed.size(), added.size());
+  }
+
+  private static ImmutableSet<ComparableEntity> readPartition(Path partitionFile)
+      throws IOException {
+    ImmutableSet.Builder<ComparableEntity> builder = new ImmutableSet.Builder<>();
+    try (DataInputStream input =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(partitionFile)))) {
+      while (true) {
+        int length;
+        try {
+          length = input.readInt();
+        } catch (EOFException e) {
+          break;
+        }
+        byte[] rawRecord = new byte[length];
+        input.readFully(rawRecord);
+        builder.add(new ComparableEntity(RecordAccumulator.parse(rawRecord)));
+      }
+    }
+    return builder.build();
+  }
+
+  private static void writeEntities(Iterable<ComparableEntity> entities, Path file)
+      throws IOException {
+    try (Writer writer = Files.newBufferedWriter(file, UTF_8)) {
+      for (ComparableEntity entity : entities) {
+        writer.write(entity + System.lineSeparator());
+      }
+    }
+  }
+
+  /** Prints the named difference files of all partitions, in partition order. */
+  private static void printPartitionFiles(Path tempDir, String name, int partitionCount)
+      throws IOException {
+    for (int i = 0; i < partitionCount; i++) {
+      try (InputStream input = Files.newInputStream(tempDir.resolve(name + "-" + i))) {
+        ByteStreams.copy(input, System.out);
+      }
+    }
+    System.out.flush();
+  }
+
   /** Print out multi-line text in a pretty ASCII header frame. */
   private static void printHeader(String... headerLines) {
     System.out.println("========================================================================");
@@ -64,4 +233,15 @@ class CompareDbBackups {
     }
     System.out.println("========================================================================");
   }
+
+  /** The number of records removed and added in one partition. */
+  private static final class PartitionDiff {
+    final int removedCount;
+    final int addedCount;
+
+    PartitionDiff(int removedCount, int addedCount) {
+      this.removedCount = removedCount;
+      this.addedCount = addedCount;
+    }
+  }
 }
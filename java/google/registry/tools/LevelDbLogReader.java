@@ -14,17 +14,27 @@
 
 package google.registry.tools;
 
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
 
 /**
- * Reads records from a set of LevelDB files and builds a gigantic ImmutableList from them.
+ * Reads records from a set of LevelDB files, either into an ImmutableList or one at a time.
  *
  * <p>See <a
  * href="https://github.com/google/leveldb/blob/master/doc/log_format.md">log_format.md</a> for the
@@ -37,63 +47,83 @@ import java.nio.file.Path;
  * referenced replacement: <a
  * href="https://github.com/GoogleCloudPlatform/appengine-gcs-client.git">The App Engine GCS
  * Client</a> - Does not appear to have any support for working with LevelDB.
+ *
+ * <p>The checksum of every chunk is verified, and a corrupt chunk fails the read with an {@link
+ * IllegalStateException}.
  */
 public final class LevelDbLogReader {
 
   @VisibleForTesting static final int BLOCK_SIZE = 32 * 1024;
   @VisibleForTesting static final int HEADER_SIZE = 7;
 
+  /** The number of blocks of a file that are memory-mapped at once by {@link #readRecords}. */
+  private static final int BLOCKS_PER_MAPPING = 4096;
+
+  /** The constant LevelDB adds to the rotated CRC32C of a chunk to get its stored checksum. */
+  private static final int CHECKSUM_MASK_DELTA = 0xa282ead8;
+
   private final ByteArrayOutputStream recordContents = new ByteArrayOutputStream();
   private final ImmutableList.Builder<byte[]> recordListBuilder = new ImmutableList.Builder<>();
 
   /** Read a complete block, which must be exactly 32 KB. */
   private void processBlock(byte[] block) {
+    ByteBuffer buffer = ByteBuffer.wrap(block).order(LITTLE_ENDIAN);
     // Read records from the block until there is no longer enough space for a record (i.e. until
     // we're at HEADER_SIZE - 1 bytes from the end of the block).
-    int i = 0;
-    while (i < BLOCK_SIZE - (HEADER_SIZE - 1)) {
-      RecordHeader recordHeader = readRecordHeader(block, i);
-      if (recordHeader.type == ChunkType.END) {
-        // A type of zero indicates that we've reached the padding zeroes at the end of the block.
-        break;
-      }
-
-      // Copy the contents of the record into recordContents.
-      recordContents.write(block, i + HEADER_SIZE, recordHeader.size);
+    while (buffer.remaining() >= HEADER_SIZE) {
+      ChunkType type = readChunk(buffer, recordContents);
 
       // If this is the last (or only) chunk in the record, store the full contents into the List.
-      if (recordHeader.type == ChunkType.FULL || recordHeader.type == ChunkType.LAST) {
+      if (type == ChunkType.FULL || type == ChunkType.LAST) {
         recordListBuilder.add(recordContents.toByteArray());
         recordContents.reset();
       }
-
-      i += recordHeader.size + HEADER_SIZE;
     }
   }
 
   /**
-   * Gets a byte from "block" as an unsigned value.
+   * Reads the chunk at the position of {@code block}, and appends its contents to {@code
+   * recordContents} after checking its checksum.
+   *
+   * <p>A type of zero indicates that we've reached the padding zeroes at the end of the block, in
+   * which case the whole rest of the block is skipped.
    *
-   * <p>Java bytes are signed, which doesn't work very well for our bit-shifting operations.
+   * @return the type of the chunk
    */
-  private int getUnsignedByte(byte[] block, int pos) {
-    return block[pos] & 0xFF;
+  private static ChunkType readChunk(ByteBuffer block, ByteArrayOutputStream recordContents) {
+    int offset = block.position();
+    int checksum = block.getInt();
+    int size = block.getShort() & 0xFFFF;
+    byte typeCode = block.get();
+    ChunkType type = ChunkType.fromCode(typeCode & 0xFF);
+    if (type == ChunkType.END) {
+      block.position(block.limit());
+      return type;
+    }
+    checkState(
+        size <= block.remaining(), "Chunk at offset %s of its block overruns the block", offset);
+    byte[] contents = new byte[size];
+    block.get(contents);
+    int expectedChecksum =
+        Hashing.crc32c().newHasher().putByte(typeCode).putBytes(contents).hash().asInt();
+    checkState(
+        unmaskChecksum(checksum) == expectedChecksum,
+        "Checksum mismatch for chunk at offset %s of its block",
+        offset);
+    recordContents.write(contents, 0, size);
+    return type;
   }
 
-  /** Reads the 7 byte record header. */
-  private RecordHeader readRecordHeader(byte[] block, int pos) {
-    // Read checksum (4 bytes, LE).
-    int checksum =
-        getUnsignedByte(block, pos)
-            | (getUnsignedByte(block, pos + 1) << 8)
-            | (getUnsignedByte(block, pos + 2) << 16)
-            | (getUnsignedByte(block, pos + 3) << 24);
-    // Read size (2 bytes, LE).
-    int size = getUnsignedByte(block, pos + 4) | (getUnsignedByte(block, pos + 5) << 8);
-    // Read type (1 byte).
-    int type = getUnsignedByte(block, pos + 6);
-
-    return new RecordHeader(checksum, size, ChunkType.fromCode(type));
+  /** Undoes the masking LevelDB applies to the CRC32C it stores in each chunk header. */
+  private static int unmaskChecksum(int maskedChecksum) {
+    int rotated = maskedChecksum - CHECKSUM_MASK_DELTA;
+    return (rotated >>> 17) | (rotated << 15);
+  }
+
+  /** Masks a CRC32C the way LevelDB does before storing it in a chunk header. */
+  @VisibleForTesting
+  static int maskChecksum(int checksum) {
+    return ((checksum >>> 15) | (checksum << 17)) + CHECKSUM_MASK_DELTA;
   }
 
   /** Reads all records in the Reader into the record set. */
@@ -132,16 +162,69 @@ public final class LevelDbLogReader {
     return recordListBuilder.build();
   }
 
-  /** Aggregates the fields in a record header. */
-  private static final class RecordHeader {
-    final int checksum;
-    final int size;
-    final ChunkType type;
+  /**
+   * Returns an iterator over the records of the file specified by "path".
+   *
+   * <p>Unlike {@link #readFrom}, this doesn't keep the records: the file is memory-mapped and each
+   * record is only decoded when the iterator reaches it, so that files of any size can be read in
+   * a bounded amount of heap. The last block of the file doesn't need to be padded to a full 32 KB.
+   */
+  static Iterator<byte[]> readRecords(Path path) throws IOException {
+    ImmutableList.Builder<ByteBuffer> mappings = new ImmutableList.Builder<>();
+    // Mappings stay valid once the channel is closed, and are unmapped when garbage-collected.
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long mappingSize = (long) BLOCK_SIZE * BLOCKS_PER_MAPPING;
+      for (long position = 0; position < channel.size(); position += mappingSize) {
+        mappings.add(
+            channel.map(
+                MapMode.READ_ONLY, position, Math.min(mappingSize, channel.size() - position)));
+      }
+    }
+    return new RecordIterator(mappings.build().iterator());
+  }
+
+  /** Iterator decoding the records of consecutive memory-mapped regions of a file. */
+  private static final class RecordIterator extends AbstractIterator<byte[]> {
+
+    private final Iterator<ByteBuffer> mappings;
+    private final ByteArrayOutputStream recordContents = new ByteArrayOutputStream();
+    private ByteBuffer mapping = ByteBuffer.allocate(0);
+    private ByteBuffer block = ByteBuffer.allocate(0);
 
-    public RecordHeader(int checksum, int size, ChunkType type) {
-      this.checksum = checksum;
-      this.size = size;
-      this.type = type;
+    RecordIterator(Iterator<ByteBuffer> mappings) {
+      this.mappings = mappings;
+    }
+
+    @Override
+    protected byte[] computeNext() {
+      while (true) {
+        while (block.remaining() < HEADER_SIZE) {
+          if (!nextBlock()) {
+            checkState(recordContents.size() == 0, "File ends in the middle of a record");
+            return endOfData();
+          }
+        }
+        ChunkType type = readChunk(block, recordContents);
+        if (type == ChunkType.FULL || type == ChunkType.LAST) {
+          byte[] record = recordContents.toByteArray();
+          recordContents.reset();
+          return record;
+        }
+      }
+    }
+
+    /** Moves on to the next block of the file, returning false if there is none. */
+    private boolean nextBlock() {
+      while (!mapping.hasRemaining()) {
+        if (!mappings.hasNext()) {
+          return false;
+        }
+        mapping = mappings.next();
+      }
+      block = mapping.slice().order(LITTLE_ENDIAN);
+      block.limit(Math.min(BLOCK_SIZE, mapping.remaining()));
+      mapping.position(mapping.position() + block.limit());
+      return true;
     }
   }
 
@@ -14,46 +14,63 @@
 
 package google.registry.tools;
 
+import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityTranslator;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
 import com.google.storage.onestore.v3.OnestoreEntity.EntityProto;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Iterator;
 
-/** Utility class that accumulates Entity records from level db files. */
+/**
+ * Utility class that accumulates Entity records from level db files.
+ *
+ * <p>Only the list of files is kept: their records are read one at a time, straight from the
+ * files, whenever they are iterated over.
+ */
 class RecordAccumulator {
-  private final LevelDbLogReader reader = new LevelDbLogReader();
+  private final ImmutableList.Builder<File> files = new ImmutableList.Builder<>();
 
-  /** Recursively reads all records in the directory. */
+  /** Recursively adds all files in the directory. */
   public final RecordAccumulator readDirectory(File dir) {
     for (File child : dir.listFiles()) {
       if (child.isDirectory()) {
         readDirectory(child);
       } else if (child.isFile()) {
-        try {
-          reader.readFrom(new FileInputStream(child));
-        } catch (IOException e) {
-          throw new RuntimeException("IOException reading from file: " + child, e);
-        }
+        files.add(child);
       }
     }
 
     return this;
   }
 
+  /** Returns an iterator that lazily reads the raw records of all files, one file after another. */
+  Iterator<byte[]> getRecords() {
+    return Iterators.concat(
+        Iterators.transform(files.build().iterator(), RecordAccumulator::readRecords));
+  }
+
   /** Creates an entity set from the current set of raw records. */
   ImmutableSet<ComparableEntity> getComparableEntitySet() {
     ImmutableSet.Builder<ComparableEntity> builder = new ImmutableSet.Builder<>();
-    for (byte[] rawRecord : reader.getRecords()) {
-      // Parse the entity proto and create an Entity object from it.
-      EntityProto proto = new EntityProto();
-      proto.parseFrom(rawRecord);
-      ComparableEntity entity = new ComparableEntity(EntityTranslator.createFromPb(proto));
+    getRecords().forEachRemaining(rawRecord -> builder.add(new ComparableEntity(parse(rawRecord))));
+    return builder.build();
+  }
 
-      builder.add(entity);
-    }
+  /** Parses the entity proto of a raw record and creates an Entity object from it. */
+  static Entity parse(byte[] rawRecord) {
+    EntityProto proto = new EntityProto();
+    proto.parseFrom(rawRecord);
+    return EntityTranslator.createFromPb(proto);
+  }
 
-    return builder.build();
+  private static Iterator<byte[]> readRecords(File file) {
+    try {
+      return LevelDbLogReader.readRecords(file.toPath());
+    } catch (IOException e) {
+      throw new RuntimeException("IOException reading from file: " + file, e);
+    }
   }
 }
@@ -29,6 +29,7 @@ public final class RegistryTool {
    */
   public static final ImmutableMap<String, Class<? extends Command>> COMMAND_MAP =
       new ImmutableMap.Builder<String, Class<? extends Command>>()
+          .put("ack_autorenew_poll_messages", AckAutorenewPollMessagesCommand.class)
           .put("allocate_domain", AllocateDomainCommand.class)
           .put("canonicalize_labels", CanonicalizeLabelsCommand.class)
           .put("check_domain", CheckDomainCommand.class)
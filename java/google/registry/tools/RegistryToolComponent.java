@@ -72,6 +72,7 @@ import javax.inject.Singleton;
       WhoisModule.class,
     })
 interface RegistryToolComponent {
+  void inject(AckAutorenewPollMessagesCommand command);
   void inject(CheckDomainClaimsCommand command);
   void inject(CheckDomainCommand command);
   void inject(CheckSnapshotCommand command);
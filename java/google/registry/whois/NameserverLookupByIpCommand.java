@@ -16,6 +16,7 @@ package google.registry.whois;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static google.registry.config.RegistryConfig.isEppResourceCachingEnabled;
 import static google.registry.model.EppResourceUtils.queryNotDeleted;
 import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
 
@@ -23,6 +24,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Streams;
 import com.google.common.net.InternetDomainName;
+import google.registry.model.host.HostInetAddressIndex;
 import google.registry.model.host.HostResource;
 import google.registry.model.registry.Registries;
 import java.net.InetAddress;
@@ -32,7 +34,8 @@ import org.joda.time.DateTime;
  * Represents a WHOIS lookup for a nameserver based on its IP.
  *
  * <p>Both IPv4 and IPv6 addresses are supported. Unlike other WHOIS commands, this is an eventually
- * consistent query.
+ * consistent query. When EPP resource caching is enabled, the hosts are found using the in-memory
+ * {@link HostInetAddressIndex} rather than a Datastore query.
  *
  * <p><b>Note:</b> There may be multiple nameservers with the same IP.
  */
@@ -47,8 +50,13 @@ final class NameserverLookupByIpCommand implements WhoisCommand {
 
   @Override
   public WhoisResponse executeQuery(DateTime now) throws WhoisException {
+    Iterable<HostResource> matchingHosts =
+        isEppResourceCachingEnabled()
+            ? HostInetAddressIndex.loadLiveHosts(
+                HostInetAddressIndex.get().getHostKeys(ipAddress), ipAddress, now)
+            : queryNotDeleted(HostResource.class, now, "inetAddresses", ipAddress);
     ImmutableList<HostResource> hosts =
-        Streams.stream(queryNotDeleted(HostResource.class, now, "inetAddresses", ipAddress))
+        Streams.stream(matchingHosts)
             .filter(
                 host ->
                     Registries.findTldForName(
@@ -16,7 +16,7 @@ package google.registry.whois;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Strings.isNullOrEmpty;
-import static google.registry.model.CacheUtils.memoizeWithShortExpiration;
+import static google.registry.model.CacheUtils.memoizeWithRefresh;
 import static google.registry.util.RegistrarUtils.normalizeRegistrarName;
 import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
 
@@ -45,7 +45,8 @@ final class RegistrarLookupCommand implements WhoisCommand {
    * WHOIS.
    */
   private static final Supplier<Map<String, Registrar>> REGISTRAR_BY_NORMALIZED_NAME_CACHE =
-      memoizeWithShortExpiration(
+      memoizeWithRefresh(
+          "whois_registrars_by_name",
           () -> {
             Map<String, Registrar> map = new HashMap<>();
             // Use the normalized registrar name as a key, and ignore inactive and hidden
@@ -0,0 +1,152 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.xml;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.monitoring.metrics.IncrementableMetric;
+import com.google.monitoring.metrics.LabelDescriptor;
+import com.google.monitoring.metrics.MetricRegistryImpl;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.xml.bind.JAXBException;
+
+/**
+ * A pool of reusable XML processing objects that are expensive to create and not thread-safe.
+ *
+ * <p>JAXB {@link javax.xml.bind.Marshaller}s and {@link javax.xml.bind.Unmarshaller}s, as well as
+ * schema {@link javax.xml.validation.Validator}s, may only be used by one thread at a time, but
+ * are costly to create for every call. Callers {@link #borrow} an instance for the duration of a
+ * single operation and then hand it back with {@link #release}, which resets it to its pristine
+ * configuration. An instance that was in use when an operation failed should be given to {@link
+ * #discard} instead, since it may have been left in an inconsistent state.
+ *
+ * <p>At most {@code maxIdle} instances are retained; anything released beyond that is dropped, so
+ * a burst of concurrent callers can't permanently inflate the pool.
+ */
+@ThreadSafe
+final class XmlObjectPool<T> {
+
+  /** Creates a new, fully configured instance for the pool. */
+  @FunctionalInterface
+  interface Factory<T> {
+    T create() throws JAXBException;
+  }
+
+  /** Restores a used instance to the configuration the {@link Factory} gave it. */
+  @FunctionalInterface
+  interface Resetter<T> {
+    void reset(T instance) throws JAXBException;
+  }
+
+  private static final ImmutableSet<LabelDescriptor> LABEL_DESCRIPTORS =
+      ImmutableSet.of(
+          LabelDescriptor.create("pool", "Name of the pool."),
+          LabelDescriptor.create("outcome", "What happened to the pooled object."));
+
+  /** Outcome label when a borrowed instance was taken from the pool. */
+  private static final String REUSED = "reused";
+
+  /** Outcome label when a borrowed instance had to be created. */
+  private static final String CREATED = "created";
+
+  /** Outcome label when a released instance was put back into the pool. */
+  private static final String POOLED = "pooled";
+
+  /** Outcome label when an instance was dropped instead of being put back into the pool. */
+  private static final String DROPPED = "dropped";
+
+  @VisibleForTesting
+  static final IncrementableMetric borrows =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/xml/pool/borrows",
+              "Count of XML processing objects borrowed from a pool",
+              "count",
+              LABEL_DESCRIPTORS);
+
+  @VisibleForTesting
+  static final IncrementableMetric returns =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/xml/pool/returns",
+              "Count of XML processing objects returned to a pool",
+              "count",
+              LABEL_DESCRIPTORS);
+
+  private final String name;
+  private final int maxIdle;
+  private final Factory<T> factory;
+  private final Resetter<T> resetter;
+  private final ConcurrentLinkedQueue<T> idle = new ConcurrentLinkedQueue<>();
+
+  /** Number of instances in {@link #idle}, tracked separately since queue size is O(n). */
+  private final AtomicInteger idleCount = new AtomicInteger();
+
+  XmlObjectPool(String name, int maxIdle, Factory<T> factory, Resetter<T> resetter) {
+    checkArgument(maxIdle > 0, "maxIdle must be positive");
+    this.name = checkNotNull(name, "name");
+    this.maxIdle = maxIdle;
+    this.factory = checkNotNull(factory, "factory");
+    this.resetter = checkNotNull(resetter, "resetter");
+  }
+
+  /** Returns an idle instance from the pool, or a new one if none is available. */
+  T borrow() throws JAXBException {
+    T instance = idle.poll();
+    if (instance != null) {
+      idleCount.decrementAndGet();
+      borrows.increment(name, REUSED);
+      return instance;
+    }
+    instance = factory.create();
+    borrows.increment(name, CREATED);
+    return instance;
+  }
+
+  /** Resets {@code instance} and returns it to the pool, unless the pool is already full. */
+  void release(T instance) {
+    try {
+      resetter.reset(instance);
+    } catch (JAXBException e) {
+      // The instance can't be brought back to a known state, so don't let anyone else use it.
+      discard(instance);
+      return;
+    }
+    if (idleCount.incrementAndGet() > maxIdle) {
+      idleCount.decrementAndGet();
+      returns.increment(name, DROPPED);
+      return;
+    }
+    idle.offer(instance);
+    returns.increment(name, POOLED);
+  }
+
+  /** Drops {@code instance}, which must not be used again, without returning it to the pool. */
+  void discard(T instance) {
+    checkNotNull(instance, "instance");
+    returns.increment(name, DROPPED);
+  }
+
+  /** Returns the number of instances currently waiting in the pool. */
+  @VisibleForTesting
+  int getIdleCount() {
+    return idleCount.get();
+  }
+}
@@ -18,6 +18,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Strings.nullToEmpty;
 import static google.registry.xml.ValidationMode.STRICT;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.joining;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
@@ -34,6 +35,8 @@ import java.nio.charset.Charset;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 import javax.annotation.Nullable;
 import javax.xml.XMLConstants;
 import javax.xml.bind.JAXBContext;
@@ -43,8 +46,12 @@ import javax.xml.bind.UnmarshalException;
 import javax.xml.bind.Unmarshaller;
 import javax.xml.bind.helpers.DefaultValidationEventHandler;
 import javax.xml.stream.FactoryConfigurationError;
+import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.util.EventReaderDelegate;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Result;
 import javax.xml.transform.Transformer;
@@ -54,6 +61,7 @@ import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
@@ -75,6 +83,18 @@ public class XmlTransformer {
   /** A {@link Schema} to validate XML. */
   private final Schema schema;
 
+  /** Maximum number of idle objects kept in each of the pools below. */
+  private static final int MAX_IDLE_POOLED_OBJECTS = 32;
+
+  /** Unmarshallers that validate against {@link #schema}, reused across calls. */
+  private final XmlObjectPool<Unmarshaller> unmarshallerPool;
+
+  /** Marshallers in their default configuration, reused across calls. */
+  private final XmlObjectPool<Marshaller> marshallerPool;
+
+  /** Validators for {@link #schema}, reused across calls. */
+  private final XmlObjectPool<Validator> validatorPool;
+
   /**
    * Create a new XmlTransformer that validates using the given schemas, but uses the given classes
    * (rather than generated ones) for marshaling and unmarshaling.
@@ -83,12 +103,10 @@ public class XmlTransformer {
    * @param recognizedClasses the classes that can be used to marshal to and from
    */
   public XmlTransformer(List<String> schemaFilenames, Class<?>... recognizedClasses) {
-    try {
-      this.jaxbContext = JAXBContext.newInstance(recognizedClasses);
-      this.schema = loadXmlSchemas(schemaFilenames);
-    } catch (JAXBException e) {
-      throw new RuntimeException(e);
-    }
+    this(
+        initJaxbContext(recognizedClasses),
+        loadXmlSchemas(schemaFilenames),
+        Stream.of(recognizedClasses).map(Class::getSimpleName).collect(joining(",")));
   }
 
   /**
@@ -100,12 +118,30 @@ public class XmlTransformer {
    *        this package.
    */
   public XmlTransformer(Package pakkage, ImmutableMap<String, String> schemaNamesToFilenames) {
-    try {
-      this.jaxbContext = initJaxbContext(pakkage, schemaNamesToFilenames.keySet());
-      this.schema = loadXmlSchemas(ImmutableList.copyOf(schemaNamesToFilenames.values()));
-    } catch (JAXBException e) {
-      throw new RuntimeException(e);
-    }
+    this(
+        initJaxbContext(pakkage, schemaNamesToFilenames.keySet()),
+        loadXmlSchemas(ImmutableList.copyOf(schemaNamesToFilenames.values())),
+        pakkage.getName());
+  }
+
+  private XmlTransformer(JAXBContext jaxbContext, Schema schema, String name) {
+    this.jaxbContext = jaxbContext;
+    this.schema = schema;
+    this.unmarshallerPool =
+        new XmlObjectPool<>(
+            name + "/unmarshaller",
+            MAX_IDLE_POOLED_OBJECTS,
+            this::createUnmarshaller,
+            unmarshaller -> {});
+    this.marshallerPool =
+        new XmlObjectPool<>(
+            name + "/marshaller",
+            MAX_IDLE_POOLED_OBJECTS,
+            this::createMarshaller,
+            XmlTransformer::resetMarshaller);
+    this.validatorPool =
+        new XmlObjectPool<>(
+            name + "/validator", MAX_IDLE_POOLED_OBJECTS, schema::newValidator, Validator::reset);
   }
 
   private static XMLInputFactory createInputFactory() throws FactoryConfigurationError {
@@ -126,8 +162,14 @@ public class XmlTransformer {
    */
   public void validate(String xml) throws XmlException {
     try {
-      schema.newValidator().validate(new StreamSource(new StringReader(xml)));
-    } catch (SAXException | IOException e) {
+      Validator validator = validatorPool.borrow();
+      try {
+        validator.validate(new StreamSource(new StringReader(xml)));
+      } finally {
+        // Validators are reset on release, so they can be reused even after a validation error.
+        validatorPool.release(validator);
+      }
+    } catch (JAXBException | SAXException | IOException e) {
       throw new XmlException(e);
     }
   }
@@ -144,36 +186,104 @@ public class XmlTransformer {
    */
   public <T> T unmarshal(Class<T> clazz, InputStream stream) throws XmlException {
     try (InputStream autoClosingStream = stream) {
-      return clazz.cast(getUnmarshaller().unmarshal(
-          XML_INPUT_FACTORY.createXMLStreamReader(new StreamSource(autoClosingStream, SYSTEM_ID))));
-    } catch (UnmarshalException e) {
-      // Plain old parsing exceptions have a SAXParseException with no further cause.
-      if (e.getLinkedException() instanceof SAXParseException
-          && e.getLinkedException().getCause() == null) {
-        SAXParseException sae = (SAXParseException) e.getLinkedException();
-        throw new XmlException(String.format(
-            "Syntax error at line %d, column %d: %s",
-            sae.getLineNumber(),
-            sae.getColumnNumber(),
-            nullToEmpty(sae.getMessage()).replaceAll("&quot;", "")));
-      }
-      // These get thrown for attempted XXE attacks.
-      if (e.getLinkedException() instanceof XMLStreamException) {
-        XMLStreamException xse = (XMLStreamException) e.getLinkedException();
-        throw new XmlException(String.format(
-            "Syntax error at line %d, column %d: %s",
-            xse.getLocation().getLineNumber(),
-            xse.getLocation().getColumnNumber(),
-            nullToEmpty(xse.getMessage())
-                .replaceAll("^.*\nMessage: ", "")  // Strip an ugly prefix from XMLStreamException.
-                .replaceAll("&quot;", "")));
+      XMLStreamReader streamReader =
+          XML_INPUT_FACTORY.createXMLStreamReader(new StreamSource(autoClosingStream, SYSTEM_ID));
+      Unmarshaller unmarshaller = unmarshallerPool.borrow();
+      Object result;
+      try {
+        result = unmarshaller.unmarshal(streamReader);
+      } catch (JAXBException | RuntimeException e) {
+        unmarshallerPool.discard(unmarshaller);
+        throw e;
       }
+      unmarshallerPool.release(unmarshaller);
+      return clazz.cast(result);
+    } catch (UnmarshalException e) {
+      throw toXmlException(e);
+    } catch (JAXBException | XMLStreamException | IOException e) {
       throw new XmlException(e);
+    }
+  }
+
+  /**
+   * Turns XML text into an object like {@link #unmarshal(Class, InputStream)}, additionally handing
+   * every {@link XMLEvent} consumed by the unmarshaller to {@code eventListener} in document order.
+   *
+   * <p>This allows callers to build other renderings of the same document (such as a sanitized log
+   * form) from the events of the one parse that the unmarshaller performs, rather than reparsing
+   * the raw input. Events after the end of the root element are not consumed by the unmarshaller,
+   * and so are not passed to the listener.
+   *
+   * @param clazz the XML class you expect to receive as the root element
+   * @param eventListener receives each parsed event; events are immutable and may be retained
+   * @throws XmlException if failed to read from {@code bytes}, XML input is invalid, or root
+   *         element doesn't match {@code expect}.
+   */
+  public <T> T unmarshal(Class<T> clazz, InputStream stream, Consumer<XMLEvent> eventListener)
+      throws XmlException {
+    checkNotNull(eventListener, "eventListener");
+    try (InputStream autoClosingStream = stream) {
+      XMLEventReader eventReader =
+          new EventReaderDelegate(
+              XML_INPUT_FACTORY.createXMLEventReader(
+                  new StreamSource(autoClosingStream, SYSTEM_ID))) {
+            @Override
+            public XMLEvent nextEvent() throws XMLStreamException {
+              XMLEvent event = super.nextEvent();
+              eventListener.accept(event);
+              return event;
+            }
+
+            @Override
+            public Object next() {
+              Object event = super.next();
+              eventListener.accept((XMLEvent) event);
+              return event;
+            }
+          };
+      Unmarshaller unmarshaller = unmarshallerPool.borrow();
+      Object result;
+      try {
+        result = unmarshaller.unmarshal(eventReader);
+      } catch (JAXBException | RuntimeException e) {
+        unmarshallerPool.discard(unmarshaller);
+        throw e;
+      }
+      unmarshallerPool.release(unmarshaller);
+      return clazz.cast(result);
+    } catch (UnmarshalException e) {
+      throw toXmlException(e);
     } catch (JAXBException | XMLStreamException | IOException e) {
       throw new XmlException(e);
     }
   }
 
+  /** Converts an {@link UnmarshalException} into an {@link XmlException} with a useful message. */
+  private static XmlException toXmlException(UnmarshalException e) {
+    // Plain old parsing exceptions have a SAXParseException with no further cause.
+    if (e.getLinkedException() instanceof SAXParseException
+        && e.getLinkedException().getCause() == null) {
+      SAXParseException sae = (SAXParseException) e.getLinkedException();
+      return new XmlException(String.format(
+          "Syntax error at line %d, column %d: %s",
+          sae.getLineNumber(),
+          sae.getColumnNumber(),
+          nullToEmpty(sae.getMessage()).replaceAll("&quot;", "")));
+    }
+    // These get thrown for attempted XXE attacks.
+    if (e.getLinkedException() instanceof XMLStreamException) {
+      XMLStreamException xse = (XMLStreamException) e.getLinkedException();
+      return new XmlException(String.format(
+          "Syntax error at line %d, column %d: %s",
+          xse.getLocation().getLineNumber(),
+          xse.getLocation().getColumnNumber(),
+          nullToEmpty(xse.getMessage())
+              .replaceAll("^.*\nMessage: ", "")  // Strip an ugly prefix from XMLStreamException.
+              .replaceAll("&quot;", "")));
+    }
+    return new XmlException(e);
+  }
+
   /**
    * Streams {@code root} without XML declaration, optionally validating against the schema.
    *
@@ -188,12 +298,21 @@ public class XmlTransformer {
    * @throws XmlException to rethrow {@link JAXBException}.
    */
   public void marshal(Object root, Writer writer, ValidationMode validation) throws XmlException {
+    checkNotNull(root, "root");
+    checkNotNull(writer, "writer");
     try {
       // Omit XML declaration because character-oriented output prevents us from knowing.
-      getMarshaller(
-          STRICT.equals(validation) ? schema : null,
-          ImmutableMap.of(Marshaller.JAXB_FRAGMENT, true)).marshal(
-              checkNotNull(root, "root"), checkNotNull(writer, "writer"));
+      Marshaller marshaller =
+          borrowMarshaller(
+              STRICT.equals(validation) ? schema : null,
+              ImmutableMap.of(Marshaller.JAXB_FRAGMENT, true));
+      try {
+        marshaller.marshal(root, writer);
+      } catch (JAXBException | RuntimeException e) {
+        marshallerPool.discard(marshaller);
+        throw e;
+      }
+      marshallerPool.release(marshaller);
     } catch (JAXBException e) {
       throw new XmlException(e);
     }
@@ -216,11 +335,20 @@ public class XmlTransformer {
    */
   public void marshal(Object root, OutputStream out, Charset charset, ValidationMode validation)
       throws XmlException {
+    checkNotNull(root, "root");
+    checkNotNull(out, "out");
     try {
-      getMarshaller(
-          STRICT.equals(validation) ? schema : null,
-          ImmutableMap.of(Marshaller.JAXB_ENCODING, charset.toString())).marshal(
-              checkNotNull(root, "root"), checkNotNull(out, "out"));
+      Marshaller marshaller =
+          borrowMarshaller(
+              STRICT.equals(validation) ? schema : null,
+              ImmutableMap.of(Marshaller.JAXB_ENCODING, charset.toString()));
+      try {
+        marshaller.marshal(root, out);
+      } catch (JAXBException | RuntimeException e) {
+        marshallerPool.discard(marshaller);
+        throw e;
+      }
+      marshallerPool.release(marshaller);
     } catch (JAXBException e) {
       throw new XmlException(e);
     }
@@ -239,9 +367,17 @@ public class XmlTransformer {
    * @throws XmlException to rethrow {@link JAXBException}.
    */
   public void marshalStrict(Object root, Result result) throws XmlException {
+    checkNotNull(root, "root");
+    checkNotNull(result, "result");
     try {
-      getMarshaller(schema, ImmutableMap.of())
-          .marshal(checkNotNull(root, "root"), checkNotNull(result, "result"));
+      Marshaller marshaller = borrowMarshaller(schema, ImmutableMap.of());
+      try {
+        marshaller.marshal(root, result);
+      } catch (JAXBException | RuntimeException e) {
+        marshallerPool.discard(marshaller);
+        throw e;
+      }
+      marshallerPool.release(marshaller);
     } catch (JAXBException e) {
       throw new XmlException(e);
     }
@@ -268,14 +404,26 @@ public class XmlTransformer {
   }
 
   /** Creates a {@link JAXBContext} from multiple schema names. */
-  private static JAXBContext initJaxbContext(
-      Package pakkage, Collection<String> schemaNames) throws JAXBException {
+  private static JAXBContext initJaxbContext(Package pakkage, Collection<String> schemaNames) {
     String prefix = pakkage.getName() + ".";
-    return JAXBContext.newInstance(prefix + Joiner.on(':' + prefix).join(schemaNames));
+    try {
+      return JAXBContext.newInstance(prefix + Joiner.on(':' + prefix).join(schemaNames));
+    } catch (JAXBException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** Creates a {@link JAXBContext} from the given classes. */
+  private static JAXBContext initJaxbContext(Class<?>... recognizedClasses) {
+    try {
+      return JAXBContext.newInstance(recognizedClasses);
+    } catch (JAXBException e) {
+      throw new RuntimeException(e);
+    }
   }
 
-  /** Get a {@link Unmarshaller} instance with the default configuration. */
-  private Unmarshaller getUnmarshaller() throws JAXBException {
+  /** Creates a {@link Unmarshaller} instance with the default configuration. */
+  private Unmarshaller createUnmarshaller() throws JAXBException {
     Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
     unmarshaller.setSchema(schema);
     // This handler was the default in JAXB 1.0. It fails on any exception thrown while
@@ -285,15 +433,38 @@ public class XmlTransformer {
     return unmarshaller;
   }
 
-  /** Get a {@link Marshaller} instance with the given configuration. */
-  private Marshaller getMarshaller(@Nullable Schema schemaParam, Map<String, ?> properties)
-      throws JAXBException {
+  /** Creates a {@link Marshaller} instance with the default configuration. */
+  private Marshaller createMarshaller() throws JAXBException {
     Marshaller marshaller = jaxbContext.createMarshaller();
-    for (Map.Entry<String, ?> entry : properties.entrySet()) {
-      marshaller.setProperty(entry.getKey(), entry.getValue());
-    }
     marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-    marshaller.setSchema(schemaParam);
+    return marshaller;
+  }
+
+  /** Undoes anything {@link #borrowMarshaller} may have configured on a pooled marshaller. */
+  private static void resetMarshaller(Marshaller marshaller) throws JAXBException {
+    marshaller.setProperty(Marshaller.JAXB_FRAGMENT, false);
+    marshaller.setProperty(Marshaller.JAXB_ENCODING, UTF_8.name());
+    marshaller.setSchema(null);
+  }
+
+  /**
+   * Borrows a pooled {@link Marshaller} and applies the given configuration to it.
+   *
+   * <p>The caller must hand it back with {@link XmlObjectPool#release}, or {@link
+   * XmlObjectPool#discard} if marshalling failed.
+   */
+  private Marshaller borrowMarshaller(@Nullable Schema schemaParam, Map<String, ?> properties)
+      throws JAXBException {
+    Marshaller marshaller = marshallerPool.borrow();
+    try {
+      for (Map.Entry<String, ?> entry : properties.entrySet()) {
+        marshaller.setProperty(entry.getKey(), entry.getValue());
+      }
+      marshaller.setSchema(schemaParam);
+    } catch (JAXBException | RuntimeException e) {
+      marshallerPool.discard(marshaller);
+      throw e;
+    }
     return marshaller;
   }
 
@@ -83,6 +83,8 @@ public class RestoreCommitLogsActionTest {
     action.datastoreService = DatastoreServiceFactory.getDatastoreService();
     action.fromTime = now.minusMillis(1);
     action.retrier = new Retrier(new FakeSleeper(new FakeClock()), 1);
+    action.clock = new FakeClock(now);
+    action.executor = newDirectExecutorService();
     action.diffLister = new GcsDiffFileLister();
     action.diffLister.gcsService = gcsService;
     action.diffLister.gcsBucket = GCS_BUCKET;
@@ -139,6 +141,49 @@ public class RestoreCommitLogsActionTest {
     assertCommitLogBuckets(ImmutableMap.of(1, now.minusMinutes(1), 2, now.minusMinutes(2)));
   }
 
+  @Test
+  public void testRestore_conflictingTransactionsInOneFile_keepPerKeyOrder() throws Exception {
+    ofy().saveWithoutBackup().entity(TestObject.create("previous to keep")).now();
+    // 1: Add {"a", "b"}
+    // 2: Add {"c"}, Delete {"a"}
+    // 3: Add {"a" (recreated)}, Delete {"b"}
+    // 4: Add {"b" (recreated)}
+    Key<CommitLogManifest> manifest1Key =
+        CommitLogManifest.createKey(getBucketKey(1), now.minusMinutes(4));
+    Key<CommitLogManifest> manifest2Key =
+        CommitLogManifest.createKey(getBucketKey(2), now.minusMinutes(3));
+    Key<CommitLogManifest> manifest3Key =
+        CommitLogManifest.createKey(getBucketKey(1), now.minusMinutes(2));
+    Key<CommitLogManifest> manifest4Key =
+        CommitLogManifest.createKey(getBucketKey(2), now.minusMinutes(1));
+    saveDiffFileNotToRestore(now.minusMinutes(1));
+    Iterable<ImmutableObject> commitLogs = saveDiffFile(
+        createCheckpoint(now),
+        CommitLogManifest.create(getBucketKey(1), now.minusMinutes(4), null),
+        CommitLogMutation.create(manifest1Key, TestObject.create("a", "first")),
+        CommitLogMutation.create(manifest1Key, TestObject.create("b", "first")),
+        CommitLogManifest.create(
+            getBucketKey(2),
+            now.minusMinutes(3),
+            ImmutableSet.of(Key.create(TestObject.create("a")))),
+        CommitLogMutation.create(manifest2Key, TestObject.create("c")),
+        CommitLogManifest.create(
+            getBucketKey(1),
+            now.minusMinutes(2),
+            ImmutableSet.of(Key.create(TestObject.create("b")))),
+        CommitLogMutation.create(manifest3Key, TestObject.create("a", "second")),
+        CommitLogManifest.create(getBucketKey(2), now.minusMinutes(1), null),
+        CommitLogMutation.create(manifest4Key, TestObject.create("b", "second")));
+    action.run();
+    ofy().clearSessionCache();
+    assertExpectedIds("previous to keep", "a", "b", "c");
+    assertThat(ofy().load().entity(TestObject.create("a")).now().getField()).isEqualTo("second");
+    assertThat(ofy().load().entity(TestObject.create("b")).now().getField()).isEqualTo("second");
+    assertInDatastore(commitLogs);
+    assertInDatastore(asList(CommitLogCheckpointRoot.create(now)));
+    assertCommitLogBuckets(ImmutableMap.of(1, now.minusMinutes(2), 2, now.minusMinutes(1)));
+  }
+
   @Test
   public void testRestore_noManifests() throws Exception {
     ofy().saveWithoutBackup().entity(
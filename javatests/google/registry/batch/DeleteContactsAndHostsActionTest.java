@@ -77,11 +77,13 @@ import google.registry.model.contact.ContactAddress;
 import google.registry.model.contact.ContactPhoneNumber;
 import google.registry.model.contact.ContactResource;
 import google.registry.model.contact.PostalInfo;
+import google.registry.model.domain.DomainBase;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.eppcommon.Trid;
 import google.registry.model.eppoutput.EppResponse.ResponseData;
 import google.registry.model.host.HostResource;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.ofy.Ofy;
 import google.registry.model.poll.PendingActionNotificationResponse;
 import google.registry.model.poll.PendingActionNotificationResponse.ContactPendingActionNotificationResponse;
@@ -218,6 +220,46 @@ public class DeleteContactsAndHostsActionTest
     verifyNoMoreInteractions(action.asyncFlowMetrics);
   }
 
+  @Test
+  public void testSuccess_indexEnabled_indexedReference_doesNotGetDeleted() throws Exception {
+    action.useDomainReferenceIndex = true;
+    ContactResource contact = persistContactPendingDelete("blah8221");
+    DomainResource domain = persistResource(newDomainResource("example.tld", contact));
+    DomainReferenceIndex.saveMissingEntries(Key.<DomainBase>create(domain));
+    enqueuer.enqueueAsyncDelete(
+        contact,
+        clock.nowUtc(),
+        "TheRegistrar",
+        Trid.create("fakeClientTrid", "fakeServerTrid"),
+        false);
+    runMapreduce();
+    assertAboutContacts()
+        .that(loadByForeignKey(ContactResource.class, "blah8221", clock.nowUtc()))
+        .doesNotHaveStatusValue(PENDING_DELETE)
+        .and()
+        .hasDeletionTime(END_OF_TIME);
+    assertThat(fakeResponse.getPayload())
+        .startsWith("Processed 1 async deletions using the domain reference index");
+    assertNoTasksEnqueued(QUEUE_ASYNC_DELETE);
+  }
+
+  @Test
+  public void testSuccess_indexEnabled_notReferenced_getsDeleted() throws Exception {
+    action.useDomainReferenceIndex = true;
+    ContactResource contact = persistContactPendingDelete("blah8221");
+    enqueuer.enqueueAsyncDelete(
+        contact,
+        clock.nowUtc(),
+        "TheRegistrar",
+        Trid.create("fakeClientTrid", "fakeServerTrid"),
+        false);
+    runMapreduce();
+    assertThat(loadByForeignKey(ContactResource.class, "blah8221", clock.nowUtc())).isNull();
+    assertThat(fakeResponse.getPayload())
+        .startsWith("Processed 1 async deletions using the domain reference index");
+    assertNoTasksEnqueued(QUEUE_ASYNC_DELETE);
+  }
+
   @Test
   public void testSuccess_contact_notReferenced_getsDeleted_andPiiWipedOut() throws Exception {
     runSuccessfulContactDeletionTest(Optional.of("fakeClientTrid"));
@@ -0,0 +1,111 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.batch;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.createHistoryEntryForEppResource;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.persistActiveDomain;
+import static google.registry.testing.DatastoreHelper.persistResource;
+
+import google.registry.model.ofy.Ofy;
+import google.registry.model.poll.PollMessage;
+import google.registry.model.poll.PollMessageQueue;
+import google.registry.model.reporting.HistoryEntry;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.FakeClock;
+import google.registry.testing.FakeResponse;
+import google.registry.testing.InjectRule;
+import google.registry.testing.ShardableTestCase;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link RecountPollMessagesAction}. */
+@RunWith(JUnit4.class)
+public class RecountPollMessagesActionTest extends ShardableTestCase {
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder().withDatastore().build();
+
+  @Rule public final InjectRule inject = new InjectRule();
+
+  private final FakeClock clock = new FakeClock(DateTime.parse("2018-06-01T00:00:00Z"));
+  private final FakeResponse response = new FakeResponse();
+  private HistoryEntry historyEntry;
+
+  @Before
+  public void before() {
+    inject.setStaticField(Ofy.class, "clock", clock);
+    createTld("tld");
+    historyEntry = createHistoryEntryForEppResource(persistActiveDomain("example.tld"));
+  }
+
+  private void persistOneTimeMessage(DateTime eventTime) {
+    persistResource(
+        new PollMessage.OneTime.Builder()
+            .setClientId("TheRegistrar")
+            .setEventTime(eventTime)
+            .setMsg("Some poll message.")
+            .setParent(historyEntry)
+            .build());
+  }
+
+  /** Saves a queue counting one message, then writes another that only a full count finds. */
+  private void persistQueueMissingMessage() {
+    persistOneTimeMessage(clock.nowUtc().minusDays(2));
+    PollMessageQueue.load("TheRegistrar", clock.nowUtc()).saveIfNeeded();
+    persistOneTimeMessage(clock.nowUtc().minusDays(1));
+  }
+
+  private void runAction() {
+    new RecountPollMessagesAction("TheRegistrar", clock, response).run();
+    ofy().clearSessionCache();
+  }
+
+  private static PollMessageQueue loadSaved() {
+    return ofy().load().key(PollMessageQueue.createKey("TheRegistrar")).now();
+  }
+
+  @Test
+  public void testSuccess_recountsQueueDueForRecount() {
+    persistQueueMissingMessage();
+    PollMessageQueue.markForRecount("TheRegistrar", clock.nowUtc());
+    runAction();
+    assertThat(loadSaved().getCount()).isEqualTo(2);
+    assertThat(loadSaved().isRecountDue(clock.nowUtc())).isFalse();
+    assertThat(response.getPayload()).isEqualTo("Poll message queue recounted.");
+  }
+
+  @Test
+  public void testSuccess_recountsWithoutSavedQueue() {
+    persistOneTimeMessage(clock.nowUtc().minusDays(1));
+    runAction();
+    assertThat(loadSaved().getCount()).isEqualTo(1);
+    assertThat(response.getPayload()).isEqualTo("Poll message queue recounted.");
+  }
+
+  @Test
+  public void testSuccess_alreadyRecounted_doesNothing() {
+    persistQueueMissingMessage();
+    runAction();
+    assertThat(loadSaved().getCount()).isEqualTo(1);
+    assertThat(response.getPayload()).isEqualTo("Poll message queue already recounted.");
+  }
+}
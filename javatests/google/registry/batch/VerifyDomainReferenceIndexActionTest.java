@@ -0,0 +1,153 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.batch;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.newDomainResource;
+import static google.registry.testing.DatastoreHelper.persistActiveContact;
+import static google.registry.testing.DatastoreHelper.persistActiveHost;
+import static google.registry.testing.DatastoreHelper.persistResource;
+import static org.joda.time.DateTimeZone.UTC;
+
+import com.google.common.collect.ImmutableSet;
+import com.googlecode.objectify.Key;
+import google.registry.model.contact.ContactResource;
+import google.registry.model.domain.DomainBase;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.host.HostResource;
+import google.registry.model.index.DomainReferenceIndex;
+import google.registry.model.ofy.Ofy;
+import google.registry.testing.FakeClock;
+import google.registry.testing.FakeResponse;
+import google.registry.testing.InjectRule;
+import google.registry.testing.mapreduce.MapreduceTestCase;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link VerifyDomainReferenceIndexAction}. */
+@RunWith(JUnit4.class)
+public class VerifyDomainReferenceIndexActionTest
+    extends MapreduceTestCase<VerifyDomainReferenceIndexAction> {
+
+  @Rule public final InjectRule inject = new InjectRule();
+
+  private final FakeClock clock = new FakeClock(DateTime.now(UTC));
+  private ContactResource contact;
+  private HostResource host1;
+  private HostResource host2;
+
+  @Before
+  public void init() {
+    action = new VerifyDomainReferenceIndexAction();
+    action.mrRunner = makeDefaultRunner();
+    action.response = new FakeResponse();
+    createTld("tld");
+    contact = persistActiveContact("contact1234");
+    host1 = persistActiveHost("ns1.example.tld");
+    host2 = persistActiveHost("ns2.example.tld");
+  }
+
+  private void runMapreduce() throws Exception {
+    action.run();
+    executeTasksUntilEmpty("mapreduce", clock);
+    ofy().clearSessionCache();
+  }
+
+  /** Saves the entries of a domain an hour ago, so that they aren't recently saved. */
+  private void saveEntriesAnHourAgo(DomainResource domain) {
+    inject.setStaticField(Ofy.class, "clock", clock);
+    clock.setTo(DateTime.now(UTC).minusHours(1));
+    DomainReferenceIndex.saveMissingEntries(Key.<DomainBase>create(domain));
+    clock.setTo(DateTime.now(UTC));
+  }
+
+  private DomainResource persistDomain(String domainName, HostResource... hosts) {
+    ImmutableSet.Builder<Key<HostResource>> hostKeys = new ImmutableSet.Builder<>();
+    for (HostResource host : hosts) {
+      hostKeys.add(Key.create(host));
+    }
+    return persistResource(
+        newDomainResource(domainName, contact)
+            .asBuilder()
+            .setNameservers(hostKeys.build())
+            .build());
+  }
+
+  private static ImmutableSet<Key<DomainReferenceIndex>> loadAllEntryKeys() {
+    return ImmutableSet.copyOf(ofy().load().type(DomainReferenceIndex.class).keys());
+  }
+
+  @Test
+  public void test_addsMissingEntries() throws Exception {
+    DomainResource domain = persistDomain("example.tld", host1, host2);
+    assertThat(loadAllEntryKeys()).isEmpty();
+    runMapreduce();
+    assertThat(loadAllEntryKeys())
+        .containsExactly(
+            DomainReferenceIndex.createKey(Key.create(contact), Key.create(domain)),
+            DomainReferenceIndex.createKey(Key.create(host1), Key.create(domain)),
+            DomainReferenceIndex.createKey(Key.create(host2), Key.create(domain)));
+  }
+
+  @Test
+  public void test_deletesEntriesOfRemovedReferences() throws Exception {
+    DomainResource domain = persistDomain("example.tld", host1, host2);
+    saveEntriesAnHourAgo(domain);
+    persistResource(domain.asBuilder().setNameservers(ImmutableSet.of(Key.create(host1))).build());
+    runMapreduce();
+    assertThat(loadAllEntryKeys())
+        .containsExactly(
+            DomainReferenceIndex.createKey(Key.create(contact), Key.create(domain)),
+            DomainReferenceIndex.createKey(Key.create(host1), Key.create(domain)));
+  }
+
+  @Test
+  public void test_deletesAllEntriesOfDeletedDomain() throws Exception {
+    DomainResource domain = persistDomain("example.tld", host1);
+    saveEntriesAnHourAgo(domain);
+    persistResource(domain.asBuilder().setDeletionTime(clock.nowUtc().minusDays(1)).build());
+    runMapreduce();
+    assertThat(loadAllEntryKeys()).isEmpty();
+  }
+
+  @Test
+  public void test_keepsRecentlySavedEntriesOfRemovedReferences() throws Exception {
+    DomainResource domain = persistDomain("example.tld", host1, host2);
+    DomainReferenceIndex.saveMissingEntries(Key.<DomainBase>create(domain));
+    persistResource(domain.asBuilder().setNameservers(ImmutableSet.of(Key.create(host1))).build());
+    runMapreduce();
+    assertThat(loadAllEntryKeys())
+        .containsExactly(
+            DomainReferenceIndex.createKey(Key.create(contact), Key.create(domain)),
+            DomainReferenceIndex.createKey(Key.create(host1), Key.create(domain)),
+            DomainReferenceIndex.createKey(Key.create(host2), Key.create(domain)));
+  }
+
+  @Test
+  public void test_leavesCorrectEntriesAlone() throws Exception {
+    DomainResource domain = persistDomain("example.tld", host1);
+    DomainReferenceIndex.saveMissingEntries(Key.<DomainBase>create(domain));
+    ImmutableSet<DomainReferenceIndex> entries =
+        ImmutableSet.copyOf(ofy().load().type(DomainReferenceIndex.class));
+    runMapreduce();
+    assertThat(ofy().load().type(DomainReferenceIndex.class)).containsExactlyElementsIn(entries);
+  }
+}
@@ -0,0 +1,191 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.dns;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
+import static com.google.monitoring.metrics.contrib.DistributionMetricSubject.assertThat;
+import static google.registry.testing.JUnitBackports.assertThrows;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.collect.ImmutableSet;
+import google.registry.testing.FakeClock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link DnsPublishEngine}. */
+@RunWith(JUnit4.class)
+public class DnsPublishEngineTest {
+
+  private final FakeClock clock = new FakeClock(DateTime.parse("2018-01-01T00:01:00Z"));
+  private final DateTime requestTime = DateTime.parse("2018-01-01T00:00:00Z");
+  private final List<String> ran = Collections.synchronizedList(new ArrayList<>());
+
+  @Before
+  public void before() {
+    DnsPublishEngine.pendingBatches.reset();
+    DnsPublishEngine.inFlightBatches.reset();
+    DnsPublishEngine.enqueueLag.reset();
+  }
+
+  @Test
+  public void testSubmit_runsBatchesAndRecordsLag() {
+    DnsPublishEngine engine = new DnsPublishEngine(newDirectExecutorService(), 10, clock);
+
+    engine.submit("tld", "writer", "tld-lock-1", requestTime, () -> ran.add("a"));
+    engine.submit("tld", "writer", "tld-lock-2", requestTime.plusSeconds(30), () -> ran.add("b"));
+    engine.awaitCompletion();
+
+    assertThat(ran).containsExactly("a", "b").inOrder();
+    assertThat(DnsPublishEngine.enqueueLag)
+        .hasDataSetForLabels(ImmutableSet.of(60000.0, 30000.0), "tld", "writer")
+        .and()
+        .hasNoOtherValues();
+  }
+
+  @Test
+  public void testSubmit_sameZone_runsInOrderOneAtATime() {
+    DnsPublishEngine engine = new DnsPublishEngine(newFixedThreadPool(4), 100, clock);
+    AtomicInteger running = new AtomicInteger();
+    AtomicBoolean overlapped = new AtomicBoolean();
+    List<String> expected = new ArrayList<>();
+
+    for (int i = 0; i < 50; i++) {
+      String name = "batch" + i;
+      expected.add(name);
+      engine.submit(
+          "tld",
+          "writer",
+          "tld-lock-1",
+          requestTime,
+          () -> {
+            if (running.incrementAndGet() > 1) {
+              overlapped.set(true);
+            }
+            ran.add(name);
+            running.decrementAndGet();
+          });
+    }
+    engine.awaitCompletion();
+    engine.shutdown();
+
+    assertThat(ran).containsExactlyElementsIn(expected).inOrder();
+    assertThat(overlapped.get()).isFalse();
+  }
+
+  @Test
+  public void testSubmit_slowZone_doesNotBlockOtherZones() throws Exception {
+    DnsPublishEngine engine = new DnsPublishEngine(newFixedThreadPool(2), 100, clock);
+    CountDownLatch releaseSlowZone = new CountDownLatch(1);
+    CountDownLatch fastZoneDone = new CountDownLatch(3);
+
+    engine.submit("slow", "writer", "slow-lock-1", requestTime, () -> awaitLatch(releaseSlowZone));
+    engine.submit("slow", "writer", "slow-lock-1", requestTime, () -> ran.add("slow"));
+    for (int i = 0; i < 3; i++) {
+      engine.submit("fast", "writer", "fast-lock-1", requestTime, fastZoneDone::countDown);
+    }
+
+    assertThat(fastZoneDone.await(10, SECONDS)).isTrue();
+    assertThat(ran).isEmpty();
+    releaseSlowZone.countDown();
+    engine.awaitCompletion();
+    engine.shutdown();
+    assertThat(ran).containsExactly("slow");
+  }
+
+  @Test
+  public void testSubmit_failure_skipsRestOfZoneAndIsRethrown() {
+    DnsPublishEngine engine = new DnsPublishEngine(newDirectExecutorService(), 10, clock);
+
+    engine.submit(
+        "tld",
+        "writer",
+        "tld-lock-1",
+        requestTime,
+        () -> {
+          throw new IllegalStateException("enqueue failed");
+        });
+    engine.submit("tld", "writer", "tld-lock-1", requestTime, () -> ran.add("skipped"));
+    engine.submit("tld", "writer", "tld-lock-2", requestTime, () -> ran.add("other zone"));
+
+    IllegalStateException thrown =
+        assertThrows(IllegalStateException.class, engine::awaitCompletion);
+    assertThat(thrown).hasMessageThat().isEqualTo("enqueue failed");
+    assertThat(ran).containsExactly("other zone");
+  }
+
+  @Test
+  public void testSubmit_tooManyPendingBatches_blocks() throws Exception {
+    DnsPublishEngine engine = new DnsPublishEngine(newFixedThreadPool(2), 1, clock);
+    CountDownLatch releaseFirstBatch = new CountDownLatch(1);
+    CountDownLatch secondSubmitted = new CountDownLatch(1);
+
+    engine.submit("tld", "writer", "tld-lock-1", requestTime, () -> awaitLatch(releaseFirstBatch));
+    Thread submitter =
+        new Thread(
+            () -> {
+              engine.submit("tld", "writer", "tld-lock-2", requestTime, () -> ran.add("second"));
+              secondSubmitted.countDown();
+            });
+    submitter.start();
+
+    assertThat(secondSubmitted.await(200, MILLISECONDS)).isFalse();
+    releaseFirstBatch.countDown();
+    assertThat(secondSubmitted.await(10, SECONDS)).isTrue();
+    engine.awaitCompletion();
+    engine.shutdown();
+    assertThat(ran).containsExactly("second");
+  }
+
+  @Test
+  public void testShutdown_afterCompletion_nothingResubmitted() throws Exception {
+    AtomicBoolean rejected = new AtomicBoolean();
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            2, 2, 0, SECONDS, new LinkedBlockingQueue<>(), (task, pool) -> rejected.set(true));
+    DnsPublishEngine engine = new DnsPublishEngine(executor, 100, clock);
+
+    for (int i = 0; i < 30; i++) {
+      engine.submit("tld", "writer", "tld-lock-" + (i % 3), requestTime, () -> ran.add("batch"));
+    }
+    engine.awaitCompletion();
+    engine.shutdown();
+
+    assertThat(executor.awaitTermination(10, SECONDS)).isTrue();
+    assertThat(rejected.get()).isFalse();
+    assertThat(ran).hasSize(30);
+  }
+
+  private static void awaitLatch(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -112,9 +112,11 @@ public class PublishDnsUpdatesActionTest {
 
     action.run();
 
+    verify(dnsWriter).prefetch(ImmutableSet.of(), ImmutableSet.of("ns1.example.xn--q9jyb4c"));
     verify(dnsWriter).publishHost("ns1.example.xn--q9jyb4c");
     verify(dnsWriter).commit();
     verifyNoMoreInteractions(dnsWriter);
+    verify(dnsMetrics).recordPrefetch("correctWriter", Duration.ZERO);
     verify(dnsMetrics).incrementPublishDomainRequests(0, PublishStatus.ACCEPTED);
     verify(dnsMetrics).incrementPublishDomainRequests(0, PublishStatus.REJECTED);
     verify(dnsMetrics).incrementPublishHostRequests(1, PublishStatus.ACCEPTED);
@@ -138,9 +140,11 @@ public class PublishDnsUpdatesActionTest {
 
     action.run();
 
+    verify(dnsWriter).prefetch(ImmutableSet.of("example.xn--q9jyb4c"), ImmutableSet.of());
     verify(dnsWriter).publishDomain("example.xn--q9jyb4c");
     verify(dnsWriter).commit();
     verifyNoMoreInteractions(dnsWriter);
+    verify(dnsMetrics).recordPrefetch("correctWriter", Duration.ZERO);
     verify(dnsMetrics).incrementPublishDomainRequests(1, PublishStatus.ACCEPTED);
     verify(dnsMetrics).incrementPublishDomainRequests(0, PublishStatus.REJECTED);
     verify(dnsMetrics).incrementPublishHostRequests(0, PublishStatus.ACCEPTED);
@@ -186,6 +190,7 @@ public class PublishDnsUpdatesActionTest {
 
     assertThrows(RuntimeException.class, action::run);
 
+    verify(dnsMetrics).recordPrefetch("correctWriter", Duration.ZERO);
     verify(dnsMetrics).incrementPublishDomainRequests(2, PublishStatus.ACCEPTED);
     verify(dnsMetrics).incrementPublishDomainRequests(0, PublishStatus.REJECTED);
     verify(dnsMetrics).incrementPublishHostRequests(3, PublishStatus.ACCEPTED);
@@ -211,6 +216,11 @@ public class PublishDnsUpdatesActionTest {
 
     action.run();
 
+    verify(dnsWriter)
+        .prefetch(
+            ImmutableSet.of("example.xn--q9jyb4c", "example2.xn--q9jyb4c"),
+            ImmutableSet.of(
+                "ns1.example.xn--q9jyb4c", "ns2.example.xn--q9jyb4c", "ns1.example2.xn--q9jyb4c"));
     verify(dnsWriter).publishDomain("example.xn--q9jyb4c");
     verify(dnsWriter).publishDomain("example2.xn--q9jyb4c");
     verify(dnsWriter).publishHost("ns1.example.xn--q9jyb4c");
@@ -218,6 +228,7 @@ public class PublishDnsUpdatesActionTest {
     verify(dnsWriter).publishHost("ns1.example2.xn--q9jyb4c");
     verify(dnsWriter).commit();
     verifyNoMoreInteractions(dnsWriter);
+    verify(dnsMetrics).recordPrefetch("correctWriter", Duration.ZERO);
     verify(dnsMetrics).incrementPublishDomainRequests(2, PublishStatus.ACCEPTED);
     verify(dnsMetrics).incrementPublishDomainRequests(0, PublishStatus.REJECTED);
     verify(dnsMetrics).incrementPublishHostRequests(3, PublishStatus.ACCEPTED);
@@ -242,8 +253,10 @@ public class PublishDnsUpdatesActionTest {
 
     action.run();
 
+    verify(dnsWriter).prefetch(ImmutableSet.of(), ImmutableSet.of());
     verify(dnsWriter).commit();
     verifyNoMoreInteractions(dnsWriter);
+    verify(dnsMetrics).recordPrefetch("correctWriter", Duration.ZERO);
     verify(dnsMetrics).incrementPublishDomainRequests(0, PublishStatus.ACCEPTED);
     verify(dnsMetrics).incrementPublishDomainRequests(2, PublishStatus.REJECTED);
     verify(dnsMetrics).incrementPublishHostRequests(0, PublishStatus.ACCEPTED);
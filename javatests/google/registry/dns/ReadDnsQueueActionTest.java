@@ -20,6 +20,7 @@ import static com.google.common.collect.Lists.transform;
 import static com.google.common.collect.MoreCollectors.onlyElement;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth8.assertThat;
+import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
 import static google.registry.dns.DnsConstants.DNS_PUBLISH_PUSH_QUEUE_NAME;
 import static google.registry.dns.DnsConstants.DNS_PULL_QUEUE_NAME;
 import static google.registry.dns.DnsConstants.DNS_TARGET_CREATE_TIME_PARAM;
@@ -121,6 +122,7 @@ public class ReadDnsQueueActionTest {
     action.requestedMaximumDuration = Duration.standardSeconds(10);
     action.clock = clock;
     action.dnsQueue = dnsQueue;
+    action.publishEngine = new DnsPublishEngine(newDirectExecutorService(), 100, clock);
     action.dnsPublishPushQueue = QueueFactory.getQueue(DNS_PUBLISH_PUSH_QUEUE_NAME);
     action.hashFunction = Hashing.murmur3_32();
     action.taskQueueUtils = new TaskQueueUtils(new Retrier(null, 1));
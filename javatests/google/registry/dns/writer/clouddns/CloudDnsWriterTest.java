@@ -18,6 +18,7 @@ import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.io.BaseEncoding.base16;
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.deleteResource;
 import static google.registry.testing.DatastoreHelper.newDomainResource;
 import static google.registry.testing.DatastoreHelper.newHostResource;
 import static google.registry.testing.DatastoreHelper.persistResource;
@@ -423,6 +424,24 @@ public class CloudDnsWriterTest {
     verifyZone(fakeDomainRecords("example.tld", 1, 0, 0, 0));
   }
 
+  @Test
+  public void testLoadHost_usesPrefetchedResources() {
+    HostResource host = persistResource(fakeHost("0.ip4.example.tld", IPv4));
+    DomainResource domain =
+        persistResource(
+            fakeDomain("example.tld", ImmutableSet.of(host), 0)
+                .asBuilder()
+                .addSubordinateHost("0.ip4.example.tld")
+                .build());
+    writer.prefetch(ImmutableSet.of(), ImmutableSet.of("0.ip4.example.tld"));
+    // Nothing is loaded after the prefetch, so the records are still published from it.
+    deleteResource(domain);
+    deleteResource(host);
+    writer.publishHost("0.ip4.example.tld");
+
+    verifyZone(fakeDomainRecords("example.tld", 1, 0, 0, 0));
+  }
+
   @Test
   @SuppressWarnings("unchecked")
   public void retryMutateZoneOnError() {
@@ -16,23 +16,36 @@ package google.registry.dns.writer.dnsupdate;
 
 import static com.google.common.io.BaseEncoding.base16;
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.monitoring.metrics.contrib.LongMetricSubject.assertThat;
+import static google.registry.dns.writer.dnsupdate.DnsConnectionPool.connections;
 import static google.registry.testing.JUnitBackports.assertThrows;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.common.base.VerifyException;
+import com.google.common.primitives.Bytes;
+import google.registry.testing.FakeClock;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.EOFException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.InetAddress;
+import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.net.SocketFactory;
 import org.joda.time.Duration;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -53,21 +66,33 @@ import org.xbill.DNS.Update;
 public class DnsMessageTransportTest {
 
   private static final String UPDATE_HOST = "127.0.0.1";
+  private static final Duration IDLE_TIMEOUT = Duration.standardMinutes(1);
 
   private final SocketFactory mockFactory = mock(SocketFactory.class);
   private final Socket mockSocket = mock(Socket.class);
+  private final FakeClock clock = new FakeClock();
 
   private Message simpleQuery;
   private Message expectedResponse;
   private DnsMessageTransport resolver;
+  private FakeDnsServer server;
+
   @Before
   public void before() throws Exception {
+    connections.reset();
     simpleQuery =
         Message.newQuery(Record.newRecord(Name.fromString("example.com."), Type.A, DClass.IN));
     expectedResponse = responseMessageWithCode(simpleQuery, Rcode.NOERROR);
     when(mockFactory.createSocket(InetAddress.getByName(UPDATE_HOST), DnsMessageTransport.DNS_PORT))
         .thenReturn(mockSocket);
-    resolver = new DnsMessageTransport(mockFactory, UPDATE_HOST, Duration.ZERO);
+    resolver = createTransport(mockFactory, Duration.ZERO);
+  }
+
+  @After
+  public void after() throws Exception {
+    if (server != null) {
+      server.close();
+    }
   }
 
   @Test
@@ -119,7 +144,7 @@ public class DnsMessageTransportTest {
     when(mockSocket.getOutputStream()).thenReturn(new ByteArrayOutputStream());
 
     Duration testTimeout = Duration.standardSeconds(1);
-    DnsMessageTransport resolver = new DnsMessageTransport(mockFactory, UPDATE_HOST, testTimeout);
+    DnsMessageTransport resolver = createTransport(mockFactory, testTimeout);
     Message expectedQuery = new Message();
     assertThrows(SocketTimeoutException.class, () -> resolver.send(expectedQuery));
     verify(mockSocket).setSoTimeout((int) testTimeout.getMillis());
@@ -171,6 +196,109 @@ public class DnsMessageTransportTest {
         .contains("response opcode 'STATUS' does not match query opcode 'QUERY'");
   }
 
+  @Test
+  public void testConnectionReusedForNextMessage() throws Exception {
+    byte[] responseBytes = messageToBytesWithLength(expectedResponse);
+    when(mockSocket.getInputStream())
+        .thenReturn(new ByteArrayInputStream(Bytes.concat(responseBytes, responseBytes)));
+    when(mockSocket.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+
+    resolver.send(simpleQuery);
+    resolver.send(simpleQuery);
+
+    verify(mockFactory, times(1))
+        .createSocket(InetAddress.getByName(UPDATE_HOST), DnsMessageTransport.DNS_PORT);
+    assertThat(connections)
+        .hasValueForLabels(1, "created")
+        .and()
+        .hasValueForLabels(1, "reused")
+        .and()
+        .hasValueForLabels(2, "pooled")
+        .and()
+        .hasNoOtherValues();
+  }
+
+  @Test
+  public void testFailedConnectionNotReused() throws Exception {
+    expectedResponse.getHeader().setID(1 + simpleQuery.getHeader().getID());
+    when(mockSocket.getInputStream())
+        .thenReturn(new ByteArrayInputStream(messageToBytesWithLength(expectedResponse)));
+    when(mockSocket.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+
+    assertThrows(VerifyException.class, () -> resolver.send(simpleQuery));
+
+    verify(mockSocket).close();
+    assertThat(connections)
+        .hasValueForLabels(1, "created")
+        .and()
+        .hasValueForLabels(1, "discarded")
+        .and()
+        .hasNoOtherValues();
+  }
+
+  @Test
+  public void testSharedPool_separateForDifferentSettings() {
+    DnsConnectionPool pool =
+        DnsConnectionPool.getShared(
+            mockFactory, UPDATE_HOST, Duration.ZERO, 2, IDLE_TIMEOUT, clock);
+    assertThat(
+            DnsConnectionPool.getShared(
+                mockFactory, UPDATE_HOST, Duration.ZERO, 2, IDLE_TIMEOUT, clock))
+        .isSameAs(pool);
+    assertThat(
+            DnsConnectionPool.getShared(
+                mockFactory, UPDATE_HOST, Duration.standardSeconds(1), 2, IDLE_TIMEOUT, clock))
+        .isNotSameAs(pool);
+    assertThat(
+            DnsConnectionPool.getShared(
+                mockFactory, UPDATE_HOST, Duration.ZERO, 5, IDLE_TIMEOUT, clock))
+        .isNotSameAs(pool);
+  }
+
+  @Test
+  public void testFakeServer_connectionReused() throws Exception {
+    server = new FakeDnsServer();
+    DnsMessageTransport transport = createTransport(server.socketFactory(), Duration.ZERO);
+
+    transport.send(new Message(1));
+    transport.send(new Message(2));
+    transport.send(new Message(3));
+
+    assertThat(server.getConnectionCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testFakeServer_idleConnectionExpired() throws Exception {
+    server = new FakeDnsServer();
+    DnsMessageTransport transport = createTransport(server.socketFactory(), Duration.ZERO);
+
+    transport.send(new Message(1));
+    clock.advanceBy(IDLE_TIMEOUT.plus(1));
+    transport.send(new Message(2));
+
+    assertThat(server.getConnectionCount()).isEqualTo(2);
+    assertThat(connections).hasValueForLabels(1, "expired");
+  }
+
+  @Test
+  public void testFakeServer_connectionClosedByServer_retriedOnNewConnection() throws Exception {
+    server = new FakeDnsServer();
+    DnsMessageTransport transport = createTransport(server.socketFactory(), Duration.ZERO);
+
+    transport.send(new Message(1));
+    server.closeConnections();
+    Message response = transport.send(new Message(2));
+
+    assertThat(response.getHeader().getID()).isEqualTo(2);
+    assertThat(server.getConnectionCount()).isEqualTo(2);
+    assertThat(connections).hasValueForLabels(1, "discarded");
+  }
+
+  private DnsMessageTransport createTransport(SocketFactory factory, Duration timeout) {
+    return new DnsMessageTransport(
+        new DnsConnectionPool(factory, UPDATE_HOST, timeout, 2, IDLE_TIMEOUT, clock), clock);
+  }
+
   private Message responseMessageWithCode(Message query, int responseCode) {
     Message message = new Message(query.getHeader().getID());
     message.getHeader().setOpcode(query.getHeader().getOpcode());
@@ -187,4 +315,104 @@ public class DnsMessageTransportTest {
     buffer.put(bytes);
     return buffer.array();
   }
+
+  /** An in-process DNS server that answers every message with an empty NOERROR response. */
+  private static final class FakeDnsServer {
+
+    private final ServerSocket serverSocket;
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final List<Socket> sockets = new ArrayList<>();
+
+    FakeDnsServer() throws IOException {
+      this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+      Thread thread = new Thread(this::acceptConnections);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    /** Returns a socket factory that connects to this server instead of the requested address. */
+    SocketFactory socketFactory() {
+      return new SocketFactory() {
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+          return new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Socket createSocket(
+            InetAddress address, int port, InetAddress localAddress, int localPort) {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    int getConnectionCount() {
+      return connectionCount.get();
+    }
+
+    /** Closes all connections the server has accepted so far, as if they had timed out. */
+    synchronized void closeConnections() throws IOException {
+      for (Socket socket : sockets) {
+        socket.close();
+      }
+      sockets.clear();
+    }
+
+    void close() throws IOException {
+      serverSocket.close();
+      closeConnections();
+    }
+
+    private void acceptConnections() {
+      try {
+        while (true) {
+          Socket socket = serverSocket.accept();
+          connectionCount.incrementAndGet();
+          synchronized (this) {
+            sockets.add(socket);
+          }
+          Thread thread = new Thread(() -> serve(socket));
+          thread.setDaemon(true);
+          thread.start();
+        }
+      } catch (IOException e) {
+        // The server socket was closed.
+      }
+    }
+
+    private void serve(Socket socket) {
+      try {
+        DataInputStream input = new DataInputStream(socket.getInputStream());
+        OutputStream output = socket.getOutputStream();
+        while (true) {
+          byte[] messageData = new byte[input.readUnsignedShort()];
+          input.readFully(messageData);
+          Message query = new Message(messageData);
+          Message response = new Message(query.getHeader().getID());
+          response.getHeader().setOpcode(query.getHeader().getOpcode());
+          response.getHeader().setFlag(Flags.QR);
+          byte[] responseData = response.toWire();
+          ByteBuffer buffer =
+              ByteBuffer.allocate(
+                  responseData.length + DnsMessageTransport.MESSAGE_LENGTH_FIELD_BYTES);
+          buffer.putShort((short) responseData.length);
+          buffer.put(responseData);
+          output.write(buffer.array());
+          output.flush();
+        }
+      } catch (IOException e) {
+        // The connection was closed.
+      }
+    }
+  }
 }
@@ -267,6 +267,35 @@ public class DnsUpdateWriterTest {
     assertThatTotalUpdateSetsIs(update, 5);
   }
 
+  @Test
+  public void testPublishHostCreate_prefetched_publishesAddressRecords() throws Exception {
+    HostResource host =
+        persistResource(
+            newHostResource("ns1.example.tld")
+                .asBuilder()
+                .setInetAddresses(ImmutableSet.of(InetAddresses.forString("10.0.0.1")))
+                .build());
+    persistResource(
+        newDomainResource("example.tld")
+            .asBuilder()
+            .addSubordinateHost("ns1.example.tld")
+            .addNameservers(ImmutableSet.of(Key.create(host)))
+            .build());
+
+    writer.prefetch(ImmutableSet.of(), ImmutableSet.of("ns1.example.tld"));
+    writer.publishHost("ns1.example.tld");
+    writer.commit();
+
+    verify(mockResolver).send(updateCaptor.capture());
+    Update update = updateCaptor.getValue();
+    assertThatUpdatedZoneIs(update, "tld.");
+    assertThatUpdateDeletes(update, "example.tld.", Type.ANY);
+    assertThatUpdateDeletes(update, "ns1.example.tld.", Type.ANY);
+    assertThatUpdateAdds(update, "ns1.example.tld.", Type.A, "10.0.0.1");
+    assertThatUpdateAdds(update, "example.tld.", Type.NS, "ns1.example.tld.");
+    assertThatTotalUpdateSetsIs(update, 4);
+  }
+
   @Test
   public void testPublishHostDelete_removesDnsRecords() throws Exception {
     persistDeletedHost("ns1.example.tld", clock.nowUtc().minusDays(1));
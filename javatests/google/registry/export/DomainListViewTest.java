@@ -0,0 +1,111 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.export;
+
+import static com.google.appengine.tools.cloudstorage.GcsServiceFactory.createGcsService;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth8.assertThat;
+import static google.registry.util.DateTimeUtils.END_OF_TIME;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.appengine.tools.cloudstorage.GcsService;
+import google.registry.export.DomainListView.Changes;
+import google.registry.export.DomainListView.Entry;
+import google.registry.export.DomainListView.Merged;
+import google.registry.testing.AppEngineRule;
+import org.joda.time.DateTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link DomainListView}. */
+@RunWith(JUnit4.class)
+public class DomainListViewTest {
+
+  @Rule public final AppEngineRule appEngine = AppEngineRule.builder().withDatastore().build();
+
+  private final GcsService gcsService = createGcsService();
+  private final DateTime now = DateTime.parse("2018-06-01T00:00:00Z");
+
+  private String update(boolean oldViewExists, Changes changes, DateTime checkpointTime)
+      throws Exception {
+    Merged merged = DomainListView.merge(gcsService, "views", "tld", oldViewExists, changes, now);
+    DomainListView.write(gcsService, "views", "tld", merged, checkpointTime);
+    return new String(merged.getDomainList(), UTF_8);
+  }
+
+  @Test
+  public void testEntry_lineRoundTrip() {
+    Entry entry = Entry.parse(new Entry("example.tld", "2-TLD", END_OF_TIME).toLine());
+    assertThat(entry.fullyQualifiedDomainName).isEqualTo("example.tld");
+    assertThat(entry.repoId).isEqualTo("2-TLD");
+    assertThat(entry.deletionTime).isEqualTo(END_OF_TIME);
+  }
+
+  @Test
+  public void testUpdate_mergesChangesIntoOldView() throws Exception {
+    Changes initial = new Changes();
+    initial.put(new Entry("c.tld", "3-TLD", END_OF_TIME));
+    initial.put(new Entry("a.tld", "1-TLD", END_OF_TIME));
+    initial.put(new Entry("e.tld", "5-TLD", END_OF_TIME));
+    initial.put(new Entry("pending.tld", "6-TLD", now.plusDays(1)));
+    assertThat(update(false, initial, now)).isEqualTo("a.tld\nc.tld\ne.tld\npending.tld");
+    assertThat(DomainListView.getCheckpointTime(gcsService, "views", "tld")).hasValue(now);
+
+    Changes changes = new Changes();
+    changes.put(new Entry("b.tld", "2-TLD", END_OF_TIME));
+    changes.put(new Entry("f.tld", "7-TLD", END_OF_TIME));
+    changes.delete("3-TLD");
+    // A new domain of the same name replaces the old one.
+    changes.put(new Entry("e.tld", "8-TLD", END_OF_TIME));
+    assertThat(update(true, changes, now.plusHours(1)))
+        .isEqualTo("a.tld\nb.tld\ne.tld\nf.tld\npending.tld");
+    assertThat(DomainListView.getCheckpointTime(gcsService, "views", "tld"))
+        .hasValue(now.plusHours(1));
+  }
+
+  @Test
+  public void testUpdate_prunesDeletedEntries() throws Exception {
+    Changes initial = new Changes();
+    initial.put(new Entry("a.tld", "1-TLD", now));
+    initial.put(new Entry("b.tld", "2-TLD", now.plusMillis(1)));
+    assertThat(update(false, initial, null)).isEqualTo("b.tld");
+    assertThat(DomainListView.getCheckpointTime(gcsService, "views", "tld")).isEmpty();
+  }
+
+  @Test
+  public void testMerge_doesNotWriteView() throws Exception {
+    Changes changes = new Changes();
+    changes.put(new Entry("a.tld", "1-TLD", END_OF_TIME));
+    Merged merged = DomainListView.merge(gcsService, "views", "tld", false, changes, now);
+    assertThat(merged.getDomainCount()).isEqualTo(1);
+    assertThat(new String(merged.getDomainList(), UTF_8)).isEqualTo("a.tld");
+    assertThat(DomainListView.getCheckpointTime(gcsService, "views", "tld")).isEmpty();
+    assertThat(gcsService.getMetadata(new GcsFilename("views", "tld"))).isNull();
+  }
+
+  @Test
+  public void testUpdate_emptyView() throws Exception {
+    assertThat(update(false, new Changes(), now)).isEmpty();
+    assertThat(update(true, new Changes(), now)).isEmpty();
+  }
+
+  @Test
+  public void testGetCheckpointTime_noView() throws Exception {
+    assertThat(DomainListView.getCheckpointTime(gcsService, "views", "tld")).isEmpty();
+  }
+}
@@ -18,31 +18,45 @@ import static com.google.appengine.tools.cloudstorage.GcsServiceFactory.createGc
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.export.ExportDomainListsAction.ExportDomainListsReducer.EXPORT_MIME_TYPE;
 import static google.registry.export.ExportDomainListsAction.ExportDomainListsReducer.REGISTERED_DOMAINS_FILENAME;
+import static google.registry.model.ofy.CommitLogBucket.getBucketIds;
+import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.newDomainResource;
 import static google.registry.testing.DatastoreHelper.persistActiveDomain;
 import static google.registry.testing.DatastoreHelper.persistActiveDomainApplication;
 import static google.registry.testing.DatastoreHelper.persistDeletedDomain;
 import static google.registry.testing.DatastoreHelper.persistResource;
+import static google.registry.testing.DatastoreHelper.persistResourceWithCommitLog;
 import static google.registry.testing.GcsTestingUtils.readGcsFile;
 import static google.registry.testing.JUnitBackports.assertThrows;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.joda.time.DateTimeZone.UTC;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 
+import com.google.appengine.tools.cloudstorage.GcsFileOptions;
 import com.google.appengine.tools.cloudstorage.GcsFilename;
 import com.google.appengine.tools.cloudstorage.GcsService;
 import com.google.appengine.tools.cloudstorage.ListOptions;
 import com.google.appengine.tools.cloudstorage.ListResult;
+import com.google.common.collect.Maps;
 import google.registry.export.ExportDomainListsAction.ExportDomainListsReducer;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.ofy.CommitLogCheckpoint;
+import google.registry.model.ofy.CommitLogCheckpointRoot;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.Registry.TldType;
 import google.registry.storage.drive.DriveConnection;
+import google.registry.testing.FakeClock;
 import google.registry.testing.FakeResponse;
 import google.registry.testing.mapreduce.MapreduceTestCase;
 import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -53,6 +67,7 @@ import org.mockito.ArgumentCaptor;
 @RunWith(JUnit4.class)
 public class ExportDomainListsActionTest extends MapreduceTestCase<ExportDomainListsAction> {
 
+  private final FakeClock clock = new FakeClock(DateTime.now(UTC));
   private GcsService gcsService;
   private DriveConnection driveConnection = mock(DriveConnection.class);
   private ArgumentCaptor<byte[]> bytesExportedToDrive = ArgumentCaptor.forClass(byte[].class);
@@ -70,15 +85,36 @@ public class ExportDomainListsActionTest extends MapreduceTestCase<ExportDomainL
     action.mrRunner = makeDefaultRunner();
     action.response = new FakeResponse();
     action.gcsBucket = "outputbucket";
+    action.viewsGcsBucket = "viewsbucket";
     action.gcsBufferSize = 500;
+    action.datastoreRetention = Duration.standardDays(30);
+    action.clock = clock;
     gcsService = createGcsService();
+    action.gcsService = gcsService;
   }
 
   private void runMapreduce() throws Exception {
+    clock.setTo(DateTime.now(UTC));
     action.run();
     executeTasksUntilEmpty("mapreduce");
   }
 
+  /** Saves a commit log checkpoint at the given time, as the latest one. */
+  private static void saveCheckpoint(DateTime checkpointTime) {
+    ofy()
+        .saveWithoutBackup()
+        .entities(
+            CommitLogCheckpoint.create(
+                checkpointTime, Maps.toMap(getBucketIds(), bucketId -> checkpointTime)),
+            CommitLogCheckpointRoot.create(checkpointTime))
+        .now();
+  }
+
+  private String readDomainList(String tld) throws Exception {
+    return new String(
+        readGcsFile(gcsService, new GcsFilename("outputbucket", tld + ".txt")), UTF_8);
+  }
+
   private void verifyExportedToDrive(String folderId, String domains) throws Exception {
     verify(driveConnection)
         .createOrUpdateFile(
@@ -165,4 +201,87 @@ public class ExportDomainListsActionTest extends MapreduceTestCase<ExportDomainL
     verifyExportedToDrive("brouhaha", "chilipepper.tld");
     verifyNoMoreInteractions(driveConnection);
   }
+
+  @Test
+  public void test_incremental_appliesCommitLogsSinceLastExport() throws Exception {
+    persistActiveDomain("keep.tld");
+    DomainResource gone = persistActiveDomain("gone.tld");
+    saveCheckpoint(clock.nowUtc().minusHours(1));
+    runMapreduce();
+    assertThat(readDomainList("tld")).isEqualTo("gone.tld\nkeep.tld");
+
+    persistResourceWithCommitLog(newDomainResource("added.tld"));
+    persistResourceWithCommitLog(
+        gone.asBuilder().setDeletionTime(clock.nowUtc().minusMinutes(1)).build());
+    // A deleted domain whose resource is saved again doesn't remove a live domain of its name.
+    DomainResource keepDeleted = persistDeletedDomain("keep.tld", clock.nowUtc().minusDays(1));
+    persistResourceWithCommitLog(keepDeleted);
+    saveCheckpoint(clock.nowUtc().plusHours(1));
+    action.response = new FakeResponse();
+    clock.setTo(DateTime.now(UTC));
+    action.run();
+
+    assertThat(((FakeResponse) action.response).getPayload()).contains("incrementally");
+    assertThat(readDomainList("tld")).isEqualTo("added.tld\nkeep.tld");
+    verify(driveConnection, times(2))
+        .createOrUpdateFile(
+            eq(REGISTERED_DOMAINS_FILENAME),
+            eq(EXPORT_MIME_TYPE),
+            eq("brouhaha"),
+            bytesExportedToDrive.capture());
+    assertThat(new String(bytesExportedToDrive.getValue(), UTF_8))
+        .isEqualTo("added.tld\nkeep.tld");
+  }
+
+  @Test
+  public void test_incremental_tldWithoutDomains_exportsNoList() throws Exception {
+    createTld("empty");
+    persistActiveDomain("onetwo.tld");
+    saveCheckpoint(clock.nowUtc().minusHours(1));
+    runMapreduce();
+    persistResourceWithCommitLog(newDomainResource("rudnitzky.tld"));
+    saveCheckpoint(clock.nowUtc().plusHours(1));
+    action.response = new FakeResponse();
+    clock.setTo(DateTime.now(UTC));
+    action.run();
+
+    assertThat(((FakeResponse) action.response).getPayload()).contains("incrementally");
+    assertThat(readDomainList("tld")).isEqualTo("onetwo.tld\nrudnitzky.tld");
+    assertThrows(FileNotFoundException.class, () -> readDomainList("empty"));
+  }
+
+  @Test
+  public void test_incremental_malformedView_rebuildsLists() throws Exception {
+    DateTime checkpointTime = clock.nowUtc().minusHours(1);
+    persistActiveDomain("onetwo.tld");
+    saveCheckpoint(checkpointTime);
+    runMapreduce();
+    gcsService.createOrReplace(
+        new GcsFilename("viewsbucket", "tld"),
+        new GcsFileOptions.Builder()
+            .addUserMetadata(DomainListView.CHECKPOINT_TIME, checkpointTime.toString())
+            .build(),
+        ByteBuffer.wrap("not a view line\n".getBytes(UTF_8)));
+    persistResourceWithCommitLog(newDomainResource("rudnitzky.tld"));
+    saveCheckpoint(clock.nowUtc().plusHours(1));
+    action.response = new FakeResponse();
+    runMapreduce();
+
+    assertThat(((FakeResponse) action.response).getPayload()).doesNotContain("incrementally");
+    assertThat(readDomainList("tld")).isEqualTo("onetwo.tld\nrudnitzky.tld");
+  }
+
+  @Test
+  public void test_incremental_viewsTooOld_rebuildsLists() throws Exception {
+    persistActiveDomain("onetwo.tld");
+    saveCheckpoint(clock.nowUtc().minusDays(31));
+    runMapreduce();
+    persistResourceWithCommitLog(newDomainResource("rudnitzky.tld"));
+    saveCheckpoint(clock.nowUtc());
+    action.response = new FakeResponse();
+    runMapreduce();
+
+    assertThat(((FakeResponse) action.response).getPayload()).doesNotContain("incrementally");
+    assertThat(readDomainList("tld")).isEqualTo("onetwo.tld\nrudnitzky.tld");
+  }
 }
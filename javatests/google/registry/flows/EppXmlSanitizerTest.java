@@ -15,14 +15,22 @@
 package google.registry.flows;
 
 import static com.google.common.truth.Truth.assertThat;
+import static google.registry.flows.EppXmlSanitizer.sanitizeAndPrettyPrintEppXml;
 import static google.registry.flows.EppXmlSanitizer.sanitizeEppXml;
 import static google.registry.testing.TestDataHelper.loadBytes;
+import static google.registry.testing.TestDataHelper.loadFile;
 import static java.nio.charset.StandardCharsets.UTF_16LE;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import google.registry.testing.EppLoader;
+import java.io.ByteArrayInputStream;
 import java.util.Base64;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -138,4 +146,53 @@ public class EppXmlSanitizerTest {
     String sanitizedXml = sanitizeEppXml(inputXml.getBytes(UTF_16LE));
     assertThat(sanitizedXml).isEqualTo(inputXml);
   }
+
+  @Test
+  public void testSanitizeAndPrettyPrint_prettyPrintedInput_onlyPasswordChanged() {
+    String inputXml = loadFile(getClass(), "domain_create_prettyprinted.xml");
+    assertThat(sanitizeAndPrettyPrintEppXml(parseEvents(inputXml.getBytes(UTF_8))))
+        .isEqualTo(inputXml.replace("2fooBAR", "*******"));
+  }
+
+  @Test
+  public void testSanitizeAndPrettyPrint_loginPasswords_sanitized() {
+    byte[] inputXmlBytes =
+        new EppLoader(
+                this,
+                "login_update_password.xml",
+                ImmutableMap.of("PW", "oldpass", "NEWPW", "newPw"))
+            .getEppXml()
+            .getBytes(UTF_8);
+    String prettyXml = sanitizeAndPrettyPrintEppXml(parseEvents(inputXmlBytes));
+    assertThat(prettyXml).contains("<pw>*******</pw>");
+    assertThat(prettyXml).contains("<newPW>*****</newPW>");
+    assertThat(prettyXml).doesNotContain("oldpass");
+    assertThat(prettyXml).doesNotContain("newPw");
+  }
+
+  @Test
+  public void testSanitizeAndPrettyPrint_emptyElement_shortForm() {
+    assertThat(sanitizeAndPrettyPrintEppXml(parseEvents("<pw/>".getBytes(UTF_8))))
+        .isEqualTo("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n<pw/>\n");
+  }
+
+  @Test
+  public void testSanitizeAndPrettyPrint_unicode_hasCorrectCharCount() {
+    assertThat(sanitizeAndPrettyPrintEppXml(parseEvents("<pw>\u007F\u4E43x</pw>".getBytes(UTF_8))))
+        .endsWith("<pw>C**</pw>\n");
+  }
+
+  private static ImmutableList<XMLEvent> parseEvents(byte[] xmlBytes) {
+    try {
+      XMLEventReader xmlEventReader =
+          XMLInputFactory.newFactory().createXMLEventReader(new ByteArrayInputStream(xmlBytes));
+      ImmutableList.Builder<XMLEvent> xmlEvents = new ImmutableList.Builder<>();
+      while (xmlEventReader.hasNext()) {
+        xmlEvents.add(xmlEventReader.nextEvent());
+      }
+      return xmlEvents.build();
+    } catch (XMLStreamException e) {
+      throw new RuntimeException(e);
+    }
+  }
 }
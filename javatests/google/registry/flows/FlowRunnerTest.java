@@ -26,10 +26,12 @@ import static org.mockito.Mockito.verify;
 import com.google.appengine.api.users.User;
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.LoggerConfig;
 import com.google.common.testing.TestLogHandler;
 import google.registry.model.eppcommon.Trid;
+import google.registry.model.eppinput.EppInput;
 import google.registry.model.eppoutput.EppOutput.ResponseOrGreeting;
 import google.registry.model.eppoutput.EppResponse;
 import google.registry.monitoring.whitebox.EppMetric;
@@ -39,6 +41,7 @@ import google.registry.testing.FakeHttpSession;
 import google.registry.testing.ShardableTestCase;
 import java.util.List;
 import java.util.Optional;
+import javax.xml.stream.events.XMLEvent;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -74,6 +77,7 @@ public class FlowRunnerTest extends ShardableTestCase {
     flowRunner.flowProvider = TestCommandFlow::new;
     flowRunner.flowClass = TestCommandFlow.class;
     flowRunner.inputXmlBytes = "<xml/>".getBytes(UTF_8);
+    flowRunner.inputXmlEvents = ImmutableList.of();
     flowRunner.isDryRun = false;
     flowRunner.isSuperuser = false;
     flowRunner.isTransactional = false;
@@ -184,4 +188,22 @@ public class FlowRunnerTest extends ShardableTestCase {
     String xml = Joiner.on('\n').join(lines.subList(3, lines.size() - 4));
     assertThat(xml).isEqualTo(sanitizedDomainCreateXml);
   }
+
+  @Test
+  public void testRun_loggingStatement_complexEppInputFromRecordedEvents() throws Exception {
+    String domainCreateXml = loadFile(getClass(), "domain_create_prettyprinted.xml");
+    String sanitizedDomainCreateXml = domainCreateXml.replace("2fooBAR", "*******");
+    ImmutableList.Builder<XMLEvent> inputXmlEvents = new ImmutableList.Builder<>();
+    EppXmlTransformer.unmarshal(
+        EppInput.class, domainCreateXml.getBytes(UTF_8), inputXmlEvents::add);
+    // Garbage bytes prove that the log is rendered from the events and not by reparsing.
+    flowRunner.inputXmlBytes = "<garbage".getBytes(UTF_8);
+    flowRunner.inputXmlEvents = inputXmlEvents.build();
+    flowRunner.run(eppMetricBuilder);
+    String logMessage = findFirstLogMessageByPrefix(handler, "EPP Command\n\t");
+    List<String> lines = Splitter.on("\n\t").splitToList(logMessage);
+    assertThat(lines.size()).named("number of lines in log message").isAtLeast(9);
+    String xml = Joiner.on('\n').join(lines.subList(3, lines.size() - 4));
+    assertThat(xml).isEqualTo(sanitizedDomainCreateXml);
+  }
 }
@@ -15,9 +15,11 @@
 package google.registry.flows.async;
 
 import static com.google.appengine.api.taskqueue.QueueFactory.getQueue;
+import static google.registry.flows.async.AsyncFlowEnqueuer.PARAM_CLIENT_ID;
 import static google.registry.flows.async.AsyncFlowEnqueuer.PARAM_REQUESTED_TIME;
 import static google.registry.flows.async.AsyncFlowEnqueuer.PARAM_RESAVE_TIMES;
 import static google.registry.flows.async.AsyncFlowEnqueuer.PARAM_RESOURCE_KEY;
+import static google.registry.flows.async.AsyncFlowEnqueuer.PATH_RECOUNT_POLL_MESSAGES;
 import static google.registry.flows.async.AsyncFlowEnqueuer.PATH_RESAVE_ENTITY;
 import static google.registry.flows.async.AsyncFlowEnqueuer.QUEUE_ASYNC_ACTIONS;
 import static google.registry.flows.async.AsyncFlowEnqueuer.QUEUE_ASYNC_DELETE;
@@ -35,6 +37,7 @@ import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.flogger.LoggerConfig;
 import com.googlecode.objectify.Key;
 import google.registry.model.contact.ContactResource;
+import google.registry.model.poll.PollMessageQueue;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.FakeClock;
 import google.registry.testing.FakeSleeper;
@@ -136,4 +139,21 @@ public class AsyncFlowEnqueuerTest extends ShardableTestCase {
     assertNoTasksEnqueued(QUEUE_ASYNC_ACTIONS);
     assertLogMessage(logHandler, Level.INFO, "Ignoring async re-save");
   }
+
+  @Test
+  public void test_enqueuePollMessageRecount_onlyEnqueuedOnce() {
+    PollMessageQueue queue = PollMessageQueue.load("TheRegistrar", clock.nowUtc());
+    asyncFlowEnqueuer.enqueuePollMessageRecount(queue);
+    asyncFlowEnqueuer.enqueuePollMessageRecount(queue);
+    assertTasksEnqueued(
+        QUEUE_ASYNC_ACTIONS,
+        new TaskMatcher()
+            .taskName("recountPollMessages-VGhlUmVnaXN0cmFy-1431952496000")
+            .url(PATH_RECOUNT_POLL_MESSAGES)
+            .method("POST")
+            .header("Host", "backend.hostname.fake")
+            .header("content-type", "application/x-www-form-urlencoded")
+            .param(PARAM_CLIENT_ID, "TheRegistrar"));
+    assertLogMessage(logHandler, Level.INFO, "is already enqueued");
+  }
 }
@@ -303,6 +303,18 @@ public class DomainCheckFlowTest
         create(true, "example3.tld", null));
   }
 
+  @Test
+  public void testSuccess_pendingApplicationsForSeveralNames() throws Exception {
+    createTld("tld", TldState.GENERAL_AVAILABILITY);
+    persistResource(newDomainApplication("example1.tld").asBuilder().build());
+    persistResource(
+        newDomainApplication("example3.tld").asBuilder().setPhase(LaunchPhase.LANDRUSH).build());
+    doCheckTest(
+        create(false, "example1.tld", "Pending allocation"),
+        create(true, "example2.tld", null),
+        create(false, "example3.tld", "Pending allocation"));
+  }
+
   @Test
   public void testSuccess_pendingSunriseApplicationInSunrise() throws Exception {
     createTld("tld", TldState.SUNRISE);
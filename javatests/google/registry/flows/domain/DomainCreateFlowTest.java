@@ -14,6 +14,7 @@
 
 package google.registry.flows.domain;
 
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.common.io.BaseEncoding.base16;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth8.assertThat;
@@ -136,6 +137,7 @@ import google.registry.flows.exceptions.ResourceAlreadyExistsException;
 import google.registry.model.billing.BillingEvent;
 import google.registry.model.billing.BillingEvent.Flag;
 import google.registry.model.billing.BillingEvent.Reason;
+import google.registry.model.domain.DomainBase;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.domain.GracePeriod;
 import google.registry.model.domain.launch.ApplicationStatus;
@@ -144,6 +146,7 @@ import google.registry.model.domain.rgp.GracePeriodStatus;
 import google.registry.model.domain.secdns.DelegationSignerData;
 import google.registry.model.domain.token.AllocationToken;
 import google.registry.model.eppcommon.StatusValue;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.poll.PendingActionNotificationResponse.DomainPendingActionNotificationResponse;
 import google.registry.model.poll.PollMessage;
 import google.registry.model.registrar.Registrar;
@@ -727,6 +730,35 @@ public class DomainCreateFlowTest extends ResourceFlowTestCase<DomainCreateFlow,
     doSuccessfulTest();
   }
 
+  @Test
+  public void testSuccess_maxNumberOfNameservers_cachingDisabled() throws Exception {
+    RegistryConfig.overrideIsEppResourceCachingEnabledForTesting(false);
+    setEppInput("domain_create_13_nameservers.xml");
+    persistContactsAndHosts();
+    doSuccessfulTest();
+    assertThat(ofy().load().type(DomainReferenceIndex.class)).isEmpty();
+  }
+
+  @Test
+  public void testSuccess_maxNumberOfNameservers_cachingDisabled_writesDomainReferenceIndex()
+      throws Exception {
+    // The reference index entries of all 13 nameservers are in separate entity groups, so they are
+    // saved in their own transaction rather than in the flow's.
+    inject.setStaticField(DomainReferenceIndex.class, "writeDomainReferenceIndex", true);
+    RegistryConfig.overrideIsEppResourceCachingEnabledForTesting(false);
+    setEppInput("domain_create_13_nameservers.xml");
+    persistContactsAndHosts();
+    doSuccessfulTest();
+    DomainResource domain = reloadResourceByForeignKey();
+    Key<DomainBase> domainKey = Key.create(domain);
+    assertThat(ofy().load().type(DomainReferenceIndex.class).keys())
+        .containsExactlyElementsIn(
+            DomainReferenceIndex.getReferences(domain)
+                .stream()
+                .map(referentKey -> DomainReferenceIndex.createKey(referentKey, domainKey))
+                .collect(toImmutableSet()));
+  }
+
   @Test
   public void testSuccess_secDns() throws Exception {
     setEppInput("domain_create_dsdata_no_maxsiglife.xml");
@@ -14,6 +14,8 @@
 
 package google.registry.flows.domain;
 
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static com.google.common.collect.Sets.difference;
 import static com.google.common.collect.Sets.union;
 import static com.google.common.io.BaseEncoding.base16;
 import static com.google.common.truth.Truth.assertThat;
@@ -83,12 +85,14 @@ import google.registry.model.billing.BillingEvent.Reason;
 import google.registry.model.contact.ContactResource;
 import google.registry.model.domain.DesignatedContact;
 import google.registry.model.domain.DesignatedContact.Type;
+import google.registry.model.domain.DomainBase;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.domain.GracePeriod;
 import google.registry.model.domain.rgp.GracePeriodStatus;
 import google.registry.model.domain.secdns.DelegationSignerData;
 import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.host.HostResource;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.registry.Registry;
 import google.registry.model.reporting.HistoryEntry;
 import org.joda.money.Money;
@@ -420,6 +424,40 @@ public class DomainUpdateFlowTest extends ResourceFlowTestCase<DomainUpdateFlow,
     doSuccessfulTest();
   }
 
+  @Test
+  public void testSuccess_maxNumberOfNameservers_cachingDisabled() throws Exception {
+    RegistryConfig.overrideIsEppResourceCachingEnabledForTesting(false);
+    persistReferencedEntities();
+    persistDomain();
+    modifyDomainToHave13Nameservers();
+    doSuccessfulTest();
+    assertThat(ofy().load().type(DomainReferenceIndex.class)).isEmpty();
+  }
+
+  @Test
+  public void testSuccess_maxNumberOfNameservers_cachingDisabled_writesDomainReferenceIndex()
+      throws Exception {
+    inject.setStaticField(DomainReferenceIndex.class, "writeDomainReferenceIndex", true);
+    RegistryConfig.overrideIsEppResourceCachingEnabledForTesting(false);
+    persistReferencedEntities();
+    persistDomain();
+    modifyDomainToHave13Nameservers();
+    DomainResource existingDomain = reloadResourceByForeignKey();
+    doSuccessfulTest();
+    // Only the added nameserver gets an entry, saved outside of the flow's transaction.
+    DomainResource updatedDomain = reloadResourceByForeignKey();
+    Key<DomainBase> domainKey = Key.create(updatedDomain);
+    assertThat(ofy().load().type(DomainReferenceIndex.class).keys())
+        .containsExactlyElementsIn(
+            difference(
+                    DomainReferenceIndex.getReferences(updatedDomain),
+                    DomainReferenceIndex.getReferences(existingDomain))
+                .stream()
+                .map(referentKey -> DomainReferenceIndex.createKey(referentKey, domainKey))
+                .collect(toImmutableSet()));
+    assertThat(ofy().load().type(DomainReferenceIndex.class)).isNotEmpty();
+  }
+
   @Test
   public void testSuccess_addAndRemoveLargeNumberOfNameserversAndContacts() throws Exception {
     persistReferencedEntities();
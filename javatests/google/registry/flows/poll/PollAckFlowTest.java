@@ -15,6 +15,7 @@
 package google.registry.flows.poll;
 
 import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.testing.DatastoreHelper.createHistoryEntryForEppResource;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.newDomainResource;
@@ -32,6 +33,7 @@ import google.registry.flows.poll.PollAckFlow.NotAuthorizedToAckMessageException
 import google.registry.model.contact.ContactResource;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.poll.PollMessage;
+import google.registry.model.poll.PollMessageQueue;
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Test;
@@ -170,6 +172,15 @@ public class PollAckFlowTest extends FlowTestCase<PollAckFlow> {
             ImmutableMap.of("MSGID", "1-3-EXAMPLE-4-3-2011", "COUNT", "4")));
   }
 
+  @Test
+  public void testSuccess_doesNotWriteQueue() throws Exception {
+    for (int i = 0; i < 5; i++) {
+      persistOneTimePollMessage(MESSAGE_ID + i);
+    }
+    runFlow();
+    assertThat(ofy().load().key(PollMessageQueue.createKey(getClientIdForFlow())).now()).isNull();
+  }
+
   @Test
   public void testFailure_noSuchMessage() throws Exception {
     assertTransactionalFlow(true);
@@ -14,6 +14,9 @@
 
 package google.registry.flows.poll;
 
+import static google.registry.flows.async.AsyncFlowEnqueuer.PARAM_CLIENT_ID;
+import static google.registry.flows.async.AsyncFlowEnqueuer.PATH_RECOUNT_POLL_MESSAGES;
+import static google.registry.flows.async.AsyncFlowEnqueuer.QUEUE_ASYNC_ACTIONS;
 import static google.registry.testing.DatastoreHelper.createHistoryEntryForEppResource;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.newDomainResource;
@@ -22,6 +25,8 @@ import static google.registry.testing.DatastoreHelper.persistActiveHost;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.testing.EppExceptionSubject.assertAboutEppExceptions;
 import static google.registry.testing.JUnitBackports.assertThrows;
+import static google.registry.testing.TaskQueueHelper.assertNoTasksEnqueued;
+import static google.registry.testing.TaskQueueHelper.assertTasksEnqueued;
 
 import com.google.common.collect.ImmutableList;
 import google.registry.flows.EppException;
@@ -33,7 +38,9 @@ import google.registry.model.eppcommon.Trid;
 import google.registry.model.host.HostResource;
 import google.registry.model.poll.PendingActionNotificationResponse.DomainPendingActionNotificationResponse;
 import google.registry.model.poll.PollMessage;
+import google.registry.model.poll.PollMessageQueue;
 import google.registry.model.reporting.HistoryEntry;
+import google.registry.testing.TaskQueueHelper.TaskMatcher;
 import google.registry.model.transfer.TransferResponse.ContactTransferResponse;
 import google.registry.model.transfer.TransferResponse.DomainTransferResponse;
 import google.registry.model.transfer.TransferStatus;
@@ -85,6 +92,22 @@ public class PollRequestFlowTest extends FlowTestCase<PollRequestFlow> {
     persistPendingTransferPollMessage();
     assertTransactionalFlow(false);
     runFlowAssertResponse(loadFile("poll_response_domain_transfer.xml"));
+    assertNoTasksEnqueued(QUEUE_ASYNC_ACTIONS);
+  }
+
+  @Test
+  public void testSuccess_queueDueForRecount_enqueuesRecount() throws Exception {
+    persistPendingTransferPollMessage();
+    PollMessageQueue.load(getClientIdForFlow(), clock.nowUtc()).saveIfNeeded();
+    PollMessageQueue.markForRecount(getClientIdForFlow(), clock.nowUtc());
+    runFlowAssertResponse(loadFile("poll_response_domain_transfer.xml"));
+    assertTasksEnqueued(
+        QUEUE_ASYNC_ACTIONS,
+        new TaskMatcher()
+            .url(PATH_RECOUNT_POLL_MESSAGES)
+            .method("POST")
+            .header("Host", "backend.hostname.fake")
+            .param(PARAM_CLIENT_ID, getClientIdForFlow()));
   }
 
   @Test
@@ -16,13 +16,18 @@ package google.registry.model;
 
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.model.EppResourceUtils.loadAtPointInTime;
+import static google.registry.model.EppResourceUtils.loadByForeignKeys;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.newHostResource;
+import static google.registry.testing.DatastoreHelper.persistActiveHost;
+import static google.registry.testing.DatastoreHelper.persistDeletedHost;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.testing.DatastoreHelper.persistResourceWithCommitLog;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
 import static org.joda.time.DateTimeZone.UTC;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import google.registry.model.host.HostResource;
 import google.registry.model.ofy.Ofy;
 import google.registry.testing.AppEngineRule;
@@ -175,4 +180,22 @@ public class EppResourceUtilsTest {
           .now().getUpdateAutoTimestamp().getTimestamp())
               .isEqualTo(host.getRevisions().firstKey());
   }
+
+  @Test
+  public void testLoadByForeignKeys_returnsOnlyExistingResources() {
+    HostResource ns1 = persistActiveHost("ns1.cat.tld");
+    HostResource ns2 = persistActiveHost("ns2.cat.tld");
+    persistDeletedHost("ns3.cat.tld", clock.nowUtc().minusDays(1));
+    ImmutableMap<String, HostResource> hosts =
+        loadByForeignKeys(
+            HostResource.class,
+            ImmutableList.of("ns1.cat.tld", "ns2.cat.tld", "ns3.cat.tld", "ns4.cat.tld"),
+            clock.nowUtc());
+    assertThat(hosts).containsExactly("ns1.cat.tld", ns1, "ns2.cat.tld", ns2);
+  }
+
+  @Test
+  public void testLoadByForeignKeys_emptyForeignKeys_returnsEmptyMap() {
+    assertThat(loadByForeignKeys(HostResource.class, ImmutableList.of(), clock.nowUtc())).isEmpty();
+  }
 }
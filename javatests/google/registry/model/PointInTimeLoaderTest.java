@@ -0,0 +1,149 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.EppResourceUtils.loadAtPointInTime;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.newHostResource;
+import static google.registry.testing.DatastoreHelper.persistResource;
+import static google.registry.testing.DatastoreHelper.persistResourceWithCommitLog;
+import static google.registry.util.DateTimeUtils.START_OF_TIME;
+import static org.joda.time.DateTimeZone.UTC;
+
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import google.registry.model.host.HostResource;
+import google.registry.model.ofy.CommitLogMutation;
+import google.registry.model.ofy.Ofy;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.FakeClock;
+import google.registry.testing.InjectRule;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link PointInTimeLoader}. */
+@RunWith(JUnit4.class)
+public class PointInTimeLoaderTest {
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder()
+      .withDatastore()
+      .withTaskQueue()
+      .build();
+
+  @Rule
+  public final InjectRule inject = new InjectRule();
+
+  private final FakeClock clock = new FakeClock(DateTime.now(UTC));
+
+  @Before
+  public void init() {
+    createTld("tld");
+    inject.setStaticField(Ofy.class, "clock", clock);
+  }
+
+  /** Persists hosts with commit logs, and then changes their sponsors a day later. */
+  private ImmutableList<HostResource> persistHostsChangedAfterADay(String... hostNames) {
+    ImmutableList.Builder<HostResource> oldHosts = new ImmutableList.Builder<>();
+    for (String hostName : hostNames) {
+      oldHosts.add(
+          persistResourceWithCommitLog(
+              newHostResource(hostName)
+                  .asBuilder()
+                  .setCreationTimeForTest(START_OF_TIME)
+                  .setPersistedCurrentSponsorClientId("OLD")
+                  .build()));
+      clock.advanceOneMilli();
+    }
+    // Advance a day so that the next created revision entry doesn't overwrite the existing one.
+    clock.advanceBy(Duration.standardDays(1));
+    ImmutableList.Builder<HostResource> currentHosts = new ImmutableList.Builder<>();
+    for (HostResource oldHost : oldHosts.build()) {
+      currentHosts.add(
+          persistResource(oldHost.asBuilder().setPersistedCurrentSponsorClientId("NEW").build()));
+      clock.advanceOneMilli();
+    }
+    return currentHosts.build();
+  }
+
+  @Test
+  public void testLoadAtPointInTime_matchesEppResourceUtils() {
+    clock.advanceOneMilli();
+    ImmutableList<HostResource> hosts = persistHostsChangedAfterADay("ns1.cat.tld", "ns2.cat.tld");
+    HostResource host1 = hosts.get(0);
+    HostResource host2 = hosts.get(1);
+    DateTime timestamp = clock.nowUtc().minusDays(1);
+    PointInTimeLoader loader = PointInTimeLoader.create(1, 100);
+    assertThat(loader.loadAtPointInTime(hosts, timestamp))
+        .containsExactly(
+            Key.create(host1), loadAtPointInTime(host1, timestamp).now(),
+            Key.create(host2), loadAtPointInTime(host2, timestamp).now())
+        .inOrder();
+    assertThat(loader.loadAtPointInTime(host1, timestamp).getPersistedCurrentSponsorClientId())
+        .isEqualTo("OLD");
+    assertThat(loader.loadAtPointInTime(host1, clock.nowUtc()).getPersistedCurrentSponsorClientId())
+        .isEqualTo("NEW");
+  }
+
+  @Test
+  public void testLoadAtPointInTime_beforeCreated_leftOut() {
+    clock.advanceOneMilli();
+    HostResource host =
+        persistResource(
+            newHostResource("ns1.cat.tld")
+                .asBuilder()
+                .setCreationTimeForTest(clock.nowUtc())
+                .build());
+    PointInTimeLoader loader = PointInTimeLoader.create();
+    assertThat(loader.loadAtPointInTime(host, clock.nowUtc().minusMillis(1))).isNull();
+    assertThat(loader.loadAtPointInTime(ImmutableList.of(host), clock.nowUtc().minusMillis(1)))
+        .isEmpty();
+  }
+
+  @Test
+  public void testLoadAtPointInTime_cachesRewoundResources() {
+    clock.advanceOneMilli();
+    HostResource host = persistHostsChangedAfterADay("ns1.cat.tld").get(0);
+    DateTime timestamp = clock.nowUtc().minusDays(1);
+    PointInTimeLoader loader = PointInTimeLoader.create();
+    HostResource oldHost = loader.loadAtPointInTime(host, timestamp);
+    // Deleting the commit logs would make a fresh rewind fall back to the current resource.
+    ofy().deleteWithoutBackup().keys(ofy().load().type(CommitLogMutation.class).keys()).now();
+    assertThat(loader.loadAtPointInTime(host, timestamp)).isEqualTo(oldHost);
+    assertThat(loader.loadAtPointInTime(Key.create(host), timestamp)).isEqualTo(oldHost);
+    assertThat(PointInTimeLoader.create().loadAtPointInTime(host, timestamp))
+        .isNotEqualTo(oldHost);
+  }
+
+  @Test
+  public void testLoadByKeysAtPointInTime_leavesOutMissingResources() {
+    clock.advanceOneMilli();
+    HostResource host = persistHostsChangedAfterADay("ns1.cat.tld").get(0);
+    DateTime timestamp = clock.nowUtc().minusDays(1);
+    Key<HostResource> missingKey = Key.create(HostResource.class, "missing");
+    assertThat(
+            PointInTimeLoader.create()
+                .loadByKeysAtPointInTime(ImmutableList.of(missingKey, Key.create(host)), timestamp)
+                .keySet())
+        .containsExactly(Key.create(host));
+  }
+}
@@ -0,0 +1,139 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.testing.JUnitBackports.assertThrows;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.base.Supplier;
+import google.registry.testing.FakeClock;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link RefreshingSupplier}. */
+@RunWith(JUnit4.class)
+public class RefreshingSupplierTest {
+
+  private static final Duration REFRESH_INTERVAL = Duration.standardMinutes(10);
+  private static final Duration MAX_STALENESS = Duration.standardHours(1);
+
+  private final FakeClock clock = new FakeClock(DateTime.parse("2018-06-01T00:00:00Z"));
+  private final AtomicInteger loads = new AtomicInteger();
+  private volatile boolean failLoads = false;
+
+  private final RefreshingSupplier<Integer> supplier =
+      new RefreshingSupplier<>(
+          "test",
+          () -> {
+            if (failLoads) {
+              throw new IllegalStateException("Load failed");
+            }
+            return loads.incrementAndGet();
+          },
+          REFRESH_INTERVAL,
+          MAX_STALENESS,
+          clock);
+
+  @Test
+  public void testGet_servesValueUntilRefreshTime() {
+    assertThat(supplier.get()).isEqualTo(1);
+    clock.advanceBy(REFRESH_INTERVAL.minus(1));
+    assertThat(supplier.get()).isEqualTo(1);
+    assertThat(loads.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testGet_refreshesAfterRefreshTime() {
+    assertThat(supplier.get()).isEqualTo(1);
+    clock.advanceBy(REFRESH_INTERVAL);
+    assertThat(supplier.get()).isEqualTo(2);
+    assertThat(supplier.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testGet_servesStaleValue_whenRefreshFails() {
+    assertThat(supplier.get()).isEqualTo(1);
+    clock.advanceBy(REFRESH_INTERVAL);
+    failLoads = true;
+    assertThat(supplier.get()).isEqualTo(1);
+    // The next caller tries again.
+    failLoads = false;
+    assertThat(supplier.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testGet_waitsForLoad_whenPastMaxStaleness() {
+    assertThat(supplier.get()).isEqualTo(1);
+    clock.advanceBy(REFRESH_INTERVAL.plus(MAX_STALENESS));
+    failLoads = true;
+    assertThrows(IllegalStateException.class, supplier::get);
+    failLoads = false;
+    assertThat(supplier.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testGet_otherCallersDontWaitForRefresh() throws Exception {
+    CountDownLatch refreshStarted = new CountDownLatch(1);
+    CountDownLatch finishRefresh = new CountDownLatch(1);
+    AtomicInteger calls = new AtomicInteger();
+    RefreshingSupplier<Integer> blockingSupplier =
+        new RefreshingSupplier<>(
+            "test",
+            () -> {
+              int call = calls.incrementAndGet();
+              if (call > 1) {
+                refreshStarted.countDown();
+                try {
+                  finishRefresh.await();
+                } catch (InterruptedException e) {
+                  throw new IllegalStateException(e);
+                }
+              }
+              return call;
+            },
+            REFRESH_INTERVAL,
+            MAX_STALENESS,
+            clock);
+    assertThat(blockingSupplier.get()).isEqualTo(1);
+    clock.advanceBy(REFRESH_INTERVAL);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Integer> refresh = executor.submit(blockingSupplier::get);
+      assertThat(refreshStarted.await(10, SECONDS)).isTrue();
+      assertThat(blockingSupplier.get()).isEqualTo(1);
+      finishRefresh.countDown();
+      assertThat(refresh.get(10, SECONDS)).isEqualTo(2);
+      assertThat(blockingSupplier.get()).isEqualTo(2);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testMemoizeWithRefresh_zeroIntervalDisablesMemoization() {
+    Supplier<Integer> original = loads::incrementAndGet;
+    assertThat(CacheUtils.memoizeWithRefresh("test", Duration.ZERO, original))
+        .isSameAs(original);
+  }
+}
@@ -0,0 +1,106 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.host;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.testing.DatastoreHelper.newHostResource;
+import static google.registry.testing.DatastoreHelper.persistResource;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.net.InetAddresses;
+import com.googlecode.objectify.Key;
+import google.registry.testing.AppEngineRule;
+import java.net.InetAddress;
+import org.joda.time.DateTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link HostInetAddressIndex}. */
+@RunWith(JUnit4.class)
+public class HostInetAddressIndexTest {
+
+  @Rule public final AppEngineRule appEngine = AppEngineRule.builder().withDatastore().build();
+
+  private final DateTime now = DateTime.parse("2018-06-01T00:00:00Z");
+
+  private static HostResource persistHost(String hostName, String... addresses) {
+    ImmutableSet.Builder<InetAddress> inetAddresses = new ImmutableSet.Builder<>();
+    for (String address : addresses) {
+      inetAddresses.add(InetAddresses.forString(address));
+    }
+    return persistResource(
+        newHostResource(hostName).asBuilder().setInetAddresses(inetAddresses.build()).build());
+  }
+
+  @Test
+  public void testGetHostKeys_exactAddress() {
+    HostResource host1 = persistHost("ns1.example.tld", "1.2.3.4", "1.2.3.5");
+    HostResource host2 = persistHost("ns2.example.tld", "1.2.3.4");
+    persistHost("ns3.example.tld", "1.2.3.6");
+    HostInetAddressIndex index = HostInetAddressIndex.load(now);
+    assertThat(index.getHostKeys(InetAddresses.forString("1.2.3.4")))
+        .containsExactly(Key.create(host1), Key.create(host2))
+        .inOrder();
+    assertThat(index.getHostKeys(InetAddresses.forString("1.2.3.5")))
+        .containsExactly(Key.create(host1));
+    assertThat(index.getHostKeys(InetAddresses.forString("1.2.3.7"))).isEmpty();
+  }
+
+  @Test
+  public void testLoad_skipsHostsWithoutAddresses() {
+    persistHost("ns1.example.tld");
+    HostResource host2 = persistHost("ns2.example.tld", "2001:db8::1");
+    HostInetAddressIndex index = HostInetAddressIndex.load(now);
+    assertThat(index.getHostKeys(InetAddresses.forString("2001:db8::1")))
+        .containsExactly(Key.create(host2));
+  }
+
+  @Test
+  public void testLoad_excludesDeletedHosts() {
+    persistResource(
+        newHostResource("ns1.example.tld")
+            .asBuilder()
+            .setInetAddresses(ImmutableSet.of(InetAddresses.forString("1.2.3.4")))
+            .setDeletionTime(now.minusDays(1))
+            .build());
+    assertThat(HostInetAddressIndex.load(now).getHostKeys(InetAddresses.forString("1.2.3.4")))
+        .isEmpty();
+  }
+
+  @Test
+  public void testLoadLiveHosts_filtersHostsChangedSinceTheIndexWasBuilt() {
+    HostResource host1 = persistHost("ns1.example.tld", "1.2.3.4");
+    HostResource host2 = persistHost("ns2.example.tld", "1.2.3.4");
+    HostResource host3 = persistHost("ns3.example.tld", "1.2.3.4");
+    ImmutableList<Key<HostResource>> hostKeys =
+        HostInetAddressIndex.load(now).getHostKeys(InetAddresses.forString("1.2.3.4"));
+    persistResource(host1.asBuilder().setDeletionTime(now.minusDays(1)).build());
+    persistResource(
+        host2
+            .asBuilder()
+            .setInetAddresses(ImmutableSet.of(InetAddresses.forString("1.2.3.5")))
+            .build());
+    assertThat(
+            Iterables.transform(
+                HostInetAddressIndex.loadLiveHosts(
+                    hostKeys, InetAddresses.forString("1.2.3.4"), now),
+                host -> Key.create(host)))
+        .containsExactly(Key.create(host3));
+  }
+}
@@ -18,6 +18,7 @@ import static com.google.common.truth.Truth.assertThat;
 import static google.registry.model.index.DomainApplicationIndex.createUpdatedInstance;
 import static google.registry.model.index.DomainApplicationIndex.createWithSpecifiedKeys;
 import static google.registry.model.index.DomainApplicationIndex.loadActiveApplicationsByDomainName;
+import static google.registry.model.index.DomainApplicationIndex.loadActiveApplicationsByDomainNames;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.newDomainApplication;
@@ -28,6 +29,7 @@ import static org.joda.time.DateTimeZone.UTC;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.googlecode.objectify.Key;
 import google.registry.model.EntityTestCase;
 import google.registry.model.domain.DomainApplication;
@@ -122,6 +124,40 @@ public class DomainApplicationIndexTest extends EntityTestCase {
         .containsExactly(application1);
   }
 
+  @Test
+  public void testSuccess_loadActiveApplicationsByDomainNames() {
+    DomainApplication application1 = persistSimpleResource(newDomainApplication("example.com"));
+    DomainApplication application2 = persistSimpleResource(newDomainApplication("example.com"));
+    DomainApplication application3 = persistSimpleResource(newDomainApplication("other.com"));
+    DomainApplication deletedApplication =
+        persistSimpleResource(
+            newDomainApplication("deleted.com")
+                .asBuilder()
+                .setDeletionTime(DateTime.now(UTC).minusDays(30))
+                .build());
+    persistResource(createUpdatedInstance(application1));
+    persistResource(createUpdatedInstance(application2));
+    persistResource(createUpdatedInstance(application3));
+    persistResource(createUpdatedInstance(deletedApplication));
+    assertThat(
+            loadActiveApplicationsByDomainNames(
+                ImmutableList.of("example.com", "other.com", "deleted.com", "none.com"),
+                DateTime.now(UTC)))
+        .isEqualTo(
+            ImmutableSetMultimap.of(
+                "example.com", application1,
+                "example.com", application2,
+                "other.com", application3));
+  }
+
+  @Test
+  public void testSuccess_loadActiveApplicationsByDomainNames_noApplications() {
+    assertThat(
+            loadActiveApplicationsByDomainNames(
+                ImmutableList.of("example.com", "other.com"), clock.nowUtc()))
+        .isEmpty();
+  }
+
   /** Ensure loading over 25 applications still succeeds (despite being in a transaction.) */
   @Test
   public void testSuccess_overCrossTransactionLimit() {
@@ -0,0 +1,201 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.index;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.EppResourceUtils.getLinkedDomainKeys;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.newDomainResource;
+import static google.registry.testing.DatastoreHelper.persistActiveContact;
+import static google.registry.testing.DatastoreHelper.persistActiveHost;
+import static google.registry.testing.DatastoreHelper.persistResource;
+
+import com.google.common.collect.ImmutableSet;
+import com.googlecode.objectify.Key;
+import google.registry.model.EntityTestCase;
+import google.registry.model.contact.ContactResource;
+import google.registry.model.domain.DomainBase;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.host.HostResource;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Unit tests for {@link DomainReferenceIndex}. */
+public class DomainReferenceIndexTest extends EntityTestCase {
+
+  ContactResource contact;
+  HostResource host1;
+  HostResource host2;
+
+  @Before
+  public void setUp() {
+    createTld("tld");
+    contact = persistActiveContact("contact1234");
+    host1 = persistActiveHost("ns1.example.tld");
+    host2 = persistActiveHost("ns2.example.tld");
+  }
+
+  private DomainResource newDomain(String domainName, HostResource host) {
+    return newDomainResource(domainName, contact)
+        .asBuilder()
+        .setNameservers(ImmutableSet.of(Key.create(host)))
+        .build();
+  }
+
+  private DomainResource persistDomainWithIndexEntries(String domainName, HostResource host) {
+    DomainResource domain = persistResource(newDomain(domainName, host));
+    DomainReferenceIndex.saveMissingEntries(Key.<DomainBase>create(domain));
+    return domain;
+  }
+
+  @Test
+  public void testPersistence() {
+    DomainResource domain = persistDomainWithIndexEntries("example.tld", host1);
+    DomainReferenceIndex entry =
+        ofy()
+            .load()
+            .key(DomainReferenceIndex.createKey(Key.create(host1), Key.create(domain)))
+            .now();
+    assertThat(entry.getReferent()).isEqualTo(Key.create(host1));
+    assertThat(entry.getDomain()).isEqualTo(Key.create(domain));
+  }
+
+  @Test
+  public void testIndexing() throws Exception {
+    verifyIndexing(
+        DomainReferenceIndex.create(Key.create(host1), Key.create(newDomain("example.tld", host1))),
+        "domain");
+  }
+
+  @Test
+  public void testSaveEntriesForAddedReferences_notWritten() {
+    DomainReferenceIndex.saveEntriesForAddedReferences(newDomain("example.tld", host1), null);
+    assertThat(ofy().load().type(DomainReferenceIndex.class)).isEmpty();
+  }
+
+  @Test
+  public void testSaveEntriesForAddedReferences_newDomain() {
+    inject.setStaticField(DomainReferenceIndex.class, "writeDomainReferenceIndex", true);
+    DomainResource domain = newDomain("example.tld", host1);
+    Key<DomainBase> domainKey = Key.create(domain);
+    DomainReferenceIndex.saveEntriesForAddedReferences(domain, null);
+    assertThat(ofy().load().type(DomainReferenceIndex.class).keys())
+        .containsExactly(
+            DomainReferenceIndex.createKey(Key.create(contact), domainKey),
+            DomainReferenceIndex.createKey(Key.create(host1), domainKey));
+  }
+
+  @Test
+  public void testSaveEntriesForAddedReferences_updatedDomain() {
+    inject.setStaticField(DomainReferenceIndex.class, "writeDomainReferenceIndex", true);
+    DomainResource domain = newDomain("example.tld", host1);
+    DomainResource updatedDomain =
+        domain
+            .asBuilder()
+            .setNameservers(ImmutableSet.of(Key.create(host1), Key.create(host2)))
+            .build();
+    DomainReferenceIndex.saveEntriesForAddedReferences(updatedDomain, domain);
+    assertThat(ofy().load().type(DomainReferenceIndex.class).keys())
+        .containsExactly(DomainReferenceIndex.createKey(Key.create(host2), Key.create(domain)));
+  }
+
+  @Test
+  public void testSaveEntriesForAddedReferences_onlyResavesEntriesNotRecentlySaved() {
+    inject.setStaticField(DomainReferenceIndex.class, "writeDomainReferenceIndex", true);
+    DomainResource domain = newDomain("example.tld", host1);
+    Key<DomainReferenceIndex> entryKey =
+        DomainReferenceIndex.createKey(Key.create(host1), Key.create(domain));
+    DateTime firstSaveTime = clock.nowUtc();
+    DomainReferenceIndex.saveEntriesForAddedReferences(domain, null);
+    clock.advanceBy(Duration.standardMinutes(5));
+    DomainReferenceIndex.saveEntriesForAddedReferences(domain, null);
+    ofy().clearSessionCache();
+    assertThat(ofy().load().key(entryKey).now().getUpdateAutoTimestamp().getTimestamp())
+        .isEqualTo(firstSaveTime);
+    clock.advanceBy(Duration.standardHours(1));
+    DomainReferenceIndex.saveEntriesForAddedReferences(domain, null);
+    ofy().clearSessionCache();
+    assertThat(ofy().load().key(entryKey).now().getUpdateAutoTimestamp().getTimestamp())
+        .isEqualTo(clock.nowUtc());
+  }
+
+  @Test
+  public void testIsRecentlySaved() {
+    DomainResource domain = persistDomainWithIndexEntries("example.tld", host1);
+    DomainReferenceIndex entry =
+        ofy()
+            .load()
+            .key(DomainReferenceIndex.createKey(Key.create(host1), Key.create(domain)))
+            .now();
+    assertThat(entry.isRecentlySaved(clock.nowUtc().plusMinutes(9))).isTrue();
+    assertThat(entry.isRecentlySaved(clock.nowUtc().plusMinutes(11))).isFalse();
+  }
+
+  @Test
+  public void testSaveMissingEntries() {
+    DomainResource domain = persistResource(newDomain("example.tld", host1));
+    Key<DomainBase> domainKey = Key.create(domain);
+    assertThat(DomainReferenceIndex.saveMissingEntries(domainKey)).isEqualTo(2);
+    assertThat(ofy().load().type(DomainReferenceIndex.class).keys())
+        .containsExactly(
+            DomainReferenceIndex.createKey(Key.create(contact), domainKey),
+            DomainReferenceIndex.createKey(Key.create(host1), domainKey));
+    persistResource(
+        domain
+            .asBuilder()
+            .setNameservers(ImmutableSet.of(Key.create(host1), Key.create(host2)))
+            .build());
+    assertThat(DomainReferenceIndex.saveMissingEntries(domainKey)).isEqualTo(1);
+    assertThat(ofy().load().key(DomainReferenceIndex.createKey(Key.create(host2), domainKey)).now())
+        .isNotNull();
+  }
+
+  @Test
+  public void testSaveMissingEntries_deletedDomain() {
+    DomainResource domain =
+        persistResource(
+            newDomain("example.tld", host1)
+                .asBuilder()
+                .setDeletionTime(clock.nowUtc().minusDays(1))
+                .build());
+    assertThat(DomainReferenceIndex.saveMissingEntries(Key.<DomainBase>create(domain)))
+        .isEqualTo(0);
+    assertThat(ofy().load().type(DomainReferenceIndex.class)).isEmpty();
+  }
+
+  @Test
+  public void testGetLinkedDomainKeys() {
+    DomainResource domain1 = persistDomainWithIndexEntries("example1.tld", host1);
+    DomainResource domain2 = persistDomainWithIndexEntries("example2.tld", host1);
+    persistDomainWithIndexEntries("example3.tld", host2);
+    assertThat(getLinkedDomainKeys(Key.create(host1), clock.nowUtc(), 10))
+        .containsExactly(Key.create(domain1), Key.create(domain2));
+    assertThat(getLinkedDomainKeys(Key.create(host1), clock.nowUtc(), 1)).hasSize(1);
+  }
+
+  @Test
+  public void testGetLinkedDomainKeys_skipsStaleEntries() {
+    DomainResource domain1 = persistDomainWithIndexEntries("example1.tld", host1);
+    DomainResource domain2 = persistDomainWithIndexEntries("example2.tld", host1);
+    DomainResource domain3 = persistDomainWithIndexEntries("example3.tld", host1);
+    persistResource(domain1.asBuilder().setNameservers(ImmutableSet.of()).build());
+    persistResource(domain2.asBuilder().setDeletionTime(clock.nowUtc().minusDays(1)).build());
+    assertThat(getLinkedDomainKeys(Key.create(host1), clock.nowUtc(), 10))
+        .containsExactly(Key.create(domain3));
+  }
+}
@@ -26,7 +26,11 @@ import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.annotation.Cache;
 import google.registry.testing.AppEngineRule;
+import google.registry.model.ofy.CommitLogBucket.RoundRobinBucketIdSupplier;
 import google.registry.testing.InjectRule;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -88,6 +92,22 @@ public class CommitLogBucketTest {
     }
   }
 
+  @Test
+  public void test_roundRobinBucketIdSupplier_usesEveryBucketBeforeReusingAny() {
+    RoundRobinBucketIdSupplier supplier = new RoundRobinBucketIdSupplier(new Random());
+    List<Integer> bucketIds = new ArrayList<>();
+    for (int i = 0; i < 9; i++) {
+      bucketIds.add(supplier.get());
+    }
+    assertThat(bucketIds.subList(0, 3)).containsExactly(1, 2, 3);
+    assertThat(bucketIds.subList(3, 6))
+        .containsExactlyElementsIn(bucketIds.subList(0, 3))
+        .inOrder();
+    assertThat(bucketIds.subList(6, 9))
+        .containsExactlyElementsIn(bucketIds.subList(0, 3))
+        .inOrder();
+  }
+
   @Test
   public void test_loadBucket_loadsTheBucket() {
     assertThat(loadBucket(getBucketKey(1))).isEqualTo(bucket);
@@ -17,6 +17,8 @@ package google.registry.model.ofy;
 import static com.google.appengine.api.datastore.DatastoreServiceFactory.getDatastoreService;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.util.concurrent.Uninterruptibles.sleepUninterruptibly;
+import static com.google.monitoring.metrics.contrib.DistributionMetricSubject.assertThat;
+import static com.google.monitoring.metrics.contrib.LongMetricSubject.assertThat;
 import static google.registry.model.common.EntityGroupRoot.getCrossTldKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.ofy.Ofy.getBaseEntityClassFromEntityOrKey;
@@ -34,6 +36,7 @@ import com.google.appengine.api.datastore.DatastoreFailureException;
 import com.google.appengine.api.datastore.DatastoreTimeoutException;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.taskqueue.TransientFailureException;
+import com.google.common.base.Suppliers;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.VoidWork;
 import com.googlecode.objectify.Work;
@@ -50,6 +53,7 @@ import google.registry.model.reporting.HistoryEntry;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.DatastoreHelper;
 import google.registry.testing.FakeClock;
+import google.registry.testing.InjectRule;
 import google.registry.util.SystemClock;
 import java.util.ConcurrentModificationException;
 import org.joda.time.DateTime;
@@ -67,6 +71,10 @@ public class OfyTest {
   public final AppEngineRule appEngine = AppEngineRule.builder()
       .withDatastore()
       .build();
+
+  @Rule
+  public final InjectRule inject = new InjectRule();
+
   /** An entity to use in save and delete tests. */
   private HistoryEntry someObject;
 
@@ -254,6 +262,40 @@ public class OfyTest {
       }})).isEqualTo(3);
   }
 
+  @Test
+  public void testTransact_recordsAttemptsAndCommitLatency() {
+    CommitLogMetrics.attemptsMetric.reset();
+    CommitLogMetrics.commitLatencyMetric.reset();
+    inject.setStaticField(CommitLogBucket.class, "bucketIdSupplier", Suppliers.ofInstance(2));
+    ofy().transact(new VoidWork() {
+
+      int count = 0;
+
+      @Override
+      public void vrun() {
+        count++;
+        if (count == 1) {
+          throw new ConcurrentModificationException();
+        }
+        if (count == 2) {
+          throw new TransientFailureException("");
+        }
+        ofy().save().entity(someObject);
+      }});
+    assertThat(CommitLogMetrics.attemptsMetric)
+        .hasValueForLabels(1, "2", "ConcurrentModificationException")
+        .and()
+        .hasValueForLabels(1, "2", "TransientFailureException")
+        .and()
+        .hasValueForLabels(1, "2", "committed")
+        .and()
+        .hasNoOtherValues();
+    assertThat(CommitLogMetrics.commitLatencyMetric)
+        .hasAnyValueForLabels("2")
+        .and()
+        .hasNoOtherValues();
+  }
+
   @Test
   public void testTransact_datastoreTimeoutException_noManifest_retries() {
     assertThat(ofy().transact(new Work<Integer>() {
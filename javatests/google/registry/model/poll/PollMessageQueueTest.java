@@ -0,0 +1,291 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.poll;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.createHistoryEntryForEppResource;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.deleteResource;
+import static google.registry.testing.DatastoreHelper.persistActiveDomain;
+import static google.registry.testing.DatastoreHelper.persistResource;
+import static google.registry.util.DateTimeUtils.END_OF_TIME;
+
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import google.registry.model.EntityTestCase;
+import google.registry.model.poll.PollMessageQueue.QueuedMessage;
+import google.registry.model.reporting.HistoryEntry;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Unit tests for {@link PollMessageQueue}. */
+public class PollMessageQueueTest extends EntityTestCase {
+
+  HistoryEntry historyEntry;
+
+  @Before
+  public void setUp() {
+    createTld("foobar");
+    historyEntry = createHistoryEntryForEppResource(persistActiveDomain("foo.foobar"));
+  }
+
+  private PollMessage.OneTime persistOneTimeMessage(String clientId, DateTime eventTime) {
+    return persistResource(
+        new PollMessage.OneTime.Builder()
+            .setClientId(clientId)
+            .setEventTime(eventTime)
+            .setMsg("Test poll message")
+            .setParent(historyEntry)
+            .build());
+  }
+
+  private PollMessage.Autorenew persistAutorenewMessage(DateTime eventTime) {
+    return persistResource(
+        new PollMessage.Autorenew.Builder()
+            .setClientId("TheRegistrar")
+            .setEventTime(eventTime)
+            .setMsg("Domain was auto-renewed.")
+            .setParent(historyEntry)
+            .setAutorenewEndTime(END_OF_TIME)
+            .setTargetId("foo.foobar")
+            .build());
+  }
+
+  private static PollMessageQueue loadAndSave(DateTime now) {
+    PollMessageQueue queue = PollMessageQueue.load("TheRegistrar", now);
+    queue.saveIfNeeded();
+    ofy().clearSessionCache();
+    return queue;
+  }
+
+  private static PollMessageQueue loadSaved() {
+    return ofy().load().key(PollMessageQueue.createKey("TheRegistrar")).now();
+  }
+
+  private static ImmutableList<Key<PollMessage>> getHeadKeys(PollMessageQueue queue) {
+    return queue.getHead().stream().map(QueuedMessage::getKey).collect(toImmutableList());
+  }
+
+  @Test
+  public void testPersistence() {
+    persistOneTimeMessage("TheRegistrar", clock.nowUtc().minusDays(1));
+    PollMessageQueue queue = loadAndSave(clock.nowUtc());
+    PollMessageQueue saved = loadSaved();
+    assertThat(saved.getCount()).isEqualTo(1);
+    assertThat(saved.getHead()).isEqualTo(queue.getHead());
+    assertThat(PollMessageQueue.load("TheRegistrar", clock.nowUtc()).needsSave).isFalse();
+  }
+
+  @Test
+  public void testLoad_countsDeliverableMessagesInOrder() {
+    PollMessage later = persistOneTimeMessage("TheRegistrar", clock.nowUtc().minusDays(1));
+    PollMessage earlier = persistOneTimeMessage("TheRegistrar", clock.nowUtc().minusDays(2));
+    persistOneTimeMessage("TheRegistrar", clock.nowUtc().plusDays(1));
+    persistOneTimeMessage("NewRegistrar", clock.nowUtc().minusDays(1));
+    PollMessageQueue queue = PollMessageQueue.load("TheRegistrar", clock.nowUtc());
+    assertThat(queue.getCount()).isEqualTo(2);
+    assertThat(getHeadKeys(queue))
+        .containsExactly(Key.create(earlier), Key.create(later))
+        .inOrder();
+    assertThat(queue.getFirstMessage(clock.nowUtc()).get()).isEqualTo(earlier);
+    assertThat(queue.getMessageCount(clock.nowUtc())).isEqualTo(2);
+    assertThat(queue.isRecountDue(clock.nowUtc())).isFalse();
+  }
+
+  @Test
+  public void testLoad_withoutSavedQueue_onlyCountsHead() {
+    for (int i = 0; i <= PollMessageQueue.HEAD_SIZE; i++) {
+      persistOneTimeMessage("TheRegistrar", clock.nowUtc().minusDays(1).plusMinutes(i));
+    }
+    PollMessageQueue queue = PollMessageQueue.load("TheRegistrar", clock.nowUtc());
+    assertThat(queue.getCount()).isEqualTo(PollMessageQueue.HEAD_SIZE);
+    assertThat(queue.getHead()).hasSize(PollMessageQueue.HEAD_SIZE);
+    assertThat(queue.isRecountDue(clock.nowUtc())).isTrue();
+    queue.saveIfNeeded();
+    PollMessageQueue.recount("TheRegistrar", clock.nowUtc());
+    ofy().clearSessionCache();
+    assertThat(loadSaved().getCount()).isEqualTo(PollMessageQueue.HEAD_SIZE + 1);
+    assertThat(loadSaved().isRecountDue(clock.nowUtc())).isFalse();
+  }
+
+  @Test
+  public void testLoad_recentMessagesOnlyQueried() {
+    PollMessage message = persistOneTimeMessage("TheRegistrar", clock.nowUtc().minusMinutes(1));
+    PollMessageQueue queue = PollMessageQueue.load("TheRegistrar", clock.nowUtc());
+    assertThat(queue.getCount()).isEqualTo(0);
+    assertThat(queue.getHead()).isEmpty();
+    assertThat(queue.getFirstMessage(clock.nowUtc()).get()).isEqualTo(message);
+    assertThat(queue.getMessageCount(clock.nowUtc())).isEqualTo(1);
+  }
+
+  @Test
+  public void testLoad_countsNewMessagesWithoutFullCount() {
+    DateTime firstLoadTime = clock.nowUtc();
+    PollMessage message1 = persistOneTimeMessage("TheRegistrar", firstLoadTime.minusDays(1));
+    loadAndSave(firstLoadTime);
+    clock.advanceBy(Duration.standardMinutes(10));
+    PollMessage message2 =
+        persistOneTimeMessage("TheRegistrar", clock.nowUtc().minusMinutes(5));
+    PollMessageQueue queue = PollMessageQueue.load("TheRegistrar", clock.nowUtc());
+    assertThat(queue.getCount()).isEqualTo(2);
+    assertThat(getHeadKeys(queue))
+        .containsExactly(Key.create(message1), Key.create(message2))
+        .inOrder();
+    assertThat(queue.fullyCountedAt).isEqualTo(firstLoadTime);
+  }
+
+  @Test
+  public void testLoad_dropsDeletedMessagesFromHead() {
+    PollMessage message1 = persistOneTimeMessage("TheRegistrar", clock.nowUtc().minusDays(2));
+    PollMessage message2 = persistOneTimeMessage("TheRegistrar", clock.nowUtc().minusDays(1));
+    loadAndSave(clock.nowUtc());
+    deleteResource(message1);
+    PollMessageQueue queue = PollMessageQueue.load("TheRegistrar", clock.nowUtc());
+    assertThat(queue.getCount()).isEqualTo(1);
+    assertThat(getHeadKeys(queue)).containsExactly(Key.create(message2));
+    assertThat(queue.needsSave).isTrue();
+  }
+
+  @Test
+  public void testLoad_servesStaleCountAfterInterval() {
+    persistOneTimeMessage("TheRegistrar", clock.nowUtc().minusDays(2));
+    loadAndSave(clock.nowUtc());
+    // A message written into the already counted range is missed until the next full count.
+    persistOneTimeMessage("TheRegistrar", clock.nowUtc().minusDays(1));
+    clock.advanceOneMilli();
+    PollMessageQueue queue = PollMessageQueue.load("TheRegistrar", clock.nowUtc());
+    assertThat(queue.getCount()).isEqualTo(1);
+    assertThat(queue.isRecountDue(clock.nowUtc())).isFalse();
+    clock.advanceBy(PollMessageQueue.FULL_COUNT_INTERVAL);
+    queue = PollMessageQueue.load("TheRegistrar", clock.nowUtc());
+    assertThat(queue.getCount()).isEqualTo(1);
+    assertThat(queue.isRecountDue(clock.nowUtc())).isTrue();
+  }
+
+  @Test
+  public void testLoad_dropsAckedAutorenewFromCount() {
+    PollMessage.Autorenew autorenew = persistAutorenewMessage(clock.nowUtc().minusDays(2));
+    PollMessage oneTime = persistOneTimeMessage("TheRegistrar", clock.nowUtc().minusDays(1));
+    loadAndSave(clock.nowUtc());
+    // Acking an autorenew message reschedules it to its next event time.
+    persistResource(autorenew.asBuilder().setEventTime(clock.nowUtc().plusYears(1)).build());
+    PollMessageQueue queue = PollMessageQueue.load("TheRegistrar", clock.nowUtc());
+    assertThat(queue.getCount()).isEqualTo(1);
+    assertThat(getHeadKeys(queue)).containsExactly(Key.create(oneTime));
+  }
+
+  @Test
+  public void testLoad_countingFurtherWithinMarginNotSaved() {
+    persistOneTimeMessage("TheRegistrar", clock.nowUtc().minusDays(1));
+    PollMessageQueue saved = loadAndSave(clock.nowUtc());
+    clock.advanceBy(Duration.standardMinutes(1));
+    PollMessageQueue queue = PollMessageQueue.load("TheRegistrar", clock.nowUtc());
+    assertThat(queue.getCountedThrough()).isGreaterThan(saved.getCountedThrough());
+    assertThat(queue.needsSave).isFalse();
+    clock.advanceBy(PollMessageQueue.CONSISTENCY_MARGIN);
+    assertThat(PollMessageQueue.load("TheRegistrar", clock.nowUtc()).needsSave).isTrue();
+  }
+
+  @Test
+  public void testLoad_newlyCountedMessageSaved() {
+    persistOneTimeMessage("TheRegistrar", clock.nowUtc().minusDays(1));
+    loadAndSave(clock.nowUtc());
+    clock.advanceBy(Duration.standardMinutes(1));
+    persistOneTimeMessage(
+        "TheRegistrar", clock.nowUtc().minus(PollMessageQueue.CONSISTENCY_MARGIN));
+    PollMessageQueue queue = PollMessageQueue.load("TheRegistrar", clock.nowUtc());
+    assertThat(queue.getCount()).isEqualTo(2);
+    assertThat(queue.needsSave).isTrue();
+  }
+
+  @Test
+  public void testAckConcurrentWithPoll_bothSucceedAndAckIsDropped() {
+    PollMessage message1 = persistOneTimeMessage("TheRegistrar", clock.nowUtc().minusDays(2));
+    PollMessage message2 = persistOneTimeMessage("TheRegistrar", clock.nowUtc().minusDays(1));
+    // A poll loads the queue before an ack of its first message commits, and saves it during the
+    // ack's transaction. The ack doesn't touch the queue, so neither transaction conflicts.
+    PollMessageQueue polledQueue = PollMessageQueue.load("TheRegistrar", clock.nowUtc());
+    ofy()
+        .transact(
+            () -> {
+              ofy().load().entity(message1).now();
+              ofy()
+                  .doTransactionless(
+                      () -> {
+                        polledQueue.saveIfNeeded();
+                        return null;
+                      });
+              ofy().delete().entity(message1);
+            });
+    ofy().clearSessionCache();
+    PollMessageQueue saved = loadSaved();
+    assertThat(saved.getCount()).isEqualTo(2);
+    assertThat(saved.version).isEqualTo(1);
+    // The acked message is dropped from the queue when it is next loaded.
+    PollMessageQueue queue = loadAndSave(clock.nowUtc());
+    assertThat(queue.getCount()).isEqualTo(1);
+    assertThat(getHeadKeys(queue)).containsExactly(Key.create(message2));
+    assertThat(loadSaved().getHead()).isEqualTo(queue.getHead());
+  }
+
+  @Test
+  public void testRecount() {
+    persistOneTimeMessage("TheRegistrar", clock.nowUtc().minusDays(2));
+    loadAndSave(clock.nowUtc());
+    // A message written into the already counted range is only picked up by a full count.
+    PollMessage message = persistOneTimeMessage("TheRegistrar", clock.nowUtc().minusDays(3));
+    PollMessageQueue.recount("TheRegistrar", clock.nowUtc());
+    ofy().clearSessionCache();
+    PollMessageQueue saved = loadSaved();
+    assertThat(saved.getCount()).isEqualTo(2);
+    assertThat(getHeadKeys(saved).get(0)).isEqualTo(Key.create(message));
+    assertThat(saved.version).isEqualTo(2);
+  }
+
+  @Test
+  public void testMarkForRecount() {
+    persistOneTimeMessage("TheRegistrar", clock.nowUtc().minusDays(1));
+    PollMessageQueue queue = loadAndSave(clock.nowUtc());
+    assertThat(loadSaved().isRecountDue(clock.nowUtc())).isFalse();
+    PollMessageQueue.markForRecount("TheRegistrar", clock.nowUtc());
+    ofy().clearSessionCache();
+    PollMessageQueue saved = loadSaved();
+    assertThat(saved.isRecountDue(clock.nowUtc())).isTrue();
+    assertThat(saved.getFullyCountedAt()).isNotEqualTo(queue.getFullyCountedAt());
+    assertThat(saved.getCount()).isEqualTo(1);
+    assertThat(saved.version).isEqualTo(2);
+  }
+
+  @Test
+  public void testMarkForRecount_noSavedQueue() {
+    PollMessageQueue.markForRecount("TheRegistrar", clock.nowUtc());
+    ofy().clearSessionCache();
+    assertThat(loadSaved()).isNull();
+  }
+
+  @Test
+  public void testSaveIfNeeded_doesNotOverwriteConcurrentSave() {
+    persistOneTimeMessage("TheRegistrar", clock.nowUtc().minusDays(1));
+    PollMessageQueue earlierQueue = PollMessageQueue.load("TheRegistrar", clock.nowUtc());
+    PollMessageQueue laterQueue = loadAndSave(clock.nowUtc().plusMinutes(10));
+    earlierQueue.saveIfNeeded();
+    ofy().clearSessionCache();
+    assertThat(loadSaved().getCountedThrough()).isEqualTo(laterQueue.getCountedThrough());
+  }
+}
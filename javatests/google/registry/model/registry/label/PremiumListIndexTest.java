@@ -0,0 +1,87 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.registry.label;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.util.DateTimeUtils.START_OF_TIME;
+
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import google.registry.model.registry.label.PremiumList.PremiumListEntry;
+import google.registry.model.registry.label.PremiumList.PremiumListRevision;
+import google.registry.testing.AppEngineRule;
+import org.joda.money.Money;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link PremiumListIndex}. */
+@RunWith(JUnit4.class)
+public class PremiumListIndexTest {
+
+  @Rule public final AppEngineRule appEngine = AppEngineRule.builder().withDatastore().build();
+
+  private static PremiumListEntry entry(String label, String price) {
+    return new PremiumListEntry.Builder().setLabel(label).setPrice(Money.parse(price)).build();
+  }
+
+  private static PremiumListIndex createIndex(PremiumListEntry... entries) {
+    Key<PremiumListRevision> revisionKey =
+        Key.create(Key.create(PremiumList.class, "tld"), PremiumListRevision.class, 1L);
+    return PremiumListIndex.create(revisionKey, START_OF_TIME, ImmutableList.copyOf(entries));
+  }
+
+  @Test
+  public void testGetPrice_findsEveryLabel() {
+    PremiumListIndex index =
+        createIndex(
+            entry("zebra", "USD 10"),
+            entry("lol", "USD 999"),
+            entry("xn--q9jyb4c", "JPY 100"),
+            entry("a", "USD 10"),
+            entry("lolcat", "USD 20"));
+    assertThat(index.size()).isEqualTo(5);
+    assertThat(index.getPrice("a")).isEqualTo(Money.parse("USD 10"));
+    assertThat(index.getPrice("lol")).isEqualTo(Money.parse("USD 999"));
+    assertThat(index.getPrice("lolcat")).isEqualTo(Money.parse("USD 20"));
+    assertThat(index.getPrice("xn--q9jyb4c")).isEqualTo(Money.parse("JPY 100"));
+    assertThat(index.getPrice("zebra")).isEqualTo(Money.parse("USD 10"));
+  }
+
+  @Test
+  public void testGetPrice_missingLabels() {
+    PremiumListIndex index = createIndex(entry("lol", "USD 999"), entry("lolcat", "USD 20"));
+    assertThat(index.getPrice("lo")).isNull();
+    assertThat(index.getPrice("lolc")).isNull();
+    assertThat(index.getPrice("lolcats")).isNull();
+    assertThat(index.getPrice("")).isNull();
+    assertThat(index.getPrice("aaa")).isNull();
+    assertThat(index.getPrice("zzz")).isNull();
+    assertThat(index.getPrice("lölcat")).isNull();
+  }
+
+  @Test
+  public void testGetPrice_emptyIndex() {
+    PremiumListIndex index = createIndex();
+    assertThat(index.size()).isEqualTo(0);
+    assertThat(index.getPrice("lol")).isNull();
+  }
+
+  @Test
+  public void testGetRevisionKey() {
+    assertThat(createIndex().getRevisionKey().getId()).isEqualTo(1L);
+  }
+}
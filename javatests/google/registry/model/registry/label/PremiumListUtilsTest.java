@@ -22,6 +22,8 @@ import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.BLOOM_FILTER_NEGATIVE;
 import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.CACHED_NEGATIVE;
 import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.CACHED_POSITIVE;
+import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.INDEXED_NEGATIVE;
+import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.INDEXED_POSITIVE;
 import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.UNCACHED_NEGATIVE;
 import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.UNCACHED_POSITIVE;
 import static google.registry.model.registry.label.DomainLabelMetrics.premiumListChecks;
@@ -47,6 +49,7 @@ import google.registry.model.registry.Registry;
 import google.registry.model.registry.label.PremiumList.PremiumListEntry;
 import google.registry.model.registry.label.PremiumList.PremiumListRevision;
 import google.registry.testing.AppEngineRule;
+import google.registry.testing.InjectRule;
 import java.util.Map;
 import org.joda.money.Money;
 import org.junit.Before;
@@ -60,6 +63,7 @@ import org.junit.runners.JUnit4;
 public class PremiumListUtilsTest {
 
   @Rule public final AppEngineRule appEngine = AppEngineRule.builder().withDatastore().build();
+  @Rule public final InjectRule inject = new InjectRule();
 
   @Before
   public void before() {
@@ -326,6 +330,100 @@ public class PremiumListUtilsTest {
     assertThat(PremiumList.getUncached("ginormous")).isEmpty();
   }
 
+  @Test
+  public void testGetPremiumPrice_indexed_noDatastoreLoadsAfterFirstCheck() {
+    enableIndex();
+    assertThat(getPremiumPrice("rich", Registry.get("tld"))).hasValue(Money.parse("USD 1999"));
+    // Remove one of the premium list entries from behind the index's back.
+    ofy()
+        .transactNew(
+            () ->
+                ofy()
+                    .delete()
+                    .keys(
+                        Key.create(
+                            PremiumList.getCached("tld").get().getRevisionKey(),
+                            PremiumListEntry.class,
+                            "rich")));
+    ofy().clearSessionCache();
+
+    assertThat(getPremiumPrice("rich", Registry.get("tld"))).hasValue(Money.parse("USD 1999"));
+    assertThat(getPremiumPrice("icann", Registry.get("tld"))).hasValue(Money.parse("JPY 100"));
+    assertThat(getPremiumPrice("blah", Registry.get("tld"))).isEmpty();
+    assertThat(PremiumList.premiumListIndexes.get("tld").size()).isEqualTo(4);
+    assertThat(premiumListChecks)
+        .hasValueForLabels(3, "tld", "tld", INDEXED_POSITIVE.toString())
+        .and()
+        .hasValueForLabels(1, "tld", "tld", INDEXED_NEGATIVE.toString())
+        .and()
+        .hasNoOtherValues();
+  }
+
+  @Test
+  public void testGetPremiumPrice_indexed_newRevisionReplacesIndex() {
+    enableIndex();
+    Registry registry = Registry.get("tld");
+    assertThat(getPremiumPrice("lol", registry)).hasValue(Money.parse("USD 999"));
+    PremiumList pl =
+        savePremiumListAndEntries(
+            PremiumList.getUncached("tld").get(), ImmutableList.of("lol,USD 5", "cat,USD 10"));
+    assertThat(getPremiumPrice("lol", registry)).hasValue(Money.parse("USD 5"));
+    assertThat(getPremiumPrice("rich", registry)).isEmpty();
+    PremiumListIndex index = PremiumList.premiumListIndexes.get("tld");
+    assertThat(index.getRevisionKey()).isEqualTo(pl.getRevisionKey());
+    assertThat(index.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void testGetIndex_outOfDateList_doesNotReplaceNewerIndex() {
+    enableIndex();
+    PremiumList oldList = PremiumList.getUncached("tld").get();
+    PremiumList newList = savePremiumListAndEntries(oldList, ImmutableList.of("lol,USD 5"));
+    assertThat(PremiumList.getIndex(newList).getRevisionKey())
+        .isEqualTo(newList.getRevisionKey());
+    PremiumListIndex oldIndex = PremiumList.getIndex(oldList);
+    assertThat(oldIndex.getRevisionKey()).isEqualTo(oldList.getRevisionKey());
+    assertThat(oldIndex.getPrice("rich")).isEqualTo(Money.parse("USD 1999"));
+    assertThat(PremiumList.premiumListIndexes.get("tld").getRevisionKey())
+        .isEqualTo(newList.getRevisionKey());
+  }
+
+  @Test
+  public void testGetPremiumPrice_tooManyLabelsForIndex_usesBloomFilter() {
+    enableIndex();
+    persistHumongousPremiumList("tld", 101);
+    assertThat(getPremiumPrice("7", Registry.get("tld"))).hasValue(Money.parse("USD 100"));
+    assertThat(PremiumList.premiumListIndexes).isEmpty();
+    assertMetricOutcomeCount(1, UNCACHED_POSITIVE);
+  }
+
+  @Test
+  public void testGetPremiumPrice_revisionWithoutLabelCount_usesBloomFilter() {
+    enableIndex();
+    PremiumListRevision revision =
+        ofy().load().key(PremiumList.getUncached("tld").get().getRevisionKey()).now();
+    revision.labelCount = null;
+    persistResource(revision);
+    assertThat(getPremiumPrice("blah", Registry.get("tld"))).isEmpty();
+    assertThat(PremiumList.premiumListIndexes).isEmpty();
+    assertMetricOutcomeCount(1, BLOOM_FILTER_NEGATIVE);
+  }
+
+  @Test
+  public void testDelete_removesIndex() {
+    enableIndex();
+    assertThat(getPremiumPrice("lol", Registry.get("tld"))).hasValue(Money.parse("USD 999"));
+    assertThat(PremiumList.premiumListIndexes).containsKey("tld");
+    deletePremiumList(PremiumList.getUncached("tld").get());
+    assertThat(PremiumList.premiumListIndexes).doesNotContainKey("tld");
+  }
+
+  /** Holds premium lists of up to 100 labels in memory, which unit tests don't by default. */
+  private void enableIndex() {
+    inject.setStaticField(PremiumList.class, "premiumListIndexMaxLabels", 100);
+    PremiumList.premiumListIndexes.clear();
+  }
+
   /** Persists a premium list with a specified number of nonsense entries. */
   private PremiumList persistHumongousPremiumList(String name, int size) {
     String[] entries = new String[size];
@@ -0,0 +1,76 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.tmch;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ClaimsListIndex}. */
+@RunWith(JUnit4.class)
+public class ClaimsListIndexTest {
+
+  private static final ImmutableMap<String, String> LABELS_TO_KEYS =
+      ImmutableMap.of(
+          "example", "2013041500/2/6/9/rJ1NrDO92vDsAzf7EQzgjX4R0000000001",
+          "another-example", "2013041500/6/A/5/alJAqG2vI2BmCv5PfUvuDkf40000000002",
+          "anotherexample", "2013041500/A/C/7/rHdC4wnrWRvPY6nneCVtQhFj0000000003",
+          "xn----7sbejwbn3axu3d", "2013112500/7/4/8/dIHW0DiuybvhdP8kIz");
+
+  @Test
+  public void testGetClaimKey() {
+    ClaimsListIndex index = ClaimsListIndex.create(null, LABELS_TO_KEYS.entrySet());
+    assertThat(index.size()).isEqualTo(4);
+    LABELS_TO_KEYS.forEach((label, key) -> assertThat(index.getClaimKey(label)).isEqualTo(key));
+    assertThat(index.getClaimKey("exampl")).isNull();
+    assertThat(index.getClaimKey("examples")).isNull();
+    assertThat(index.getClaimKey("")).isNull();
+    assertThat(index.getClaimKey("zzz")).isNull();
+  }
+
+  @Test
+  public void testToMap_sortedByLabel() {
+    assertThat(ClaimsListIndex.create(null, LABELS_TO_KEYS.entrySet()).toMap())
+        .containsExactlyEntriesIn(ImmutableSortedMap.copyOf(LABELS_TO_KEYS))
+        .inOrder();
+  }
+
+  @Test
+  public void testCreate_keepsFirstOfDuplicateLabels() {
+    ClaimsListIndex index =
+        ClaimsListIndex.create(
+            null,
+            ImmutableList.of(
+                Maps.immutableEntry("b", "1"),
+                Maps.immutableEntry("a", "2"),
+                Maps.immutableEntry("b", "3")));
+    assertThat(index.size()).isEqualTo(2);
+    assertThat(index.getClaimKey("b")).isEqualTo("1");
+  }
+
+  @Test
+  public void testCreate_empty() {
+    ClaimsListIndex index = ClaimsListIndex.create(null, ImmutableList.of());
+    assertThat(index.size()).isEqualTo(0);
+    assertThat(index.getClaimKey("example")).isNull();
+    assertThat(index.toMap()).isEmpty();
+  }
+}
@@ -26,6 +26,7 @@ import com.googlecode.objectify.Key;
 import google.registry.model.tmch.ClaimsListShard.ClaimsListRevision;
 import google.registry.model.tmch.ClaimsListShard.UnshardedSaveException;
 import google.registry.testing.AppEngineRule;
+import google.registry.testing.InjectRule;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -44,6 +45,8 @@ public class ClaimsListShardTest {
       .withDatastore()
       .build();
 
+  @Rule public final InjectRule inject = new InjectRule();
+
   private final int shardSize = 10;
 
   @Test
@@ -65,7 +68,7 @@ public class ClaimsListShardTest {
 
   @Test
   public void testGet_safelyLoadsEmptyClaimsList_whenNoShardsExist() {
-    assertThat(ClaimsListShard.get().labelsToKeys).isEmpty();
+    assertThat(ClaimsListShard.get().getLabelsToKeys()).isEmpty();
     assertThat(ClaimsListShard.get().creationTime).isEqualTo(START_OF_TIME);
   }
 
@@ -80,7 +83,7 @@ public class ClaimsListShardTest {
     // Save it with sharding, and make sure that reloading it works.
     ClaimsListShard unsharded = ClaimsListShard.create(now, ImmutableMap.copyOf(labelsToKeys));
     unsharded.save(shardSize);
-    assertThat(ClaimsListShard.get().labelsToKeys).isEqualTo(unsharded.labelsToKeys);
+    assertThat(ClaimsListShard.get().getLabelsToKeys()).isEqualTo(unsharded.labelsToKeys);
     List<ClaimsListShard> shards1 = ofy().load().type(ClaimsListShard.class).list();
     assertThat(shards1).hasSize(4);
     assertThat(ClaimsListShard.get().getClaimKey("1")).hasValue("1");
@@ -95,8 +98,8 @@ public class ClaimsListShardTest {
     unsharded = ClaimsListShard.create(now.plusDays(1), ImmutableMap.copyOf(labelsToKeys));
     unsharded.save(shardSize);
     ofy().clearSessionCache();
-    assertThat(ClaimsListShard.get().labelsToKeys).hasSize(unsharded.labelsToKeys.size());
-    assertThat(ClaimsListShard.get().labelsToKeys).isEqualTo(unsharded.labelsToKeys);
+    assertThat(ClaimsListShard.get().getLabelsToKeys()).hasSize(unsharded.labelsToKeys.size());
+    assertThat(ClaimsListShard.get().getLabelsToKeys()).isEqualTo(unsharded.labelsToKeys);
     List<ClaimsListShard> shards2 = ofy().load().type(ClaimsListShard.class).list();
     assertThat(shards2).hasSize(2);
 
@@ -104,6 +107,32 @@ public class ClaimsListShardTest {
     assertThat(ClaimsListShard.getCurrentRevision()).isEqualTo(shards2.get(0).parent);
   }
 
+  @Test
+  public void testGet_reusesLoadedList_whileRevisionIsCurrent() {
+    inject.setStaticField(ClaimsListShard.class, "reuseLoadedRevision", true);
+    ClaimsListShard.lastLoaded = null;
+    DateTime now = DateTime.now(UTC);
+    ClaimsListShard.create(now, ImmutableMap.of("a", "1", "b", "2")).save(shardSize);
+    ClaimsListShard claimsList = ClaimsListShard.get();
+    assertThat(claimsList.getClaimKey("a")).hasValue("1");
+    assertThat(ClaimsListShard.get()).isSameAs(claimsList);
+
+    // Publishing a new revision causes its shards to be loaded.
+    ClaimsListShard.create(now.plusDays(1), ImmutableMap.of("c", "3")).save(shardSize);
+    ofy().clearSessionCache();
+    ClaimsListShard newClaimsList = ClaimsListShard.get();
+    assertThat(newClaimsList).isNotSameAs(claimsList);
+    assertThat(newClaimsList.getCreationTime()).isEqualTo(now.plusDays(1));
+    assertThat(newClaimsList.getLabelsToKeys()).containsExactly("c", "3");
+    assertThat(ClaimsListShard.get()).isSameAs(newClaimsList);
+  }
+
+  @Test
+  public void testGet_reloadsEveryTime_whenNotReusingLoadedList() {
+    ClaimsListShard.create(DateTime.now(UTC), ImmutableMap.of("a", "1")).save(shardSize);
+    assertThat(ClaimsListShard.get()).isNotSameAs(ClaimsListShard.get());
+  }
+
   /**
    * Returns a created claims list shard with the specified parent key for testing purposes only.
    */
@@ -0,0 +1,101 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.proxy;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.proxy.ProxyConfig.Environment.LOCAL;
+import static google.registry.proxy.ProxyConfig.getProxyConfig;
+import static google.registry.testing.JUnitBackports.assertThrows;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link NettyTransport}. */
+@RunWith(JUnit4.class)
+public class NettyTransportTest {
+
+  @Test
+  public void testSuccess_nio() throws Exception {
+    NettyTransport transport = NettyTransport.select("nio");
+    assertThat(transport.name()).isEqualTo("nio");
+    assertThat(transport.serverChannelClass()).isEqualTo(NioServerSocketChannel.class);
+    assertThat(transport.channelClass()).isEqualTo(NioSocketChannel.class);
+    EventLoopGroup group = transport.newEventLoopGroup(1);
+    try {
+      assertThat(group).isInstanceOf(NioEventLoopGroup.class);
+      assertThat(((NioEventLoopGroup) group).executorCount()).isEqualTo(1);
+    } finally {
+      group.shutdownGracefully().sync();
+    }
+  }
+
+  @Test
+  public void testSuccess_epoll() throws Exception {
+    // The native library is only bundled for Linux on x86-64.
+    assumeTrue(Epoll.isAvailable());
+    NettyTransport transport = NettyTransport.select("epoll");
+    assertThat(transport.name()).isEqualTo("epoll");
+    assertThat(transport.serverChannelClass()).isEqualTo(EpollServerSocketChannel.class);
+    assertThat(transport.channelClass()).isEqualTo(EpollSocketChannel.class);
+    EventLoopGroup group = transport.newEventLoopGroup(1);
+    try {
+      assertThat(group).isInstanceOf(EpollEventLoopGroup.class);
+      assertThat(((EpollEventLoopGroup) group).executorCount()).isEqualTo(1);
+    } finally {
+      group.shutdownGracefully().sync();
+    }
+  }
+
+  @Test
+  public void testSuccess_auto_usesEpollWhenAvailable() {
+    assertThat(NettyTransport.select("auto"))
+        .isSameAs(Epoll.isAvailable() ? NettyTransport.EPOLL : NettyTransport.NIO);
+  }
+
+  @Test
+  public void testFailure_epollUnavailable() {
+    assumeFalse(Epoll.isAvailable());
+    IllegalStateException thrown =
+        assertThrows(IllegalStateException.class, () -> NettyTransport.select("epoll"));
+    assertThat(thrown).hasMessageThat().isEqualTo("Native epoll transport is unavailable");
+  }
+
+  @Test
+  public void testFailure_unknownTransport() {
+    IllegalArgumentException thrown =
+        assertThrows(IllegalArgumentException.class, () -> NettyTransport.select("kqueue"));
+    assertThat(thrown).hasMessageThat().isEqualTo("Unknown transport: kqueue");
+  }
+
+  @Test
+  public void testSuccess_defaultConfig() {
+    ProxyConfig.Netty nettyConfig = getProxyConfig(LOCAL).netty;
+    assertThat(nettyConfig.transport).isEqualTo("auto");
+    assertThat(nettyConfig.bossThreads).isEqualTo(1);
+    assertThat(nettyConfig.workerThreads).isEqualTo(0);
+    assertThat(nettyConfig.pooledDirectBuffers).isTrue();
+  }
+}
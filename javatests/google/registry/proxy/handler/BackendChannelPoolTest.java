@@ -0,0 +1,230 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.proxy.handler;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.proxy.handler.BackendChannelPool.BACKEND_POOL_KEY;
+import static google.registry.proxy.handler.RelayHandler.RELAY_BUFFER_KEY;
+import static google.registry.proxy.handler.RelayHandler.RELAY_CHANNEL_KEY;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import google.registry.proxy.metric.BackendMetrics;
+import google.registry.testing.FakeClock;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import org.joda.time.Duration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link BackendChannelPool}. */
+@RunWith(JUnit4.class)
+public class BackendChannelPoolTest {
+
+  private static final String PROTOCOL = "frontend protocol";
+
+  private final FakeClock clock = new FakeClock();
+  private final BackendMetrics metrics = mock(BackendMetrics.class);
+  private final Deque<ChannelFuture> connections = new ArrayDeque<>();
+
+  private int connectCount;
+
+  private BackendChannelPool createPool(int maxChannels) {
+    return new BackendChannelPool(
+        PROTOCOL,
+        () -> {
+          connectCount++;
+          return connections.remove();
+        },
+        maxChannels,
+        metrics,
+        clock);
+  }
+
+  private EmbeddedChannel addBackendChannel() {
+    EmbeddedChannel backendChannel = new EmbeddedChannel();
+    connections.add(backendChannel.newSucceededFuture());
+    return backendChannel;
+  }
+
+  private static EmbeddedChannel registerFrontendChannel(BackendChannelPool pool) {
+    EmbeddedChannel frontendChannel = new EmbeddedChannel();
+    frontendChannel.attr(RELAY_BUFFER_KEY).set(new ArrayDeque<>());
+    pool.register(frontendChannel);
+    return frontendChannel;
+  }
+
+  @Test
+  public void testSuccess_register() {
+    BackendChannelPool pool = createPool(1);
+    EmbeddedChannel frontendChannel = registerFrontendChannel(pool);
+    assertThat(frontendChannel.attr(BACKEND_POOL_KEY).get()).isSameAs(pool);
+    assertThat(connectCount).isEqualTo(0);
+  }
+
+  @Test
+  public void testSuccess_relay_reusesIdleChannel() {
+    BackendChannelPool pool = createPool(2);
+    EmbeddedChannel backendChannel = addBackendChannel();
+    EmbeddedChannel frontendChannel1 = registerFrontendChannel(pool);
+    EmbeddedChannel frontendChannel2 = registerFrontendChannel(pool);
+
+    pool.relay(frontendChannel1, "request 1");
+    assertThat((Object) backendChannel.readOutbound()).isEqualTo("request 1");
+    assertThat(backendChannel.attr(RELAY_CHANNEL_KEY).get()).isSameAs(frontendChannel1);
+    assertThat(frontendChannel1.attr(RELAY_CHANNEL_KEY).get()).isSameAs(backendChannel);
+
+    pool.relay(backendChannel, "response 1");
+    assertThat((Object) frontendChannel1.readOutbound()).isEqualTo("response 1");
+    assertThat(frontendChannel1.attr(RELAY_CHANNEL_KEY).get()).isNull();
+    assertThat(pool.getIdleCount()).isEqualTo(1);
+
+    pool.relay(frontendChannel2, "request 2");
+    assertThat((Object) backendChannel.readOutbound()).isEqualTo("request 2");
+    pool.relay(backendChannel, "response 2");
+    assertThat((Object) frontendChannel2.readOutbound()).isEqualTo("response 2");
+
+    assertThat(connectCount).isEqualTo(1);
+    assertThat(pool.getConnectedCount()).isEqualTo(1);
+    verify(metrics).connectionLeased(PROTOCOL, "created");
+    verify(metrics).connectionWaited(PROTOCOL, 0);
+    verify(metrics).connectionLeased(PROTOCOL, "reused");
+    verifyNoMoreInteractions(metrics);
+  }
+
+  @Test
+  public void testSuccess_relay_saturated_waitsForChannel() {
+    BackendChannelPool pool = createPool(1);
+    EmbeddedChannel backendChannel = addBackendChannel();
+    EmbeddedChannel frontendChannel1 = registerFrontendChannel(pool);
+    EmbeddedChannel frontendChannel2 = registerFrontendChannel(pool);
+
+    pool.relay(frontendChannel1, "request 1");
+    pool.relay(frontendChannel2, "request 2");
+    assertThat((Object) backendChannel.readOutbound()).isEqualTo("request 1");
+    assertThat((Object) backendChannel.readOutbound()).isNull();
+
+    clock.advanceBy(Duration.millis(5));
+    pool.relay(backendChannel, "response 1");
+    assertThat((Object) frontendChannel1.readOutbound()).isEqualTo("response 1");
+    assertThat((Object) backendChannel.readOutbound()).isEqualTo("request 2");
+    pool.relay(backendChannel, "response 2");
+    assertThat((Object) frontendChannel2.readOutbound()).isEqualTo("response 2");
+
+    assertThat(connectCount).isEqualTo(1);
+    verify(metrics).connectionLeased(PROTOCOL, "created");
+    verify(metrics).connectionLeased(PROTOCOL, "queued");
+    verify(metrics).connectionWaited(PROTOCOL, 0);
+    verify(metrics).connectionWaited(PROTOCOL, 5);
+    verifyNoMoreInteractions(metrics);
+  }
+
+  @Test
+  public void testSuccess_relay_pipelinedRequestsKeepChannel() {
+    BackendChannelPool pool = createPool(2);
+    EmbeddedChannel backendChannel1 = addBackendChannel();
+    EmbeddedChannel backendChannel2 = addBackendChannel();
+    EmbeddedChannel frontendChannel1 = registerFrontendChannel(pool);
+    EmbeddedChannel frontendChannel2 = registerFrontendChannel(pool);
+
+    pool.relay(frontendChannel1, "request 1");
+    pool.relay(frontendChannel1, "request 2");
+    assertThat((Object) backendChannel1.readOutbound()).isEqualTo("request 1");
+    assertThat((Object) backendChannel1.readOutbound()).isEqualTo("request 2");
+
+    // The first channel is still leased, so the second frontend gets a channel of its own.
+    pool.relay(backendChannel1, "response 1");
+    pool.relay(frontendChannel2, "request 3");
+    assertThat((Object) backendChannel2.readOutbound()).isEqualTo("request 3");
+
+    pool.relay(backendChannel1, "response 2");
+    assertThat((Object) frontendChannel1.readOutbound()).isEqualTo("response 1");
+    assertThat((Object) frontendChannel1.readOutbound()).isEqualTo("response 2");
+    assertThat(pool.getIdleCount()).isEqualTo(1);
+    assertThat(connectCount).isEqualTo(2);
+  }
+
+  @Test
+  public void testSuccess_backendClosed_resendsBufferedRequests() {
+    BackendChannelPool pool = createPool(2);
+    EmbeddedChannel backendChannel1 = addBackendChannel();
+    EmbeddedChannel backendChannel2 = addBackendChannel();
+    EmbeddedChannel frontendChannel = registerFrontendChannel(pool);
+
+    pool.relay(frontendChannel, "request 1");
+    assertThat((Object) backendChannel1.readOutbound()).isEqualTo("request 1");
+
+    // Simulates a request that failed to be written before the backend closed the connection.
+    frontendChannel.attr(RELAY_BUFFER_KEY).get().add("request 2");
+    backendChannel1.close();
+
+    assertThat(frontendChannel.attr(RELAY_BUFFER_KEY).get()).isEmpty();
+    assertThat((Object) backendChannel2.readOutbound()).isEqualTo("request 2");
+    assertThat(frontendChannel.attr(RELAY_CHANNEL_KEY).get()).isSameAs(backendChannel2);
+    assertThat(pool.getConnectedCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testSuccess_idleChannelClosed_notReused() {
+    BackendChannelPool pool = createPool(2);
+    EmbeddedChannel backendChannel1 = addBackendChannel();
+    EmbeddedChannel backendChannel2 = addBackendChannel();
+    EmbeddedChannel frontendChannel = registerFrontendChannel(pool);
+
+    pool.relay(frontendChannel, "request 1");
+    pool.relay(backendChannel1, "response 1");
+    assertThat(pool.getIdleCount()).isEqualTo(1);
+    backendChannel1.close();
+    assertThat(pool.getIdleCount()).isEqualTo(0);
+
+    pool.relay(frontendChannel, "request 2");
+    assertThat((Object) backendChannel2.readOutbound()).isEqualTo("request 2");
+    assertThat(connectCount).isEqualTo(2);
+  }
+
+  @Test
+  public void testFailure_cannotConnect_closesFrontendChannel() {
+    BackendChannelPool pool = createPool(1);
+    connections.add(new EmbeddedChannel().newFailedFuture(new IOException("unreachable")));
+    EmbeddedChannel frontendChannel = registerFrontendChannel(pool);
+
+    pool.relay(frontendChannel, "request");
+
+    assertThat(frontendChannel.isActive()).isFalse();
+    assertThat(pool.getConnectedCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testSuccess_frontendClosedWhileWaiting_channelBecomesIdle() {
+    BackendChannelPool pool = createPool(1);
+    EmbeddedChannel backendChannel = addBackendChannel();
+    EmbeddedChannel frontendChannel1 = registerFrontendChannel(pool);
+    EmbeddedChannel frontendChannel2 = registerFrontendChannel(pool);
+
+    pool.relay(frontendChannel1, "request 1");
+    pool.relay(frontendChannel2, "request 2");
+    frontendChannel2.close();
+    pool.relay(backendChannel, "response 1");
+
+    assertThat((Object) backendChannel.readOutbound()).isEqualTo("request 1");
+    assertThat((Object) backendChannel.readOutbound()).isNull();
+    assertThat(pool.getIdleCount()).isEqualTo(1);
+  }
+}
@@ -170,4 +170,25 @@ public class BackendMetricsTest {
         .and()
         .hasNoOtherValues();
   }
+
+  @Test
+  public void testSuccess_connectionPool() {
+    metrics.connectionLeased(protocol, "created");
+    metrics.connectionLeased(protocol, "reused");
+    metrics.connectionLeased(protocol, "reused");
+    metrics.connectionWaited(protocol, 5);
+    metrics.connectionWaited(protocol, 12);
+
+    assertThat(BackendMetrics.poolLeasesCounter)
+        .hasValueForLabels(1, protocol, "created")
+        .and()
+        .hasValueForLabels(2, protocol, "reused")
+        .and()
+        .hasNoOtherValues();
+    assertThat(BackendMetrics.poolWaitMs)
+        .hasDataSetForLabels(ImmutableSet.of(5, 12), protocol)
+        .and()
+        .hasNoOtherValues();
+    assertThat(BackendMetrics.requestsCounter).hasNoOtherValues();
+  }
 }
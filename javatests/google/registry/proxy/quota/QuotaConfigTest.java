@@ -89,4 +89,17 @@ public class QuotaConfigTest {
             IllegalArgumentException.class, () -> loadQuotaConfig("quota_config_duplicate.yaml"));
     assertThat(e).hasMessageThat().contains("Multiple entries with same key");
   }
+
+  @Test
+  public void testFailure_tokenAmountTooLarge() {
+    Quota quota =
+        new Yaml()
+            .loadAs(
+                readResourceUtf8(QuotaConfigTest.class, "testdata/quota_config_default.yaml"),
+                Quota.class);
+    quota.defaultQuota.tokenAmount = TokenStore.MAX_TOKEN_AMOUNT + 1;
+    IllegalArgumentException e =
+        assertThrows(IllegalArgumentException.class, () -> new QuotaConfig(quota, "theProtocol"));
+    assertThat(e).hasMessageThat().contains("exceeds the maximum");
+  }
 }
@@ -72,10 +72,25 @@ public class QuotaManagerTest {
   @Test
   public void testSuccess_rebate() throws Exception {
     DateTime grantedTokenRefillTime = clock.nowUtc();
+    when(tokenStore.tryPut(USER_ID, grantedTokenRefillTime)).thenReturn(true);
+    response = QuotaResponse.create(true, USER_ID, grantedTokenRefillTime);
+    QuotaRebate rebate = QuotaRebate.create(response);
+    Future<?> future = quotaManager.releaseQuota(rebate);
+    assertThat(future.isDone()).isTrue();
+    verify(tokenStore).scheduleRefresh();
+    verify(tokenStore).tryPut(USER_ID, grantedTokenRefillTime);
+    verifyNoMoreInteractions(tokenStore);
+  }
+
+  @Test
+  public void testSuccess_rebate_contended() throws Exception {
+    DateTime grantedTokenRefillTime = clock.nowUtc();
+    when(tokenStore.tryPut(USER_ID, grantedTokenRefillTime)).thenReturn(false);
     response = QuotaResponse.create(true, USER_ID, grantedTokenRefillTime);
     QuotaRebate rebate = QuotaRebate.create(response);
     Future<?> unusedFuture = quotaManager.releaseQuota(rebate);
     verify(tokenStore).scheduleRefresh();
+    verify(tokenStore).tryPut(USER_ID, grantedTokenRefillTime);
     verify(tokenStore).put(USER_ID, grantedTokenRefillTime);
     verifyNoMoreInteractions(tokenStore);
   }
@@ -296,6 +296,50 @@ public class TokenStoreTest {
         .isEqualTo(TimestampedInteger.create(4, time3));
   }
 
+  @Test
+  public void testSuccess_tryPut() {
+    DateTime refillTime = clock.nowUtc();
+    DateTime grantedTokenRefillTime = assertTake(1, 2, refillTime);
+    assertThat(tokenStore.tryPut(user, grantedTokenRefillTime)).isTrue();
+    assertThat(tokenStore.getTokenForTests(user))
+        .isEqualTo(TimestampedInteger.create(3, refillTime));
+  }
+
+  @Test
+  public void testSuccess_tryPut_entryDoesNotExist() {
+    assertThat(tokenStore.tryPut(user, clock.nowUtc())).isTrue();
+    assertThat(tokenStore.getTokenForTests(user)).isNull();
+  }
+
+  @Test
+  public void testSuccess_concurrentTakeAndPut_noTokenLost() throws Exception {
+    when(quotaConfig.getTokenAmount(user)).thenReturn(100);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    DateTime refillTime = clock.nowUtc();
+    Runnable takeAndPut =
+        () -> {
+          for (int i = 0; i < 1000; i++) {
+            TimestampedInteger grantedToken = tokenStore.take(user);
+            if (grantedToken.value() == 1) {
+              tokenStore.put(user, grantedToken.timestamp());
+            }
+          }
+        };
+    submitAndWaitForTasks(
+        executor,
+        takeAndPut,
+        takeAndPut,
+        takeAndPut,
+        takeAndPut,
+        takeAndPut,
+        takeAndPut,
+        takeAndPut,
+        takeAndPut);
+    executor.shutdown();
+    assertThat(tokenStore.getTokenForTests(user))
+        .isEqualTo(TimestampedInteger.create(100, refillTime));
+  }
+
   @Test
   public void testSuccess_scheduleRefresh() throws Exception {
     when(quotaConfig.getRefreshPeriod()).thenReturn(Duration.standardSeconds(5));
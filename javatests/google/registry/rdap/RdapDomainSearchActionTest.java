@@ -15,7 +15,9 @@
 package google.registry.rdap;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.MoreCollectors.onlyElement;
 import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.request.Action.Method.POST;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.persistDomainAsDeleted;
@@ -29,6 +31,7 @@ import static google.registry.testing.FullFieldsTestEntityHelper.makeHistoryEntr
 import static google.registry.testing.FullFieldsTestEntityHelper.makeRegistrar;
 import static google.registry.testing.FullFieldsTestEntityHelper.makeRegistrarContacts;
 import static google.registry.testing.TestDataHelper.loadFile;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
@@ -52,6 +55,8 @@ import google.registry.testing.FakeResponse;
 import google.registry.util.Idn;
 import java.net.IDN;
 import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -1243,16 +1248,37 @@ public class RdapDomainSearchActionTest extends RdapSearchActionTestCase<RdapDom
     verifyMetrics(SearchType.BY_DOMAIN_NAME, Optional.of(60L));
   }
 
+  /** Returns the query of the page after one that ended early, having read {@code lastRead}. */
+  private static String makeResumeQuery(String searchQuery, DomainResource lastRead)
+      throws Exception {
+    String cursor =
+        Base64.getEncoder()
+            .encodeToString(
+                (lastRead.getFullyQualifiedDomainName() + " " + lastRead.getRepoId())
+                    .getBytes(UTF_8));
+    return searchQuery + "&cursor=" + URLEncoder.encode(cursor, UTF_8.name());
+  }
+
+  private static DomainResource loadOnlyDomainNamed(String domainName) {
+    return ofy()
+        .load()
+        .type(DomainResource.class)
+        .filter("fullyQualifiedDomainName", domainName)
+        .list()
+        .stream()
+        .collect(onlyElement());
+  }
+
   @Test
-  public void testDomainMatch_manyDeletedDomains_partialResultSetDueToFetchingLimit() {
-    // This is not exactly desired behavior, but expected: There are enough domains to fill a full
-    // result set, but there are so many deleted domains that we run out of patience before we work
-    // our way through all of them.
+  public void testDomainMatch_manyDeletedDomains_partialResultSetDueToFetchingLimit()
+      throws Exception {
+    // There are enough domains to fill a full result set, but there are so many deleted domains
+    // that the page stops reading before it fills up, and links to where the next page resumes.
     createManyDomainsAndHosts(4, 50, 2);
     rememberWildcardType("domain*.lol");
     assertThat(generateActualJson(RequestType.NAME, "domain*.lol"))
         .isEqualTo(readMultiDomainFile(
-            "rdap_incomplete_domain_result_set.json",
+            "rdap_domains_three_truncated.json",
             "domain100.lol",
             "A7-LOL",
             "domain150.lol",
@@ -1260,12 +1286,51 @@ public class RdapDomainSearchActionTest extends RdapSearchActionTestCase<RdapDom
             "domain200.lol",
             "43-LOL",
             "domainunused.lol",
-            "unused-LOL"));
+            "unused-LOL",
+            makeResumeQuery("name=domain*.lol", loadOnlyDomainNamed("domain26.lol"))));
     assertThat(response.getStatus()).isEqualTo(200);
     verifyMetrics(
         SearchType.BY_DOMAIN_NAME,
         Optional.of(120L),
-        IncompletenessWarningType.MIGHT_BE_INCOMPLETE);
+        IncompletenessWarningType.TRUNCATED);
+  }
+
+  @Test
+  public void testDomainMatch_manyDeletedDomains_nextPageKeepsLiveDomainOfLastReadName()
+      throws Exception {
+    createManyDomainsAndHosts(4, 50, 2);
+    DomainResource deletedDomain = loadOnlyDomainNamed("domain26.lol");
+    // A live domain of the same name as the deleted domain the first page ends with, read after it.
+    persistResource(
+        makeDomainResource("domain26.lol", contact1, contact2, contact3, null, null, registrar)
+            .asBuilder()
+            .setRepoId("ZZZZ-LOL")
+            .setCreationTimeForTest(clock.nowUtc().minusMonths(1))
+            .build());
+    Object firstPage = generateActualJson(RequestType.NAME, "domain*.lol");
+    String linkToNext = RdapTestHelper.getLinkToNext(firstPage);
+    assertThat(linkToNext).endsWith(makeResumeQuery("", deletedDomain));
+    String cursor =
+        URLDecoder.decode(linkToNext.substring(linkToNext.indexOf("cursor=") + 7), "UTF-8");
+    response = new FakeResponse();
+    action.response = response;
+    Object secondPage = generateActualJson(RequestType.NAME, "domain*.lol", cursor);
+    assertThat(response.getStatus()).isEqualTo(200);
+    JSONObject firstResult =
+        (JSONObject) ((JSONArray) ((JSONObject) secondPage).get("domainSearchResults")).get(0);
+    assertThat(firstResult.get("ldhName")).isEqualTo("domain26.lol");
+    assertThat(firstResult.get("handle")).isEqualTo("ZZZZ-LOL");
+  }
+
+  @Test
+  public void testDomainMatch_manyDeletedDomains_nextPageResumesAfterLastDomainRead() {
+    createManyDomainsAndHosts(4, 50, 2);
+    rememberWildcardType("domain*.lol");
+    Object obj = generateActualJson(RequestType.NAME, "domain*.lol", "ZG9tYWluMjYubG9s");
+    assertThat(response.getStatus()).isEqualTo(200);
+    checkNumberOfDomainsInResult(obj, 1);
+    assertThat(RdapTestHelper.getLinkToNext(obj)).isNull();
+    verifyMetrics(SearchType.BY_DOMAIN_NAME, Optional.of(80L));
   }
 
   @Test
@@ -1606,7 +1671,7 @@ public class RdapDomainSearchActionTest extends RdapSearchActionTestCase<RdapDom
     action.includeDeletedParam = Optional.of(true);
     deleteCatLol();
     runNotFoundTest(RequestType.NS_LDH_NAME, "ns2.cat.lol", "No domains found");
-    verifyErrorMetrics(SearchType.BY_NAMESERVER_NAME, Optional.of(0L), Optional.of(1L), 404);
+    verifyErrorMetrics(SearchType.BY_NAMESERVER_NAME, Optional.of(1L), Optional.of(1L), 404);
   }
 
   @Test
@@ -1624,7 +1689,7 @@ public class RdapDomainSearchActionTest extends RdapSearchActionTestCase<RdapDom
     action.includeDeletedParam = Optional.of(true);
     persistDomainAsDeleted(domainCatLol, clock.nowUtc().minusDays(1));
     runNotFoundTest(RequestType.NS_LDH_NAME, "ns2.cat.lol", "No domains found");
-    verifyErrorMetrics(SearchType.BY_NAMESERVER_NAME, Optional.of(0L), Optional.of(1L), 404);
+    verifyErrorMetrics(SearchType.BY_NAMESERVER_NAME, Optional.of(1L), Optional.of(1L), 404);
   }
 
   @Test
@@ -1641,7 +1706,7 @@ public class RdapDomainSearchActionTest extends RdapSearchActionTestCase<RdapDom
     login("evilregistrar");
     persistDomainAsDeleted(domainCatExample, clock.nowUtc().minusDays(1));
     runSuccessfulTestWithCatLol(RequestType.NS_LDH_NAME, "ns1.cat.lol", "rdap_domain.json");
-    verifyMetrics(SearchType.BY_NAMESERVER_NAME, 1, 1);
+    verifyMetrics(SearchType.BY_NAMESERVER_NAME, 2, 1);
   }
 
   @Test
@@ -1760,7 +1825,7 @@ public class RdapDomainSearchActionTest extends RdapSearchActionTestCase<RdapDom
         "rdap_domains_four_truncated.json");
     verifyMetrics(
         SearchType.BY_NAMESERVER_NAME,
-        Optional.of(9L),
+        Optional.of(5L),
         Optional.of(1L),
         IncompletenessWarningType.TRUNCATED);
   }
@@ -1890,7 +1955,7 @@ public class RdapDomainSearchActionTest extends RdapSearchActionTestCase<RdapDom
     action.includeDeletedParam = Optional.of(true);
     deleteCatLol();
     runNotFoundTest(RequestType.NS_IP, "bad:f00d:cafe:0:0:0:15:beef", "No domains found");
-    verifyErrorMetrics(SearchType.BY_NAMESERVER_ADDRESS, Optional.of(0L), Optional.of(1L), 404);
+    verifyErrorMetrics(SearchType.BY_NAMESERVER_ADDRESS, Optional.of(1L), Optional.of(1L), 404);
   }
 
   @Test
@@ -1909,7 +1974,7 @@ public class RdapDomainSearchActionTest extends RdapSearchActionTestCase<RdapDom
     action.includeDeletedParam = Optional.of(true);
     persistDomainAsDeleted(domainCatLol, clock.nowUtc().minusDays(1));
     runNotFoundTest(RequestType.NS_IP, "bad:f00d:cafe:0:0:0:15:beef", "No domains found");
-    verifyErrorMetrics(SearchType.BY_NAMESERVER_ADDRESS, Optional.of(0L), Optional.of(1L), 404);
+    verifyErrorMetrics(SearchType.BY_NAMESERVER_ADDRESS, Optional.of(1L), Optional.of(1L), 404);
   }
 
   @Test
@@ -1938,7 +2003,7 @@ public class RdapDomainSearchActionTest extends RdapSearchActionTestCase<RdapDom
                 "Yes Virginia <script>",
                 "rdap_domain.json"));
     assertThat(response.getStatus()).isEqualTo(200);
-    verifyMetrics(SearchType.BY_NAMESERVER_ADDRESS, 1, 1);
+    verifyMetrics(SearchType.BY_NAMESERVER_ADDRESS, 2, 1);
   }
 
   @Test
@@ -1946,7 +2011,7 @@ public class RdapDomainSearchActionTest extends RdapSearchActionTestCase<RdapDom
     persistDomainAsDeleted(domainCatLol, clock.nowUtc().minusDays(1));
     persistDomainAsDeleted(domainCatExample, clock.nowUtc().minusDays(1));
     runNotFoundTest(RequestType.NS_IP, "1.2.3.4", "No domains found");
-    verifyErrorMetrics(SearchType.BY_NAMESERVER_ADDRESS, Optional.of(0L), Optional.of(1L), 404);
+    verifyErrorMetrics(SearchType.BY_NAMESERVER_ADDRESS, Optional.of(2L), Optional.of(1L), 404);
   }
 
   @Test
@@ -2003,7 +2068,7 @@ public class RdapDomainSearchActionTest extends RdapSearchActionTestCase<RdapDom
         "rdap_domains_four_truncated.json");
     verifyMetrics(
         SearchType.BY_NAMESERVER_ADDRESS,
-        Optional.of(9L),
+        Optional.of(5L),
         Optional.of(1L),
         IncompletenessWarningType.TRUNCATED);
   }
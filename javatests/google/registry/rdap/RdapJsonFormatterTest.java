@@ -24,8 +24,10 @@ import static google.registry.testing.FullFieldsTestEntityHelper.makeDomainResou
 import static google.registry.testing.FullFieldsTestEntityHelper.makeHistoryEntry;
 import static google.registry.testing.FullFieldsTestEntityHelper.makeRegistrar;
 import static google.registry.testing.TestDataHelper.loadFile;
+import static java.util.concurrent.TimeUnit.DAYS;
 import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
 
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -527,6 +529,23 @@ public class RdapJsonFormatterTest {
         .isEqualTo(loadJson("rdapjson_domain_full.json"));
   }
 
+  @Test
+  public void testDomain_full_cachedHistoryEvents() {
+    RdapJsonFormatter.setHistoryEventsCacheForTest(
+        CacheBuilder.newBuilder().expireAfterWrite(1L, DAYS));
+    for (int i = 0; i < 2; i++) {
+      assertThat(rdapJsonFormatter.makeRdapJsonForDomain(
+              domainResourceFull,
+              false,
+              LINK_BASE,
+              WHOIS_SERVER,
+              clock.nowUtc(),
+              OutputDataType.FULL,
+              RdapAuthorization.create(RdapAuthorization.Role.REGISTRAR, "unicoderegistrar")))
+          .isEqualTo(loadJson("rdapjson_domain_full.json"));
+    }
+  }
+
   @Test
   public void testDomain_summary() {
     assertThat(rdapJsonFormatter.makeRdapJsonForDomain(
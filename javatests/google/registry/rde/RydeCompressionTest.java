@@ -23,6 +23,8 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -45,4 +47,50 @@ public final class RydeCompressionTest extends ShardableTestCase {
       assertThat(ByteStreams.toByteArray(decompressor)).isEqualTo(expected);
     }
   }
+
+  @Test
+  public void testParallelCompression_decompression() throws Exception {
+    // Several blocks of compressible data, ending with a partial block.
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; text.length() < 3 * RydeParallelCompressor.BLOCK_SIZE + 1000; i++) {
+      text.append("<rdeDomain:name>example").append(i % 5000).append(".tld</rdeDomain:name>\n");
+    }
+    byte[] expected = text.toString().getBytes(UTF_8);
+    assertThat(decompress(compressInParallel(expected, 3))).isEqualTo(expected);
+  }
+
+  @Test
+  public void testParallelCompression_empty() throws Exception {
+    assertThat(decompress(compressInParallel(new byte[0], 2))).isEmpty();
+  }
+
+  @Test
+  public void testParallelCompression_oneThread() throws Exception {
+    byte[] expected = "Testing 1, 2, 3".getBytes(UTF_8);
+    assertThat(decompress(compressInParallel(expected, 1))).isEqualTo(expected);
+  }
+
+  private static byte[] compressInParallel(byte[] data, int threads) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      try (OutputStream compressor =
+          RydeCompression.openParallelCompressor(output, executor, threads)) {
+        // Write in pieces that don't line up with the blocks.
+        for (int i = 0; i < data.length; i += 10000) {
+          compressor.write(data, i, Math.min(10000, data.length - i));
+        }
+      }
+      return output.toByteArray();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static byte[] decompress(byte[] compressed) throws Exception {
+    try (InputStream decompressor =
+        RydeCompression.openDecompressor(new ByteArrayInputStream(compressed))) {
+      return ByteStreams.toByteArray(decompressor);
+    }
+  }
 }
@@ -0,0 +1,79 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tldconfig.idn;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.testing.JUnitBackports.assertThrows;
+
+import java.util.BitSet;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link CodepointBitmap}. */
+@RunWith(JUnit4.class)
+public class CodepointBitmapTest {
+
+  private static CodepointBitmap create(int... codepoints) {
+    BitSet bitSet = new BitSet();
+    for (int codepoint : codepoints) {
+      bitSet.set(codepoint);
+    }
+    return CodepointBitmap.create(bitSet);
+  }
+
+  @Test
+  public void testContains_blockAndWordBoundaries() {
+    CodepointBitmap bitmap = create(0, 63, 64, 1023, 1024, 0x2070E, Character.MAX_CODE_POINT);
+    assertThat(bitmap.contains(0)).isTrue();
+    assertThat(bitmap.contains(1)).isFalse();
+    assertThat(bitmap.contains(62)).isFalse();
+    assertThat(bitmap.contains(63)).isTrue();
+    assertThat(bitmap.contains(64)).isTrue();
+    assertThat(bitmap.contains(65)).isFalse();
+    assertThat(bitmap.contains(1022)).isFalse();
+    assertThat(bitmap.contains(1023)).isTrue();
+    assertThat(bitmap.contains(1024)).isTrue();
+    assertThat(bitmap.contains(1025)).isFalse();
+    assertThat(bitmap.contains(0x2070E)).isTrue();
+    assertThat(bitmap.contains(0x2070F)).isFalse();
+    assertThat(bitmap.contains(0x30000)).isFalse();
+    assertThat(bitmap.contains(Character.MAX_CODE_POINT)).isTrue();
+  }
+
+  @Test
+  public void testContains_outOfRange() {
+    CodepointBitmap bitmap = create(0x41);
+    assertThat(bitmap.contains(0x41)).isTrue();
+    assertThat(bitmap.contains(0x10000)).isFalse();
+    assertThat(bitmap.contains(Character.MAX_CODE_POINT + 1)).isFalse();
+    assertThat(bitmap.contains(-1)).isFalse();
+  }
+
+  @Test
+  public void testContains_empty() {
+    CodepointBitmap bitmap = create();
+    assertThat(bitmap.contains(0)).isFalse();
+    assertThat(bitmap.contains(0x41)).isFalse();
+  }
+
+  @Test
+  public void testFailure_codepointTooLarge() {
+    IllegalArgumentException thrown =
+        assertThrows(
+            IllegalArgumentException.class, () -> create(Character.MAX_CODE_POINT + 1));
+    assertThat(thrown).hasMessageThat().contains("out of range");
+  }
+}
@@ -109,4 +109,17 @@ public class IdnLabelValidatorTest {
     assertThat(idnLabelValidator.findValidIdnTableForTld("foo", "tld")).isPresent();
     assertThat(idnLabelValidator.findValidIdnTableForTld("みんな", "tld")).isEmpty();
   }
+
+  @Test
+  public void testMultipleTables_firstMatchingTableInOrderWins() {
+    idnLabelValidator =
+        new IdnLabelValidator(
+            ImmutableMap.of(
+                "tld", ImmutableList.of(IdnTableEnum.JA, IdnTableEnum.EXTENDED_LATIN)));
+    assertThat(idnLabelValidator.findValidIdnTableForTld("foo", "tld")).hasValue("ja");
+    assertThat(idnLabelValidator.findValidIdnTableForTld("café", "tld"))
+        .hasValue("extended_latin");
+    assertThat(idnLabelValidator.findValidIdnTableForTld("みんな", "tld")).hasValue("ja");
+    assertThat(idnLabelValidator.findValidIdnTableForTld("caféみんな", "tld")).isEmpty();
+  }
 }
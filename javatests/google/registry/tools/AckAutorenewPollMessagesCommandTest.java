@@ -0,0 +1,127 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.createHistoryEntryForEppResource;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.persistActiveDomain;
+import static google.registry.testing.DatastoreHelper.persistResource;
+import static google.registry.testing.JUnitBackports.assertThrows;
+
+import com.beust.jcommander.ParameterException;
+import google.registry.model.ofy.Ofy;
+import google.registry.model.poll.PollMessage;
+import google.registry.model.poll.PollMessageQueue;
+import google.registry.model.reporting.HistoryEntry;
+import google.registry.testing.FakeClock;
+import google.registry.testing.InjectRule;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/** Unit tests for {@link AckAutorenewPollMessagesCommand}. */
+public class AckAutorenewPollMessagesCommandTest
+    extends CommandTestCase<AckAutorenewPollMessagesCommand> {
+
+  private static final DateTime END_OF_RECURRENCE = DateTime.parse("2025-01-01T00:00:00Z");
+
+  private final FakeClock clock = new FakeClock(DateTime.parse("2018-06-01T00:00:00Z"));
+
+  @Rule public final InjectRule inject = new InjectRule();
+
+  private HistoryEntry historyEntry;
+
+  @Before
+  public void init() {
+    inject.setStaticField(Ofy.class, "clock", clock);
+    command.clock = clock;
+    createTld("tld");
+    historyEntry = createHistoryEntryForEppResource(persistActiveDomain("example.tld"));
+  }
+
+  private PollMessage.Autorenew persistAutorenewMessage(
+      String clientId, DateTime eventTime, DateTime endTime) {
+    return persistResource(
+        new PollMessage.Autorenew.Builder()
+            .setClientId(clientId)
+            .setEventTime(eventTime)
+            .setAutorenewEndTime(endTime)
+            .setMsg("Domain was auto-renewed.")
+            .setTargetId("example.tld")
+            .setParent(historyEntry)
+            .build());
+  }
+
+  private PollMessage.OneTime persistOneTimeMessage(DateTime eventTime) {
+    return persistResource(
+        new PollMessage.OneTime.Builder()
+            .setClientId("TheRegistrar")
+            .setEventTime(eventTime)
+            .setMsg("Some poll message.")
+            .setParent(historyEntry)
+            .build());
+  }
+
+  private static PollMessage reload(PollMessage message) {
+    return ofy().load().entity(message).now();
+  }
+
+  @Test
+  public void testSuccess_acksDeliverableAutorenewMessages() throws Exception {
+    PollMessage.Autorenew recurring =
+        persistAutorenewMessage(
+            "TheRegistrar", DateTime.parse("2018-03-01T00:00:00Z"), END_OF_RECURRENCE);
+    PollMessage.Autorenew ended =
+        persistAutorenewMessage(
+            "TheRegistrar",
+            DateTime.parse("2018-04-01T00:00:00Z"),
+            DateTime.parse("2019-01-01T00:00:00Z"));
+    PollMessage.Autorenew future =
+        persistAutorenewMessage(
+            "TheRegistrar", DateTime.parse("2018-09-01T00:00:00Z"), END_OF_RECURRENCE);
+    PollMessage.Autorenew otherRegistrar =
+        persistAutorenewMessage(
+            "NewRegistrar", DateTime.parse("2018-03-01T00:00:00Z"), END_OF_RECURRENCE);
+    PollMessage.OneTime oneTime = persistOneTimeMessage(DateTime.parse("2018-05-01T00:00:00Z"));
+    PollMessageQueue.load("TheRegistrar", clock.nowUtc()).saveIfNeeded();
+    runCommandForced("--client=TheRegistrar");
+    assertThat(reload(recurring).getEventTime()).isEqualTo(DateTime.parse("2019-03-01T00:00:00Z"));
+    assertThat(reload(ended)).isNull();
+    assertThat(reload(future)).isEqualTo(future);
+    assertThat(reload(otherRegistrar)).isEqualTo(otherRegistrar);
+    assertThat(reload(oneTime)).isEqualTo(oneTime);
+    ofy().clearSessionCache();
+    PollMessageQueue saved = ofy().load().key(PollMessageQueue.createKey("TheRegistrar")).now();
+    assertThat(saved.getCount()).isEqualTo(3);
+    assertThat(saved.isRecountDue(clock.nowUtc())).isTrue();
+    PollMessageQueue queue = PollMessageQueue.load("TheRegistrar", clock.nowUtc());
+    assertThat(queue.getMessageCount(clock.nowUtc())).isEqualTo(1);
+    assertInStdout("Acked 2 autorenew poll messages in total.");
+  }
+
+  @Test
+  public void testSuccess_noMessages() throws Exception {
+    runCommandForced("--client=TheRegistrar");
+    assertInStdout("Acked 0 autorenew poll messages in total.");
+  }
+
+  @Test
+  public void testFailure_missingClient() {
+    assertThrows(ParameterException.class, this::runCommandForced);
+  }
+}
@@ -22,6 +22,7 @@ import google.registry.tools.LevelDbFileBuilder.Property;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.PrintStream;
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -39,11 +40,13 @@ public class CompareDbBackupsTest {
   @Rule public final TemporaryFolder tempFs = new TemporaryFolder();
   @Rule public final AppEngineRule appEngine = AppEngineRule.builder().withDatastore().build();
 
-  @Test
-  public void testCommand() throws Exception {
+  private File dump1;
+  private File dump2;
 
+  @Before
+  public void before() throws Exception {
     // Create two directories corresponding to data dumps.
-    File dump1 = tempFs.newFolder("dump1");
+    dump1 = tempFs.newFolder("dump1");
     LevelDbFileBuilder builder = new LevelDbFileBuilder(new File(dump1, "data1"));
     builder.addEntityProto(
         BASE_ID,
@@ -57,7 +60,7 @@ public class CompareDbBackupsTest {
         Property.create("motz", 300L));
     builder.build();
 
-    File dump2 = tempFs.newFolder("dump2");
+    dump2 = tempFs.newFolder("dump2");
     builder = new LevelDbFileBuilder(new File(dump2, "data2"));
     builder.addEntityProto(
         BASE_ID + 1,
@@ -70,11 +73,27 @@ public class CompareDbBackupsTest {
         Property.create("fishey", 200L),
         Property.create("strutz", 300L));
     builder.build();
+  }
 
+  @Test
+  public void testCommand() throws Exception {
     System.setOut(new PrintStream(stdout));
     CompareDbBackups.main(new String[] {dump1.getCanonicalPath(), dump2.getCanonicalPath()});
     String output = new String(stdout.toByteArray(), UTF_8);
     assertThat(output)
         .containsMatch("(?s)1 records were removed.*eeny.*1 records were added.*blutzy");
   }
+
+  @Test
+  public void testCommand_partitioned() throws Exception {
+    System.setOut(new PrintStream(stdout));
+    CompareDbBackups.main(
+        new String[] {dump1.getCanonicalPath(), dump2.getCanonicalPath(), "3"});
+    String output = new String(stdout.toByteArray(), UTF_8);
+    assertThat(output).contains("First backup: 2 records");
+    assertThat(output).contains("Second backup: 2 records");
+    assertThat(output)
+        .containsMatch("(?s)1 records were removed.*eeny.*1 records were added.*blutzy");
+    assertThat(output).doesNotContain("moxey");
+  }
 }
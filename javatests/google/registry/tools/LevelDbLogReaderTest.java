@@ -15,16 +15,24 @@
 package google.registry.tools;
 
 import static com.google.common.truth.Truth.assertThat;
+import static google.registry.testing.JUnitBackports.assertThrows;
 import static google.registry.tools.LevelDbUtil.MAX_RECORD;
 import static google.registry.tools.LevelDbUtil.addRecord;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
 import com.google.common.primitives.Bytes;
 import google.registry.tools.LevelDbLogReader.ChunkType;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
@@ -40,6 +48,8 @@ public final class LevelDbLogReaderTest {
   private static final int MAX_TEST_RECORD_OFFSET =
       LevelDbLogReader.BLOCK_SIZE - (LevelDbLogReader.HEADER_SIZE + TEST_RECORD_SIZE);
 
+  @Rule public final TemporaryFolder tempFs = new TemporaryFolder();
+
   private TestBlock makeBlockOfRepeatingBytes(int startVal) {
     byte[] block = new byte[LevelDbLogReader.BLOCK_SIZE];
     int pos = 0;
@@ -102,6 +112,72 @@ public final class LevelDbLogReaderTest {
     assertThat(reader.getRecords()).hasSize(block0.recordCount + block1.recordCount);
   }
 
+  @Test
+  public void testReadRecords_multiBlockFile() throws IOException {
+    TestBlock block0 = makeBlockOfRepeatingBytes(0);
+    TestBlock block1 = makeBlockOfRepeatingBytes(138);
+    Path file = writeFile(Bytes.concat(block0.data, block1.data));
+    assertThat(Iterators.size(LevelDbLogReader.readRecords(file)))
+        .isEqualTo(block0.recordCount + block1.recordCount);
+  }
+
+  @Test
+  public void testReadRecords_recordSpanningBlocks() throws IOException {
+    byte[] block0 = new byte[LevelDbLogReader.BLOCK_SIZE];
+    byte[] block1 = new byte[LevelDbLogReader.BLOCK_SIZE];
+    byte[] block2 = new byte[LevelDbLogReader.BLOCK_SIZE];
+    addRecord(block0, 0, ChunkType.FIRST, MAX_RECORD, (byte) 1);
+    addRecord(block1, 0, ChunkType.MIDDLE, MAX_RECORD, (byte) 2);
+    addRecord(block2, 0, ChunkType.LAST, MAX_RECORD, (byte) 3);
+    Iterator<byte[]> records =
+        LevelDbLogReader.readRecords(writeFile(Bytes.concat(block0, block1, block2)));
+    assertThat(records.next()).hasLength(MAX_RECORD * 3);
+    assertThat(records.hasNext()).isFalse();
+  }
+
+  @Test
+  public void testReadRecords_unpaddedLastBlock() throws IOException {
+    byte[] block = new byte[LevelDbLogReader.BLOCK_SIZE];
+    int end = addRecord(block, 0, ChunkType.FULL, TEST_RECORD_SIZE, 0x1234);
+    end = addRecord(block, end, ChunkType.FULL, TEST_RECORD_SIZE, 0x5678);
+    Iterator<byte[]> records = LevelDbLogReader.readRecords(writeFile(Arrays.copyOf(block, end)));
+    assertThat(Iterators.size(records)).isEqualTo(2);
+  }
+
+  @Test
+  public void testReadRecords_emptyFile() throws IOException {
+    assertThat(LevelDbLogReader.readRecords(writeFile(new byte[0])).hasNext()).isFalse();
+  }
+
+  @Test
+  public void testFailure_checksumMismatch() throws IOException {
+    TestBlock block = makeBlockOfRepeatingBytes(0);
+    // Flip a bit of the contents of the second record.
+    block.data[2 * LevelDbLogReader.HEADER_SIZE + TEST_RECORD_SIZE] ^= 1;
+    Iterator<byte[]> records = LevelDbLogReader.readRecords(writeFile(block.data));
+    records.next();
+    IllegalStateException thrown = assertThrows(IllegalStateException.class, records::next);
+    assertThat(thrown).hasMessageThat().contains("Checksum mismatch");
+    assertThrows(
+        IllegalStateException.class,
+        () -> new LevelDbLogReader().readFrom(new ByteArrayInputStream(block.data)));
+  }
+
+  @Test
+  public void testFailure_truncatedRecord() throws IOException {
+    byte[] block = new byte[LevelDbLogReader.BLOCK_SIZE];
+    addRecord(block, 0, ChunkType.FIRST, MAX_RECORD, (byte) 1);
+    Iterator<byte[]> records = LevelDbLogReader.readRecords(writeFile(block));
+    IllegalStateException thrown = assertThrows(IllegalStateException.class, records::hasNext);
+    assertThat(thrown).hasMessageThat().contains("middle of a record");
+  }
+
+  private Path writeFile(byte[] data) throws IOException {
+    Path file = tempFs.newFile().toPath();
+    Files.write(file, data);
+    return file;
+  }
+
   @Test
   public void testChunkTypesToCode() {
     // Verify that we're translating chunk types to code values correctly.z
@@ -16,18 +16,21 @@ package google.registry.tools;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
+import com.google.common.hash.Hashing;
 import google.registry.tools.LevelDbLogReader.ChunkType;
 
 class LevelDbUtil {
 
   public static final int MAX_RECORD = LevelDbLogReader.BLOCK_SIZE - LevelDbLogReader.HEADER_SIZE;
 
-  /** Adds a new record header to "bytes" at "pos", returns the new position. */
+  /**
+   * Adds a new record header to "bytes" at "pos", returns the new position.
+   *
+   * <p>The checksum is left blank, to be filled in by {@link #addChecksum} once the data of the
+   * record has been written.
+   */
   private static int addRecordHeader(byte[] bytes, int pos, ChunkType type, int size) {
-    // Write a bogus checksum.
-    for (int i = 0; i < 4; ++i) {
-      bytes[pos++] = -1;
-    }
+    pos += 4;
 
     // Write size and type.
     bytes[pos++] = (byte) size;
@@ -37,6 +40,16 @@ class LevelDbUtil {
     return pos;
   }
 
+  /** Writes the masked CRC32C of the record of the given size whose header is at "headerPos". */
+  private static void addChecksum(byte[] bytes, int headerPos, int size) {
+    int checksum =
+        LevelDbLogReader.maskChecksum(
+            Hashing.crc32c().hashBytes(bytes, headerPos + 6, size + 1).asInt());
+    for (int i = 0; i < 4; ++i) {
+      bytes[headerPos + i] = (byte) (checksum >> (8 * i));
+    }
+  }
+
   /**
    * Adds a record of repeating bytes of 'val' of the given size to bytes at pos.
    *
@@ -44,12 +57,10 @@ class LevelDbUtil {
    * value of 'val' is 0x1234, writes 0x12 0x34 0x34 0x12 0x12 ... If the value is greater than
    * 0xffff, it will be truncated to 16 bits.
    *
-   * <p>This currently doesn't write a real checksum since we're not doing anything with that in the
-   * leveldb reader.
-   *
    * <p>Returns the new offset for the next block.
    */
   static int addRecord(byte[] bytes, int pos, ChunkType type, int size, int val) {
+    int headerPos = pos;
     pos = addRecordHeader(bytes, pos, type, size);
 
     // Write "size" bytes of data.
@@ -60,6 +71,7 @@ class LevelDbUtil {
       // records.
       val = ((val >> 8) & 0xff) | ((val & 0xff) << 8);
     }
+    addChecksum(bytes, headerPos, size);
 
     return pos + size;
   }
@@ -67,9 +79,6 @@ class LevelDbUtil {
   /**
    * Adds a record containing "data" to "bytes".
    *
-   * <p>This currently doesn't write a real checksum since we're not doing anything with that in the
-   * leveldb reader.
-   *
    * <p>Returns the new offset for the next block.
    */
   static int addRecord(byte[] bytes, int pos, ChunkType type, byte[] data) {
@@ -78,10 +87,12 @@ class LevelDbUtil {
         "Record length (%s) > max record size (%s)",
         data.length,
         MAX_RECORD);
+    int headerPos = pos;
     pos = addRecordHeader(bytes, pos, type, data.length);
 
     // Write the contents of "data".
     System.arraycopy(data, 0, bytes, pos, data.length);
+    addChecksum(bytes, headerPos, data.length);
 
     return pos + data.length;
   }
@@ -41,6 +41,8 @@ import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.host.HostResource;
 import google.registry.testing.FakeClock;
 import google.registry.testing.mapreduce.MapreduceTestCase;
+import google.registry.tools.server.GenerateZoneFilesAction.AsciiWriter;
+import java.io.ByteArrayOutputStream;
 import java.net.InetAddress;
 import java.util.Map;
 import org.joda.time.DateTime;
@@ -150,4 +152,15 @@ public class GenerateZoneFilesActionTest extends MapreduceTestCase<GenerateZoneF
     // The remaining lines can be in any order.
     assertThat(generatedFileLines).containsExactlyElementsIn(goldenFileLines);
   }
+
+  @Test
+  public void testAsciiWriter_flushesFullBufferAndEncodesNonAscii() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (AsciiWriter writer = new AsciiWriter(output, 4)) {
+      writer.write("foo\t222\tIN\tNS\t");
+      writer.write("ns.b\u00fccher.tld.\n");
+    }
+    assertThat(new String(output.toByteArray(), UTF_8))
+        .isEqualTo("foo\t222\tIN\tNS\tns.b\u00fccher.tld.\n");
+  }
 }
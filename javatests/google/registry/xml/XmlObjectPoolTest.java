@@ -0,0 +1,115 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.xml;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.monitoring.metrics.contrib.LongMetricSubject.assertThat;
+import static google.registry.xml.XmlObjectPool.borrows;
+import static google.registry.xml.XmlObjectPool.returns;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.bind.JAXBException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link XmlObjectPool}. */
+@RunWith(JUnit4.class)
+public class XmlObjectPoolTest {
+
+  private final List<StringBuilder> resetInstances = new ArrayList<>();
+  private int createCount;
+
+  private final XmlObjectPool<StringBuilder> pool =
+      new XmlObjectPool<>(
+          "test",
+          2,
+          () -> new StringBuilder("instance" + createCount++),
+          instance -> resetInstances.add(instance));
+
+  @Before
+  public void before() {
+    borrows.reset();
+    returns.reset();
+  }
+
+  @Test
+  public void testBorrow_emptyPool_createsInstance() throws Exception {
+    assertThat(pool.borrow().toString()).isEqualTo("instance0");
+    assertThat(pool.borrow().toString()).isEqualTo("instance1");
+    assertThat(borrows).hasValueForLabels(2, "test", "created").and().hasNoOtherValues();
+  }
+
+  @Test
+  public void testRelease_resetsAndReusesInstance() throws Exception {
+    StringBuilder instance = pool.borrow();
+    pool.release(instance);
+    assertThat(resetInstances).containsExactly(instance);
+    assertThat(pool.getIdleCount()).isEqualTo(1);
+    assertThat(pool.borrow()).isSameAs(instance);
+    assertThat(pool.getIdleCount()).isEqualTo(0);
+    assertThat(borrows)
+        .hasValueForLabels(1, "test", "created")
+        .and()
+        .hasValueForLabels(1, "test", "reused")
+        .and()
+        .hasNoOtherValues();
+    assertThat(returns).hasValueForLabels(1, "test", "pooled").and().hasNoOtherValues();
+  }
+
+  @Test
+  public void testRelease_poolFull_dropsInstance() throws Exception {
+    StringBuilder first = pool.borrow();
+    StringBuilder second = pool.borrow();
+    StringBuilder third = pool.borrow();
+    pool.release(first);
+    pool.release(second);
+    pool.release(third);
+    assertThat(pool.getIdleCount()).isEqualTo(2);
+    assertThat(returns)
+        .hasValueForLabels(2, "test", "pooled")
+        .and()
+        .hasValueForLabels(1, "test", "dropped")
+        .and()
+        .hasNoOtherValues();
+  }
+
+  @Test
+  public void testDiscard_instanceNotReused() throws Exception {
+    StringBuilder instance = pool.borrow();
+    pool.discard(instance);
+    assertThat(pool.getIdleCount()).isEqualTo(0);
+    assertThat(pool.borrow()).isNotSameAs(instance);
+    assertThat(resetInstances).isEmpty();
+    assertThat(returns).hasValueForLabels(1, "test", "dropped").and().hasNoOtherValues();
+  }
+
+  @Test
+  public void testRelease_resetFails_instanceDropped() throws Exception {
+    XmlObjectPool<StringBuilder> failingPool =
+        new XmlObjectPool<>(
+            "failing",
+            2,
+            StringBuilder::new,
+            instance -> {
+              throw new JAXBException("can't reset");
+            });
+    failingPool.release(failingPool.borrow());
+    assertThat(failingPool.getIdleCount()).isEqualTo(0);
+    assertThat(returns).hasValueForLabels(1, "failing", "dropped").and().hasNoOtherValues();
+  }
+}